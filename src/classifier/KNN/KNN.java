@@ -1,15 +1,32 @@
 package classifier.KNN;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import distance.DistanceMatrix;
+import distance.KNNGraph;
+import distance.PairwiseDistance;
+import utilities.DataFrame;
+import utilities.Moments;
 
 /**
  * K Nearest Neighbors algorithm for classifying
  */
 public class KNN {
 
+	/**
+	 * Queries searched together by a batch task, they share each tile of
+	 * training instances while it is in cache
+	 */
+	private static final int QUERY_BLOCK = 32;
+	
+	/**
+	 * Size in bytes of the tiles of training features scanned by a batch
+	 */
+	private static final int TILE_BYTES = 32 * 1024;
+	
 	/**
 	 * KNN Measures
 	 */
@@ -18,19 +35,38 @@ public class KNN {
 	private List<Double> stdDev;
 	private List<Double> mean;
 	
+	/**
+	 * Index over the training set, null for a linear scan
+	 */
+	private KNNIndex index;
+	
 	/**
 	 * The training set
 	 */
 	private List<KNNInstance> trainingInstances;
 	
 	/**
-	 * Distance comparator for the KNN_Instances
+	 * The training features, one instance after the other, and the statistics
+	 * as arrays. Made by the first batch query after training.
 	 */
-	private Comparator<KNNInstance> distComparator = new Comparator<KNNInstance>() {
-		@Override public int compare(KNNInstance o1, KNNInstance o2) {
-			return (Double.compare(o1.getDistance(), o2.getDistance()));
-		}
-	};
+	private double[] trainingMatrix;
+	private double[] stdDevArray;
+	private double[] meanArray;
+	
+	/**
+	 * If the training features are standardized once, at training, for measures that support it
+	 */
+	private boolean materializeZScores = false;
+	
+	/**
+	 * The standardized training features, one instance after the other, null if not materialized
+	 */
+	private double[] zScoreMatrix;
+	
+	/**
+	 * Standardized features of the query being searched, per thread so queries don't allocate
+	 */
+	private final ThreadLocal<double[]> zScoreQuery = new ThreadLocal<double[]>();
 	
 	/**
 	 * CTor with distance measure
@@ -40,6 +76,26 @@ public class KNN {
 		this.K = K;
 	}
 	
+	/**
+	 * CTor with distance measure and an index to build over the training set,
+	 * ex. a {@link KNNIndexKDTree}. The neighbors found are the same as without.
+	 */
+	public KNN( KNNDist distance, int K, KNNIndex index ) {
+		this(distance, K);
+		this.index = index;
+	}
+	
+	/**
+	 * Standardize the training features ((x - mean) / stdDev) once, at
+	 * training, into a primitive matrix, and each query once, when the
+	 * distance supports it (ex. {@link KNNDistZScore}). The linear scans
+	 * then compare standardized features directly, with the same results.
+	 * Takes effect at the next training.
+	 */
+	public void setMaterializeZScores( boolean materialize ) {
+		this.materializeZScores = materialize;
+	}
+	
 	/**
 	 * Train the KNN Algorithm
 	 * Input :	A List of KNN_Feature
@@ -57,44 +113,410 @@ public class KNN {
 		
 		// copy the instances
 		trainingInstances = new ArrayList<KNNInstance>(trainingSet);
+		trainingMatrix = null;
+		materializeZScores();
+		buildIndex();
+	}
+	
+	/**
+	 * Train the KNN Algorithm on the rows of a frame
+	 * Input :	A DataFrame, each row becomes an instance whose reference is its row number
+	 * 
+	 * The statistics are taken from the ones the frame keeps on its columns
+	 * (ex. read back from a file) instead of being computed again.
+	 */
+	public void train( DataFrame trainingSet ) {
+		
+		int columns = trainingSet.getNumberOfColumns();
+		
+		// statistics measures from the column summaries
+		if ( distance.requiresStats() && trainingSet.getNumberOfRows() > 0 ) {
+			stdDev = new ArrayList<Double>(columns);
+			mean = new ArrayList<Double>(columns);
+			for ( int feature = 0; feature < columns; ++feature ) {
+				Moments stats = trainingSet.getColumnData(feature).getMoments();
+				mean.add(stats.getMean());
+				stdDev.add(Math.sqrt(stats.getPopulationVariance()));
+			}
+		} else {
+			stdDev = null;
+			mean = null;
+		}
+		
+		// one instance per row
+		trainingInstances = new ArrayList<KNNInstance>(trainingSet.getNumberOfRows());
+		for ( int row = 0; row < trainingSet.getNumberOfRows(); ++row ) {
+			KNNInstance instance = new KNNInstance(trainingSet.getRowData(row));
+			instance.setRef(row);
+			trainingInstances.add(instance);
+		}
+		trainingMatrix = null;
+		materializeZScores();
+		buildIndex();
+	}
+	
+	/**
+	 * Standardize the training features, if asked and supported
+	 */
+	private void materializeZScores() {
+		
+		zScoreMatrix = null;
+		if ( !materializeZScores || !distance.supportsZScores() || stdDev == null ) {
+			return;
+		}
+		stdDevArray = toArray(stdDev);
+		meanArray = toArray(mean);
+		int dimensions = stdDevArray.length;
+		double[] matrix = new double[trainingInstances.size() * dimensions];
+		for ( int i = 0; i < trainingInstances.size(); ++i ) {
+			standardize(trainingInstances.get(i), matrix, i * dimensions);
+		}
+		zScoreMatrix = matrix;
+	}
+	
+	/**
+	 * Write the standardized features of the instance into the array, from the offset
+	 */
+	private void standardize( KNNInstance instance, double[] destination, int offset ) {
+		for ( int feature = 0; feature < stdDevArray.length; ++feature ) {
+			destination[offset + feature] = (instance.get(feature)-meanArray[feature])/stdDevArray[feature];
+		}
+	}
+	
+	/**
+	 * Build the index, if any, over the training instances
+	 */
+	private void buildIndex() {
+		if ( index != null ) {
+			index.build(trainingInstances, distance, stdDev, mean);
+		}
 	}
 	
 	/**
 	 * Find the closest neighbors
+	 * 
+	 * The distance to the instance is set on each neighbor returned, which are
+	 * the training instances themselves. Concurrent calls overwrite each other's
+	 * distances, use {@link #findKNN(KNNInstance, KNNResult)} from several threads.
 	 */
 	public List<KNNInstance> findKNN( KNNInstance instance ) {
 		
-		// get all distances
-		ArrayList<KNNInstance> distances = new ArrayList<KNNInstance>();
-		double minDistance = Double.MAX_VALUE;
-		boolean sortList = true;
+		KNNResult result = findKNN(instance, new KNNResult(Math.min(K, trainingInstances.size())));
 		
-		// check all neighbors
-		for ( KNNInstance neighbor : trainingInstances ) {
-			
-			// Calculate distance form this object
-			double dist = distance.dist(instance, neighbor, stdDev, mean);
-			neighbor.setDistance(dist);
-			
-			// insertion sort on the distances
-			if ( distances.size() < K ) {
-				distances.add(neighbor);
-			} else if ( dist < minDistance ) {
-				sortList = false;
-				distances.add(neighbor);
-				Collections.sort(distances, distComparator);
-				distances.remove(distances.size()-1);
-				minDistance = distances.get(distances.size()-1).getDistance();
+		// return the list of neighbors sorted to distance
+		ArrayList<KNNInstance> neighbors = new ArrayList<KNNInstance>(result.size());
+		for ( int i = 0; i < result.size(); ++i ) {
+			KNNInstance neighbor = trainingInstances.get(result.getIndex(i));
+			neighbor.setDistance(result.getDistance(i));
+			neighbors.add(neighbor);
+		}
+		return (neighbors);
+	}
+	
+	/**
+	 * Find the closest neighbors into the given result, closest first.
+	 * Ties go to the neighbor that comes first in the training set.
+	 * 
+	 * Nothing shared is written and nothing is allocated, so a trained KNN can
+	 * be queried by many threads at once, each with its own result.
+	 */
+	public KNNResult findKNN( KNNInstance instance, KNNResult result ) {
+		
+		KNNHeap heap = result.heap;
+		heap.clear(Math.min(K, trainingInstances.size()));
+		
+		if ( index != null ) {
+			index.search(instance, heap);
+		} else if ( zScoreMatrix != null ) {
+			scanZScores(instance, heap);
+		} else {
+			scan(instance, heap);
+		}
+		
+		heap.sort();
+		return (result);
+	}
+	
+	/**
+	 * Offer every training instance to the heap, comparing standardized features
+	 */
+	private void scanZScores( KNNInstance instance, KNNHeap heap ) {
+		int dimensions = stdDevArray.length;
+		double[] query = zScoreQuery.get();
+		if ( query == null || query.length != dimensions ) {
+			query = new double[dimensions];
+			zScoreQuery.set(query);
+		}
+		standardize(instance, query, 0);
+		for ( int i = 0; i < trainingInstances.size(); ++i ) {
+			heap.offer(i, distance.zScoreDist(query, 0, zScoreMatrix, i * dimensions, dimensions));
+		}
+	}
+	
+	/**
+	 * Offer every training instance to the heap
+	 */
+	private void scan( KNNInstance instance, KNNHeap heap ) {
+		for ( int i = 0; i < trainingInstances.size(); ++i ) {
+			heap.offer(i, distance.dist(instance, trainingInstances.get(i), stdDev, mean));
+		}
+	}
+	
+	/**
+	 * Measure the recall of the index over the given queries: the fraction of
+	 * their true K closest neighbors, as found by a linear scan, that the
+	 * index finds. Exact indexes always give 1, approximate ones such as
+	 * {@link KNNIndexHNSW} trade it for speed.
+	 */
+	public double measureRecall( List<KNNInstance> queries ) {
+		
+		int limit = Math.min(K, trainingInstances.size());
+		KNNHeap exact = new KNNHeap(limit);
+		KNNResult found = new KNNResult(limit);
+		long expected = 0;
+		long retrieved = 0;
+		for ( KNNInstance query : queries ) {
+			exact.clear(limit);
+			scan(query, exact);
+			findKNN(query, found);
+			for ( int i = 0; i < exact.size(); ++i ) {
+				for ( int j = 0; j < found.size(); ++j ) {
+					if ( found.getIndex(j) == exact.id(i) ) {
+						retrieved++;
+						break;
+					}
+				}
+			}
+			expected += exact.size();
+		}
+		return ( expected == 0 ? 1.0 : (double) retrieved / expected );
+	}
+	
+	/**
+	 * Get the training instance at position 'pos', as given by a {@link KNNResult}
+	 */
+	public KNNInstance getTrainingInstance( int pos ) {
+		return (trainingInstances.get(pos));
+	}
+	
+	/**
+	 * Find the closest neighbors of every instance, in parallel on the common
+	 * ForkJoinPool
+	 */
+	public KNNResult[] findKNNBatch( List<KNNInstance> instances ) {
+		return ( findKNNBatch(instances, ForkJoinPool.commonPool()) );
+	}
+	
+	/**
+	 * Find the closest neighbors of every instance, in parallel on the given pool.
+	 * Result i holds the neighbors of instance i, the same as findKNN finds.
+	 * 
+	 * Without an index, blocks of queries are scanned against tiles of the
+	 * training features small enough to stay in cache while the whole block
+	 * goes through them.
+	 */
+	public KNNResult[] findKNNBatch( List<KNNInstance> instances, ForkJoinPool pool ) {
+		
+		KNNResult[] results = new KNNResult[instances.size()];
+		double[] matrix = index != null ? null : zScoreMatrix != null ? zScoreMatrix : trainingMatrix();
+		BatchTask task = new BatchTask(instances, results, 0, instances.size(), matrix, matrix != null && matrix == zScoreMatrix);
+		pool.invoke(task);
+		return (results);
+	}
+	
+	/**
+	 * Compute the distances between every pair of training instances, as
+	 * findKNN measures them, on the given pool. With
+	 * {@link DistanceMatrix.Precision#DOUBLE} they are exactly the distances
+	 * of findKNN.
+	 */
+	public DistanceMatrix distanceMatrix( DistanceMatrix.Layout layout, DistanceMatrix.Precision precision, ForkJoinPool pool ) {
+		
+		int size = trainingInstances.size();
+		int dimensions = size > 0 ? trainingInstances.get(0).size() : 0;
+		return ( DistanceMatrix.compute(pairMatrix(), size, dimensions, pairDistance(), layout, precision, pool) );
+	}
+	
+	/**
+	 * Compute the K closest neighbors of every training instance among the
+	 * other training instances, on the given pool. They are those
+	 * {@link #findKNN(int, PairwiseDistance, KNNResult)} finds.
+	 */
+	public KNNGraph neighborGraph( ForkJoinPool pool ) {
+		
+		int size = trainingInstances.size();
+		int dimensions = size > 0 ? trainingInstances.get(0).size() : 0;
+		return ( KNNGraph.build(pairMatrix(), size, dimensions, K, pairDistance(), pool) );
+	}
+	
+	/**
+	 * Approximate the K closest neighbors of every training instance among
+	 * the other training instances with NN-Descent, on the given pool. Much
+	 * faster than {@link #neighborGraph(ForkJoinPool)} on large training sets,
+	 * see {@link KNNGraph#recall(KNNGraph)} for its accuracy.
+	 */
+	public KNNGraph approximateNeighborGraph( long seed, ForkJoinPool pool ) {
+		
+		int size = trainingInstances.size();
+		int dimensions = size > 0 ? trainingInstances.get(0).size() : 0;
+		return ( KNNGraph.buildApproximate(pairMatrix(), size, dimensions, K, pairDistance(), 10, 0.5, 0.001, seed, pool) );
+	}
+	
+	/**
+	 * The features the pairs of training instances are compared on, standardized if materialized
+	 */
+	private double[] pairMatrix() {
+		return ( zScoreMatrix != null ? zScoreMatrix : trainingMatrix() );
+	}
+	
+	/**
+	 * The distance between two rows of pairMatrix()
+	 */
+	private DistanceMatrix.RowDistance pairDistance() {
+		if ( zScoreMatrix != null ) {
+			return ( distance::zScoreDist );
+		}
+		trainingMatrix();
+		return ( (a, offsetA, b, offsetB, count) -> distance.dist(a, offsetA, b, offsetB, count, stdDevArray, meanArray) );
+	}
+	
+	/**
+	 * Find the closest neighbors of a training instance among the other
+	 * training instances, looking their distances up (leave one out).
+	 * Ties go to the neighbor that comes first in the training set.
+	 * 
+	 * @param pos Position of the instance in the training set
+	 * @param distances Distances between the training instances, such as
+	 * 		  from {@link #distanceMatrix}
+	 */
+	public KNNResult findKNN( int pos, PairwiseDistance distances, KNNResult result ) {
+		
+		if ( distances.size() != trainingInstances.size() ) {
+			throw new IllegalArgumentException("Distances between " + distances.size() + " instances, not the " + trainingInstances.size() + " trained on");
+		}
+		KNNHeap heap = result.heap;
+		heap.clear(Math.max(0, Math.min(K, trainingInstances.size() - 1)));
+		for ( int i = 0; i < trainingInstances.size(); ++i ) {
+			if ( i != pos ) {
+				heap.offer(i, distances.distance(pos, i));
+			}
+		}
+		heap.sort();
+		return (result);
+	}
+	
+	/**
+	 * The training features as one array, made the first time it is needed
+	 */
+	private synchronized double[] trainingMatrix() {
+		if ( trainingMatrix == null ) {
+			int size = trainingInstances.size();
+			int dimensions = size > 0 ? trainingInstances.get(0).size() : 0;
+			double[] matrix = new double[size * dimensions];
+			for ( int i = 0; i < size; ++i ) {
+				KNNInstance instance = trainingInstances.get(i);
+				for ( int feature = 0; feature < dimensions; ++feature ) {
+					matrix[i * dimensions + feature] = instance.get(feature);
+				}
 			}
+			stdDevArray = toArray(stdDev);
+			meanArray = toArray(mean);
+			trainingMatrix = matrix;
+		}
+		return (trainingMatrix);
+	}
+	
+	private static double[] toArray( List<Double> values ) {
+		if ( values == null ) {
+			return null;
+		}
+		double[] array = new double[values.size()];
+		for ( int i = 0; i < array.length; ++i ) {
+			array[i] = values.get(i);
 		}
+		return (array);
+	}
+	
+	/**
+	 * Finds the neighbors of a range of queries, splitting it until it is a block
+	 */
+	private class BatchTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 4470951346284725107L;
 		
-		// if we need to sort. Case is when if always land in ( distances.size() < K )
-		if ( sortList == true ) {
-			Collections.sort(distances, distComparator);
+		private final List<KNNInstance> instances;
+		private final KNNResult[] results;
+		private final int from;
+		private final int to;
+		/**
+		 * The training features, null to search the index
+		 */
+		private final double[] matrix;
+		/**
+		 * If the features are standardized
+		 */
+		private final boolean zScores;
+		
+		BatchTask( List<KNNInstance> instances, KNNResult[] results, int from, int to, double[] matrix, boolean zScores ) {
+			this.instances = instances;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.matrix = matrix;
+			this.zScores = zScores;
 		}
 		
-		// return the list of neighbors sorted to distance
-		return (distances);
+		@Override
+		protected void compute() {
+			if ( to - from > QUERY_BLOCK ) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchTask(instances, results, from, middle, matrix, zScores),
+						  new BatchTask(instances, results, middle, to, matrix, zScores));
+				return;
+			}
+			
+			if ( matrix == null ) {
+				for ( int q = from; q < to; ++q ) {
+					results[q] = findKNN(instances.get(q), new KNNResult(Math.min(K, trainingInstances.size())));
+				}
+				return;
+			}
+			
+			// the block's features
+			int size = trainingInstances.size();
+			int dimensions = size > 0 ? matrix.length / size : 0;
+			double[] queries = new double[(to - from) * dimensions];
+			for ( int q = from; q < to; ++q ) {
+				KNNInstance instance = instances.get(q);
+				if ( zScores ) {
+					standardize(instance, queries, (q - from) * dimensions);
+				} else {
+					for ( int feature = 0; feature < dimensions; ++feature ) {
+						queries[(q - from) * dimensions + feature] = instance.get(feature);
+					}
+				}
+				results[q] = new KNNResult(Math.min(K, size));
+				results[q].heap.clear(Math.min(K, size));
+			}
+			
+			// each tile of training instances goes through every query of the block
+			int tileRows = Math.max(1, TILE_BYTES / (Double.BYTES * Math.max(dimensions, 1)));
+			for ( int tileStart = 0; tileStart < size; tileStart += tileRows ) {
+				int tileEnd = Math.min(size, tileStart + tileRows);
+				for ( int q = from; q < to; ++q ) {
+					KNNHeap heap = results[q].heap;
+					int queryOffset = (q - from) * dimensions;
+					for ( int row = tileStart; row < tileEnd; ++row ) {
+						heap.offer(row, zScores ? distance.zScoreDist(queries, queryOffset, matrix, row * dimensions, dimensions)
+								: distance.dist(queries, queryOffset, matrix, row * dimensions, dimensions, stdDevArray, meanArray));
+					}
+				}
+			}
+			
+			for ( int q = from; q < to; ++q ) {
+				results[q].heap.sort();
+			}
+		}
 	}
 	
 	/**
@@ -1,5 +1,6 @@
 package classifier.KNN;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -7,6 +8,12 @@ import java.util.List;
  */
 public abstract class KNNDist {
 
+	/**
+	 * Per thread buffers the measures copy features into for the distance
+	 * kernels, so distances between instances don't allocate
+	 */
+	private static final ThreadLocal<double[][]> scratch = ThreadLocal.withInitial(() -> new double[2][0]);
+
 	/**
 	 * Returns the distance between two instances.
 	 */
@@ -15,6 +22,105 @@ public abstract class KNNDist {
 								 List<Double> stdDev, 
 								 List<Double> means );
 	
+	/**
+	 * Returns the distance between two instances whose features are stored in
+	 * primitive arrays, from the given offsets. The statistics are those of
+	 * dist, as arrays.
+	 * 
+	 * Must return exactly what dist returns for the same features, so both
+	 * find the same neighbors. The default copies the features into instances
+	 * and calls dist, measures override it to avoid boxing.
+	 */
+	public double dist( double[] featuresA, 
+						int offsetA, 
+						double[] featuresB, 
+						int offsetB, 
+						int dimensions, 
+						double[] stdDev, 
+						double[] means ) {
+		
+		KNNInstance instanceA = new KNNInstance();
+		KNNInstance instanceB = new KNNInstance();
+		for ( int feature = 0; feature < dimensions; ++feature ) {
+			instanceA.add(featuresA[offsetA + feature]);
+			instanceB.add(featuresB[offsetB + feature]);
+		}
+		return ( dist(instanceA, instanceB, toList(stdDev), toList(means)) );
+	}
+	
+	/**
+	 * Returns this thread's buffer number 'slot' (0 or 1), with room for at
+	 * least 'size' features. It is reused by the next call on the thread.
+	 */
+	static double[] scratch( int slot, int size ) {
+		double[][] buffers = scratch.get();
+		if ( buffers[slot].length < size ) {
+			buffers[slot] = new double[size];
+		}
+		return ( buffers[slot] );
+	}
+	
+	private static List<Double> toList( double[] values ) {
+		if ( values == null ) {
+			return null;
+		}
+		List<Double> list = new ArrayList<Double>(values.length);
+		for ( double value : values ) {
+			list.add(value);
+		}
+		return list;
+	}
+	
+	/**
+	 * Returns a lower bound of the distance between an instance and any
+	 * instance whose feature is at least as far from the instance's as the
+	 * given value. Spatial indexes use it to skip regions that can't hold a
+	 * closer neighbor.
+	 * 
+	 * It must be computed the way dist computes that feature's part of the
+	 * distance, so the bound never exceeds a distance dist returns.
+	 * The default, 0, never skips anything.
+	 */
+	public double lowerBound( KNNInstance instance, 
+							  int feature, 
+							  double value, 
+							  List<Double> stdDev, 
+							  List<Double> means ) {
+		return 0.0;
+	}
+	
+	/**
+	 * If the measure only depends on the standardized features,
+	 * (x - mean) / stdDev, so they can be computed once per instance and
+	 * compared with zScoreDist.
+	 */
+	public boolean supportsZScores() {
+		return false;
+	}
+	
+	/**
+	 * Returns the distance between two instances from their standardized
+	 * features, stored in primitive arrays from the given offsets.
+	 * 
+	 * Must return exactly what dist returns for the original features.
+	 */
+	public double zScoreDist( double[] zScoresA, 
+							  int offsetA, 
+							  double[] zScoresB, 
+							  int offsetB, 
+							  int dimensions ) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not work on standardized features");
+	}
+	
+	/**
+	 * If the measure is a metric: symmetric and satisfying the triangle
+	 * inequality, d(a,c) <= d(a,b) + d(b,c). Metric trees such as
+	 * {@link KNNIndexVPTree} only work with metrics.
+	 */
+	public boolean isMetric() {
+		return false;
+	}
+	
 	/**
 	 * If the measure require the stdDev and means statistic
 	 */
@@ -2,6 +2,8 @@ package classifier.KNN;
 
 import java.util.List;
 
+import distance.DistanceKernels;
+
 public class KNNDistEuclidean extends KNNDist {
 
 	/**
@@ -15,14 +17,54 @@ public class KNNDistEuclidean extends KNNDist {
 						List<Double> stdDev, 
 						List<Double> means ) {
 		
-		double ret = 0.0;
-		for ( int i = 0; i < instanceA.size(); ++i ) {
-			ret += Math.pow((instanceA.get(i)-instanceB.get(i)), 2.0);
+		int dimensions = instanceA.size();
+		double[] featuresA = scratch(0, dimensions);
+		double[] featuresB = scratch(1, dimensions);
+		for ( int i = 0; i < dimensions; ++i ) {
+			featuresA[i] = instanceA.get(i);
+			featuresB[i] = instanceB.get(i);
 		}
-		ret = Math.sqrt(ret);
-		return ( ret );
+		return ( Math.sqrt(DistanceKernels.squaredL2(featuresA, 0, featuresB, 0, dimensions)) );
+	}
+
+	/**
+	 * Returns the distance between two instances stored in primitive arrays,
+	 * computed as dist does.
+	 */
+	@Override
+	public double dist( double[] featuresA, 
+						int offsetA, 
+						double[] featuresB, 
+						int offsetB, 
+						int dimensions, 
+						double[] stdDev, 
+						double[] means ) {
+		
+		return ( Math.sqrt(DistanceKernels.squaredL2(featuresA, offsetA, featuresB, offsetB, dimensions)) );
+	}
+
+	/**
+	 * Returns a lower bound of the distance to any instance whose feature is
+	 * at least as far as the given value: the distance along that feature.
+	 */
+	@Override
+	public double lowerBound( KNNInstance instance, 
+							  int feature, 
+							  double value, 
+							  List<Double> stdDev, 
+							  List<Double> means ) {
+		double diff = instance.get(feature)-value;
+		return Math.sqrt(diff*diff);
 	}
 
+	/**
+	 * Euclidean distance is a metric
+	 */
+	@Override
+	public boolean isMetric() {
+		return true;
+	}
+	
 	/**
 	 * If the measure require the stdDev and means statistic
 	 */
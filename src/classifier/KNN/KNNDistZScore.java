@@ -2,6 +2,8 @@ package classifier.KNN;
 
 import java.util.List;
 
+import distance.DistanceKernels;
+
 public class KNNDistZScore extends KNNDist {
 
 	/**
@@ -14,16 +16,85 @@ public class KNNDistZScore extends KNNDist {
 						List<Double> stdDev, 
 						List<Double> means ) {
 		
-		double distance = 0.0;
-		for ( int feature = 0; feature < instanceA.size(); ++feature ) {
-			double zScoreA = (instanceA.get(feature)-means.get(feature))/stdDev.get(feature);
-			double zScoreB = (instanceB.get(feature)-means.get(feature))/stdDev.get(feature);
-			distance += Math.abs(zScoreA-zScoreB);
+		int dimensions = instanceA.size();
+		double[] zScoresA = scratch(0, dimensions);
+		double[] zScoresB = scratch(1, dimensions);
+		for ( int feature = 0; feature < dimensions; ++feature ) {
+			zScoresA[feature] = (instanceA.get(feature)-means.get(feature))/stdDev.get(feature);
+			zScoresB[feature] = (instanceB.get(feature)-means.get(feature))/stdDev.get(feature);
+		}
+		return ( zScoreDist(zScoresA, 0, zScoresB, 0, dimensions) );
+	}
+	
+	/**
+	 * Returns the distance between two instances stored in primitive arrays,
+	 * computed as dist does.
+	 */
+	@Override
+	public double dist( double[] featuresA, 
+						int offsetA, 
+						double[] featuresB, 
+						int offsetB, 
+						int dimensions, 
+						double[] stdDev, 
+						double[] means ) {
+		
+		double[] zScoresA = scratch(0, dimensions);
+		double[] zScoresB = scratch(1, dimensions);
+		for ( int feature = 0; feature < dimensions; ++feature ) {
+			zScoresA[feature] = (featuresA[offsetA + feature]-means[feature])/stdDev[feature];
+			zScoresB[feature] = (featuresB[offsetB + feature]-means[feature])/stdDev[feature];
 		}
-		distance /= (double) instanceA.size();
+		return ( zScoreDist(zScoresA, 0, zScoresB, 0, dimensions) );
+	}
+	
+	/**
+	 * Returns a lower bound of the distance to any instance whose feature is
+	 * at least as far as the given value: that feature's z score difference.
+	 */
+	@Override
+	public double lowerBound( KNNInstance instance, 
+							  int feature, 
+							  double value, 
+							  List<Double> stdDev, 
+							  List<Double> means ) {
+		double zScoreA = (instance.get(feature)-means.get(feature))/stdDev.get(feature);
+		double zScoreB = (value-means.get(feature))/stdDev.get(feature);
+		return ( Math.abs(zScoreA-zScoreB) / (double) instance.size() );
+	}
+	
+	/**
+	 * The distance only depends on the z scores
+	 */
+	@Override
+	public boolean supportsZScores() {
+		return true;
+	}
+	
+	/**
+	 * Returns the distance between two instances from their z scores, the
+	 * mean of their absolute differences
+	 */
+	@Override
+	public double zScoreDist( double[] zScoresA, 
+							  int offsetA, 
+							  double[] zScoresB, 
+							  int offsetB, 
+							  int dimensions ) {
+		
+		double distance = DistanceKernels.l1(zScoresA, offsetA, zScoresB, offsetB, dimensions);
+		distance /= (double) dimensions;
 		return ( distance );
 	}
 	
+	/**
+	 * The mean absolute difference of z scores (a scaled Manhattan distance) is a metric
+	 */
+	@Override
+	public boolean isMetric() {
+		return true;
+	}
+	
 	/**
 	 * If the measure require the stdDev and means statistic
 	 */
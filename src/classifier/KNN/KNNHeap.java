@@ -0,0 +1,148 @@
+package classifier.KNN;
+
+/**
+ * Bounded max-heap of (training index, distance) pairs, used to keep the K
+ * closest neighbors found so far without boxing them.
+ *
+ * Pairs are ordered by distance then by index, so among neighbors at the same
+ * distance the one that comes first in the training set is kept.
+ */
+class KNNHeap {
+
+	/**
+	 * Number of pairs kept for the current query, at most the capacity
+	 */
+	private int limit;
+	private int size;
+	private final int[] ids;
+	private final double[] dists;
+
+	/**
+	 * CTor with the number of neighbors to keep
+	 */
+	KNNHeap( int capacity ) {
+		this.limit = capacity;
+		this.ids = new int[capacity];
+		this.dists = new double[capacity];
+	}
+
+	/**
+	 * Empty the heap to reuse it for another query keeping the given number of
+	 * pairs, at most its capacity
+	 */
+	void clear( int limit ) {
+		if ( limit > ids.length ) {
+			throw new IllegalArgumentException("Can't keep " + limit + " neighbors, the capacity is " + ids.length);
+		}
+		this.limit = limit;
+		this.size = 0;
+	}
+
+	/**
+	 * Number of pairs the heap can keep
+	 */
+	int capacity() {
+		return ids.length;
+	}
+
+	/**
+	 * Number of pairs kept for the current query
+	 */
+	int limit() {
+		return limit;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isFull() {
+		return size == limit;
+	}
+
+	/**
+	 * Distance of the farthest neighbor kept, to prune what can't get in
+	 */
+	double worst() {
+		return dists[0];
+	}
+
+	/**
+	 * Index, in the training set, of the i-th pair. Pairs are in heap order
+	 * until {@link #sort()} is called.
+	 */
+	int id( int i ) {
+		return ids[i];
+	}
+
+	double distance( int i ) {
+		return dists[i];
+	}
+
+	/**
+	 * Keeps the pair if it is among the closest seen so far
+	 */
+	void offer( int id, double dist ) {
+		if ( size < limit ) {
+			// sift up
+			int child = size++;
+			while ( child > 0 ) {
+				int parent = (child - 1) >>> 1;
+				if ( !after(id, dist, ids[parent], dists[parent]) ) {
+					break;
+				}
+				ids[child] = ids[parent];
+				dists[child] = dists[parent];
+				child = parent;
+			}
+			ids[child] = id;
+			dists[child] = dist;
+		} else if ( limit > 0 && after(ids[0], dists[0], id, dist) ) {
+			siftDown(id, dist, size);
+		}
+	}
+
+	/**
+	 * Replaces the root by the given pair and restores the heap over the first
+	 * 'end' slots
+	 */
+	private void siftDown( int id, double dist, int end ) {
+		int parent = 0;
+		int child;
+		while ( (child = 2 * parent + 1) < end ) {
+			if ( child + 1 < end && after(ids[child + 1], dists[child + 1], ids[child], dists[child]) ) {
+				child++;
+			}
+			if ( !after(ids[child], dists[child], id, dist) ) {
+				break;
+			}
+			ids[parent] = ids[child];
+			dists[parent] = dists[child];
+			parent = child;
+		}
+		ids[parent] = id;
+		dists[parent] = dist;
+	}
+
+	/**
+	 * Sorts the pairs, closest first. The heap must be cleared before being
+	 * offered anything else.
+	 */
+	void sort() {
+		for ( int end = size - 1; end > 0; --end ) {
+			int id = ids[end];
+			double dist = dists[end];
+			ids[end] = ids[0];
+			dists[end] = dists[0];
+			siftDown(id, dist, end);
+		}
+	}
+
+	/**
+	 * If the pair (idA, distA) comes after (idB, distB)
+	 */
+	private static boolean after( int idA, double distA, int idB, double distB ) {
+		int cmp = Double.compare(distA, distB);
+		return cmp > 0 || (cmp == 0 && idA > idB);
+	}
+}
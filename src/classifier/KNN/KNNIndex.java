@@ -0,0 +1,28 @@
+package classifier.KNN;
+
+import java.util.List;
+
+/**
+ * Index over a training set that finds the closest neighbors of an instance
+ * without looking at every training instance.
+ *
+ * An index is built by {@link KNN#train(List)} and answers
+ * {@link KNN#findKNN(KNNInstance)} in place of the linear scan.
+ */
+public abstract class KNNIndex {
+
+	/**
+	 * Builds the index over the training set.
+	 * The distance and statistics are the ones the queries will use.
+	 */
+	abstract void build( List<KNNInstance> trainingSet,
+						 KNNDist distance,
+						 List<Double> stdDev,
+						 List<Double> means );
+
+	/**
+	 * Offers the training instances closest to the given instance to the heap,
+	 * by their index in the training set.
+	 */
+	abstract void search( KNNInstance instance, KNNHeap heap );
+}
@@ -0,0 +1,486 @@
+package classifier.KNN;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph over the training set, for
+ * approximate nearest neighbors on very large training sets.
+ *
+ * Every training instance is a node linked to close instances on layer 0 and,
+ * with exponentially decreasing probability, on the sparser layers above. A
+ * query walks greedily down from the top layer then explores layer 0 with a
+ * beam of efSearch candidates. The neighbors found are usually, not always,
+ * the true closest ones: a wider beam (efSearch) or better connected graph
+ * (M, efConstruction) raises the recall, as measured by
+ * {@link KNN#measureRecall(List)}, at the cost of time.
+ *
+ * Training again on a list that starts with the instances already indexed
+ * only inserts the new ones. The graph is then not rebuilt for statistics
+ * that changed with them (ex. z scores), queries use the new ones.
+ *
+ * Queries may run from many threads at once, not while training.
+ */
+public class KNNIndexHNSW extends KNNIndex {
+
+	/**
+	 * Links per node on the upper layers, twice as many on layer 0
+	 */
+	private final int M;
+	private final int maxLinks0;
+	/**
+	 * Beam width while inserting
+	 */
+	private final int efConstruction;
+	/**
+	 * Beam width while searching
+	 */
+	private volatile int efSearch;
+	/**
+	 * Normalizes the random layer of new nodes
+	 */
+	private final double levelMultiplier;
+	private final Random rand = new Random(42);
+
+	private List<KNNInstance> trainingSet;
+	private KNNDist distance;
+	private double[] stdDev;
+	private double[] means;
+
+	/**
+	 * Number of features
+	 */
+	private int dimensions;
+	/**
+	 * Number of nodes inserted
+	 */
+	private int size;
+	/**
+	 * The features of every node, one after the other
+	 */
+	private double[] coordinates = new double[0];
+	/**
+	 * Links of every node, layer after layer from layer 0 up to its top
+	 * layer. Each layer is the number of links followed by room for its
+	 * maximum number of links.
+	 */
+	private int[][] links = new int[0][];
+	private int entryPoint = -1;
+	private int topLevel = -1;
+
+	/**
+	 * Per thread buffers, so queries don't allocate
+	 */
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+	/**
+	 * CTor with common settings: 16 links, efConstruction of 200, efSearch of 50
+	 */
+	public KNNIndexHNSW() {
+		this(16, 200, 50);
+	}
+
+	/**
+	 * CTor with the number of links per node (M), the beam width while
+	 * inserting (efConstruction) and while searching (efSearch)
+	 */
+	public KNNIndexHNSW( int M, int efConstruction, int efSearch ) {
+		if ( M < 2 || efConstruction < 1 || efSearch < 1 ) {
+			throw new IllegalArgumentException("M must be at least 2, efConstruction and efSearch at least 1");
+		}
+		this.M = M;
+		this.maxLinks0 = 2 * M;
+		this.efConstruction = efConstruction;
+		this.efSearch = efSearch;
+		this.levelMultiplier = 1.0 / Math.log(M);
+	}
+
+	/**
+	 * Set the beam width of searches, at least K is used
+	 */
+	public void setEfSearch( int efSearch ) {
+		if ( efSearch < 1 ) {
+			throw new IllegalArgumentException("efSearch must be at least 1");
+		}
+		this.efSearch = efSearch;
+	}
+
+	public int getEfSearch() {
+		return efSearch;
+	}
+
+	/**
+	 * Number of training instances in the graph
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	void build( List<KNNInstance> trainingSet, KNNDist distance, List<Double> stdDev, List<Double> means ) {
+
+		// keep the graph if the training set only grew
+		boolean grew = this.trainingSet != null && this.distance == distance && trainingSet.size() >= size;
+		for ( int i = 0; grew && i < size; ++i ) {
+			grew = trainingSet.get(i) == this.trainingSet.get(i);
+		}
+		if ( !grew ) {
+			size = 0;
+			entryPoint = -1;
+			topLevel = -1;
+			dimensions = trainingSet.isEmpty() ? 0 : trainingSet.get(0).size();
+		}
+
+		this.trainingSet = trainingSet;
+		this.distance = distance;
+		this.stdDev = toArray(stdDev);
+		this.means = toArray(means);
+
+		int newSize = trainingSet.size();
+		if ( coordinates.length < newSize * dimensions ) {
+			coordinates = Arrays.copyOf(coordinates, newSize * dimensions);
+		}
+		if ( links.length < newSize ) {
+			links = Arrays.copyOf(links, newSize);
+		}
+		for ( int node = size; node < newSize; ++node ) {
+			KNNInstance instance = trainingSet.get(node);
+			for ( int feature = 0; feature < dimensions; ++feature ) {
+				coordinates[node * dimensions + feature] = instance.get(feature);
+			}
+			insert(node);
+		}
+	}
+
+	private static double[] toArray( List<Double> values ) {
+		if ( values == null ) {
+			return null;
+		}
+		double[] array = new double[values.size()];
+		for ( int i = 0; i < array.length; ++i ) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Links a new node, whose features are stored, into the graph
+	 */
+	private void insert( int node ) {
+		int level = (int) (-Math.log(1.0 - rand.nextDouble()) * levelMultiplier);
+		links[node] = new int[offset(level + 1)];
+		size = node + 1;
+
+		if ( entryPoint < 0 ) {
+			entryPoint = node;
+			topLevel = level;
+			return;
+		}
+
+		Scratch buffers = scratch(coordinates, node * dimensions, efConstruction);
+		int current = entryPoint;
+		double currentDist = distance(node, current);
+		for ( int lev = topLevel; lev > level; --lev ) {
+			current = greedy(buffers, current, currentDist, lev);
+			currentDist = buffers.greedyDist;
+		}
+
+		int[] selected = new int[maxLinks0];
+		for ( int lev = Math.min(level, topLevel); lev >= 0; --lev ) {
+			KNNHeap found = searchLayer(buffers, current, currentDist, efConstruction, lev);
+			found.sort();
+			current = found.id(0);
+			currentDist = found.distance(0);
+
+			// link the new node to well spread close nodes, and them back to it
+			int count = selectNeighbors(found, maxLinks(lev), selected);
+			int base = offset(lev);
+			links[node][base] = count;
+			System.arraycopy(selected, 0, links[node], base + 1, count);
+			for ( int i = 0; i < count; ++i ) {
+				link(selected[i], node, lev);
+			}
+		}
+
+		if ( level > topLevel ) {
+			topLevel = level;
+			entryPoint = node;
+		}
+	}
+
+	/**
+	 * Adds a link from a node to another on the given layer, keeping the best
+	 * spread links if there are too many
+	 */
+	private void link( int from, int to, int level ) {
+		int[] nodeLinks = links[from];
+		int base = offset(level);
+		int count = nodeLinks[base];
+		int max = maxLinks(level);
+		if ( count < max ) {
+			nodeLinks[base + 1 + count] = to;
+			nodeLinks[base] = count + 1;
+			return;
+		}
+
+		KNNHeap candidates = new KNNHeap(max + 1);
+		for ( int i = 0; i < count; ++i ) {
+			int other = nodeLinks[base + 1 + i];
+			candidates.offer(other, distance(from, other));
+		}
+		candidates.offer(to, distance(from, to));
+		candidates.sort();
+		int[] selected = new int[max];
+		int kept = selectNeighbors(candidates, max, selected);
+		nodeLinks[base] = kept;
+		System.arraycopy(selected, 0, nodeLinks, base + 1, kept);
+	}
+
+	/**
+	 * Picks up to max neighbors among the sorted candidates, skipping those
+	 * closer to an already picked neighbor than to the node so links go in
+	 * different directions, then filling with the closest skipped ones
+	 */
+	private int selectNeighbors( KNNHeap candidates, int max, int[] selected ) {
+		int count = 0;
+		boolean[] taken = new boolean[candidates.size()];
+		for ( int i = 0; i < candidates.size() && count < max; ++i ) {
+			int candidate = candidates.id(i);
+			boolean spread = true;
+			for ( int j = 0; j < count && spread; ++j ) {
+				spread = !(distance(candidate, selected[j]) < candidates.distance(i));
+			}
+			if ( spread ) {
+				selected[count++] = candidate;
+				taken[i] = true;
+			}
+		}
+		for ( int i = 0; i < candidates.size() && count < max; ++i ) {
+			if ( !taken[i] ) {
+				selected[count++] = candidates.id(i);
+			}
+		}
+		return count;
+	}
+
+	@Override
+	void search( KNNInstance instance, KNNHeap heap ) {
+		if ( entryPoint < 0 ) {
+			return;
+		}
+		int ef = Math.max(efSearch, heap.limit());
+		Scratch buffers = scratch(null, 0, ef);
+		for ( int feature = 0; feature < dimensions; ++feature ) {
+			buffers.query[feature] = instance.get(feature);
+		}
+
+		int current = entryPoint;
+		double currentDist = buffers.distance(entryPoint);
+		for ( int lev = topLevel; lev > 0; --lev ) {
+			current = greedy(buffers, current, currentDist, lev);
+			currentDist = buffers.greedyDist;
+		}
+
+		KNNHeap found = searchLayer(buffers, current, currentDist, ef, 0);
+		for ( int i = 0; i < found.size(); ++i ) {
+			heap.offer(found.id(i), found.distance(i));
+		}
+	}
+
+	/**
+	 * Moves to the closest linked node until none is closer, on the given layer
+	 */
+	private int greedy( Scratch buffers, int current, double currentDist, int level ) {
+		boolean changed = true;
+		while ( changed ) {
+			changed = false;
+			int[] nodeLinks = links[current];
+			int base = offset(level);
+			for ( int i = 0; i < nodeLinks[base]; ++i ) {
+				int other = nodeLinks[base + 1 + i];
+				double dist = buffers.distance(other);
+				if ( dist < currentDist ) {
+					current = other;
+					currentDist = dist;
+					changed = true;
+				}
+			}
+		}
+		buffers.greedyDist = currentDist;
+		return current;
+	}
+
+	/**
+	 * Beam search from the given node on the given layer, keeping the ef
+	 * closest nodes seen
+	 */
+	private KNNHeap searchLayer( Scratch buffers, int start, double startDist, int ef, int level ) {
+		KNNHeap found = buffers.found;
+		found.clear(Math.min(ef, found.capacity()));
+		Candidates candidates = buffers.candidates;
+		candidates.clear();
+		int visit = buffers.nextVisit(size);
+
+		buffers.visited[start] = visit;
+		candidates.push(start, startDist);
+		found.offer(start, startDist);
+		while ( candidates.size > 0 ) {
+			double closest = candidates.minDist();
+			int node = candidates.pop();
+			if ( found.isFull() && closest > found.worst() ) {
+				break;
+			}
+			int[] nodeLinks = links[node];
+			int base = offset(level);
+			for ( int i = 0; i < nodeLinks[base]; ++i ) {
+				int other = nodeLinks[base + 1 + i];
+				if ( buffers.visited[other] == visit ) {
+					continue;
+				}
+				buffers.visited[other] = visit;
+				double dist = buffers.distance(other);
+				if ( !found.isFull() || dist < found.worst() ) {
+					candidates.push(other, dist);
+					found.offer(other, dist);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Position of a layer in the links of a node
+	 */
+	private int offset( int level ) {
+		return level == 0 ? 0 : (maxLinks0 + 1) + (level - 1) * (M + 1);
+	}
+
+	private int maxLinks( int level ) {
+		return level == 0 ? maxLinks0 : M;
+	}
+
+	private double distance( int nodeA, int nodeB ) {
+		return distance.dist(coordinates, nodeA * dimensions, coordinates, nodeB * dimensions, dimensions, stdDev, means);
+	}
+
+	/**
+	 * The buffers of this thread, with a beam of at least ef. Inserts search
+	 * from a stored node, queries from the query buffer.
+	 */
+	private Scratch scratch( double[] features, int offset, int ef ) {
+		Scratch buffers = scratch.get();
+		if ( buffers == null || buffers.found.capacity() < ef || buffers.query.length != dimensions ) {
+			buffers = new Scratch(ef);
+			scratch.set(buffers);
+		}
+		if ( features != null ) {
+			buffers.features = features;
+			buffers.offset = offset;
+		} else {
+			buffers.features = buffers.query;
+			buffers.offset = 0;
+		}
+		return buffers;
+	}
+
+	/**
+	 * Buffers of a search
+	 */
+	private final class Scratch {
+		final double[] query = new double[dimensions];
+		final KNNHeap found;
+		final Candidates candidates = new Candidates();
+		int[] visited = new int[0];
+		int visit = 0;
+		/**
+		 * Features searched from
+		 */
+		double[] features;
+		int offset;
+		/**
+		 * Distance to the node the last greedy walk stopped at
+		 */
+		double greedyDist;
+
+		Scratch( int ef ) {
+			found = new KNNHeap(ef);
+		}
+
+		double distance( int node ) {
+			return distance.dist(features, offset, coordinates, node * dimensions, dimensions, stdDev, means);
+		}
+
+		/**
+		 * A new mark for the nodes visited by a search
+		 */
+		int nextVisit( int nodes ) {
+			if ( visited.length < nodes ) {
+				visited = Arrays.copyOf(visited, Math.max(nodes, visited.length + (visited.length >> 1)));
+			}
+			if ( ++visit == Integer.MAX_VALUE ) {
+				Arrays.fill(visited, 0);
+				visit = 1;
+			}
+			return visit;
+		}
+	}
+
+	/**
+	 * Growable min-heap of (node, distance) pairs left to explore
+	 */
+	private static final class Candidates {
+		int[] ids = new int[64];
+		double[] dists = new double[64];
+		int size;
+
+		void clear() {
+			size = 0;
+		}
+
+		double minDist() {
+			return dists[0];
+		}
+
+		void push( int id, double dist ) {
+			if ( size == ids.length ) {
+				ids = Arrays.copyOf(ids, size * 2);
+				dists = Arrays.copyOf(dists, size * 2);
+			}
+			int child = size++;
+			while ( child > 0 ) {
+				int parent = (child - 1) >>> 1;
+				if ( dists[parent] <= dist ) {
+					break;
+				}
+				ids[child] = ids[parent];
+				dists[child] = dists[parent];
+				child = parent;
+			}
+			ids[child] = id;
+			dists[child] = dist;
+		}
+
+		int pop() {
+			int top = ids[0];
+			int id = ids[--size];
+			double dist = dists[size];
+			int parent = 0;
+			int child;
+			while ( (child = 2 * parent + 1) < size ) {
+				if ( child + 1 < size && dists[child + 1] < dists[child] ) {
+					child++;
+				}
+				if ( dists[child] >= dist ) {
+					break;
+				}
+				ids[parent] = ids[child];
+				dists[parent] = dists[child];
+				parent = child;
+			}
+			ids[parent] = id;
+			dists[parent] = dist;
+			return top;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package classifier.KNN;
+
+import java.util.List;
+
+/**
+ * k-d tree over the training set.
+ *
+ * The tree is implicit: the training indexes are reordered so that each range
+ * is split at its middle position on the feature with the widest spread,
+ * smaller values before, larger values after. Queries go down the side of
+ * each split the instance falls in first and only visit the other side if
+ * the distance's {@link KNNDist#lowerBound lower bound} to the split does not
+ * exceed the K-th closest distance found so far.
+ *
+ * Distances are computed by the same {@link KNNDist} as the linear scan and
+ * regions are only skipped when they can't hold a neighbor as close as the
+ * current K-th, so the neighbors found are exactly those of the linear scan,
+ * ties included. Works best with few features (say less than 10) and a
+ * distance that provides a lower bound; otherwise every instance is visited.
+ */
+public class KNNIndexKDTree extends KNNIndex {
+
+	/**
+	 * Ranges this small are scanned rather than split
+	 */
+	private static final int LEAF_SIZE = 8;
+
+	private List<KNNInstance> trainingSet;
+	private KNNDist distance;
+	private List<Double> stdDev;
+	private List<Double> means;
+
+	/**
+	 * Number of features
+	 */
+	private int dimensions;
+	/**
+	 * The features of every training instance, one row after the other
+	 */
+	private double[] coordinates;
+	/**
+	 * Training indexes in tree order
+	 */
+	private int[] order;
+	/**
+	 * Feature each range is split on, at the position of its middle
+	 */
+	private int[] splitFeature;
+
+	@Override
+	void build( List<KNNInstance> trainingSet, KNNDist distance, List<Double> stdDev, List<Double> means ) {
+		this.trainingSet = trainingSet;
+		this.distance = distance;
+		this.stdDev = stdDev;
+		this.means = means;
+
+		int size = trainingSet.size();
+		dimensions = size > 0 ? trainingSet.get(0).size() : 0;
+		coordinates = new double[size * dimensions];
+		order = new int[size];
+		splitFeature = new int[size];
+		for ( int i = 0; i < size; ++i ) {
+			KNNInstance instance = trainingSet.get(i);
+			for ( int feature = 0; feature < dimensions; ++feature ) {
+				coordinates[i * dimensions + feature] = instance.get(feature);
+			}
+			order[i] = i;
+		}
+
+		if ( dimensions > 0 ) {
+			split(0, size);
+		}
+	}
+
+	/**
+	 * Splits the range [from, to) of order at its middle, then both halves
+	 */
+	private void split( int from, int to ) {
+		if ( to - from <= LEAF_SIZE ) {
+			return;
+		}
+
+		// split on the widest feature
+		int feature = 0;
+		double widest = -1.0;
+		for ( int f = 0; f < dimensions; ++f ) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for ( int i = from; i < to; ++i ) {
+				double value = coordinates[order[i] * dimensions + f];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if ( max - min > widest ) {
+				widest = max - min;
+				feature = f;
+			}
+		}
+
+		int middle = (from + to) >>> 1;
+		select(from, to, middle, feature);
+		splitFeature[middle] = feature;
+		split(from, middle);
+		split(middle + 1, to);
+	}
+
+	/**
+	 * Reorders [from, to) so position k holds the value that would be there if
+	 * sorted on the feature, smaller or equal values before and larger or
+	 * equal ones after (quickselect)
+	 */
+	private void select( int from, int to, int k, int feature ) {
+		int left = from;
+		int right = to - 1;
+		while ( left < right ) {
+			double pivot = value(order[(left + right) >>> 1], feature);
+			int i = left;
+			int j = right;
+			while ( i <= j ) {
+				while ( value(order[i], feature) < pivot ) {
+					i++;
+				}
+				while ( value(order[j], feature) > pivot ) {
+					j--;
+				}
+				if ( i <= j ) {
+					int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j ) {
+				right = j;
+			} else if ( k >= i ) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private double value( int instance, int feature ) {
+		return coordinates[instance * dimensions + feature];
+	}
+
+	@Override
+	void search( KNNInstance instance, KNNHeap heap ) {
+		if ( dimensions > 0 ) {
+			search(instance, 0, order.length, heap);
+		} else {
+			for ( int i = 0; i < order.length; ++i ) {
+				offer(instance, i, heap);
+			}
+		}
+	}
+
+	private void search( KNNInstance instance, int from, int to, KNNHeap heap ) {
+		if ( to - from <= LEAF_SIZE ) {
+			for ( int i = from; i < to; ++i ) {
+				offer(instance, order[i], heap);
+			}
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		int feature = splitFeature[middle];
+		double split = value(order[middle], feature);
+		offer(instance, order[middle], heap);
+
+		// the side the instance is on first, then the other if it may hold a closer neighbor
+		if ( instance.get(feature) < split ) {
+			search(instance, from, middle, heap);
+			if ( mayHoldCloser(instance, feature, split, heap) ) {
+				search(instance, middle + 1, to, heap);
+			}
+		} else {
+			search(instance, middle + 1, to, heap);
+			if ( mayHoldCloser(instance, feature, split, heap) ) {
+				search(instance, from, middle, heap);
+			}
+		}
+	}
+
+	/**
+	 * If the other side of a split can hold a neighbor at most as far as the
+	 * K-th closest so far (ties matter, the lowest index wins)
+	 */
+	private boolean mayHoldCloser( KNNInstance instance, int feature, double split, KNNHeap heap ) {
+		return !heap.isFull() || !(distance.lowerBound(instance, feature, split, stdDev, means) > heap.worst());
+	}
+
+	private void offer( KNNInstance instance, int index, KNNHeap heap ) {
+		heap.offer(index, distance.dist(instance, trainingSet.get(index), stdDev, means));
+	}
+}
@@ -0,0 +1,99 @@
+package classifier.KNN;
+
+import java.util.List;
+
+import distance.LSHIndex;
+import utilities.SV;
+
+/**
+ * Locality-sensitive hashing over the training set, for approximate nearest
+ * neighbors: only the training instances sharing a bucket with the query,
+ * as given by a {@link LSHIndex}, are compared to it.
+ *
+ * If there are fewer candidates than neighbors wanted, every training
+ * instance is compared so K neighbors are always found. Training again on a
+ * list that starts with the instances already indexed only hashes the new
+ * ones.
+ */
+public class KNNIndexLSH extends KNNIndex {
+
+	private final LSHIndex.Family family;
+	private final int tableCount;
+	private final int hashesPerTable;
+	private final double bucketWidth;
+
+	private LSHIndex lsh;
+	private List<KNNInstance> trainingSet;
+	private KNNDist distance;
+	private List<Double> stdDev;
+	private List<Double> means;
+
+	/**
+	 * CTor with the hashing family and its settings, see {@link LSHIndex}.
+	 * The family must match the distance of the KNN: {@link LSHIndex.Family#EUCLIDEAN}
+	 * for {@link KNNDistEuclidean}.
+	 */
+	public KNNIndexLSH( LSHIndex.Family family, int tableCount, int hashesPerTable, double bucketWidth ) {
+		this.family = family;
+		this.tableCount = tableCount;
+		this.hashesPerTable = hashesPerTable;
+		this.bucketWidth = bucketWidth;
+	}
+
+	/**
+	 * Average number of candidates compared per query, to tune the settings
+	 */
+	public double averageCandidates( List<KNNInstance> queries ) {
+		long total = 0;
+		for ( KNNInstance query : queries ) {
+			total += lsh.candidates(toSV(query)).length;
+		}
+		return ( queries.isEmpty() ? 0.0 : (double) total / queries.size() );
+	}
+
+	@Override
+	void build( List<KNNInstance> trainingSet, KNNDist distance, List<Double> stdDev, List<Double> means ) {
+
+		// keep the hashed instances if the training set only grew
+		boolean grew = lsh != null && trainingSet.size() >= lsh.size();
+		for ( int i = 0; grew && i < lsh.size(); ++i ) {
+			grew = trainingSet.get(i) == this.trainingSet.get(i);
+		}
+		if ( !grew ) {
+			lsh = trainingSet.isEmpty() ? null : new LSHIndex(family, trainingSet.get(0).size(), tableCount, hashesPerTable, bucketWidth, 0);
+		}
+
+		this.trainingSet = trainingSet;
+		this.distance = distance;
+		this.stdDev = stdDev;
+		this.means = means;
+		for ( int i = lsh == null ? 0 : lsh.size(); i < trainingSet.size(); ++i ) {
+			lsh.add(toSV(trainingSet.get(i)));
+		}
+	}
+
+	@Override
+	void search( KNNInstance instance, KNNHeap heap ) {
+		if ( lsh == null ) {
+			return;
+		}
+		int[] candidates = lsh.candidates(toSV(instance));
+		if ( candidates.length >= heap.limit() ) {
+			for ( int index : candidates ) {
+				heap.offer(index, distance.dist(instance, trainingSet.get(index), stdDev, means));
+			}
+		} else {
+			for ( int index = 0; index < trainingSet.size(); ++index ) {
+				heap.offer(index, distance.dist(instance, trainingSet.get(index), stdDev, means));
+			}
+		}
+	}
+
+	private static SV toSV( KNNInstance instance ) {
+		double[] features = new double[instance.size()];
+		for ( int feature = 0; feature < features.length; ++feature ) {
+			features[feature] = instance.get(feature);
+		}
+		return new SV(features);
+	}
+}
@@ -0,0 +1,222 @@
+package classifier.KNN;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Vantage-point tree over the training set, for any {@link KNNDist} that is
+ * a {@link KNNDist#isMetric() metric}, whatever the number of features.
+ *
+ * Each range of the tree picks a training instance as vantage point and
+ * splits the others at the median of their distance to it: the closer half
+ * inside a ball of that radius, the farther half outside. By the triangle
+ * inequality, a query at distance d from the vantage point is at least
+ * |d - radius| from anything on the other side of the ball, so that side is
+ * skipped when it is farther than the K-th closest neighbor found so far.
+ *
+ * Distances are computed by the same {@link KNNDist} as the linear scan and a
+ * side is only skipped when it can't hold a neighbor as close as the current
+ * K-th (with a margin for rounding errors), so the neighbors found are those
+ * of the linear scan, ties included.
+ */
+public class KNNIndexVPTree extends KNNIndex {
+
+	/**
+	 * Ranges this small are scanned rather than split
+	 */
+	private static final int LEAF_SIZE = 8;
+
+	/**
+	 * Relative margin on the triangle inequality, for the rounding errors of
+	 * the distances it is applied to
+	 */
+	private static final double SLACK = 1e-9;
+
+	private KNNDist distance;
+	private double[] stdDev;
+	private double[] means;
+
+	/**
+	 * Number of features
+	 */
+	private int dimensions;
+	/**
+	 * The features of every training instance, one row after the other
+	 */
+	private double[] coordinates;
+	/**
+	 * Training indexes in tree order, the vantage point of a range first
+	 */
+	private int[] order;
+	/**
+	 * Radius of the ball of each range, at the position of its vantage point
+	 */
+	private double[] radius;
+
+	/**
+	 * Features of the query being searched, per thread so queries don't allocate
+	 */
+	private final ThreadLocal<double[]> queryFeatures = new ThreadLocal<double[]>();
+
+	@Override
+	void build( List<KNNInstance> trainingSet, KNNDist distance, List<Double> stdDev, List<Double> means ) {
+		if ( !distance.isMetric() ) {
+			throw new IllegalArgumentException(distance.getClass().getSimpleName() + " is not a metric, it can't be used with a vantage-point tree");
+		}
+		this.distance = distance;
+		this.stdDev = toArray(stdDev);
+		this.means = toArray(means);
+
+		int size = trainingSet.size();
+		dimensions = size > 0 ? trainingSet.get(0).size() : 0;
+		coordinates = new double[size * dimensions];
+		order = new int[size];
+		radius = new double[size];
+		for ( int i = 0; i < size; ++i ) {
+			KNNInstance instance = trainingSet.get(i);
+			for ( int feature = 0; feature < dimensions; ++feature ) {
+				coordinates[i * dimensions + feature] = instance.get(feature);
+			}
+			order[i] = i;
+		}
+
+		split(0, size, new double[size], new Random(0));
+	}
+
+	private static double[] toArray( List<Double> values ) {
+		if ( values == null ) {
+			return null;
+		}
+		double[] array = new double[values.size()];
+		for ( int i = 0; i < array.length; ++i ) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Picks the vantage point of [from, to) and splits the rest in two halves
+	 * on their distance to it, then splits both halves
+	 */
+	private void split( int from, int to, double[] distances, Random rand ) {
+		if ( to - from <= LEAF_SIZE ) {
+			return;
+		}
+
+		// a random vantage point, first in the range
+		int pick = from + rand.nextInt(to - from);
+		int swap = order[from];
+		order[from] = order[pick];
+		order[pick] = swap;
+
+		int vantage = order[from];
+		for ( int i = from + 1; i < to; ++i ) {
+			distances[i] = distance(vantage, order[i]);
+		}
+
+		// inside [from + 1, middle], outside (middle, to)
+		int middle = (from + 1 + to - 1) >>> 1;
+		select(from + 1, to, middle, distances);
+		radius[from] = distances[middle];
+		split(from + 1, middle + 1, distances, rand);
+		split(middle + 1, to, distances, rand);
+	}
+
+	/**
+	 * Reorders [from, to) so position k holds the distance that would be there
+	 * if sorted, smaller or equal distances before and larger or equal ones
+	 * after (quickselect)
+	 */
+	private void select( int from, int to, int k, double[] distances ) {
+		int left = from;
+		int right = to - 1;
+		while ( left < right ) {
+			double pivot = distances[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while ( i <= j ) {
+				while ( distances[i] < pivot ) {
+					i++;
+				}
+				while ( distances[j] > pivot ) {
+					j--;
+				}
+				if ( i <= j ) {
+					double swapDistance = distances[i];
+					distances[i] = distances[j];
+					distances[j] = swapDistance;
+					int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j ) {
+				right = j;
+			} else if ( k >= i ) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private double distance( int instanceA, int instanceB ) {
+		return distance.dist(coordinates, instanceA * dimensions, coordinates, instanceB * dimensions, dimensions, stdDev, means);
+	}
+
+	@Override
+	void search( KNNInstance instance, KNNHeap heap ) {
+		double[] query = queryFeatures.get();
+		if ( query == null || query.length != dimensions ) {
+			query = new double[dimensions];
+			queryFeatures.set(query);
+		}
+		for ( int feature = 0; feature < dimensions; ++feature ) {
+			query[feature] = instance.get(feature);
+		}
+		search(query, 0, order.length, heap);
+	}
+
+	private void search( double[] query, int from, int to, KNNHeap heap ) {
+		if ( to - from <= LEAF_SIZE ) {
+			for ( int i = from; i < to; ++i ) {
+				offer(query, order[i], heap);
+			}
+			return;
+		}
+
+		int vantage = order[from];
+		double toVantage = offer(query, vantage, heap);
+		double ball = radius[from];
+		int middle = (from + 1 + to - 1) >>> 1;
+
+		// the side the query is on first, then the other if it may hold a closer neighbor
+		if ( toVantage < ball ) {
+			search(query, from + 1, middle + 1, heap);
+			if ( mayHoldCloser(ball - toVantage, toVantage + ball, heap) ) {
+				search(query, middle + 1, to, heap);
+			}
+		} else {
+			search(query, middle + 1, to, heap);
+			if ( mayHoldCloser(toVantage - ball, toVantage + ball, heap) ) {
+				search(query, from + 1, middle + 1, heap);
+			}
+		}
+	}
+
+	/**
+	 * If a side at least 'bound' away can hold a neighbor at most as far as the
+	 * K-th closest so far (ties matter, the lowest index wins)
+	 */
+	private boolean mayHoldCloser( double bound, double scale, KNNHeap heap ) {
+		return !heap.isFull() || !(bound > heap.worst() + SLACK * scale);
+	}
+
+	private double offer( double[] query, int index, KNNHeap heap ) {
+		double dist = distance.dist(query, 0, coordinates, index * dimensions, dimensions, stdDev, means);
+		heap.offer(index, dist);
+		return dist;
+	}
+}
@@ -0,0 +1,55 @@
+package classifier.KNN;
+
+/**
+ * The neighbors found by {@link KNN#findKNN(KNNInstance, KNNResult)}, as the
+ * index of each neighbor in the training set and its distance, closest
+ * first.
+ *
+ * A result is owned by its caller and reused from one query to the next, so
+ * queries don't allocate. Each thread querying a shared {@link KNN} uses its
+ * own result.
+ */
+public class KNNResult {
+
+	/**
+	 * The neighbors, kept in a bounded heap during the query then sorted
+	 */
+	final KNNHeap heap;
+
+	/**
+	 * CTor with the maximum number of neighbors to hold, at least the K of the
+	 * {@link KNN} queried (or its number of training instances if smaller)
+	 */
+	public KNNResult( int capacity ) {
+		this.heap = new KNNHeap(capacity);
+	}
+
+	/**
+	 * Number of neighbors found
+	 */
+	public int size() {
+		return heap.size();
+	}
+
+	/**
+	 * Index, in the training set, of the neighbor at position 'pos'
+	 */
+	public int getIndex( int pos ) {
+		checkPosition(pos);
+		return heap.id(pos);
+	}
+
+	/**
+	 * Distance to the neighbor at position 'pos'
+	 */
+	public double getDistance( int pos ) {
+		checkPosition(pos);
+		return heap.distance(pos);
+	}
+
+	private void checkPosition( int pos ) {
+		if ( pos < 0 || pos >= heap.size() ) {
+			throw new IndexOutOfBoundsException("Neighbor: " + pos + ", Neighbors: " + heap.size());
+		}
+	}
+}
@@ -1,10 +1,18 @@
 package cluster.dbscan;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
+import distance.DistanceKernels;
+import distance.PairwiseDistance;
+import utilities.DelimitedReader;
+
 
 /**
  * A grouping of points that constitute a keyboard measurement.
@@ -50,9 +58,9 @@ public class DBPoint {
 	public ArrayList<Double> values = new ArrayList<>();
 	
 	/**
-	 * Contains the neighborhood of this DBPoint
+	 * The values unboxed for the distance kernels, built on first use
 	 */
-	private Set<DBPoint> neighborhood = new HashSet<>();
+	private double[] coordinates = null;
 	
 	
 	public DBPoint(Integer id) {
@@ -70,6 +78,38 @@ public class DBPoint {
 		}
 	}
 	
+	/**
+	 * Creates a point with the given coordinates
+	 * 
+	 * @param id Identifier of the point
+	 * @param coordinates Coordinates of the point, copied
+	 */
+	public DBPoint(Integer id, double[] coordinates) {
+		
+		this.id = id;
+		
+		values.ensureCapacity(coordinates.length);
+		for(double value : coordinates) {
+			values.add(value);
+		}
+	}
+	
+	/**
+	 * Reads a file of points, one per line, as a dataset ready for {@link DBScan} or {@link DBScanNear}.
+	 * Each point is identified by its zero-based row number.
+	 * 
+	 * @param file File to read
+	 * @param reader Reader for the format of the file, ex. {@link DelimitedReader#tsv()}
+	 * @return The points keyed by their id
+	 * @throws IOException If the file can't be read or holds something else than numbers
+	 */
+	public static HashMap<Integer, DBPoint> readPoints(Path file, DelimitedReader reader) throws IOException {
+		
+		HashMap<Integer, DBPoint> dataset = new HashMap<>();
+		reader.read(file, (rowNumber, coordinates) -> dataset.put(rowNumber, new DBPoint(rowNumber, coordinates)));
+		return dataset;
+	}
+	
 	@Override
 	public int hashCode(){
 		return values.hashCode();
@@ -118,6 +158,7 @@ public class DBPoint {
 
 	/**
 	 * Returns all points, excluding oneself, that are in the epsilon neighborhood of this point.
+	 * Nothing is remembered between calls: the scans keep the neighborhoods in a {@link NeighborhoodCache}.
 	 * 
 	 * @param dataset Points to consider
 	 * @return
@@ -125,21 +166,71 @@ public class DBPoint {
 	 * @see #distanceTo(DBPoint) Note the distance metric has a direct impact on the choice of the neighborhood size that should be submitted
 	 */
 	public Set<DBPoint> regionQuery(Collection<DBPoint> dataset, double eps) {
+		return regionQuery(dataset, eps, null);
+	}
+	
+	/**
+	 * Returns all points, excluding oneself, that are in the epsilon neighborhood of this point,
+	 * looking their distances up rather than computing them.
+	 * 
+	 * @param dataset Points to consider
+	 * @param eps The size of the epsilon neighborhood
+	 * @param distances Distances between the points, indexed by their ids, or null to compute them
+	 * @return The neighborhood
+	 */
+	public Set<DBPoint> regionQuery(Collection<DBPoint> dataset, double eps, PairwiseDistance distances) {
 		
-		if(neighborhood.size() > 0) {
-			return neighborhood;
-		}
+		Set<DBPoint> neighborhood = new HashSet<>();
 		
 		//Brute-force search. Check every point to see if they are close.
-		//The original implementation and others optimizations so that only log(n) checks need to be made, not n like below.
 		for(DBPoint point : dataset){
-			
-			if(this != point && eps >= this.distanceTo(point)){
+			if(isWithin(point, eps, distances)){
 				neighborhood.add(point);
 			}
 		}
 		return neighborhood;
 	}
+	
+	/**
+	 * Returns the ids of all points, excluding oneself, that are in the epsilon neighborhood of this point,
+	 * only checking the points an index of the dataset gives as candidates.
+	 * 
+	 * @param dataset Points to consider
+	 * @param eps The size of the epsilon neighborhood
+	 * @param distances Distances between the points, indexed by their ids, or null to compute them
+	 * @param index Index built over the dataset, or null to check every point
+	 * @return The ids of the neighbors, in the dataset's order
+	 */
+	int[] neighborIds(Collection<DBPoint> dataset, double eps, PairwiseDistance distances, RegionIndex index) {
+		
+		Iterable<DBPoint> candidates = index != null ? Arrays.asList(index.candidates(this, eps)) : dataset;
+		int[] ids = new int[8];
+		int count = 0;
+		for(DBPoint point : candidates){
+			if(isWithin(point, eps, distances)){
+				ids = RegionIndex.append(ids, count++, point.id);
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+	
+	/**
+	 * Tells if another point is in the epsilon neighborhood of this point
+	 * 
+	 * @param distances Distances between the points, indexed by their ids, or null to compute them
+	 */
+	boolean isWithin(DBPoint point, double eps, PairwiseDistance distances) {
+		return this != point && eps >= distanceTo(point, distances);
+	}
+	
+	/**
+	 * Returns the distance between this point and another, looked up if distances are given
+	 * 
+	 * @param distances Distances between the points, indexed by their ids, or null to compute them
+	 */
+	double distanceTo(DBPoint point, PairwiseDistance distances) {
+		return distances != null ? distances.distance(this.id, point.id) : this.distanceTo(point);
+	}
 
 	/**Returns the distance between this point and another
 	 * @see #regionQuery(Set, double) Note the distance metric has a direct impact on the choice of the neighborhood size that should be submitted
@@ -157,17 +248,27 @@ public class DBPoint {
 		}
 		
 		//else let's do a unit by unit comparison in Euclidean space.
-		double distance=0;
-		for(int curField=0;curField<values.size();curField++){
-			Double selfPart=this.values.get(curField);
-			Double compPart=point.values.get(curField);
-			double diff=(selfPart-compPart);
-			distance=distance+diff*diff;
-		}
+		double distance = DistanceKernels.squaredL2(this.getCoordinates(), 0, point.getCoordinates(), 0, values.size());
 		
 		return Math.sqrt(distance);
 	}
 	
+	/**
+	 * Returns the values of this point as an array, not a copy: callers must not modify it.
+	 * It is built on first use and again if values were added since, so the values
+	 * should not be changed in place once distances have been computed.
+	 */
+	public double[] getCoordinates() {
+		if(coordinates == null || coordinates.length != values.size()) {
+			double[] unboxed = new double[values.size()];
+			for(int curField=0;curField<unboxed.length;curField++){
+				unboxed[curField] = values.get(curField);
+			}
+			coordinates = unboxed;
+		}
+		return coordinates;
+	}
+	
 	
 	public String toString() {
 //		return "id: "+ id + ", clusterNum: "+ clusterNum + ", near: "+ neighborhood.toString() + ", points: "+ values.toString();
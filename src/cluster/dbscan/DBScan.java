@@ -1,7 +1,9 @@
 package cluster.dbscan;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import distance.DistanceMatrix;
+import distance.PairwiseDistance;
 
 /**
  * Class the implements the DBScan algorithm, without modifications. For a
@@ -10,7 +12,95 @@ import java.util.Set;
  */
 public class DBScan {
 
+	/**
+	 * Distances between the points, by id, null to compute them
+	 */
+	private final PairwiseDistance distances;
+
+	/**
+	 * Index built over the points of each scan, to search neighborhoods in
+	 */
+	private final SpatialIndex spatialIndex;
+
+	/**
+	 * Neighborhoods kept from scan to scan of the same dataset
+	 */
+	private final NeighborhoodCache cache;
+
 	public DBScan() {
+		this(SpatialIndex.GRID);
+	}
+
+	/**
+	 * @param spatialIndex
+	 *            Index built over the points of each scan, so a point's
+	 *            neighborhood is searched among the points close to it. The
+	 *            clusters are the same whatever the index.
+	 */
+	public DBScan(SpatialIndex spatialIndex) {
+		this(spatialIndex, new NeighborhoodCache());
+	}
+
+	/**
+	 * @param spatialIndex
+	 *            Index built over the points of each scan, so a point's
+	 *            neighborhood is searched among the points close to it. The
+	 *            clusters are the same whatever the index.
+	 * @param cache
+	 *            Neighborhoods kept from scan to scan, so scanning the same
+	 *            dataset again with the same or a smaller eps doesn't search
+	 *            them again
+	 */
+	public DBScan(SpatialIndex spatialIndex, NeighborhoodCache cache) {
+		this.distances = null;
+		this.spatialIndex = spatialIndex;
+		this.cache = cache;
+	}
+
+	/**
+	 * @param distances
+	 *            Distances between the points to scan, indexed by their ids,
+	 *            looked up instead of computed. See
+	 *            {@link #distanceMatrix(HashMap, DistanceMatrix.Layout, DistanceMatrix.Precision)}.
+	 */
+	public DBScan(PairwiseDistance distances) {
+		this.distances = distances;
+		this.spatialIndex = SpatialIndex.NONE;
+		this.cache = new NeighborhoodCache();
+	}
+
+	/**
+	 * Computes the distances between the points of a dataset, as
+	 * {@link DBPoint#distanceTo(DBPoint)} does, for the scans of that dataset.
+	 * 
+	 * @param dataset
+	 *            Points whose ids go from 0 to the number of points - 1, as
+	 *            given by {@link DBPoint#readPoints}
+	 * @param layout
+	 *            Layout of the distances
+	 * @param precision
+	 *            Precision of the distances, with
+	 *            {@link DistanceMatrix.Precision#FLOAT} points right at eps
+	 *            may change sides
+	 * @return The distances, indexed by the points' ids
+	 */
+	public static DistanceMatrix distanceMatrix(HashMap<Integer, DBPoint> dataset, DistanceMatrix.Layout layout, DistanceMatrix.Precision precision) {
+		int size = dataset.size();
+		int dimensions = size > 0 ? dataset.values().iterator().next().values.size() : 0;
+		if ((long) size * dimensions > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(size + " points of " + dimensions + " dimensions are more components than an array holds");
+		}
+		double[] components = new double[size * dimensions];
+		for (DBPoint point : dataset.values()) {
+			if (point.id == null || point.id < 0 || point.id >= size) {
+				throw new IllegalArgumentException("Point id " + point.id + " is not between 0 and " + (size - 1));
+			}
+			if (point.values.size() != dimensions) {
+				throw new IllegalArgumentException("Point " + point.id + " has " + point.values.size() + " dimensions, not " + dimensions);
+			}
+			System.arraycopy(point.getCoordinates(), 0, components, point.id * dimensions, dimensions);
+		}
+		return DistanceMatrix.compute(components, size, dimensions, DistanceMatrix.EUCLIDEAN, layout, precision, ForkJoinPool.commonPool());
 	}
 
 	/**
@@ -34,6 +124,8 @@ public class DBScan {
 			point.resetSelf();
 		}
 
+		ScanNeighborhoods neighborhoods = new ScanNeighborhoods(dataset, eps, distances, spatialIndex, cache);
+
 		//for each non visited point
 		for (DBPoint curPoint : dataset.values()) {
 			
@@ -41,15 +133,15 @@ public class DBScan {
 				
 				//sets the point to visited and extract its neighbors
 				curPoint.setVisited(true);
-				Set<DBPoint> neighbors = curPoint.regionQuery(dataset.values(), eps);
+				int[] neighbors = neighborhoods.get(curPoint, eps);
 				
 				//if the point does not qualify we treat it as noise
-				if (neighbors.size() < minPoints) {
+				if (neighbors.length < minPoints) {
 					curPoint.setCluster(DBPoint.Noise); //set point to noise
 				} 
 				//else generate a cluster
 				else {
-						expandCluster(dataset, curPoint, neighbors, clusterID, eps, minPoints);
+						expandCluster(dataset, neighborhoods, curPoint, neighbors, clusterID, eps, minPoints);
 						clusterID++;
 				}
 			}
@@ -65,24 +157,26 @@ public class DBScan {
 	 * neighborhood as seed points.
 	 * 
 	 * @param dataset Points to consider adding to the current cluster
+	 * @param neighborhoods Neighborhoods of the points of the dataset
 	 * @param seed Seed to use for clustering
-	 * @param neighbors The seeds' neighborhood (which should include itself)
+	 * @param neighbors Ids of the seeds' neighborhood
 	 * @param clusterID The current cluster's number.
 	 * @param neighborhoodSize The size of a point's neighborhood
 	 * @param minPoints Minimal number of points needed in a point's neighborhood needed for that neighborhood to be considered dense.
 	 */
-	private void expandCluster(HashMap<Integer,DBPoint> dataset, DBPoint seed, Set<DBPoint> neighbors, int clusterID, double eps, int minPoints) {
+	private void expandCluster(HashMap<Integer,DBPoint> dataset, ScanNeighborhoods neighborhoods, DBPoint seed, int[] neighbors, int clusterID, double eps, int minPoints) {
 		
 		//Setting the seed's cluster
 		seed.setCluster(clusterID);
 		
-		//For each neightbor
-		LinkedList<DBPoint> neighborList = new LinkedList<DBPoint>(neighbors);
-		while(neighborList.size() > 0) {
+		//For each neightbor, queued by id
+		int[] neighborList = neighbors.clone();
+		int head = 0;
+		int tail = neighborList.length;
+		while(head < tail) {
 			
 			//If the neighbor has not been see yet
-			DBPoint neighbor = neighborList.removeFirst();
-			neighbor = dataset.get(neighbor.id);
+			DBPoint neighbor = dataset.get(neighborList[head++]);
 
 			
 			if(neighbor.isVisited() == false) {
@@ -91,9 +185,17 @@ public class DBScan {
 				
 				//list the neighbors of this neighbor
 				//if it qualitfy then we add them to the list to process
-				Set<DBPoint> candidateNeighbors = neighbor.regionQuery(dataset.values(), eps);
-				if(candidateNeighbors.size() >= minPoints) {
-					neighborList.addAll(candidateNeighbors);
+				int[] candidateNeighbors = neighborhoods.get(neighbor, eps);
+				if(candidateNeighbors.length >= minPoints) {
+					//drop the ids already processed once they are half the list
+					if(head > 4096 && head > tail / 2) {
+						System.arraycopy(neighborList, head, neighborList, 0, tail - head);
+						tail -= head;
+						head = 0;
+					}
+					for(int candidate : candidateNeighbors) {
+						neighborList = RegionIndex.append(neighborList, tail++, candidate);
+					}
 				}
 			}
 			
@@ -103,4 +205,4 @@ public class DBScan {
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,8 +1,12 @@
 package cluster.dbscan;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.List;
+
+import distance.PairwiseDistance;
 
 /**
  * Class the implements the DBScan algorithm, without modifications
@@ -17,6 +21,106 @@ public class DBScanNear {
 	private double epsNear;
 	private int minPoints;
 	
+	/**
+	 * Distances between the points, by id, null to compute them
+	 */
+	private PairwiseDistance distances;
+	
+	/**
+	 * Index built over the points of each scan, GRID unless distances are looked up
+	 */
+	private SpatialIndex spatialIndex = SpatialIndex.GRID;
+	
+	/**
+	 * Neighborhoods kept from scan to scan
+	 */
+	private NeighborhoodCache cache = new NeighborhoodCache();
+	
+	/**
+	 * Neighborhoods of the current scan
+	 */
+	private ScanNeighborhoods neighborhoods;
+	
+	/**
+	 * Clusters found for an eps, by {@link DBScanNear#sweep(double[])}
+	 */
+	public static class Clustering {
+		
+		private final double eps;
+		private final double epsNear;
+		
+		/** Ordinals of the points, by id */
+		private final HashMap<Integer, Integer> ordinals;
+		
+		/** Cluster and type of each point, by ordinal */
+		private final int[] clusters;
+		private final int[] types;
+		
+		private final int clusterCount;
+		
+		Clustering(double eps, double epsNear, HashMap<Integer, Integer> ordinals, int[] clusters, int[] types, int clusterCount) {
+			this.eps = eps;
+			this.epsNear = epsNear;
+			this.ordinals = ordinals;
+			this.clusters = clusters;
+			this.types = types;
+			this.clusterCount = clusterCount;
+		}
+		
+		public double getEps() {
+			return eps;
+		}
+		
+		public double getEpsNear() {
+			return epsNear;
+		}
+		
+		/**
+		 * @param id Id of a point
+		 * @return Its cluster, {@link DBPoint#Undefined} for noise
+		 */
+		public int getCluster(int id) {
+			return clusters[ordinal(id)];
+		}
+		
+		/**
+		 * @param id Id of a point
+		 * @return Its type, {@link DBPoint#CorePoint}, {@link DBPoint#BorderPoint}, {@link DBPoint#NearPoint} or {@link DBPoint#Noise}
+		 */
+		public int getType(int id) {
+			return types[ordinal(id)];
+		}
+		
+		/**
+		 * @return Number of clusters
+		 */
+		public int getClusterCount() {
+			return clusterCount;
+		}
+		
+		/**
+		 * @param type Type of point, ex. {@link DBPoint#Noise}
+		 * @return Number of points of that type
+		 */
+		public int count(int type) {
+			int count = 0;
+			for(int pointType : types) {
+				if(pointType == type) {
+					count++;
+				}
+			}
+			return count;
+		}
+		
+		private int ordinal(int id) {
+			Integer ordinal = ordinals.get(id);
+			if(ordinal == null) {
+				throw new IllegalArgumentException("No point " + id);
+			}
+			return ordinal;
+		}
+	}
+	
 	/**
 	 * 
 	 * @param dataset  Points to form into clusters. The given set itself will be unchanged but the points in the set will be modified to reflect their clusters.
@@ -30,6 +134,47 @@ public class DBScanNear {
 		this.epsNear = epsNear;
 		this.minPoints = minPoints;
 	}
+	
+	/**
+	 * 
+	 * @param dataset  Points to form into clusters. The given set itself will be unchanged but the points in the set will be modified to reflect their clusters.
+	 * @param eps The size of the epsilon neighborhood to use.
+	 * @param epsNear The size of the epsilon neighborhood for near points
+	 * @param minPoints Minimal number of points a point needs in its epsilon neighborhood to be considered a seed.
+	 * @param distances Distances between the points, indexed by their ids, looked up instead of computed. See {@link DBScan#distanceMatrix}.
+	 */
+	public DBScanNear(HashMap<Integer, DBPoint> dataset, double eps, double epsNear, int minPoints, PairwiseDistance distances) {
+		this(dataset, eps, epsNear, minPoints);
+		this.distances = distances;
+		this.spatialIndex = SpatialIndex.NONE;
+	}
+	
+	/**
+	 * 
+	 * @param dataset  Points to form into clusters. The given set itself will be unchanged but the points in the set will be modified to reflect their clusters.
+	 * @param eps The size of the epsilon neighborhood to use.
+	 * @param epsNear The size of the epsilon neighborhood for near points
+	 * @param minPoints Minimal number of points a point needs in its epsilon neighborhood to be considered a seed.
+	 * @param spatialIndex Index built over the points of each scan, so a point's neighborhood is searched among the points close to it. The clusters are the same whatever the index.
+	 */
+	public DBScanNear(HashMap<Integer, DBPoint> dataset, double eps, double epsNear, int minPoints, SpatialIndex spatialIndex) {
+		this(dataset, eps, epsNear, minPoints);
+		this.spatialIndex = spatialIndex;
+	}
+	
+	/**
+	 * 
+	 * @param dataset  Points to form into clusters. The given set itself will be unchanged but the points in the set will be modified to reflect their clusters.
+	 * @param eps The size of the epsilon neighborhood to use.
+	 * @param epsNear The size of the epsilon neighborhood for near points
+	 * @param minPoints Minimal number of points a point needs in its epsilon neighborhood to be considered a seed.
+	 * @param spatialIndex Index built over the points of each scan, so a point's neighborhood is searched among the points close to it. The clusters are the same whatever the index.
+	 * @param cache Neighborhoods kept from scan to scan, which can be shared with other scans of the dataset. The eps neighborhoods are filtered from the epsNear ones kept, if epsNear is larger.
+	 */
+	public DBScanNear(HashMap<Integer, DBPoint> dataset, double eps, double epsNear, int minPoints, SpatialIndex spatialIndex, NeighborhoodCache cache) {
+		this(dataset, eps, epsNear, minPoints, spatialIndex);
+		this.cache = cache;
+	}
 
 	/**
 	 * This is the primary DBScan method that discovers seeds.
@@ -43,6 +188,9 @@ public class DBScanNear {
 			point.resetSelf();
 		}
 		
+		//the near points are searched in the same index, with their own radius
+		neighborhoods = new ScanNeighborhoods(dataset, eps, distances, spatialIndex, cache);
+		
 		
 		//for each unvisited points in the dataset
 		for(DBPoint curPoint : dataset.values()) {
@@ -52,7 +200,7 @@ public class DBScanNear {
 				curPoint.setVisited(true);
 				
 				//if the point does not qualify we treat it as noise
-				if(curPoint.regionQuery(dataset.values(), eps).size() < minPoints) {
+				if(neighborhoods.get(curPoint, eps).length < minPoints) {
 					curPoint.setCluster(DBPoint.Undefined);
 					curPoint.setType(DBPoint.Noise);
 				}
@@ -60,6 +208,7 @@ public class DBScanNear {
 				else {
 					//create a cluster
 					curPoint.setCluster(clusterID);
+					curPoint.setType(DBPoint.CorePoint);
 					
 					//expand the cluster
 					expandCluster(curPoint, clusterID);
@@ -72,6 +221,7 @@ public class DBScanNear {
 		
 		//Detect the nearPoints
 		setNearPoints();
+		neighborhoods = null;
 	}
 	
 	/**
@@ -87,24 +237,29 @@ public class DBScanNear {
 	private void expandCluster(DBPoint seed, int clusterID) {
 		
 		//For each candidate
-		LinkedList<DBPoint> candidates = new LinkedList<DBPoint>(seed.regionQuery(dataset.values(), eps));
+		ArrayDeque<Integer> candidates = new ArrayDeque<Integer>();
+		for(int id : neighborhoods.get(seed, eps)) {
+			candidates.add(id);
+		}
 		while(candidates.size() > 0) {
 			
 			//extracting the candidate
-			DBPoint candidate = dataset.get(candidates.removeFirst().id);
+			DBPoint candidate = dataset.get(candidates.removeFirst());
 			
 			//if the candidate has not been visited we try to add its neighbors
 			if(candidate.isVisited() == false) {
 				
 				candidate.setVisited(true);
 				
-				Set<DBPoint> neighbors = candidate.regionQuery(dataset.values(), eps);
-				if(neighbors.size() < minPoints) {
+				int[] neighbors = neighborhoods.get(candidate, eps);
+				if(neighbors.length < minPoints) {
 					candidate.setType(DBPoint.BorderPoint);
 				}
 				else {			
 					candidate.setType(DBPoint.CorePoint);
-					candidates.addAll(neighbors);
+					for(int id : neighbors) {
+						candidates.add(id);
+					}
 				}
 				
 			}
@@ -126,11 +281,12 @@ public class DBScanNear {
 			if(curPoint.getType() == DBPoint.Noise) {
 				
 				//Get the neighborhood of this noisy point
-				Set<DBPoint> neighbors = curPoint.regionQuery(dataset.values(), epsNear);
+				int[] neighbors = neighborhoods.get(curPoint, epsNear);
 				
 				//Find close clusters from this point
 				int clusterId = DBPoint.Undefined;
-				for(DBPoint neighbor : neighbors) {
+				for(int id : neighbors) {
+					DBPoint neighbor = dataset.get(id);
 					
 					if(neighbor.getType() != DBPoint.Noise) {
 						clusterId = neighbor.getCluster();
@@ -148,4 +304,111 @@ public class DBScanNear {
 		
 	}
 	
+	/**
+	 * Does the same as {@link #scan()} with a single search of neighborhoods, at the largest of eps and epsNear:
+	 * the neighborhoods of the other are the nearest points of those.
+	 */
+	public void scanSinglePass() {
+		SortedNeighborhoods neighborhoods = new SortedNeighborhoods(dataset, Math.max(eps, epsNear), distances, spatialIndex);
+		Clustering clustering = cluster(neighborhoods, eps);
+		for(int p = 0; p < neighborhoods.points.length; p++) {
+			DBPoint point = neighborhoods.points[p];
+			point.setVisited(true);
+			point.setCluster(clustering.clusters[p]);
+			point.setType(clustering.types[p]);
+		}
+	}
+	
+	/**
+	 * Clusters the dataset for several eps, with epsNear and minPoints, at about the cost of a single scan:
+	 * the neighborhoods are searched once, at the largest radius, and those of each eps are their nearest points.
+	 * The points aren't modified.
+	 * 
+	 * @param epsValues Sizes of the epsilon neighborhood to try
+	 * @return The clusters found for each, in the same order
+	 */
+	public List<Clustering> sweep(double[] epsValues) {
+		double radius = epsNear;
+		for(double value : epsValues) {
+			radius = Math.max(radius, value);
+		}
+		SortedNeighborhoods neighborhoods = new SortedNeighborhoods(dataset, radius, distances, spatialIndex);
+		List<Clustering> clusterings = new ArrayList<>();
+		for(double value : epsValues) {
+			clusterings.add(cluster(neighborhoods, value));
+		}
+		return clusterings;
+	}
+	
+	/**
+	 * Runs {@link #scan()} for an eps on neighborhoods already searched, by ordinal
+	 */
+	private Clustering cluster(SortedNeighborhoods neighborhoods, double eps) {
+		int size = neighborhoods.points.length;
+		boolean[] visited = new boolean[size];
+		int[] clusters = new int[size];
+		int[] types = new int[size];
+		Arrays.fill(clusters, DBPoint.Undefined);
+		Arrays.fill(types, DBPoint.Noise);
+		
+		int clusterID = 1;
+		for(int p = 0; p < size; p++) {
+			if(visited[p] == false) {
+				visited[p] = true;
+				
+				//if the point does not qualify we treat it as noise
+				if(neighborhoods.count(p, eps) < minPoints) {
+					types[p] = DBPoint.Noise;
+				}
+				//else generate and expand a cluster with this point
+				else {
+					clusters[p] = clusterID;
+					types[p] = DBPoint.CorePoint;
+					
+					ArrayDeque<Integer> candidates = new ArrayDeque<Integer>();
+					for(int neighbor : neighborhoods.within(p, eps)) {
+						candidates.add(neighbor);
+					}
+					while(candidates.size() > 0) {
+						int candidate = candidates.removeFirst();
+						if(visited[candidate] == false) {
+							visited[candidate] = true;
+							if(neighborhoods.count(candidate, eps) < minPoints) {
+								types[candidate] = DBPoint.BorderPoint;
+							}
+							else {
+								types[candidate] = DBPoint.CorePoint;
+								for(int neighbor : neighborhoods.within(candidate, eps)) {
+									candidates.add(neighbor);
+								}
+							}
+						}
+						if(clusters[candidate] == DBPoint.Undefined) {
+							clusters[candidate] = clusterID;
+						}
+					}
+					clusterID++;
+				}
+			}
+		}
+		
+		//the near points, as setNearPoints
+		for(int p = 0; p < size; p++) {
+			if(types[p] == DBPoint.Noise) {
+				int clusterId = DBPoint.Undefined;
+				for(int neighbor : neighborhoods.within(p, epsNear)) {
+					if(types[neighbor] != DBPoint.Noise) {
+						clusterId = clusters[neighbor];
+					}
+				}
+				if(clusterId != DBPoint.Undefined) {
+					clusters[p] = clusterId;
+					types[p] = DBPoint.NearPoint;
+				}
+			}
+		}
+		
+		return new Clustering(eps, epsNear, neighborhoods.ordinals, clusters, types, clusterID - 1);
+	}
+
 }
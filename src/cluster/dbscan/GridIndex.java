@@ -0,0 +1,158 @@
+package cluster.dbscan;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid of cells of a given size. Each point is in the cell its
+ * coordinates floor to, so the points within a radius of a point are in the
+ * cells overlapping the box of that radius around it: with eps-sized cells
+ * and a query of radius eps, the point's cell and the ones next to it.
+ */
+class GridIndex extends RegionIndex {
+
+	/**
+	 * Coordinates of a cell, the floors of the points' coordinates divided by
+	 * the cell size
+	 */
+	static final class Cell {
+		final long[] coordinates;
+		final int hash;
+
+		Cell(long[] coordinates) {
+			this.coordinates = coordinates;
+			this.hash = hash(coordinates);
+		}
+
+		/**
+		 * Mixes the coordinates, Arrays.hashCode gives neighboring cells
+		 * colliding hashes
+		 */
+		private static int hash(long[] coordinates) {
+			long hash = 0;
+			for (long coordinate : coordinates) {
+				hash = (hash + coordinate) * 0x9E3779B97F4A7C15L;
+				hash ^= hash >>> 32;
+			}
+			return (int) hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Cell && Arrays.equals(coordinates, ((Cell) o).coordinates);
+		}
+	}
+
+	private final double cellSize;
+
+	/** Ordinals of the points of each non empty cell */
+	private final HashMap<Cell, int[]> cells = new HashMap<>();
+
+	/**
+	 * @param points
+	 *            Points to index, by ordinal
+	 * @param dimensions
+	 *            Number of coordinates of every point
+	 * @param cellSize
+	 *            Size of the cells, the radius of most queries. Points are in
+	 *            a single cell if 0.
+	 */
+	GridIndex(DBPoint[] points, int dimensions, double cellSize) {
+		super(points, dimensions);
+		this.cellSize = cellSize;
+
+		HashMap<Cell, Integer> counts = new HashMap<>();
+		Cell[] pointCells = new Cell[points.length];
+		for (int p = 0; p < points.length; p++) {
+			long[] cell = new long[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				cell[d] = cell(coordinates[p * dimensions + d]);
+			}
+			pointCells[p] = new Cell(cell);
+			counts.merge(pointCells[p], 1, Integer::sum);
+		}
+		for (int p = 0; p < points.length; p++) {
+			int[] ordinals = cells.get(pointCells[p]);
+			if (ordinals == null) {
+				ordinals = new int[counts.get(pointCells[p])];
+				cells.put(pointCells[p], ordinals);
+			}
+			// fills from the end, the count left is where the next one goes
+			int left = counts.merge(pointCells[p], -1, Integer::sum);
+			ordinals[left] = p;
+		}
+	}
+
+	/**
+	 * Coordinate of the cell of a point's coordinate
+	 */
+	private long cell(double coordinate) {
+		return cell(coordinate, cellSize);
+	}
+
+	/**
+	 * Coordinate of the cell of a point's coordinate, with cells of a given size
+	 */
+	static long cell(double coordinate, double cellSize) {
+		return cellSize > 0 ? (long) Math.floor(coordinate / cellSize) : 0;
+	}
+
+	@Override
+	int[] candidates(double[] low, double[] high) {
+		long[] first = new long[dimensions];
+		long[] last = new long[dimensions];
+		double cellCount = 1;
+		for (int d = 0; d < dimensions; d++) {
+			first[d] = cell(low[d]);
+			last[d] = cell(high[d]);
+			cellCount *= (double) (last[d] - first[d] + 1);
+		}
+
+		int[] found = new int[0];
+		int count = 0;
+
+		// a radius much larger than the cells, cheaper to go through the non empty cells
+		if (cellCount > cells.size()) {
+			for (Map.Entry<Cell, int[]> entry : cells.entrySet()) {
+				long[] cell = entry.getKey().coordinates;
+				boolean inside = true;
+				for (int d = 0; d < dimensions && inside; d++) {
+					inside = cell[d] >= first[d] && cell[d] <= last[d];
+				}
+				if (inside) {
+					for (int ordinal : entry.getValue()) {
+						found = append(found, count++, ordinal);
+					}
+				}
+			}
+			return Arrays.copyOf(found, count);
+		}
+
+		// else every cell of the box, odometer style
+		long[] current = first.clone();
+		while (true) {
+			int[] ordinals = cells.get(new Cell(current));
+			if (ordinals != null) {
+				for (int ordinal : ordinals) {
+					found = append(found, count++, ordinal);
+				}
+			}
+			int d = 0;
+			while (d < dimensions && current[d] == last[d]) {
+				current[d] = first[d];
+				d++;
+			}
+			if (d == dimensions) {
+				break;
+			}
+			current[d]++;
+		}
+		return Arrays.copyOf(found, count);
+	}
+}
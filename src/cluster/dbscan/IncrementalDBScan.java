@@ -0,0 +1,542 @@
+package cluster.dbscan;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DBScan clusters kept up to date as points are inserted and deleted, after
+ * Ester et al., "Incremental Clustering for Mining in a Data Warehousing
+ * Environment", 1998.
+ *
+ * The neighborhoods of the points are kept, in a grid of eps-sized cells to
+ * find the neighbors of inserted points. An update only looks at the points
+ * it inserts and deletes and at their neighbors: those whose neighborhood grew
+ * past minPoints become core points, joining or merging the clusters of the
+ * core points next to them, and those whose neighborhood shrank below stop
+ * being core points, maybe splitting their cluster. Only the parts split off
+ * and the smaller clusters merged are gone through as a whole, to relabel
+ * their points.
+ *
+ * The core points are clustered as by {@link DBScan}, up to the cluster ids,
+ * and so are the noise points. A border point next to several clusters stays
+ * in its cluster while it is next to it, or goes to the one with the smallest
+ * id, where DBScan gives it to the first one it expands.
+ */
+public class IncrementalDBScan {
+
+	/**
+	 * A point changing cluster
+	 */
+	public static class Change {
+
+		/** Id of the point */
+		public final int id;
+
+		/**
+		 * Cluster it was in, {@link DBPoint#Noise} if it was noise and
+		 * {@link DBPoint#Undefined} if it was just inserted
+		 */
+		public final int from;
+
+		/**
+		 * Cluster it is in, {@link DBPoint#Noise} if it is noise and
+		 * {@link DBPoint#Undefined} if it was deleted
+		 */
+		public final int to;
+
+		Change(int id, int from, int to) {
+			this.id = id;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public String toString() {
+			return id + ": " + from + " -> " + to;
+		}
+	}
+
+	private final double eps;
+	private final int minPoints;
+
+	/** The points, by id */
+	private final HashMap<Integer, DBPoint> points = new HashMap<>();
+
+	/** Ids of the points in the epsilon neighborhood of each point, excluding itself */
+	private final HashMap<Integer, HashSet<Integer>> neighbors = new HashMap<>();
+
+	/** Ids of the points of each cell of the grid */
+	private final HashMap<GridIndex.Cell, HashSet<Integer>> grid = new HashMap<>();
+
+	/** Ids of the core points of each cluster */
+	private final HashMap<Integer, HashSet<Integer>> clusterCores = new HashMap<>();
+
+	/** Cluster of each point, Noise for noise */
+	private final HashMap<Integer, Integer> clusters = new HashMap<>();
+
+	/** Number of coordinates of the points, -1 before the first */
+	private int dimensions = -1;
+
+	private int nextClusterId = 1;
+
+	/**
+	 * Clusters of the current update, by id, as they were before it
+	 */
+	private LinkedHashMap<Integer, Integer> before;
+
+	/**
+	 * @param eps
+	 *            The size of the epsilon neighborhood to use.
+	 * @param minPoints
+	 *            Minimal number of points a point needs in its epsilon
+	 *            neighborhood to be considered a seed.
+	 */
+	public IncrementalDBScan(double eps, int minPoints) {
+		if (!(eps >= 0) || Double.isInfinite(eps)) {
+			throw new IllegalArgumentException("eps must be positive or 0, not " + eps);
+		}
+		this.eps = eps;
+		this.minPoints = minPoints;
+	}
+
+	/**
+	 * Inserts points, see {@link #update(Collection, Collection)}
+	 */
+	public List<Change> insert(Collection<DBPoint> insertions) {
+		return update(insertions, Collections.<Integer> emptyList());
+	}
+
+	/**
+	 * Deletes points, see {@link #update(Collection, Collection)}
+	 */
+	public List<Change> delete(Collection<Integer> deletions) {
+		return update(Collections.<DBPoint> emptyList(), deletions);
+	}
+
+	/**
+	 * Deletes then inserts points, and updates the clusters. The points
+	 * inserted are modified to reflect their clusters, as by
+	 * {@link DBScan#scan(HashMap, double, int)}, and so are the points already
+	 * there whose cluster changes.
+	 *
+	 * @param insertions
+	 *            Points to insert, with ids not already used and as many
+	 *            finite coordinates as the others
+	 * @param deletions
+	 *            Ids of the points to delete
+	 * @return The points whose cluster changed, in no particular order
+	 * @throws IllegalArgumentException
+	 *             If a point can't be inserted or deleted, in which case
+	 *             nothing is
+	 */
+	public List<Change> update(Collection<DBPoint> insertions, Collection<Integer> deletions) {
+		check(insertions, deletions);
+		before = new LinkedHashMap<>();
+
+		// points whose neighborhood changed, and points whose cluster may change
+		LinkedHashSet<Integer> changed = new LinkedHashSet<>();
+		LinkedHashSet<Integer> dirty = new LinkedHashSet<>();
+
+		// one at a time, so each core point lost is only checked against the points around it
+		for (int id : new LinkedHashSet<>(deletions)) {
+			DBPoint point = points.remove(id);
+			GridIndex.Cell cell = cell(point);
+			grid.get(cell).remove(id);
+			if (grid.get(cell).isEmpty()) {
+				grid.remove(cell);
+			}
+			HashSet<Integer> neighborhood = neighbors.remove(id);
+			for (int neighbor : neighborhood) {
+				neighbors.get(neighbor).remove(id);
+				changed.add(neighbor);
+			}
+			if (isCore(id)) {
+				removeCore(id, neighborhood, dirty);
+			}
+			assign(id, DBPoint.Undefined);
+			clusters.remove(id);
+			changed.remove(id);
+
+			// neighbors left with too few points around them
+			for (int neighbor : neighborhood) {
+				if (isCore(neighbor) && neighbors.get(neighbor).size() < minPoints) {
+					removeCore(neighbor, neighbors.get(neighbor), dirty);
+				}
+			}
+		}
+
+		for (DBPoint point : insertions) {
+			HashSet<Integer> neighborhood = new HashSet<>();
+			for (int other : candidates(point)) {
+				if (eps >= point.distanceTo(points.get(other))) {
+					neighborhood.add(other);
+					neighbors.get(other).add(point.id);
+					changed.add(other);
+				}
+			}
+			points.put(point.id, point);
+			neighbors.put(point.id, neighborhood);
+			grid.computeIfAbsent(cell(point), key -> new HashSet<>()).add(point.id);
+			before.putIfAbsent(point.id, DBPoint.Undefined);
+			clusters.put(point.id, DBPoint.Noise);
+			changed.add(point.id);
+		}
+
+		// core points gained, deletions only lose some
+		dirty.addAll(changed);
+		List<Integer> promoted = new ArrayList<>();
+		for (int id : changed) {
+			if (neighbors.get(id).size() >= minPoints && !isCore(id)) {
+				promoted.add(id);
+			}
+		}
+
+		HashSet<Integer> pending = new HashSet<>(promoted);
+		for (int id : promoted) {
+			pending.remove(id);
+			join(id, pending, dirty);
+		}
+
+		// the points which aren't core points go to a cluster next to them, if any
+		for (int id : dirty) {
+			if (points.containsKey(id) && !isCore(id)) {
+				int current = clusters.get(id);
+				int cluster = DBPoint.Noise;
+				for (int neighbor : neighbors.get(id)) {
+					if (isCore(neighbor)) {
+						int neighborCluster = clusters.get(neighbor);
+						if (neighborCluster == current) {
+							cluster = current;
+							break;
+						}
+						cluster = cluster == DBPoint.Noise ? neighborCluster : Math.min(cluster, neighborCluster);
+					}
+				}
+				assign(id, cluster);
+				points.get(id).setType(cluster == DBPoint.Noise ? DBPoint.Noise : DBPoint.BorderPoint);
+				points.get(id).setVisited(true);
+			}
+		}
+
+		List<Change> changes = new ArrayList<>();
+		for (Map.Entry<Integer, Integer> entry : before.entrySet()) {
+			int after = clusters.containsKey(entry.getKey()) ? clusters.get(entry.getKey()) : DBPoint.Undefined;
+			if (after != entry.getValue()) {
+				changes.add(new Change(entry.getKey(), entry.getValue(), after));
+			}
+		}
+		before = null;
+		return changes;
+	}
+
+	/**
+	 * Checks an update can be made before making it
+	 */
+	private void check(Collection<DBPoint> insertions, Collection<Integer> deletions) {
+		for (int id : deletions) {
+			if (!points.containsKey(id)) {
+				throw new IllegalArgumentException("No point " + id + " to delete");
+			}
+		}
+		HashSet<Integer> ids = new HashSet<>();
+		int size = dimensions;
+		for (DBPoint point : insertions) {
+			if (point.id == null || !ids.add(point.id) || (points.containsKey(point.id) && !deletions.contains(point.id))) {
+				throw new IllegalArgumentException("Point id " + point.id + " is already used");
+			}
+			if (size < 0) {
+				size = point.values.size();
+			}
+			if (point.values.size() != size) {
+				throw new IllegalArgumentException("Point " + point.id + " has " + point.values.size() + " dimensions, not " + size);
+			}
+			for (double value : point.getCoordinates()) {
+				if (Double.isNaN(value) || Double.isInfinite(value)) {
+					throw new IllegalArgumentException("Point " + point.id + " has a coordinate which isn't finite");
+				}
+			}
+		}
+		dimensions = size;
+	}
+
+	private boolean isCore(int id) {
+		Integer cluster = clusters.get(id);
+		HashSet<Integer> cores = cluster != null ? clusterCores.get(cluster) : null;
+		return cores != null && cores.contains(id);
+	}
+
+	/**
+	 * Moves a point to a cluster, remembering where it was for the changes
+	 */
+	private void assign(int id, int cluster) {
+		int current = clusters.get(id);
+		if (current == cluster) {
+			return;
+		}
+		if (!before.containsKey(id)) {
+			before.put(id, current);
+		}
+		clusters.put(id, cluster);
+		if (cluster != DBPoint.Undefined) {
+			points.get(id).setCluster(cluster);
+		}
+	}
+
+	/**
+	 * Makes a core point lose its status, or a deleted core point leave its
+	 * cluster, splitting the cluster if it held it together
+	 *
+	 * @param neighborhood
+	 *            Points next to it
+	 */
+	private void removeCore(int id, Set<Integer> neighborhood, Set<Integer> dirty) {
+		int cluster = clusters.get(id);
+		clusterCores.get(cluster).remove(id);
+		split(cluster, neighborhood, dirty);
+		dirty.addAll(neighborhood);
+		dirty.add(id);
+	}
+
+	/**
+	 * Splits a cluster which lost a core point into the groups of its core
+	 * points still next to each other.
+	 *
+	 * Each group holds some of the core points next to the one lost, so the
+	 * groups are searched from these at the same pace, one point at a time
+	 * each, joining searches which meet. Once a single search is left going,
+	 * the others have found whole groups, which become new clusters, and the
+	 * one left keeps the cluster's id without going through the rest of it.
+	 * When the points around the lost one are still next to each other the
+	 * searches meet right away, so the work is about the size of the groups
+	 * split off rather than the size of the cluster.
+	 *
+	 * @param seeds
+	 *            Points next to the core point the cluster lost
+	 */
+	private void split(int cluster, Set<Integer> seeds, Set<Integer> dirty) {
+		HashSet<Integer> cores = clusterCores.get(cluster);
+		if (cores.isEmpty()) {
+			clusterCores.remove(cluster);
+			return;
+		}
+		List<Integer> starts = new ArrayList<>();
+		for (int seed : seeds) {
+			if (cores.contains(seed)) {
+				starts.add(seed);
+			}
+		}
+		// each group of what is left holds one of them
+		if (starts.size() <= 1) {
+			return;
+		}
+
+		int count = starts.size();
+		int[] joined = new int[count];
+		boolean[] done = new boolean[count];
+		List<ArrayDeque<Integer>> queues = new ArrayList<>();
+		List<List<Integer>> found = new ArrayList<>();
+		HashMap<Integer, Integer> searches = new HashMap<>();
+		for (int s = 0; s < count; s++) {
+			joined[s] = s;
+			queues.add(new ArrayDeque<>(Collections.singleton(starts.get(s))));
+			found.add(new ArrayList<>(Collections.singleton(starts.get(s))));
+			searches.put(starts.get(s), s);
+		}
+
+		int going = count;
+		while (going > 1) {
+			for (int s = 0; s < count && going > 1; s++) {
+				if (joined[s] != s || done[s]) {
+					continue;
+				}
+				if (queues.get(s).isEmpty()) {
+					done[s] = true;
+					going--;
+					continue;
+				}
+				for (int neighbor : neighbors.get(queues.get(s).poll())) {
+					if (!cores.contains(neighbor)) {
+						continue;
+					}
+					Integer other = searches.get(neighbor);
+					if (other == null) {
+						searches.put(neighbor, s);
+						queues.get(s).add(neighbor);
+						found.get(s).add(neighbor);
+						continue;
+					}
+					while (joined[other] != other) {
+						other = joined[other];
+					}
+					if (other != s) {
+						joined[other] = s;
+						queues.get(s).addAll(queues.get(other));
+						found.get(s).addAll(found.get(other));
+						going--;
+					}
+				}
+			}
+		}
+
+		// the search still going keeps the id, or the largest group if all are done
+		int keeper = -1;
+		for (int s = 0; s < count; s++) {
+			if (joined[s] == s && (keeper < 0 || (!done[s] && done[keeper]) || (done[s] == done[keeper] && found.get(s).size() > found.get(keeper).size()))) {
+				keeper = s;
+			}
+		}
+		for (int s = 0; s < count; s++) {
+			if (joined[s] == s && s != keeper) {
+				int id = nextClusterId++;
+				HashSet<Integer> part = new HashSet<>(found.get(s));
+				cores.removeAll(part);
+				clusterCores.put(id, part);
+				for (int core : part) {
+					assign(core, id);
+					dirty.addAll(neighbors.get(core));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes a point a core point, in the cluster of the core points next to
+	 * it, merging their clusters into the largest if there are several, or in
+	 * a new cluster if there are none
+	 *
+	 * @param pending
+	 *            Points which will become core points but aren't yet
+	 */
+	private void join(int id, Set<Integer> pending, Set<Integer> dirty) {
+		HashSet<Integer> nextTo = new HashSet<>();
+		for (int neighbor : neighbors.get(id)) {
+			if (!pending.contains(neighbor) && isCore(neighbor)) {
+				nextTo.add(clusters.get(neighbor));
+			}
+		}
+
+		int target;
+		if (nextTo.isEmpty()) {
+			target = nextClusterId++;
+			clusterCores.put(target, new HashSet<>());
+		} else {
+			target = -1;
+			for (int cluster : nextTo) {
+				if (target < 0 || clusterCores.get(cluster).size() > clusterCores.get(target).size()) {
+					target = cluster;
+				}
+			}
+			for (int cluster : nextTo) {
+				if (cluster != target) {
+					HashSet<Integer> merged = clusterCores.remove(cluster);
+					clusterCores.get(target).addAll(merged);
+					for (int core : merged) {
+						assign(core, target);
+						dirty.addAll(neighbors.get(core));
+					}
+				}
+			}
+		}
+
+		// a border point, now a core point, leaves its cluster
+		int current = clusters.get(id);
+		if (current != DBPoint.Noise && clusterCores.containsKey(current)) {
+			clusterCores.get(current).remove(id);
+		}
+		clusterCores.get(target).add(id);
+		assign(id, target);
+		points.get(id).setType(DBPoint.CorePoint);
+		points.get(id).setVisited(true);
+		dirty.addAll(neighbors.get(id));
+	}
+
+	/**
+	 * Ids of the points in the cells a point's neighbors can be in
+	 */
+	private List<Integer> candidates(DBPoint point) {
+		double[] center = point.getCoordinates();
+		double reach = eps * (1 + RegionIndex.SLACK);
+		long[] first = new long[dimensions];
+		long[] last = new long[dimensions];
+		for (int d = 0; d < dimensions; d++) {
+			first[d] = GridIndex.cell(center[d] - reach, eps);
+			last[d] = GridIndex.cell(center[d] + reach, eps);
+		}
+		List<Integer> candidates = new ArrayList<>();
+		long[] current = first.clone();
+		while (true) {
+			HashSet<Integer> ids = grid.get(new GridIndex.Cell(current));
+			if (ids != null) {
+				candidates.addAll(ids);
+			}
+			int d = 0;
+			while (d < dimensions && current[d] == last[d]) {
+				current[d] = first[d];
+				d++;
+			}
+			if (d == dimensions) {
+				return candidates;
+			}
+			current[d]++;
+		}
+	}
+
+	/**
+	 * The cell of a point in the grid
+	 */
+	private GridIndex.Cell cell(DBPoint point) {
+		double[] coordinates = point.getCoordinates();
+		long[] cell = new long[dimensions];
+		for (int d = 0; d < dimensions; d++) {
+			cell[d] = GridIndex.cell(coordinates[d], eps);
+		}
+		return new GridIndex.Cell(cell);
+	}
+
+	/**
+	 * @return Number of points
+	 */
+	public int size() {
+		return points.size();
+	}
+
+	/**
+	 * @return The points, keyed by their id
+	 */
+	public Map<Integer, DBPoint> getPoints() {
+		return Collections.unmodifiableMap(points);
+	}
+
+	/**
+	 * Returns the cluster of a point
+	 *
+	 * @param id
+	 *            Id of the point
+	 * @return Its cluster, {@link DBPoint#Noise} for noise
+	 * @throws IllegalArgumentException
+	 *             If there is no such point
+	 */
+	public int getCluster(int id) {
+		Integer cluster = clusters.get(id);
+		if (cluster == null) {
+			throw new IllegalArgumentException("No point " + id);
+		}
+		return cluster;
+	}
+
+	/**
+	 * @return Number of clusters
+	 */
+	public int getClusterCount() {
+		return clusterCores.size();
+	}
+}
@@ -0,0 +1,222 @@
+package cluster.dbscan;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Epsilon neighborhoods of the points of a dataset, as lists of ids, kept by
+ * the scans of that dataset so they don't search them again.
+ *
+ * A neighborhood is kept for a point and a radius, and also gives the
+ * neighborhoods of smaller radii: those are its points close enough, so a
+ * scan with eps after one with a larger eps, or DBScanNear's eps after
+ * epsNear, only filters the neighborhoods found before. A larger radius is
+ * searched anew.
+ *
+ * The cache holds at most a given number of ids, the neighborhoods least
+ * recently used are dropped first. It is emptied when used for a dataset that
+ * doesn't hold the very same points under the same ids as the last one: after
+ * points were added, removed or replaced. It keeps those points until then.
+ * It isn't emptied if points are modified in place: call {@link #clear()}
+ * then.
+ */
+public class NeighborhoodCache {
+
+	/**
+	 * Most ids held by default, 64 MB worth
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 24;
+
+	/**
+	 * Ids a neighborhood is counted for on top of its own, for the memory it
+	 * takes besides them
+	 */
+	static final int ENTRY_OVERHEAD = 16;
+
+	/**
+	 * A point and a radius
+	 */
+	private static final class Key {
+		final int id;
+		final double eps;
+
+		Key(int id, double eps) {
+			this.id = id;
+			this.eps = eps;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * id + Double.hashCode(eps);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).id == id && Double.compare(((Key) o).eps, eps) == 0;
+		}
+	}
+
+	private final long capacity;
+
+	/** The neighborhoods, least recently used first */
+	private final LinkedHashMap<Key, int[]> neighborhoods = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** The radii kept for each point */
+	private final HashMap<Integer, TreeMap<Double, Key>> radii = new HashMap<>();
+
+	/** Ids held, with the overhead of each neighborhood */
+	private long size = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/** The points the neighborhoods are of, by id, null if none */
+	private HashMap<Integer, DBPoint> points = null;
+
+	public NeighborhoodCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            Most ids held, about 4 bytes each. 0 keeps nothing.
+	 */
+	public NeighborhoodCache(long capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("The capacity must be positive or 0, not " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Empties the cache unless the neighborhoods are of the same points, the
+	 * same instances under the same ids
+	 */
+	synchronized void use(Map<Integer, DBPoint> dataset) {
+		if (!samePoints(dataset)) {
+			clear();
+			points = new HashMap<>(dataset);
+		}
+	}
+
+	private boolean samePoints(Map<Integer, DBPoint> dataset) {
+		if (points == null || points.size() != dataset.size()) {
+			return false;
+		}
+		for (Map.Entry<Integer, DBPoint> entry : dataset.entrySet()) {
+			if (points.get(entry.getKey()) != entry.getValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the neighborhood of a point, found for that radius or filtered
+	 * from the smallest larger one kept.
+	 *
+	 * @param id
+	 *            Id of the point
+	 * @param eps
+	 *            The size of the epsilon neighborhood
+	 * @param within
+	 *            If a point is within eps of it, by id, to filter a larger
+	 *            neighborhood
+	 * @return The ids of its neighbors, not to be modified, or null if the
+	 *         cache can't tell
+	 */
+	synchronized int[] get(int id, double eps, IntPredicate within) {
+		int[] neighbors = neighborhoods.get(new Key(id, eps));
+		if (neighbors != null) {
+			hits++;
+			return neighbors;
+		}
+		TreeMap<Double, Key> kept = radii.get(id);
+		Map.Entry<Double, Key> larger = kept != null ? kept.higherEntry(eps) : null;
+		if (larger == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		int[] wider = neighborhoods.get(larger.getValue());
+		int count = 0;
+		neighbors = new int[wider.length];
+		for (int neighbor : wider) {
+			if (within.test(neighbor)) {
+				neighbors[count++] = neighbor;
+			}
+		}
+		neighbors = Arrays.copyOf(neighbors, count);
+		put(id, eps, neighbors);
+		return neighbors;
+	}
+
+	/**
+	 * Keeps the neighborhood of a point, dropping the least recently used
+	 * ones if the cache is full
+	 *
+	 * @param neighbors
+	 *            Ids of its neighbors, not to be modified afterwards
+	 */
+	synchronized void put(int id, double eps, int[] neighbors) {
+		long cost = neighbors.length + ENTRY_OVERHEAD;
+		if (cost > capacity) {
+			return;
+		}
+		Key key = new Key(id, eps);
+		int[] replaced = neighborhoods.put(key, neighbors);
+		if (replaced != null) {
+			size -= replaced.length + ENTRY_OVERHEAD;
+		}
+		radii.computeIfAbsent(id, point -> new TreeMap<>()).put(eps, key);
+		size += cost;
+
+		Iterator<Map.Entry<Key, int[]>> eldest = neighborhoods.entrySet().iterator();
+		while (size > capacity) {
+			Map.Entry<Key, int[]> entry = eldest.next();
+			eldest.remove();
+			size -= entry.getValue().length + ENTRY_OVERHEAD;
+			TreeMap<Double, Key> kept = radii.get(entry.getKey().id);
+			kept.remove(entry.getKey().eps);
+			if (kept.isEmpty()) {
+				radii.remove(entry.getKey().id);
+			}
+		}
+	}
+
+	/**
+	 * Drops every neighborhood
+	 */
+	public synchronized void clear() {
+		neighborhoods.clear();
+		radii.clear();
+		size = 0;
+		points = null;
+	}
+
+	/**
+	 * @return Ids held, with a few more for each neighborhood
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * @return Neighborhoods found in the cache, as kept or filtered
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Neighborhoods not in the cache, searched by the scans
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,219 @@
+package cluster.dbscan;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+/**
+ * DBScan run on several threads, in three passes over the points instead of
+ * expanding one cluster at a time:
+ * <ol>
+ * <li>the neighborhoods of the points, which tell which ones are core points</li>
+ * <li>the core points next to each other joined into clusters, in a disjoint set
+ * shared by the threads without locks</li>
+ * <li>the other points given the cluster of a core point next to them, or marked
+ * as noise</li>
+ * </ol>
+ *
+ * The clusters and their ids are those {@link DBScan} finds: clusters are
+ * numbered in the order of their first core point in the dataset, and a border
+ * point next to several clusters goes to the one numbered first, the one
+ * DBScan expands first.
+ */
+public class ParallelDBScan {
+
+	/**
+	 * Index built over the points of each scan, to search neighborhoods in
+	 */
+	private final SpatialIndex spatialIndex;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param pool
+	 *            Threads to scan on
+	 */
+	public ParallelDBScan(ForkJoinPool pool) {
+		this(SpatialIndex.GRID, pool);
+	}
+
+	/**
+	 * @param spatialIndex
+	 *            Index built over the points of each scan, so a point's
+	 *            neighborhood is searched among the points close to it
+	 * @param pool
+	 *            Threads to scan on
+	 */
+	public ParallelDBScan(SpatialIndex spatialIndex, ForkJoinPool pool) {
+		this.spatialIndex = spatialIndex;
+		this.pool = pool;
+	}
+
+	/**
+	 * Forms the points into clusters, as {@link DBScan#scan(HashMap, double, int)}.
+	 *
+	 * @param dataset
+	 *            Points to form into clusters, keyed by their ids. The given
+	 *            set itself will be unchanged but the points in the set will
+	 *            be modified to reflect their clusters.
+	 * @param eps
+	 *            The size of the epsilon neighborhood to use.
+	 * @param minPoints
+	 *            Minimal number of points a point needs in its epsilon
+	 *            neighborhood to be considered a seed.
+	 */
+	public void scan(HashMap<Integer, DBPoint> dataset, double eps, int minPoints) {
+
+		// the points by ordinal, their position in the dataset
+		int size = dataset.size();
+		DBPoint[] points = new DBPoint[size];
+		HashMap<Integer, Integer> ordinals = new HashMap<>();
+		int ordinal = 0;
+		for (Map.Entry<Integer, DBPoint> entry : dataset.entrySet()) {
+			points[ordinal] = entry.getValue();
+			ordinals.put(entry.getKey(), ordinal);
+			ordinal++;
+		}
+
+		// built before the threads read them
+		for (DBPoint point : points) {
+			point.resetSelf();
+			point.getCoordinates();
+		}
+		RegionIndex index = RegionIndex.build(spatialIndex, dataset.values(), eps);
+
+		// the neighborhoods, by ordinal, and the core points
+		int[][] neighbors = new int[size][];
+		boolean[] core = new boolean[size];
+		run(size, 256, p -> {
+			int[] neighborhood = points[p].neighborIds(dataset.values(), eps, null, index);
+			for (int i = 0; i < neighborhood.length; i++) {
+				neighborhood[i] = ordinals.get(neighborhood[i]);
+			}
+			neighbors[p] = neighborhood;
+			core[p] = neighborhood.length >= minPoints;
+		});
+
+		// the clusters of core points, each rooted at its first core point
+		AtomicIntegerArray parents = new AtomicIntegerArray(size);
+		for (int p = 0; p < size; p++) {
+			parents.set(p, p);
+		}
+		run(size, 1024, p -> {
+			if (core[p]) {
+				for (int q : neighbors[p]) {
+					if (core[q] && q < p) {
+						union(parents, p, q);
+					}
+				}
+			}
+		});
+
+		// numbered in the order DBScan finds them
+		int[] clusterIds = new int[size];
+		int clusterId = 1;
+		for (int p = 0; p < size; p++) {
+			if (core[p] && parents.get(p) == p) {
+				clusterIds[p] = clusterId++;
+			}
+		}
+
+		// the border points go to the first cluster next to them
+		run(size, 1024, p -> {
+			int root = -1;
+			if (core[p]) {
+				root = find(parents, p);
+			} else {
+				for (int q : neighbors[p]) {
+					if (core[q]) {
+						int neighborRoot = find(parents, q);
+						root = root < 0 ? neighborRoot : Math.min(root, neighborRoot);
+					}
+				}
+			}
+			points[p].setVisited(true);
+			points[p].setCluster(root < 0 ? DBPoint.Noise : clusterIds[root]);
+		});
+	}
+
+	/**
+	 * Root of the set of a point, halving the path to it on the way
+	 */
+	static int find(AtomicIntegerArray parents, int point) {
+		while (true) {
+			int parent = parents.get(point);
+			if (parent == point) {
+				return point;
+			}
+			int grandParent = parents.get(parent);
+			if (grandParent != parent) {
+				// another thread may have moved it already, then this one is lost, which is fine
+				parents.compareAndSet(point, parent, grandParent);
+			}
+			point = grandParent;
+		}
+	}
+
+	/**
+	 * Joins the sets of two points. The larger root always goes under the
+	 * smaller, so a root is the smallest point of its set and concurrent joins
+	 * can't make a cycle.
+	 */
+	static void union(AtomicIntegerArray parents, int a, int b) {
+		while (true) {
+			int rootA = find(parents, a);
+			int rootB = find(parents, b);
+			if (rootA == rootB) {
+				return;
+			}
+			int larger = Math.max(rootA, rootB);
+			int smaller = Math.min(rootA, rootB);
+			// fails if the larger root was joined meanwhile, then look again
+			if (parents.compareAndSet(larger, larger, smaller)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Runs a body for each point on the pool
+	 */
+	private void run(int size, int block, IntConsumer body) {
+		pool.invoke(new RangeTask(0, size, block, body));
+	}
+
+	/**
+	 * Runs a body for a range of points, split in blocks across the pool
+	 */
+	private static class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 4461905873126339562L;
+
+		private final int from;
+		private final int to;
+		private final int block;
+		private final IntConsumer body;
+
+		RangeTask(int from, int to, int block, IntConsumer body) {
+			this.from = from;
+			this.to = to;
+			this.block = block;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > block) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RangeTask(from, middle, block, body), new RangeTask(middle, to, block, body));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				body.accept(i);
+			}
+		}
+	}
+}
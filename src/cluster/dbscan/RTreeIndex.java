@@ -0,0 +1,173 @@
+package cluster.dbscan;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * R-tree bulk loaded with Sort-Tile-Recursive (Leutenegger, Lopez and
+ * Edgington, "STR: A Simple and Efficient Algorithm for R-Tree Packing",
+ * 1997): the points are sorted on the first coordinate into slabs, each slab
+ * on the next coordinate into smaller slabs, and so on, then packed by runs
+ * into full leaves. The levels above pack the nodes below the same way on
+ * the centers of their boxes.
+ *
+ * The points are all known before the queries, so packing them gives nodes
+ * that overlap about as little as those of an R*-tree, full and without the
+ * cost of inserting the points one by one.
+ */
+class RTreeIndex extends RegionIndex {
+
+	/**
+	 * Most children of a node
+	 */
+	static final int NODE_CAPACITY = 16;
+
+	/**
+	 * A node, its box and either its children or, for a leaf, its points
+	 */
+	private static final class Node {
+		final double[] low;
+		final double[] high;
+		Node[] children;
+		int[] ordinals;
+
+		Node(int dimensions) {
+			low = new double[dimensions];
+			high = new double[dimensions];
+			Arrays.fill(low, Double.POSITIVE_INFINITY);
+			Arrays.fill(high, Double.NEGATIVE_INFINITY);
+		}
+
+		void include(double[] otherLow, double[] otherHigh, int otherOffset) {
+			for (int d = 0; d < low.length; d++) {
+				low[d] = Math.min(low[d], otherLow[otherOffset + d]);
+				high[d] = Math.max(high[d], otherHigh[otherOffset + d]);
+			}
+		}
+
+		double center(int dimension) {
+			return (low[dimension] + high[dimension]) / 2;
+		}
+	}
+
+	private final Node root;
+
+	/**
+	 * @param points
+	 *            Points to index, by ordinal
+	 * @param dimensions
+	 *            Number of coordinates of every point
+	 */
+	RTreeIndex(DBPoint[] points, int dimensions) {
+		super(points, dimensions);
+
+		// the leaves, over the points
+		Integer[] order = new Integer[points.length];
+		for (int p = 0; p < order.length; p++) {
+			order[p] = p;
+		}
+		tile(order, 0, order.length, 0, (ordinal, d) -> coordinates[ordinal * dimensions + d]);
+		Node[] level = new Node[(order.length + NODE_CAPACITY - 1) / NODE_CAPACITY];
+		for (int n = 0; n < level.length; n++) {
+			int from = n * NODE_CAPACITY;
+			int to = Math.min(order.length, from + NODE_CAPACITY);
+			Node leaf = new Node(dimensions);
+			leaf.ordinals = new int[to - from];
+			for (int i = from; i < to; i++) {
+				leaf.ordinals[i - from] = order[i];
+				leaf.include(coordinates, coordinates, order[i] * dimensions);
+			}
+			level[n] = leaf;
+		}
+
+		// the levels above, until a single node
+		while (level.length > 1) {
+			final Node[] below = level;
+			Integer[] nodes = new Integer[below.length];
+			for (int n = 0; n < nodes.length; n++) {
+				nodes[n] = n;
+			}
+			tile(nodes, 0, nodes.length, 0, (n, d) -> below[n].center(d));
+			level = new Node[(nodes.length + NODE_CAPACITY - 1) / NODE_CAPACITY];
+			for (int n = 0; n < level.length; n++) {
+				int from = n * NODE_CAPACITY;
+				int to = Math.min(nodes.length, from + NODE_CAPACITY);
+				Node parent = new Node(dimensions);
+				parent.children = new Node[to - from];
+				for (int i = from; i < to; i++) {
+					Node child = below[nodes[i]];
+					parent.children[i - from] = child;
+					parent.include(child.low, child.high, 0);
+				}
+				level[n] = parent;
+			}
+		}
+		root = level[0];
+	}
+
+	/**
+	 * Coordinate of an entry to sort on
+	 */
+	private interface Position {
+		double get(int entry, int dimension);
+	}
+
+	/**
+	 * Orders entries so each run of {@link #NODE_CAPACITY} entries makes a
+	 * node: sorts them on a coordinate, then each slab of them on the next
+	 * coordinates
+	 */
+	private void tile(Integer[] entries, int from, int to, int dimension, Position position) {
+		Arrays.sort(entries, from, to, Comparator.comparingDouble((Integer entry) -> position.get(entry, dimension)));
+		int count = to - from;
+		if (dimension == dimensions - 1 || count <= NODE_CAPACITY) {
+			return;
+		}
+		int nodes = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		int slabs = (int) Math.ceil(Math.pow(nodes, 1.0 / (dimensions - dimension)));
+		int slabSize = NODE_CAPACITY * ((nodes + slabs - 1) / slabs);
+		for (int start = from; start < to; start += slabSize) {
+			tile(entries, start, Math.min(to, start + slabSize), dimension + 1, position);
+		}
+	}
+
+	@Override
+	int[] candidates(double[] low, double[] high) {
+		int[] found = new int[0];
+		int count = 0;
+		ArrayDeque<Node> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			if (!overlaps(node.low, node.high, 0, low, high)) {
+				continue;
+			}
+			if (node.ordinals != null) {
+				for (int ordinal : node.ordinals) {
+					int offset = ordinal * dimensions;
+					if (overlaps(coordinates, coordinates, offset, low, high)) {
+						found = append(found, count++, ordinal);
+					}
+				}
+			} else {
+				for (Node child : node.children) {
+					stack.push(child);
+				}
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * If a box overlaps the box of a query
+	 */
+	private boolean overlaps(double[] boxLow, double[] boxHigh, int offset, double[] low, double[] high) {
+		for (int d = 0; d < dimensions; d++) {
+			if (boxHigh[offset + d] < low[d] || boxLow[offset + d] > high[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
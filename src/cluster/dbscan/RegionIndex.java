@@ -0,0 +1,125 @@
+package cluster.dbscan;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Spatial index of the points of a scan, giving the points that may be within
+ * a radius of a point so {@link DBPoint#neighborIds} only compares it with
+ * those rather than with every point.
+ *
+ * Points are known by their ordinal, their position in the order the dataset
+ * was given in. Candidates come back in that order so a neighborhood is built
+ * in the same order as by comparing with every point.
+ */
+abstract class RegionIndex {
+
+	/**
+	 * Relative margin added to the radius of a query, so rounding errors in
+	 * {@link DBPoint#distanceTo(DBPoint)} can't leave out a point it finds
+	 * within the radius
+	 */
+	static final double SLACK = 1e-9;
+
+	/** The points, by ordinal */
+	final DBPoint[] points;
+	/** Coordinates of the points, one after the other */
+	final double[] coordinates;
+	final int dimensions;
+
+	RegionIndex(DBPoint[] points, int dimensions) {
+		this.points = points;
+		this.dimensions = dimensions;
+		this.coordinates = new double[points.length * dimensions];
+		for (int i = 0; i < points.length; i++) {
+			System.arraycopy(points[i].getCoordinates(), 0, coordinates, i * dimensions, dimensions);
+		}
+	}
+
+	/**
+	 * Returns the points that may be within a radius of a point: every such
+	 * point, and possibly others
+	 *
+	 * @param point
+	 *            Center of the query, of the dimensions of the indexed points
+	 * @param radius
+	 *            Radius of the query
+	 * @return The candidates, in the order the dataset was given in
+	 */
+	DBPoint[] candidates(DBPoint point, double radius) {
+		int[] ordinals = candidateOrdinals(point, radius);
+		Arrays.sort(ordinals);
+		DBPoint[] candidates = new DBPoint[ordinals.length];
+		for (int i = 0; i < ordinals.length; i++) {
+			candidates[i] = points[ordinals[i]];
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the ordinals of the points that may be within a radius of a
+	 * point, in any order
+	 */
+	int[] candidateOrdinals(DBPoint point, double radius) {
+		double[] center = point.getCoordinates();
+		double reach = radius * (1 + SLACK);
+		double[] low = new double[dimensions];
+		double[] high = new double[dimensions];
+		for (int d = 0; d < dimensions; d++) {
+			low[d] = center[d] - reach;
+			high[d] = center[d] + reach;
+		}
+		return candidates(low, high);
+	}
+
+	/**
+	 * Returns the ordinals of the points that may be inside a box, in any
+	 * order, every point inside and possibly others
+	 */
+	abstract int[] candidates(double[] low, double[] high);
+
+	/**
+	 * Builds an index of the given points, or returns null if they can't be
+	 * indexed: they don't all have the same number of dimensions, or
+	 * neighborIds wouldn't compare them on their coordinates
+	 *
+	 * @param type
+	 *            Kind of index
+	 * @param dataset
+	 *            Points to index, in the order neighborIds goes through them
+	 * @param eps
+	 *            Radius of most queries
+	 */
+	static RegionIndex build(SpatialIndex type, Collection<DBPoint> dataset, double eps) {
+		if (type == SpatialIndex.NONE || dataset.isEmpty() || !(eps >= 0) || Double.isInfinite(eps)) {
+			return null;
+		}
+		DBPoint[] points = dataset.toArray(new DBPoint[dataset.size()]);
+		int dimensions = points[0].values.size();
+		for (DBPoint point : points) {
+			if (point.values.size() != dimensions) {
+				return null;
+			}
+			for (double value : point.getCoordinates()) {
+				if (Double.isNaN(value) || Double.isInfinite(value)) {
+					return null;
+				}
+			}
+		}
+		if (dimensions == 0) {
+			return null;
+		}
+		return type == SpatialIndex.GRID ? new GridIndex(points, dimensions, eps) : new RTreeIndex(points, dimensions);
+	}
+
+	/**
+	 * Appends an ordinal to a growing array
+	 */
+	static int[] append(int[] array, int count, int value) {
+		if (count == array.length) {
+			array = Arrays.copyOf(array, Math.max(8, count * 2));
+		}
+		array[count] = value;
+		return array;
+	}
+}
@@ -0,0 +1,62 @@
+package cluster.dbscan;
+
+import java.util.HashMap;
+
+import distance.PairwiseDistance;
+
+/**
+ * Epsilon neighborhoods of the points of a scan, from the scan's cache or
+ * searched in a spatial index built the first time one is needed
+ */
+class ScanNeighborhoods {
+
+	private final HashMap<Integer, DBPoint> dataset;
+	private final double cellSize;
+	private final PairwiseDistance distances;
+	private final SpatialIndex spatialIndex;
+	private final NeighborhoodCache cache;
+
+	private RegionIndex index;
+	private boolean indexed = false;
+
+	/**
+	 * @param dataset
+	 *            Points of the scan, keyed by their ids
+	 * @param cellSize
+	 *            Radius of most queries, to build the index for
+	 * @param distances
+	 *            Distances between the points, indexed by their ids, or null
+	 *            to compute them. Looked up distances may be rounded, so
+	 *            they are not searched in an index.
+	 * @param spatialIndex
+	 *            Index to search the neighborhoods in
+	 * @param cache
+	 *            Neighborhoods kept from previous queries and scans
+	 */
+	ScanNeighborhoods(HashMap<Integer, DBPoint> dataset, double cellSize, PairwiseDistance distances, SpatialIndex spatialIndex, NeighborhoodCache cache) {
+		this.dataset = dataset;
+		this.cellSize = cellSize;
+		this.distances = distances;
+		this.spatialIndex = distances == null ? spatialIndex : SpatialIndex.NONE;
+		this.cache = cache;
+		cache.use(dataset);
+	}
+
+	/**
+	 * Returns the ids of the points, excluding itself, within eps of a point
+	 *
+	 * @return The ids, in the dataset's order, not to be modified
+	 */
+	int[] get(DBPoint point, double eps) {
+		int[] neighbors = cache.get(point.id, eps, id -> point.isWithin(dataset.get(id), eps, distances));
+		if (neighbors == null) {
+			if (!indexed) {
+				index = RegionIndex.build(spatialIndex, dataset.values(), cellSize);
+				indexed = true;
+			}
+			neighbors = point.neighborIds(dataset.values(), eps, distances, index);
+			cache.put(point.id, eps, neighbors);
+		}
+		return neighbors;
+	}
+}
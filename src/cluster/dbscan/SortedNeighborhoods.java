@@ -0,0 +1,146 @@
+package cluster.dbscan;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import distance.PairwiseDistance;
+
+/**
+ * Neighborhoods of the points of a dataset for a radius with their distances
+ * sorted, giving the neighborhoods of every smaller radius without searching
+ * them again: the number of points within a smaller radius is found in the
+ * sorted distances, and the points themselves by going through the
+ * neighborhood.
+ *
+ * Points are known by their ordinal, their position in the dataset.
+ */
+class SortedNeighborhoods {
+
+	/** The points, by ordinal */
+	final DBPoint[] points;
+
+	/** Ordinals of the points, by id */
+	final HashMap<Integer, Integer> ordinals = new HashMap<>();
+
+	/** Largest radius the neighborhoods are for */
+	final double radius;
+
+	/** Where the neighbors of each point start in the arrays below */
+	private final int[] offsets;
+
+	/** Ordinals of the neighbors of each point one after the other, in the dataset's order */
+	private final int[] neighbors;
+
+	/** Distances to the neighbors, in the same order */
+	private final double[] distances;
+
+	/** Distances to the neighbors of each point, sorted */
+	private final double[] sortedDistances;
+
+	/**
+	 * Searches the neighborhoods of every point
+	 *
+	 * @param dataset
+	 *            Points, keyed by their ids
+	 * @param radius
+	 *            Largest radius the neighborhoods will be asked for
+	 * @param pairDistances
+	 *            Distances between the points, indexed by their ids, or null
+	 *            to compute them
+	 * @param spatialIndex
+	 *            Index to search the neighborhoods in, not used if distances
+	 *            are looked up
+	 */
+	SortedNeighborhoods(HashMap<Integer, DBPoint> dataset, double radius, PairwiseDistance pairDistances, SpatialIndex spatialIndex) {
+		this.radius = radius;
+		points = new DBPoint[dataset.size()];
+		int ordinal = 0;
+		for (Map.Entry<Integer, DBPoint> entry : dataset.entrySet()) {
+			points[ordinal] = entry.getValue();
+			ordinals.put(entry.getKey(), ordinal++);
+		}
+		RegionIndex index = pairDistances == null ? RegionIndex.build(spatialIndex, dataset.values(), radius) : null;
+
+		offsets = new int[points.length + 1];
+		int[] allNeighbors = new int[Math.max(16, points.length)];
+		double[] allDistances = new double[allNeighbors.length];
+		int count = 0;
+		for (int p = 0; p < points.length; p++) {
+			DBPoint point = points[p];
+			int start = count;
+			int[] candidates = index != null ? index.candidateOrdinals(point, radius) : null;
+			int candidateCount = candidates != null ? candidates.length : points.length;
+			for (int c = 0; c < candidateCount; c++) {
+				int candidate = candidates != null ? candidates[c] : c;
+				if (candidate == p) {
+					continue;
+				}
+				double distance = point.distanceTo(points[candidate], pairDistances);
+				if (radius >= distance) {
+					if (count == allNeighbors.length) {
+						allNeighbors = Arrays.copyOf(allNeighbors, count * 2);
+						allDistances = Arrays.copyOf(allDistances, count * 2);
+					}
+					allNeighbors[count] = candidate;
+					allDistances[count] = distance;
+					count++;
+				}
+			}
+			// in the dataset's order, the index gives them in any order
+			if (candidates != null) {
+				long[] order = new long[count - start];
+				for (int i = 0; i < order.length; i++) {
+					order[i] = ((long) allNeighbors[start + i] << 32) | i;
+				}
+				Arrays.sort(order);
+				double[] found = Arrays.copyOfRange(allDistances, start, count);
+				for (int i = 0; i < order.length; i++) {
+					allNeighbors[start + i] = (int) (order[i] >>> 32);
+					allDistances[start + i] = found[(int) order[i]];
+				}
+			}
+			offsets[p + 1] = count;
+		}
+		neighbors = Arrays.copyOf(allNeighbors, count);
+		distances = Arrays.copyOf(allDistances, count);
+		sortedDistances = Arrays.copyOf(allDistances, count);
+		for (int p = 0; p < points.length; p++) {
+			Arrays.sort(sortedDistances, offsets[p], offsets[p + 1]);
+		}
+	}
+
+	/**
+	 * Returns how many points are within eps of a point
+	 */
+	int count(int point, double eps) {
+		// the first past eps
+		int low = offsets[point];
+		int high = offsets[point + 1];
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (eps >= sortedDistances[middle]) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low - offsets[point];
+	}
+
+	/**
+	 * Returns the ordinals of the points within eps of a point
+	 *
+	 * @return The ordinals, in the dataset's order
+	 */
+	int[] within(int point, double eps) {
+		int[] within = new int[count(point, eps)];
+		int found = 0;
+		for (int i = offsets[point]; found < within.length; i++) {
+			if (eps >= distances[i]) {
+				within[found++] = neighbors[i];
+			}
+		}
+		return within;
+	}
+}
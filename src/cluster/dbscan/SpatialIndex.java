@@ -0,0 +1,61 @@
+package cluster.dbscan;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Spatial indexes {@link DBScan} and {@link DBScanNear} can build over the
+ * points of a scan, so the epsilon neighborhood of a point is searched among
+ * the points close to it instead of the whole dataset. The clusters found are
+ * the same whatever the index.
+ *
+ * Points are only indexed if they all have the same number of finite
+ * coordinates, otherwise every point is compared as without an index.
+ *
+ * Other algorithms searching epsilon neighborhoods, such as OPTICS, build
+ * these indexes with {@link #candidates(double[][], double)}.
+ */
+public enum SpatialIndex {
+
+	/** Compare each point with every point */
+	NONE,
+
+	/**
+	 * A uniform grid of eps-sized cells, a neighborhood is searched in the
+	 * cells next to the point's. Best for 2 to 4 dimensions.
+	 */
+	GRID,
+
+	/**
+	 * An R-tree bulk loaded by Sort-Tile-Recursive, a neighborhood is searched
+	 * in the boxes overlapping the point's. Better than the grid for more
+	 * dimensions, where a point has many cells around it.
+	 */
+	RTREE;
+
+	/**
+	 * Builds an index of this kind over the given points, to search the
+	 * neighborhoods of a radius in.
+	 *
+	 * @param points
+	 *            Coordinates of the points, by position, not to be modified
+	 *            while the index is used
+	 * @param radius
+	 *            Radius of the neighborhoods
+	 * @return Gives the positions of the points that may be within the radius
+	 *         of a point, by its position: every such point, possibly others
+	 *         and the point itself, in any order. Null if the points can't be
+	 *         indexed, then compare each point with every point.
+	 */
+	public IntFunction<int[]> candidates(double[][] points, double radius) {
+		DBPoint[] indexed = new DBPoint[points.length];
+		for (int p = 0; p < points.length; p++) {
+			indexed[p] = new DBPoint(p, points[p]);
+		}
+		RegionIndex index = RegionIndex.build(this, Arrays.asList(indexed), radius);
+		if (index == null) {
+			return null;
+		}
+		return point -> index.candidateOrdinals(indexed[point], radius);
+	}
+}
@@ -4,11 +4,14 @@
 package cluster.optics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import distance.DistanceKernels;
+
 /**
  * A grouping of points that constitute a keyboard measurement.
  */
@@ -16,25 +19,45 @@ public class DBPoint {
 
 	public static final int Undefined = -2;
 	
+	/**
+	 * Cluster of a point in no cluster, see {@link OpticsExtraction}
+	 */
+	public static final int Noise = -1;
+	
 	/**
 	 * Reachable Distance for point, Undefined by default
 	 */
-	private static double reachabilityDistance = Undefined;
+	private double reachabilityDistance = Undefined;
 	
 	/**
 	 * Used by OPTICS clustering algorithm
 	 */
-	private static boolean processedPoint = false;
+	private boolean processedPoint = false;
 
 	/**
-	 * Contains the neighborhood of this DBPoint
+	 * Raw data points
 	 */
-	private Set<DBPoint> neighborhood = new HashSet<>();
+	public ArrayList<Double> values = new ArrayList<>();
 	
 	/**
-	 * Raw data points
+	 * The values unboxed for the distance kernels, built on first use
 	 */
-	public ArrayList<Double> values = new ArrayList<>();
+	private double[] coordinates = null;
+	
+	public DBPoint() {
+	}
+	
+	/**
+	 * Creates a point with the given coordinates
+	 * 
+	 * @param coordinates Coordinates of the point, copied
+	 */
+	public DBPoint(double[] coordinates) {
+		values.ensureCapacity(coordinates.length);
+		for(double value : coordinates) {
+			values.add(value);
+		}
+	}
 	
 	/**
 	 * @return the reachabilityDistance
@@ -50,7 +73,7 @@ public class DBPoint {
 	 * @param newReachDistance the reachabilityDistance to set
 	 */
 	public void setReachabilityDistance(double newReachDistance) {
-		DBPoint.reachabilityDistance = newReachDistance;
+		this.reachabilityDistance = newReachDistance;
 	}
 
 	/**
@@ -64,11 +87,12 @@ public class DBPoint {
 	 * @param processedPoint the processedPoint to set
 	 */
 	public void setProcessedPoint(boolean processedPoint) {
-		DBPoint.processedPoint = processedPoint;
+		this.processedPoint = processedPoint;
 	}
 
 	/**
 	 * Returns all points, excluding oneself, that are in the epsilon neighborhood of this point.
+	 * Nothing is remembered between calls: {@link Optics} searches each neighborhood once.
 	 * 
 	 * @param dataset Points to consider
 	 * @return the neighborhood
@@ -77,12 +101,9 @@ public class DBPoint {
 	 */
 	public Set<DBPoint> getNeighbors(Collection<DBPoint> dataset, double eps) {
 		
-		if(neighborhood.size() > 0) {
-			return neighborhood;
-		}
+		Set<DBPoint> neighborhood = new HashSet<>();
 
 		//Brute-force search. Check every point to see if they are close.
-		//The original implementation and others optimizations so that only log(n) checks need to be made, not n like below.
 		for(DBPoint point : dataset){
 			if(this != point && eps >= this.distanceTo(point)){
 				neighborhood.add(point);
@@ -92,7 +113,7 @@ public class DBPoint {
 	}
 	
 	/**Returns the distance between this point and another
-	 * @see #getNeighbors(Set, double) Note the distance metric has a direct impact on the choice of the neighborhood size that should be submitted
+	 * @see #getNeighbors(Collection, double) Note the distance metric has a direct impact on the choice of the neighborhood size that should be submitted
 	 * */
 	public double distanceTo(DBPoint point) {
 		
@@ -105,7 +126,27 @@ public class DBPoint {
 				return (-1) * Double.MAX_VALUE;
 			}
 		}
-		return sizeDiff;
+		
+		//else let's do a unit by unit comparison in Euclidean space.
+		double distance = DistanceKernels.squaredL2(this.getCoordinates(), 0, point.getCoordinates(), 0, values.size());
+		
+		return Math.sqrt(distance);
+	}
+	
+	/**
+	 * Returns the values of this point as an array, not a copy: callers must not modify it.
+	 * It is built on first use and again if values were added since, so the values
+	 * should not be changed in place once distances have been computed.
+	 */
+	public double[] getCoordinates() {
+		if(coordinates == null || coordinates.length != values.size()) {
+			double[] unboxed = new double[values.size()];
+			for(int curField=0;curField<unboxed.length;curField++){
+				unboxed[curField] = values.get(curField);
+			}
+			coordinates = unboxed;
+		}
+		return coordinates;
 	}
 
 
@@ -113,20 +154,27 @@ public class DBPoint {
 	 * describes the distance to the minimum points^th closest point
 	 * = { UNDEFINED if |Neps(p)|<MinPts
 	 *   { MinPts-th smallest distance to Neps(p) else
-	 * @param list list to use
+	 * @param neighborhood the epsilon neighborhood of this point, without itself
 	 * @param eps
 	 * @param minPoints minimum number of points
-	 * @return double The distance from the minPoints-th point.  Undefined if min points not reached yet.
+	 * @return double The distance from the minPoints-th closest neighbor.  Undefined if there are fewer than minPoints neighbors within eps.
 	 */
-	public double getCoreDistance(List<DBPoint> list, double eps, int minPoints) {
-		if (list.size() < minPoints) {
+	public double getCoreDistance(List<DBPoint> neighborhood, double eps, int minPoints) {
+		if (minPoints < 1) {
+			return 0;
+		}
+		if (neighborhood.size() < minPoints) {
 			return Undefined;
 		}
-		DBPoint pointB = list.get(minPoints);
-		double distance = this.distanceTo(pointB);
+		double[] distances = new double[neighborhood.size()];
+		for (int i = 0; i < distances.length; i++) {
+			distances[i] = this.distanceTo(neighborhood.get(i));
+		}
+		Arrays.sort(distances);
+		double distance = distances[minPoints - 1];
 		if (eps < distance) {
 			return Undefined;
 		}
-		return this.distanceTo(pointB);
+		return distance;
 	}
 }
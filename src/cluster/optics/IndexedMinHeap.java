@@ -0,0 +1,141 @@
+package cluster.optics;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary min-heap of the items 0 to capacity - 1 by a double key, which also
+ * knows where each item is in it so the key of an item can be lowered in
+ * O(log n) rather than the item added again. Items of equal keys come out
+ * smallest first, so the order is the same from run to run.
+ */
+class IndexedMinHeap {
+
+	/** Items, in heap order */
+	private final int[] heap;
+
+	/** Position of each item in the heap, -1 if not in it */
+	private final int[] positions;
+
+	/** Key of each item */
+	private final double[] keys;
+
+	private int size = 0;
+
+	/**
+	 * @param capacity
+	 *            Number of items, the heap holds items 0 to capacity - 1
+	 */
+	IndexedMinHeap(int capacity) {
+		heap = new int[capacity];
+		positions = new int[capacity];
+		keys = new double[capacity];
+		Arrays.fill(positions, -1);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(int item) {
+		return positions[item] >= 0;
+	}
+
+	/**
+	 * @return The key of an item, the last it had if no longer in the heap
+	 */
+	double key(int item) {
+		return keys[item];
+	}
+
+	/**
+	 * Adds an item, or lowers its key if it is in the heap with a larger one
+	 *
+	 * @return If the item was added or its key lowered
+	 */
+	boolean offer(int item, double key) {
+		int position = positions[item];
+		if (position < 0) {
+			keys[item] = key;
+			heap[size] = item;
+			positions[item] = size;
+			siftUp(size++);
+			return true;
+		}
+		if (key < keys[item]) {
+			keys[item] = key;
+			siftUp(position);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the item of the smallest key
+	 *
+	 * @throws NoSuchElementException
+	 *             If the heap is empty
+	 */
+	int poll() {
+		if (size == 0) {
+			throw new NoSuchElementException("The heap is empty");
+		}
+		int first = heap[0];
+		positions[first] = -1;
+		size--;
+		if (size > 0) {
+			move(heap[size], 0);
+			siftDown(0);
+		}
+		return first;
+	}
+
+	private void siftUp(int position) {
+		int item = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!before(item, heap[parent])) {
+				break;
+			}
+			move(heap[parent], position);
+			position = parent;
+		}
+		move(item, position);
+	}
+
+	private void siftDown(int position) {
+		int item = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], item)) {
+				break;
+			}
+			move(heap[child], position);
+			position = child;
+		}
+		move(item, position);
+	}
+
+	private void move(int item, int position) {
+		heap[position] = item;
+		positions[item] = position;
+	}
+
+	/**
+	 * If an item comes out before another
+	 */
+	private boolean before(int item, int other) {
+		int order = Double.compare(keys[item], keys[other]);
+		return order < 0 || (order == 0 && item < other);
+	}
+}
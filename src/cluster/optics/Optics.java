@@ -1,119 +1,254 @@
 package cluster.optics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Set;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import cluster.dbscan.SpatialIndex;
+import distance.PairwiseDistance;
 
 
 /**
- * Class the implements the OPTICS algorithm, without modifications
- * 
+ * Class the implements the OPTICS algorithm, without modifications. For a
+ * reference, see Ankerst, Breunig, Kriegel and Sander, "OPTICS: Ordering
+ * Points To Identify the Clustering Structure", 1999.
+ *
+ * The points waiting to be processed are kept in an indexed heap, by their
+ * reachability distance, which is lowered in place when a closer core point
+ * is processed. Each neighborhood is searched once, in a spatial index of the
+ * points, so the ordering takes O(n log n) when neighborhoods are small.
+ *
+ * A point is a core point if it has at least minPoints other points within
+ * eps, as for {@link cluster.dbscan.DBScan}.
  */
 public class Optics {
+
+	/**
+	 * The points of the last dataset ordered, in the cluster ordering
+	 */
 	List<DBPoint> list = new ArrayList<DBPoint>();
 
+	/**
+	 * Distances between the points, by id, null to compute them
+	 */
+	private final PairwiseDistance distances;
+
+	/**
+	 * Index built over the points of each ordering, to search neighborhoods in
+	 */
+	private final SpatialIndex spatialIndex;
+
+	public Optics() {
+		this(SpatialIndex.GRID);
+	}
+
+	/**
+	 * @param spatialIndex
+	 *            Index built over the points of each ordering, so a point's
+	 *            neighborhood is searched among the points close to it. The
+	 *            ordering is the same whatever the index.
+	 */
+	public Optics(SpatialIndex spatialIndex) {
+		this.distances = null;
+		this.spatialIndex = spatialIndex;
+	}
+
+	/**
+	 * @param distances
+	 *            Distances between the points to order, indexed by their ids,
+	 *            looked up instead of computed
+	 */
+	public Optics(PairwiseDistance distances) {
+		this.distances = distances;
+		this.spatialIndex = SpatialIndex.NONE;
+	}
+
 	/**
 	 * This is the primary optics method that discovers seeds, considering
 	 * more densely packed clusters than DBScan
-	 * 
+	 *
 	 * @param dataset
 	 *            Points to form into clusters. The given set itself will be
 	 *            unchanged but the points in the set will be modified to
-	 *            reflect their clusters.
+	 *            reflect their reachability distances, Undefined for the
+	 *            first point of each connected part.
+	 * @param eps
+	 *            The size of the epsilon neighborhood to use.
+	 * @param minPoints
+	 *            Minimal number of points a point needs in its epsilon
+	 *            neighborhood to be considered a seed.
+	 * @return The cluster ordering
+	 */
+	public ReachabilityPlot optics(HashMap<Integer, DBPoint> dataset, double eps, int minPoints) {
+		ReachabilityPlot plot = order(dataset, eps, minPoints);
+		list.clear();
+		for (int position = 0; position < plot.size(); position++) {
+			DBPoint point = dataset.get(plot.getOrder()[position]);
+			double reachability = plot.getReachability()[position];
+			point.setReachabilityDistance(Double.isInfinite(reachability) ? DBPoint.Undefined : reachability);
+			point.setProcessedPoint(true);
+			list.add(point);
+		}
+		return plot;
+	}
+
+	/**
+	 * Finds the cluster ordering of the points, without modifying them.
+	 * Points are started from in the dataset's order, and of points as
+	 * reachable the one of smallest position in the dataset comes first, so
+	 * the ordering is the same from run to run.
+	 *
+	 * @param dataset
+	 *            Points to order, keyed by their ids
 	 * @param eps
 	 *            The size of the epsilon neighborhood to use.
 	 * @param minPoints
 	 *            Minimal number of points a point needs in its epsilon
 	 *            neighborhood to be considered a seed.
+	 * @return The cluster ordering
 	 */
-	public void optics(HashMap<Integer, DBPoint> dataset, double eps, int minPoints) {
-		
-		// for each point p of DB, set reachable distance to undefined
-		for (DBPoint point : dataset.values()) {
-			point.setReachabilityDistance(DBPoint.Undefined);
+	public ReachabilityPlot order(HashMap<Integer, DBPoint> dataset, double eps, int minPoints) {
+		if (!(eps >= 0)) {
+			throw new IllegalArgumentException("eps must be positive or 0, not " + eps);
 		}
 
-		// for every unprocessed point p of DB
-		for (DBPoint pointP: dataset.values()) {
-			Set<DBPoint> neighborsN = pointP.getNeighbors(dataset.values(), eps);
-			pointP.setProcessedPoint(true);
-			list.add(pointP);
-			if (pointP.getCoreDistance(list, eps, minPoints) != DBPoint.Undefined) {
-				PriorityQueue<DBPoint> seeds = new PriorityQueue<DBPoint>(5, DBPointComparator);
-				update(neighborsN, pointP, seeds, eps, minPoints);
-				Iterator<DBPoint> iteratorQ = seeds.iterator();
-				while (iteratorQ.hasNext()) {
-					DBPoint pointQ = iteratorQ.next();
-					Set<DBPoint> neighborsNPrime = pointQ.getNeighbors(dataset.values(), eps);
-					pointQ.setProcessedPoint(true);
-					list.add(pointQ);
-					if (pointQ.getCoreDistance(list, eps, minPoints) != DBPoint.Undefined) {
-						update(neighborsNPrime, pointQ, seeds, eps, minPoints);
+		// the points by ordinal, their position in the dataset
+		int size = dataset.size();
+		DBPoint[] points = new DBPoint[size];
+		int[] ids = new int[size];
+		int ordinal = 0;
+		for (Map.Entry<Integer, DBPoint> entry : dataset.entrySet()) {
+			points[ordinal] = entry.getValue();
+			ids[ordinal] = entry.getKey();
+			ordinal++;
+		}
+		IntFunction<int[]> candidates = distances == null ? candidates(points, eps) : null;
+
+		int[] order = new int[size];
+		double[] reachability = new double[size];
+		double[] coreDistances = new double[size];
+		boolean[] processed = new boolean[size];
+		IndexedMinHeap seeds = new IndexedMinHeap(size);
+		Neighborhood neighborhood = new Neighborhood();
+		int position = 0;
+		for (int start = 0; start < size; start++) {
+			if (processed[start]) {
+				continue;
+			}
+			// each point of a connected part, the closest to those before first
+			int next = start;
+			double nextReachability = Double.POSITIVE_INFINITY;
+			while (true) {
+				processed[next] = true;
+				order[position] = ids[next];
+				reachability[position] = nextReachability;
+
+				neighborhood.search(next, points, ids, eps, candidates);
+				double coreDistance = neighborhood.coreDistance(minPoints);
+				coreDistances[position] = coreDistance;
+				position++;
+
+				if (!Double.isInfinite(coreDistance)) {
+					for (int n = 0; n < neighborhood.count; n++) {
+						int neighbor = neighborhood.ordinals[n];
+						if (!processed[neighbor]) {
+							seeds.offer(neighbor, Math.max(coreDistance, neighborhood.distances[n]));
+						}
 					}
 				}
-				
+				if (seeds.isEmpty()) {
+					break;
+				}
+				next = seeds.poll();
+				nextReachability = seeds.key(next);
 			}
 		}
+		return new ReachabilityPlot(eps, minPoints, order, reachability, coreDistances);
 	}
 
-	public static Comparator<DBPoint> DBPointComparator = new Comparator<DBPoint>() {
+	/**
+	 * Orders points by their reachability distance, Undefined last.
+	 *
+	 * @deprecated Optics no longer sorts DBPoints, its seeds are kept by
+	 *             ordinal in an indexed heap. This compared the distance
+	 *             between the two points cast to int, which isn't an
+	 *             ordering; it now compares their reachability distances.
+	 */
+	@Deprecated
+	public static Comparator<DBPoint> DBPointComparator = Comparator.comparingDouble(
+			(DBPoint point) -> point.getReachabilityDistance() == DBPoint.Undefined ? Double.POSITIVE_INFINITY : point.getReachabilityDistance());
 
-		@Override
-		public int compare(DBPoint o1, DBPoint o2) {
-			return (int) o1.distanceTo(o2);
+	/**
+	 * The index to search neighborhoods in, null to compare each point with
+	 * every point
+	 */
+	private IntFunction<int[]> candidates(DBPoint[] points, double eps) {
+		if (spatialIndex == SpatialIndex.NONE || Double.isInfinite(eps)) {
+			return null;
 		}
-		
-	};
-	
+		double[][] coordinates = new double[points.length][];
+		for (int p = 0; p < points.length; p++) {
+			coordinates[p] = points[p].getCoordinates();
+		}
+		return spatialIndex.candidates(coordinates, eps);
+	}
+
 	/**
-	 * Implementation for the update routine in the OPTICS algorithm.
-	 * 
-	 * This looks at neighborly distances and sets new reachability distances,
-	 * adding points to the priority queue
-	 * 
-	 * @param neighborsN The point's neighborhood (which should include itself)
-	 * @param pointP Points to consider adding to the current cluster
-	 * @param eps The size of the epsilon neighborhood to use.
-	 * @param seed Priority queue seeds to add
-	 * @param minPoints Minimal number of points needed in a point's neighborhood needed for that neighborhood to be considered dense.
+	 * The epsilon neighborhood of the point being processed, its ordinals and
+	 * distances, reused from point to point
 	 */
-	private void update(Set<DBPoint> neighborsN, DBPoint pointP, PriorityQueue<DBPoint> seeds,
-		double eps, int minPoints) {
-		double coreDistance = pointP.getCoreDistance(list, eps, minPoints);
-		Iterator<DBPoint> iteratorN = neighborsN.iterator();
-		// add new reachable points and seeds in each neighborhood point
-		while (iteratorN.hasNext()) {
-			DBPoint pointO = iteratorN.next();
-			if (!pointO.isProcessedPoint()) {
-				double newReachDistance = maxDistance(coreDistance, pointP.distanceTo(pointO));
-				if (pointO.getReachabilityDistance() == DBPoint.Undefined) {
-					pointO.setReachabilityDistance(newReachDistance);
-					seeds.offer(pointO);
-				} else {
-					if (newReachDistance < pointO.getReachabilityDistance()) {
-						pointO.setReachabilityDistance(newReachDistance);
-						seeds.add(pointO);
+	private class Neighborhood {
+		int[] ordinals = new int[16];
+		double[] distances = new double[16];
+		int count;
+
+		/** Distances sorted to find the core distance */
+		double[] sorted = new double[16];
+
+		void search(int point, DBPoint[] points, int[] ids, double eps, IntFunction<int[]> candidates) {
+			count = 0;
+			int[] found = candidates != null ? candidates.apply(point) : null;
+			int candidateCount = found != null ? found.length : points.length;
+			for (int c = 0; c < candidateCount; c++) {
+				int candidate = found != null ? found[c] : c;
+				if (candidate == point) {
+					continue;
+				}
+				double distance = Optics.this.distances != null ? Optics.this.distances.distance(ids[point], ids[candidate])
+						: points[point].distanceTo(points[candidate]);
+				if (eps >= distance) {
+					if (count == ordinals.length) {
+						ordinals = Arrays.copyOf(ordinals, count * 2);
+						distances = Arrays.copyOf(distances, count * 2);
 					}
+					ordinals[count] = candidate;
+					distances[count] = distance;
+					count++;
 				}
 			}
 		}
-	}
 
-	/**
-	 * Calculate which is the maximum distance
-	 * 
-	 * @param coreDistance first distance
-	 * @param distanceBetweenPoints second distance
-	 */
-	private double maxDistance(double coreDistance, double distanceBetweenPoints) {
-		if (distanceBetweenPoints < coreDistance) {
-			return coreDistance;
+		/**
+		 * The distance to the minPoints-th closest neighbor, infinite if there
+		 * are fewer neighbors
+		 */
+		double coreDistance(int minPoints) {
+			if (minPoints < 1) {
+				return 0;
+			}
+			if (count < minPoints) {
+				return Double.POSITIVE_INFINITY;
+			}
+			if (sorted.length < count) {
+				sorted = new double[ordinals.length];
+			}
+			System.arraycopy(distances, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+			return sorted[minPoints - 1];
 		}
-		return distanceBetweenPoints;
 	}
-
 }
@@ -0,0 +1,306 @@
+package cluster.optics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Clusterings read from a {@link ReachabilityPlot}, in a pass over its
+ * reachability distances, without ordering the points again:
+ * <ul>
+ * <li>{@link #dbscan(ReachabilityPlot, double)}, the clusters DBScan finds
+ * for any eps' up to the eps of the plot</li>
+ * <li>{@link #xi(ReachabilityPlot, double, int)}, the valleys of the plot
+ * whose sides are steep, clusters of different densities nested in each
+ * other</li>
+ * </ul>
+ * Points are known by their position in the plot, see
+ * {@link ReachabilityPlot#getOrder()} for their ids.
+ */
+public class OpticsExtraction {
+
+	/**
+	 * A cluster found by Xi: the points from start to end in the plot
+	 */
+	public static class Cluster {
+
+		private final int start;
+		private final int end;
+
+		Cluster(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return Position of its first point
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * @return Position of its last point, included
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return Number of points
+		 */
+		public int size() {
+			return end - start + 1;
+		}
+
+		/**
+		 * @return If the other cluster is this one or nested in it
+		 */
+		public boolean contains(Cluster other) {
+			return start <= other.start && other.end <= end;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + start + ", " + end + "]";
+		}
+	}
+
+	private OpticsExtraction() {
+	}
+
+	/**
+	 * Extracts the clusters DBScan finds with eps' and the minPoints of the
+	 * plot (ExtractDBSCAN-Clustering in the OPTICS paper). The core points
+	 * and their clusters are exactly DBScan's. A border point is in the
+	 * cluster of a core point before it in the ordering, or noise if its core
+	 * points all come after it, which is rare.
+	 *
+	 * Each eps' costs a pass over the plot, so clusterings for many values of
+	 * eps come from one ordering with the largest.
+	 *
+	 * @param plot
+	 *            The cluster ordering
+	 * @param eps
+	 *            The size of the epsilon neighborhood, at most the eps of the
+	 *            plot
+	 * @return The cluster of each point, by position in the plot, numbered
+	 *         from 1 in the order of the plot, {@link DBPoint#Noise} for
+	 *         noise
+	 * @throws IllegalArgumentException
+	 *             If eps is larger than the eps the plot was ordered with
+	 */
+	public static int[] dbscan(ReachabilityPlot plot, double eps) {
+		if (!(eps >= 0 && eps <= plot.getEps())) {
+			throw new IllegalArgumentException("eps must be between 0 and the plot's " + plot.getEps() + ", not " + eps);
+		}
+		double[] reachability = plot.getReachability();
+		double[] coreDistances = plot.getCoreDistances();
+		int[] clusters = new int[plot.size()];
+		int cluster = DBPoint.Noise;
+		int clusterCount = 0;
+		for (int position = 0; position < clusters.length; position++) {
+			if (reachability[position] > eps) {
+				// not reachable from the points before, starts a cluster if a core point
+				cluster = coreDistances[position] <= eps ? ++clusterCount : DBPoint.Noise;
+			}
+			clusters[position] = cluster;
+		}
+		return clusters;
+	}
+
+	/**
+	 * Extracts the Xi clusters of the plot (Ankerst, Breunig, Kriegel and
+	 * Sander, section 4.3): the valleys that start with a steep downward
+	 * area, where each point is at least a fraction xi below the one before,
+	 * and end with a steep upward area. Each cluster is cut at the side
+	 * that is higher, to the point about as high as the other side. A steep
+	 * area may hold up to minPoints points in a row that aren't steep.
+	 *
+	 * The plot is gone through once. The steep downward areas still open are
+	 * kept on the side, few unless the clusters are nested deeply.
+	 *
+	 * @param plot
+	 *            The cluster ordering
+	 * @param xi
+	 *            Steepness of the sides of a cluster, between 0 and 1
+	 * @param minClusterSize
+	 *            Fewest points in a cluster
+	 * @return The clusters, a cluster before the clusters it is nested in
+	 * @throws IllegalArgumentException
+	 *             If xi isn't between 0 and 1
+	 */
+	public static List<Cluster> xi(ReachabilityPlot plot, double xi, int minClusterSize) {
+		if (!(xi > 0 && xi < 1)) {
+			throw new IllegalArgumentException("xi must be between 0 and 1, not " + xi);
+		}
+		int size = plot.size();
+		int minPoints = Math.max(1, plot.getMinPoints());
+		double complement = 1 - xi;
+
+		// the reachability, ending past the last point as after a gap
+		double[] reachability = new double[size + 1];
+		System.arraycopy(plot.getReachability(), 0, reachability, 0, size);
+		reachability[size] = Double.POSITIVE_INFINITY;
+
+		// how each point compares with the next, NaN between two undefined
+		boolean[] steepUp = new boolean[size];
+		boolean[] steepDown = new boolean[size];
+		boolean[] up = new boolean[size];
+		boolean[] down = new boolean[size];
+		for (int p = 0; p < size; p++) {
+			double ratio = reachability[p] / reachability[p + 1];
+			steepUp[p] = ratio <= complement;
+			steepDown[p] = ratio >= 1 / complement;
+			up[p] = ratio < 1;
+			down[p] = ratio > 1;
+		}
+
+		List<Cluster> clusters = new ArrayList<>();
+		List<SteepDownArea> downAreas = new ArrayList<>();
+		int index = 0;
+		double mib = 0;
+		for (int steep = 0; steep < size; steep++) {
+			if (steep < index || !(steepUp[steep] || steepDown[steep])) {
+				continue;
+			}
+			// the highest point since the last steep area
+			for (int p = index; p <= steep; p++) {
+				mib = Math.max(mib, reachability[p]);
+			}
+			filter(downAreas, mib, complement, reachability);
+
+			if (steepDown[steep]) {
+				int end = extend(steepDown, up, steep, minPoints);
+				downAreas.add(new SteepDownArea(steep, end));
+				index = end + 1;
+				mib = reachability[index];
+				continue;
+			}
+
+			int upStart = steep;
+			int upEnd = extend(steepUp, down, steep, minPoints);
+			index = upEnd + 1;
+			mib = reachability[index];
+
+			// the valleys this steep upward area closes, the widest first
+			List<Cluster> closed = new ArrayList<>();
+			for (SteepDownArea area : downAreas) {
+				int start = area.start;
+				int end = upEnd;
+				double after = reachability[end + 1];
+				if (after * complement < area.mib) {
+					continue;
+				}
+				double before = reachability[area.start];
+				if (before * complement >= after) {
+					// starts at the point of the downward area about as high as the end
+					while (reachability[start + 1] > after && start < area.end) {
+						start++;
+					}
+				} else if (after * complement >= before) {
+					// ends at the point of the upward area about as high as the start
+					while (reachability[end - 1] > before && end > upStart) {
+						end--;
+					}
+				}
+				if (end - start + 1 < minClusterSize || start > area.end || end < upStart) {
+					continue;
+				}
+				closed.add(new Cluster(start, end));
+			}
+			Collections.reverse(closed);
+			clusters.addAll(closed);
+		}
+		return clusters;
+	}
+
+	/**
+	 * Labels the points with the innermost clusters: the clusters are taken
+	 * in the order of the list, and one is skipped if it holds a point
+	 * labeled already
+	 *
+	 * @param plot
+	 *            The cluster ordering the clusters are of
+	 * @param clusters
+	 *            Clusters of the plot, as {@link #xi} gives them
+	 * @return The cluster of each point, by position in the plot, numbered
+	 *         from 1, {@link DBPoint#Noise} for noise
+	 */
+	public static int[] labels(ReachabilityPlot plot, List<Cluster> clusters) {
+		int[] labels = new int[plot.size()];
+		Arrays.fill(labels, DBPoint.Noise);
+		int label = 0;
+		for (Cluster cluster : clusters) {
+			boolean free = true;
+			for (int p = cluster.start; p <= cluster.end && free; p++) {
+				free = labels[p] == DBPoint.Noise;
+			}
+			if (free) {
+				label++;
+				for (int p = cluster.start; p <= cluster.end; p++) {
+					labels[p] = label;
+				}
+			}
+		}
+		return labels;
+	}
+
+	/**
+	 * A steep downward area and the highest point found after it since
+	 */
+	private static class SteepDownArea {
+		final int start;
+		final int end;
+		double mib = 0;
+
+		SteepDownArea(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Drops the steep downward areas a cluster can no longer start in, not
+	 * steep enough above the highest point since, and raises the highest
+	 * point of the others
+	 */
+	private static void filter(List<SteepDownArea> areas, double mib, double complement, double[] reachability) {
+		if (Double.isInfinite(mib)) {
+			areas.clear();
+			return;
+		}
+		areas.removeIf(area -> mib > reachability[area.start] * complement);
+		for (SteepDownArea area : areas) {
+			area.mib = Math.max(area.mib, mib);
+		}
+	}
+
+	/**
+	 * Returns the end of the steep area starting at a point: the last steep
+	 * point before a point going the other way, or before more than
+	 * minPoints points in a row that are neither steep nor going the other
+	 * way
+	 *
+	 * @param steep
+	 *            If each point is steep in the direction of the area
+	 * @param backward
+	 *            If each point goes the other way
+	 */
+	private static int extend(boolean[] steep, boolean[] backward, int start, int minPoints) {
+		int end = start;
+		int notSteep = 0;
+		for (int p = start; p < steep.length; p++) {
+			if (steep[p]) {
+				notSteep = 0;
+				end = p;
+			} else if (backward[p]) {
+				return end;
+			} else if (++notSteep > minPoints) {
+				break;
+			}
+		}
+		return end;
+	}
+}
@@ -0,0 +1,82 @@
+package cluster.optics;
+
+/**
+ * The cluster ordering {@link Optics} finds: the points in the order they were
+ * processed, each with its reachability distance and core distance. Plotted
+ * in that order, the reachability distances dip into a valley for each
+ * cluster, nested valleys for clusters of different densities.
+ *
+ * The arrays are by position in the ordering. A distance that is undefined,
+ * the reachability of the first point of each connected part or the core
+ * distance of a point that isn't a core point, is infinite.
+ */
+public class ReachabilityPlot {
+
+	private final double eps;
+	private final int minPoints;
+
+	private final int[] order;
+	private final double[] reachability;
+	private final double[] coreDistances;
+
+	/**
+	 * @param eps
+	 *            Radius of the neighborhoods searched
+	 * @param minPoints
+	 *            Neighbors a core point has within its core distance
+	 * @param order
+	 *            Ids of the points, in the cluster ordering
+	 * @param reachability
+	 *            Reachability distance of each point, by position
+	 * @param coreDistances
+	 *            Core distance of each point, by position
+	 */
+	ReachabilityPlot(double eps, int minPoints, int[] order, double[] reachability, double[] coreDistances) {
+		this.eps = eps;
+		this.minPoints = minPoints;
+		this.order = order;
+		this.reachability = reachability;
+		this.coreDistances = coreDistances;
+	}
+
+	public double getEps() {
+		return eps;
+	}
+
+	public int getMinPoints() {
+		return minPoints;
+	}
+
+	/**
+	 * @return Number of points
+	 */
+	public int size() {
+		return order.length;
+	}
+
+	/**
+	 * @return The ids of the points in the cluster ordering, not a copy:
+	 *         callers must not modify it
+	 */
+	public int[] getOrder() {
+		return order;
+	}
+
+	/**
+	 * @return The reachability distance of each point, by position in the
+	 *         ordering, infinite if undefined. Not a copy: callers must not
+	 *         modify it.
+	 */
+	public double[] getReachability() {
+		return reachability;
+	}
+
+	/**
+	 * @return The core distance of each point, by position in the ordering,
+	 *         infinite if it isn't a core point. Not a copy: callers must not
+	 *         modify it.
+	 */
+	public double[] getCoreDistances() {
+		return coreDistances;
+	}
+}
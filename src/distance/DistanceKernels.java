@@ -0,0 +1,183 @@
+package distance;
+
+/**
+ * The inner loops of the distance measures, over ranges of primitive arrays so
+ * callers can compare rows of a matrix or the backing arrays of
+ * {@link utilities.SV SV}s without copying or boxing anything.
+ *
+ * Every kernel sums four interleaved lanes (components 0, 4, 8... in the
+ * first, 1, 5, 9... in the second and so on) then adds the lanes as
+ * <code>(lane0 + lane1) + (lane2 + lane3)</code> and finally the components
+ * left over. The independent lanes let the processor overlap the additions
+ * instead of waiting on one running sum, and let the JIT compiler use vector
+ * instructions. The order is fixed, so a kernel always gives the same result
+ * for the same components, whichever array and offset they are read from.
+ */
+public final class DistanceKernels {
+
+	private DistanceKernels() {
+	}
+
+	/**
+	 * Sum of the squared differences of two ranges, the square of their
+	 * Euclidean distance.
+	 *
+	 * @param a
+	 *            Array of the first range
+	 * @param offsetA
+	 *            Index of the first component of the first range
+	 * @param b
+	 *            Array of the second range
+	 * @param offsetB
+	 *            Index of the first component of the second range
+	 * @param length
+	 *            Number of components compared
+	 * @return The sum of (a[i] - b[i])^2
+	 */
+	public static double squaredL2(double[] a, int offsetA, double[] b, int offsetB, int length) {
+		checkRange(a, offsetA, b, offsetB, length);
+		double lane0 = 0;
+		double lane1 = 0;
+		double lane2 = 0;
+		double lane3 = 0;
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			double diff0 = a[offsetA + i] - b[offsetB + i];
+			double diff1 = a[offsetA + i + 1] - b[offsetB + i + 1];
+			double diff2 = a[offsetA + i + 2] - b[offsetB + i + 2];
+			double diff3 = a[offsetA + i + 3] - b[offsetB + i + 3];
+			lane0 += diff0 * diff0;
+			lane1 += diff1 * diff1;
+			lane2 += diff2 * diff2;
+			lane3 += diff3 * diff3;
+		}
+		double sum = (lane0 + lane1) + (lane2 + lane3);
+		for (; i < length; i++) {
+			double diff = a[offsetA + i] - b[offsetB + i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Sum of the absolute differences of two ranges, their Manhattan
+	 * distance.
+	 *
+	 * @param a
+	 *            Array of the first range
+	 * @param offsetA
+	 *            Index of the first component of the first range
+	 * @param b
+	 *            Array of the second range
+	 * @param offsetB
+	 *            Index of the first component of the second range
+	 * @param length
+	 *            Number of components compared
+	 * @return The sum of |a[i] - b[i]|
+	 */
+	public static double l1(double[] a, int offsetA, double[] b, int offsetB, int length) {
+		checkRange(a, offsetA, b, offsetB, length);
+		double lane0 = 0;
+		double lane1 = 0;
+		double lane2 = 0;
+		double lane3 = 0;
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			lane0 += Math.abs(a[offsetA + i] - b[offsetB + i]);
+			lane1 += Math.abs(a[offsetA + i + 1] - b[offsetB + i + 1]);
+			lane2 += Math.abs(a[offsetA + i + 2] - b[offsetB + i + 2]);
+			lane3 += Math.abs(a[offsetA + i + 3] - b[offsetB + i + 3]);
+		}
+		double sum = (lane0 + lane1) + (lane2 + lane3);
+		for (; i < length; i++) {
+			sum += Math.abs(a[offsetA + i] - b[offsetB + i]);
+		}
+		return sum;
+	}
+
+	/**
+	 * Dot product of two ranges.
+	 *
+	 * @param a
+	 *            Array of the first range
+	 * @param offsetA
+	 *            Index of the first component of the first range
+	 * @param b
+	 *            Array of the second range
+	 * @param offsetB
+	 *            Index of the first component of the second range
+	 * @param length
+	 *            Number of components multiplied
+	 * @return The sum of a[i] * b[i]
+	 */
+	public static double dot(double[] a, int offsetA, double[] b, int offsetB, int length) {
+		checkRange(a, offsetA, b, offsetB, length);
+		double lane0 = 0;
+		double lane1 = 0;
+		double lane2 = 0;
+		double lane3 = 0;
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			lane0 += a[offsetA + i] * b[offsetB + i];
+			lane1 += a[offsetA + i + 1] * b[offsetB + i + 1];
+			lane2 += a[offsetA + i + 2] * b[offsetB + i + 2];
+			lane3 += a[offsetA + i + 3] * b[offsetB + i + 3];
+		}
+		double sum = (lane0 + lane1) + (lane2 + lane3);
+		for (; i < length; i++) {
+			sum += a[offsetA + i] * b[offsetB + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Dot product of two ranges once each is centered on the given mean, the
+	 * numerator of their covariance, in one pass when the means are already
+	 * known.
+	 *
+	 * @param a
+	 *            Array of the first range
+	 * @param offsetA
+	 *            Index of the first component of the first range
+	 * @param meanA
+	 *            Value subtracted from the first range
+	 * @param b
+	 *            Array of the second range
+	 * @param offsetB
+	 *            Index of the first component of the second range
+	 * @param meanB
+	 *            Value subtracted from the second range
+	 * @param length
+	 *            Number of components multiplied
+	 * @return The sum of (a[i] - meanA) * (b[i] - meanB)
+	 */
+	public static double centeredDot(double[] a, int offsetA, double meanA, double[] b, int offsetB, double meanB, int length) {
+		checkRange(a, offsetA, b, offsetB, length);
+		double lane0 = 0;
+		double lane1 = 0;
+		double lane2 = 0;
+		double lane3 = 0;
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			lane0 += (a[offsetA + i] - meanA) * (b[offsetB + i] - meanB);
+			lane1 += (a[offsetA + i + 1] - meanA) * (b[offsetB + i + 1] - meanB);
+			lane2 += (a[offsetA + i + 2] - meanA) * (b[offsetB + i + 2] - meanB);
+			lane3 += (a[offsetA + i + 3] - meanA) * (b[offsetB + i + 3] - meanB);
+		}
+		double sum = (lane0 + lane1) + (lane2 + lane3);
+		for (; i < length; i++) {
+			sum += (a[offsetA + i] - meanA) * (b[offsetB + i] - meanB);
+		}
+		return sum;
+	}
+
+	/**
+	 * Fails before the loops if a range goes past its array, so the loops
+	 * themselves don't need the checks
+	 */
+	private static void checkRange(double[] a, int offsetA, double[] b, int offsetB, int length) {
+		if (length < 0 || offsetA < 0 || offsetB < 0 || offsetA > a.length - length || offsetB > b.length - length) {
+			throw new IndexOutOfBoundsException("Ranges of " + length + " at " + offsetA + " and " + offsetB + " don't fit arrays of " + a.length + " and " + b.length);
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package distance;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import utilities.DataFrame;
+import utilities.SV;
+
+/**
+ * The distances between every pair of points of a dataset, computed once and
+ * stored outside the Java heap, for the algorithms that compare the same
+ * points many times (see {@link PairwiseDistance}).
+ *
+ * The points are compared tile by tile: a tile pairs a block of points with
+ * another block small enough that both stay in cache while all their pairs
+ * are computed. Tiles are spread over a {@link ForkJoinPool}.
+ *
+ * A matrix of n points holds n * n distances, or n * (n - 1) / 2 in the
+ * {@link Layout#CONDENSED condensed} layout, so it is only worth it while
+ * {@link #bytesNeeded(int, Layout, Precision)} fits in memory.
+ */
+public final class DistanceMatrix implements PairwiseDistance {
+
+	/** How the distances are laid out */
+	public enum Layout {
+		/** Every distance, row after row, (i, j) and (j, i) both stored */
+		FULL,
+		/**
+		 * Only the distances above the diagonal, row after row, half the
+		 * memory of {@link #FULL}. The others are the same by symmetry, or 0.
+		 */
+		CONDENSED
+	}
+
+	/** How each distance is stored */
+	public enum Precision {
+		/** 4 bytes per distance, rounded to the closest float */
+		FLOAT(Float.BYTES),
+		/** 8 bytes per distance, exactly as computed */
+		DOUBLE(Double.BYTES);
+
+		private final int bytes;
+
+		private Precision(int bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Distance between two points of a matrix of components, one point after
+	 * the other
+	 */
+	@FunctionalInterface
+	public interface RowDistance {
+		/**
+		 * @param a
+		 *            Array of the first point
+		 * @param offsetA
+		 *            Index of the first point's first component
+		 * @param b
+		 *            Array of the second point
+		 * @param offsetB
+		 *            Index of the second point's first component
+		 * @param dimensions
+		 *            Number of components of a point
+		 * @return Distance between the points
+		 */
+		double distance(double[] a, int offsetA, double[] b, int offsetB, int dimensions);
+	}
+
+	/** The distance of {@link SVDistances#distEuclidian(SV, SV)} */
+	public static final RowDistance	EUCLIDEAN	= (a, offsetA, b, offsetB, dimensions) -> Math.sqrt(DistanceKernels.squaredL2(a, offsetA, b, offsetB, dimensions));
+
+	/** The distance of {@link SVDistances#distManhattan(SV, SV)} */
+	public static final RowDistance	MANHATTAN	= (a, offsetA, b, offsetB, dimensions) -> DistanceKernels.l1(a, offsetA, b, offsetB, dimensions) / dimensions;
+
+	/** Points per side of a tile */
+	private static final int		TILE		= 64;
+
+	/** Distances per buffer is 2^CHUNK_SHIFT, buffers can't exceed 2GB */
+	private static final int		CHUNK_SHIFT	= 27;
+
+	private final int				size;
+	private final Layout			layout;
+	private final Precision			precision;
+	private final ByteBuffer[]		chunks;
+
+	private DistanceMatrix(int size, Layout layout, Precision precision) {
+		this.size = size;
+		this.layout = layout;
+		this.precision = precision;
+
+		long count = count(size, layout);
+		chunks = new ByteBuffer[(int) ((count + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT)];
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			long distances = Math.min(1L << CHUNK_SHIFT, count - ((long) chunk << CHUNK_SHIFT));
+			chunks[chunk] = ByteBuffer.allocateDirect((int) distances * precision.bytes).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/**
+	 * Returns the memory a matrix would take, to decide whether to compute
+	 * one.
+	 *
+	 * @param size
+	 *            Number of points
+	 * @param layout
+	 *            Layout of the distances
+	 * @param precision
+	 *            Precision of the distances
+	 * @return Bytes of the matrix
+	 */
+	public static long bytesNeeded(int size, Layout layout, Precision precision) {
+		return count(size, layout) * precision.bytes;
+	}
+
+	private static long count(int size, Layout layout) {
+		return layout == Layout.FULL ? (long) size * size : (long) size * (size - 1) / 2;
+	}
+
+	/**
+	 * Computes the distances between the rows of a data frame on the common
+	 * pool.
+	 *
+	 * @see #compute(double[], int, int, RowDistance, Layout, Precision, ForkJoinPool)
+	 */
+	public static DistanceMatrix compute(DataFrame frame, RowDistance distance, Layout layout, Precision precision) {
+		int rows = frame.getNumberOfRows();
+		int dimensions = Math.max(frame.getNumberOfColumns(), 0);
+		double[] components = new double[componentCount(rows, dimensions)];
+		double[] row = new double[dimensions];
+		for (int i = 0; i < rows; i++) {
+			System.arraycopy(frame.copyRow(i, row), 0, components, i * dimensions, dimensions);
+		}
+		return compute(components, rows, dimensions, distance, layout, precision, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Computes the distances between the given points on the common pool.
+	 *
+	 * @see #compute(double[], int, int, RowDistance, Layout, Precision, ForkJoinPool)
+	 */
+	public static DistanceMatrix compute(List<SV> points, RowDistance distance, Layout layout, Precision precision) {
+		int dimensions = points.isEmpty() ? 0 : points.get(0).size();
+		return compute(components(points), points.size(), dimensions, distance, layout, precision, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The components of the given points, one point after the other
+	 */
+	static double[] components(List<SV> points) {
+		int dimensions = points.isEmpty() ? 0 : points.get(0).size();
+		double[] components = new double[componentCount(points.size(), dimensions)];
+		for (int i = 0; i < points.size(); i++) {
+			SV point = points.get(i);
+			if (point.size() != dimensions) {
+				throw new IllegalArgumentException("Point " + i + " has " + point.size() + " dimensions, the first " + dimensions);
+			}
+			for (int d = 0; d < dimensions; d++) {
+				components[i * dimensions + d] = point.getDouble(d);
+			}
+		}
+		return components;
+	}
+
+	/**
+	 * Number of components of the given points, failing if they don't fit an
+	 * array
+	 */
+	static int componentCount(int size, int dimensions) {
+		long count = (long) size * dimensions;
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(size + " points of " + dimensions + " dimensions are more components than an array holds");
+		}
+		return (int) count;
+	}
+
+	/**
+	 * Computes the distances between points given one after the other in an
+	 * array.
+	 *
+	 * @param components
+	 *            Components of the points, point i from
+	 *            <code>i * dimensions</code>
+	 * @param size
+	 *            Number of points
+	 * @param dimensions
+	 *            Number of components of a point
+	 * @param distance
+	 *            Distance between two points, symmetric
+	 * @param layout
+	 *            Layout of the distances
+	 * @param precision
+	 *            Precision of the distances
+	 * @param pool
+	 *            Pool computing the tiles
+	 * @return The distances
+	 */
+	public static DistanceMatrix compute(double[] components, int size, int dimensions, RowDistance distance, Layout layout, Precision precision, ForkJoinPool pool) {
+		if (size < 0 || dimensions < 0 || (long) size * dimensions > components.length) {
+			throw new IllegalArgumentException(size + " points of " + dimensions + " dimensions don't fit " + components.length + " components");
+		}
+		DistanceMatrix matrix = new DistanceMatrix(size, layout, precision);
+		int tiles = (size + TILE - 1) / TILE;
+		pool.invoke(matrix.new TileTask(components, dimensions, distance, 0, tiles));
+		return matrix;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/** @return Layout of the distances */
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/** @return Precision of the distances */
+	public Precision getPrecision() {
+		return precision;
+	}
+
+	@Override
+	public double distance(int i, int j) {
+		if (i < 0 || j < 0 || i >= size || j >= size) {
+			throw new IndexOutOfBoundsException("Points: " + i + ", " + j + ", Size: " + size);
+		}
+		if (layout == Layout.CONDENSED) {
+			if (i == j) {
+				return 0;
+			}
+			if (i > j) {
+				int swap = i;
+				i = j;
+				j = swap;
+			}
+		}
+		return get(position(i, j));
+	}
+
+	/**
+	 * Position of the distance between i and j, i < j if condensed
+	 */
+	private long position(int i, int j) {
+		if (layout == Layout.FULL) {
+			return (long) i * size + j;
+		}
+		// the rows before i hold (size - 1) + (size - 2) + ... + (size - i) distances
+		return (long) i * (2L * size - i - 1) / 2 + (j - i - 1);
+	}
+
+	private double get(long position) {
+		ByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+		int index = (int) (position & ((1L << CHUNK_SHIFT) - 1));
+		return precision == Precision.DOUBLE ? chunk.getDouble(index * Double.BYTES) : chunk.getFloat(index * Float.BYTES);
+	}
+
+	private void set(long position, double distance) {
+		ByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+		int index = (int) (position & ((1L << CHUNK_SHIFT) - 1));
+		if (precision == Precision.DOUBLE) {
+			chunk.putDouble(index * Double.BYTES, distance);
+		} else {
+			chunk.putFloat(index * Float.BYTES, (float) distance);
+		}
+	}
+
+	/**
+	 * Computes the tiles of a range of block rows, splitting it until it is a
+	 * single block row. Only the tiles on and above the diagonal are computed,
+	 * the others are their mirror.
+	 */
+	private class TileTask extends RecursiveAction {
+
+		private static final long	serialVersionUID	= -2818208924914744217L;
+
+		private final double[]		components;
+		private final int			dimensions;
+		private final RowDistance	distance;
+		private final int			fromBlock;
+		private final int			toBlock;
+
+		TileTask(double[] components, int dimensions, RowDistance distance, int fromBlock, int toBlock) {
+			this.components = components;
+			this.dimensions = dimensions;
+			this.distance = distance;
+			this.fromBlock = fromBlock;
+			this.toBlock = toBlock;
+		}
+
+		@Override
+		protected void compute() {
+			if (toBlock - fromBlock > 1) {
+				int middle = (fromBlock + toBlock) >>> 1;
+				invokeAll(new TileTask(components, dimensions, distance, fromBlock, middle), new TileTask(components, dimensions, distance, middle, toBlock));
+				return;
+			}
+			int rowStart = fromBlock * TILE;
+			int rowEnd = Math.min(size, rowStart + TILE);
+			for (int columnStart = rowStart; columnStart < size; columnStart += TILE) {
+				int columnEnd = Math.min(size, columnStart + TILE);
+				// the diagonal is left as allocated, 0
+				for (int i = rowStart; i < rowEnd; i++) {
+					for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+						double d = distance.distance(components, i * dimensions, components, j * dimensions, dimensions);
+						set(position(i, j), d);
+						if (layout == Layout.FULL) {
+							set(position(j, i), d);
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,753 @@
+package distance;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+import distance.DistanceMatrix.RowDistance;
+import utilities.SV;
+
+/**
+ * The k nearest neighbors of every point of a dataset (its kNN graph), the
+ * point itself excluded, closest first. Ties go to the point that comes first
+ * in the dataset.
+ *
+ * The neighbors are kept in two flat arrays, ids and distances, point p's
+ * from <code>p * k</code>, and each point keeps only its k
+ * closest so far in a bounded heap while the graph is built. The graph can be
+ * built {@link #build(double[], int, int, int, RowDistance, ForkJoinPool)
+ * exactly}, comparing every pair of points, or
+ * {@link #buildApproximate(double[], int, int, int, RowDistance, int, double, double, long, ForkJoinPool)
+ * approximately} with NN-Descent, which only compares the neighbors of
+ * neighbors and scales to much larger datasets.
+ *
+ * Once built a graph is read-only, so it can be shared by threads, and it is
+ * {@link Serializable} to be computed once and reloaded.
+ */
+public final class KNNGraph implements Serializable {
+
+	private static final long	serialVersionUID	= -6092838829532186436L;
+
+	/** Points whose neighbors a task searches together, each tile of candidates is shared by them */
+	private static final int	BLOCK				= 32;
+
+	/** Size of a tile of candidates, small enough to stay in cache */
+	private static final int	TILE_BYTES			= 32 * 1024;
+
+	/** Points per tile when the distances are looked up */
+	private static final int	TILE_POINTS			= 512;
+
+	/** Locks guarding the neighbors of the points during NN-Descent, point p uses lock p % LOCKS */
+	private static final int	LOCKS				= 1024;
+
+	private final int			size;
+	/** Neighbors kept per point, the k asked for or all the other points if fewer */
+	private final int			degree;
+	private final int[]			neighborIds;
+	private final double[]		neighborDists;
+
+	private KNNGraph(int size, int k) {
+		if (size < 0 || k < 1) {
+			throw new IllegalArgumentException("Can't find " + k + " neighbors of " + size + " points");
+		}
+		this.size = size;
+		this.degree = Math.max(0, Math.min(k, size - 1));
+		this.neighborIds = new int[size * degree];
+		this.neighborDists = new double[size * degree];
+	}
+
+	/**
+	 * Builds the exact graph of the given points on the common pool.
+	 *
+	 * @see #build(double[], int, int, int, RowDistance, ForkJoinPool)
+	 */
+	public static KNNGraph build(List<SV> points, int k, RowDistance distance) {
+		int dimensions = points.isEmpty() ? 0 : points.get(0).size();
+		return build(DistanceMatrix.components(points), points.size(), dimensions, k, distance, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds the exact graph, comparing every pair of points. Blocks of points
+	 * are searched in parallel, each going through tiles of the candidates.
+	 *
+	 * @param components
+	 *            Components of the points, point i from
+	 *            <code>i * dimensions</code>
+	 * @param size
+	 *            Number of points
+	 * @param dimensions
+	 *            Number of components of a point
+	 * @param k
+	 *            Number of neighbors of each point
+	 * @param distance
+	 *            Distance between two points
+	 * @param pool
+	 *            Pool searching the blocks
+	 * @return The graph
+	 */
+	public static KNNGraph build(double[] components, int size, int dimensions, int k, RowDistance distance, ForkJoinPool pool) {
+		checkComponents(components, size, dimensions);
+		int tileRows = Math.max(1, TILE_BYTES / (Double.BYTES * Math.max(dimensions, 1)));
+		return build(rows(components, size, dimensions, distance), k, null, tileRows, pool);
+	}
+
+	/**
+	 * Builds the graph of points whose distances are looked up, such as in a
+	 * {@link DistanceMatrix}, or computed by some other means. Blocks of points
+	 * are searched in parallel.
+	 *
+	 * @param distances
+	 *            Distances between the points
+	 * @param k
+	 *            Number of neighbors of each point
+	 * @param candidates
+	 *            Gives the points that may be neighbors of a point, such as
+	 *            those sharing a bucket of an {@link LSHIndex}, at least k
+	 *            besides the point itself, or null to compare it with every
+	 *            point. The graph is exact without candidates. Called from
+	 *            the pool's threads.
+	 * @param pool
+	 *            Pool searching the blocks
+	 * @return The graph
+	 */
+	public static KNNGraph build(PairwiseDistance distances, int k, IntFunction<int[]> candidates, ForkJoinPool pool) {
+		return build(distances, k, candidates, TILE_POINTS, pool);
+	}
+
+	private static KNNGraph build(PairwiseDistance distances, int k, IntFunction<int[]> candidates, int tileRows, ForkJoinPool pool) {
+		KNNGraph graph = new KNNGraph(distances.size(), k);
+		pool.invoke(graph.new ScanTask(distances, candidates, tileRows, 0, graph.size));
+		graph.sortAll();
+		return graph;
+	}
+
+	/**
+	 * Builds an approximate graph of the given points with the usual
+	 * NN-Descent settings: at most 10 iterations, half of the neighbors sampled
+	 * and stopping once fewer than 0.1% of the neighbors change.
+	 *
+	 * @see #buildApproximate(double[], int, int, int, RowDistance, int, double, double, long, ForkJoinPool)
+	 */
+	public static KNNGraph buildApproximate(List<SV> points, int k, RowDistance distance, long seed) {
+		int dimensions = points.isEmpty() ? 0 : points.get(0).size();
+		return buildApproximate(DistanceMatrix.components(points), points.size(), dimensions, k, distance, 10, 0.5, 0.001, seed, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds an approximate graph with NN-Descent (Dong, Charikar and Li, 2011):
+	 * starting from random neighbors, each iteration compares the neighbors of
+	 * every point (and the points it is a neighbor of) with each other, as a
+	 * neighbor of a neighbor is likely a neighbor. Only pairs involving a
+	 * neighbor found in the previous iteration are compared.
+	 *
+	 * @param components
+	 *            Components of the points, point i from
+	 *            <code>i * dimensions</code>
+	 * @param size
+	 *            Number of points
+	 * @param dimensions
+	 *            Number of components of a point
+	 * @param k
+	 *            Number of neighbors of each point
+	 * @param distance
+	 *            Distance between two points, symmetric
+	 * @param maxIterations
+	 *            Most iterations to run
+	 * @param sampleRate
+	 *            Fraction of the new neighbors of a point compared at each
+	 *            iteration, from 0 (excluded) to 1, lower is faster but less
+	 *            accurate
+	 * @param delta
+	 *            Stop once an iteration changes fewer than this fraction of
+	 *            all the neighbors
+	 * @param seed
+	 *            Seed of the random starting neighbors and of the sampling
+	 * @param pool
+	 *            Pool comparing the neighbors
+	 * @return The graph
+	 */
+	public static KNNGraph buildApproximate(double[] components, int size, int dimensions, int k, RowDistance distance, int maxIterations, double sampleRate,
+			double delta, long seed, ForkJoinPool pool) {
+		checkComponents(components, size, dimensions);
+		return buildApproximate(rows(components, size, dimensions, distance), k, maxIterations, sampleRate, delta, seed, pool);
+	}
+
+	/**
+	 * Builds an approximate graph with NN-Descent, of points whose distances
+	 * are looked up or computed by some other means.
+	 *
+	 * @see #buildApproximate(double[], int, int, int, RowDistance, int, double, double, long, ForkJoinPool)
+	 */
+	public static KNNGraph buildApproximate(PairwiseDistance distances, int k, int maxIterations, double sampleRate, double delta, long seed, ForkJoinPool pool) {
+		if (!(sampleRate > 0 && sampleRate <= 1) || maxIterations < 0) {
+			throw new IllegalArgumentException("The sample rate must be in (0, 1] and the iterations positive");
+		}
+		KNNGraph graph = new KNNGraph(distances.size(), k);
+		int size = graph.size;
+		int degree = graph.degree;
+		if (size - 1 <= 2 * degree) {
+			// about every pair would be compared anyway
+			pool.invoke(graph.new ScanTask(distances, null, TILE_POINTS, 0, size));
+			graph.sortAll();
+			return graph;
+		}
+
+		Descent descent = graph.new Descent(distances, new Random(seed));
+		descent.initialize();
+		int sampleSize = Math.max(1, (int) Math.ceil(sampleRate * degree));
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			descent.sample(sampleSize);
+			long updates = pool.invoke(descent.new JoinTask(0, size));
+			if (updates < delta * size * degree) {
+				break;
+			}
+		}
+		graph.sortAll();
+		return graph;
+	}
+
+	/**
+	 * The distances between points given one after the other in an array
+	 */
+	private static PairwiseDistance rows(double[] components, int size, int dimensions, RowDistance distance) {
+		return new PairwiseDistance() {
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public double distance(int i, int j) {
+				return distance.distance(components, i * dimensions, components, j * dimensions, dimensions);
+			}
+		};
+	}
+
+	private static void checkComponents(double[] components, int size, int dimensions) {
+		if (size < 0 || dimensions < 0 || (long) size * dimensions > components.length) {
+			throw new IllegalArgumentException(size + " points of " + dimensions + " dimensions don't fit " + components.length + " components");
+		}
+	}
+
+	/** @return Number of points */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of neighbors of each point, the k asked for unless there
+	 *         are fewer other points
+	 */
+	public int getNeighborCount() {
+		return degree;
+	}
+
+	/**
+	 * Returns a neighbor of a point.
+	 *
+	 * @param point
+	 *            Position of the point
+	 * @param rank
+	 *            0 for the closest neighbor, up to {@link #getNeighborCount()} - 1
+	 * @return Position of the neighbor
+	 */
+	public int getNeighbor(int point, int rank) {
+		return neighborIds[slot(point, rank)];
+	}
+
+	/**
+	 * Returns the distance from a point to one of its neighbors.
+	 *
+	 * @param point
+	 *            Position of the point
+	 * @param rank
+	 *            0 for the closest neighbor, up to {@link #getNeighborCount()} - 1
+	 * @return Distance to the neighbor
+	 */
+	public double getDistance(int point, int rank) {
+		return neighborDists[slot(point, rank)];
+	}
+
+	/**
+	 * Returns the distance from a point to its farthest neighbor, its k-distance.
+	 *
+	 * @param point
+	 *            Position of the point
+	 * @return Distance to the last neighbor, 0 if there is none
+	 */
+	public double getKDistance(int point) {
+		return degree == 0 ? 0 : getDistance(point, degree - 1);
+	}
+
+	/**
+	 * @param point
+	 *            Position of the point
+	 * @return A copy of the positions of its neighbors, closest first
+	 */
+	public int[] getNeighbors(int point) {
+		checkPoint(point);
+		return Arrays.copyOfRange(neighborIds, point * degree, (point + 1) * degree);
+	}
+
+	/**
+	 * @param point
+	 *            Position of the point
+	 * @return A copy of the distances to its neighbors, closest first
+	 */
+	public double[] getDistances(int point) {
+		checkPoint(point);
+		return Arrays.copyOfRange(neighborDists, point * degree, (point + 1) * degree);
+	}
+
+	/**
+	 * Measures how many of the true neighbors this graph found, to tune the
+	 * settings of an approximate graph.
+	 *
+	 * @param exact
+	 *            The exact graph of the same points and number of neighbors
+	 * @return Fraction of the neighbors of the exact graph also in this one
+	 */
+	public double recall(KNNGraph exact) {
+		if (exact.size != size || exact.degree != degree) {
+			throw new IllegalArgumentException("Graphs of different points or number of neighbors");
+		}
+		long found = 0;
+		for (int point = 0; point < size; point++) {
+			for (int i = point * degree; i < (point + 1) * degree; i++) {
+				for (int j = point * degree; j < (point + 1) * degree; j++) {
+					if (exact.neighborIds[i] == neighborIds[j]) {
+						found++;
+						break;
+					}
+				}
+			}
+		}
+		return size * degree == 0 ? 1.0 : (double) found / ((long) size * degree);
+	}
+
+	private int slot(int point, int rank) {
+		checkPoint(point);
+		if (rank < 0 || rank >= degree) {
+			throw new IndexOutOfBoundsException("Rank: " + rank + ", Neighbors: " + degree);
+		}
+		return point * degree + rank;
+	}
+
+	private void checkPoint(int point) {
+		if (point < 0 || point >= size) {
+			throw new IndexOutOfBoundsException("Point: " + point + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * If (distA, idA) comes after (distB, idB), the order of the neighbors
+	 */
+	private static boolean after(double distA, int idA, double distB, int idB) {
+		return distA > distB || (distA == distB && idA > idB);
+	}
+
+	/**
+	 * Offers a neighbor to a point's full bounded max-heap, the worst neighbor
+	 * at the root. A point already among the neighbors is not added again.
+	 *
+	 * @return If the neighbor was kept
+	 */
+	private boolean offerFull(int point, int id, double dist, boolean[] isNew) {
+		int base = point * degree;
+		if (!after(neighborDists[base], neighborIds[base], dist, id)) {
+			return false;
+		}
+		for (int i = base; i < base + degree; i++) {
+			if (neighborIds[i] == id) {
+				return false;
+			}
+		}
+		// replace the root and sift it down
+		int hole = 0;
+		while (true) {
+			int child = 2 * hole + 1;
+			if (child >= degree) {
+				break;
+			}
+			if (child + 1 < degree && after(neighborDists[base + child + 1], neighborIds[base + child + 1], neighborDists[base + child], neighborIds[base + child])) {
+				child++;
+			}
+			if (!after(neighborDists[base + child], neighborIds[base + child], dist, id)) {
+				break;
+			}
+			neighborIds[base + hole] = neighborIds[base + child];
+			neighborDists[base + hole] = neighborDists[base + child];
+			if (isNew != null) {
+				isNew[base + hole] = isNew[base + child];
+			}
+			hole = child;
+		}
+		neighborIds[base + hole] = id;
+		neighborDists[base + hole] = dist;
+		if (isNew != null) {
+			isNew[base + hole] = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a neighbor to a point's heap that is not full yet, 'count' slots
+	 * being used
+	 */
+	private void push(int point, int count, int id, double dist, boolean[] isNew) {
+		int base = point * degree;
+		int hole = count;
+		while (hole > 0) {
+			int parent = (hole - 1) / 2;
+			if (!after(dist, id, neighborDists[base + parent], neighborIds[base + parent])) {
+				break;
+			}
+			neighborIds[base + hole] = neighborIds[base + parent];
+			neighborDists[base + hole] = neighborDists[base + parent];
+			if (isNew != null) {
+				isNew[base + hole] = isNew[base + parent];
+			}
+			hole = parent;
+		}
+		neighborIds[base + hole] = id;
+		neighborDists[base + hole] = dist;
+		if (isNew != null) {
+			isNew[base + hole] = true;
+		}
+	}
+
+	/**
+	 * Sorts the heap of every point, closest first
+	 */
+	private void sortAll() {
+		for (int point = 0; point < size; point++) {
+			int base = point * degree;
+			// heap sort: move the worst to the end, sift the rest
+			for (int end = degree - 1; end > 0; end--) {
+				int id = neighborIds[base + end];
+				double dist = neighborDists[base + end];
+				neighborIds[base + end] = neighborIds[base];
+				neighborDists[base + end] = neighborDists[base];
+				int hole = 0;
+				while (true) {
+					int child = 2 * hole + 1;
+					if (child >= end) {
+						break;
+					}
+					if (child + 1 < end && after(neighborDists[base + child + 1], neighborIds[base + child + 1], neighborDists[base + child], neighborIds[base + child])) {
+						child++;
+					}
+					if (!after(neighborDists[base + child], neighborIds[base + child], dist, id)) {
+						break;
+					}
+					neighborIds[base + hole] = neighborIds[base + child];
+					neighborDists[base + hole] = neighborDists[base + child];
+					hole = child;
+				}
+				neighborIds[base + hole] = id;
+				neighborDists[base + hole] = dist;
+			}
+		}
+	}
+
+	/**
+	 * Finds the neighbors of a range of points by comparing them with every
+	 * point, splitting the range until it is a block
+	 */
+	private class ScanTask extends RecursiveAction {
+
+		private static final long			serialVersionUID	= 6128427181000734032L;
+
+		private final PairwiseDistance		distances;
+		private final IntFunction<int[]>	candidates;
+		private final int					tileRows;
+		private final int					from;
+		private final int					to;
+
+		ScanTask(PairwiseDistance distances, IntFunction<int[]> candidates, int tileRows, int from, int to) {
+			this.distances = distances;
+			this.candidates = candidates;
+			this.tileRows = tileRows;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > BLOCK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ScanTask(distances, candidates, tileRows, from, middle), new ScanTask(distances, candidates, tileRows, middle, to));
+				return;
+			}
+			if (degree == 0) {
+				return;
+			}
+			int[] counts = new int[to - from];
+			boolean[] scanned = new boolean[to - from];
+			for (int point = from; point < to; point++) {
+				int[] ids = candidates == null ? null : candidates.apply(point);
+				if (ids == null) {
+					scanned[point - from] = true;
+					continue;
+				}
+				for (int other : ids) {
+					if (other != point) {
+						offer(point, counts, other, distances.distance(point, other));
+					}
+				}
+			}
+
+			// each tile of candidates goes through every point without candidates
+			for (int tileStart = 0; tileStart < size; tileStart += tileRows) {
+				int tileEnd = Math.min(size, tileStart + tileRows);
+				for (int point = from; point < to; point++) {
+					if (!scanned[point - from]) {
+						continue;
+					}
+					for (int other = tileStart; other < tileEnd; other++) {
+						if (other != point) {
+							offer(point, counts, other, distances.distance(point, other));
+						}
+					}
+				}
+			}
+
+			for (int point = from; point < to; point++) {
+				if (counts[point - from] < degree) {
+					throw new IllegalArgumentException("Point " + point + " has " + counts[point - from] + " candidates, fewer than the " + degree + " neighbors");
+				}
+			}
+		}
+
+		private void offer(int point, int[] counts, int other, double dist) {
+			if (counts[point - from] < degree) {
+				int base = point * degree;
+				for (int i = base; i < base + counts[point - from]; i++) {
+					if (neighborIds[i] == other) {
+						return;
+					}
+				}
+				push(point, counts[point - from]++, other, dist, null);
+			} else {
+				offerFull(point, other, dist, null);
+			}
+		}
+	}
+
+	/**
+	 * State of an NN-Descent build: whether each neighbor is new (not joined
+	 * yet) and the neighbors sampled for the next join
+	 */
+	private class Descent {
+
+		private final PairwiseDistance	distances;
+		private final Random		rand;
+		private final boolean[]		isNew;
+		private final Object[]		locks;
+
+		/** Neighbors of each point to join this iteration, new ones then old ones */
+		private int[][]				newNeighbors;
+		private int[][]				oldNeighbors;
+
+		Descent(PairwiseDistance distances, Random rand) {
+			this.distances = distances;
+			this.rand = rand;
+			this.isNew = new boolean[size * degree];
+			this.locks = new Object[Math.min(LOCKS, size)];
+			for (int i = 0; i < locks.length; i++) {
+				locks[i] = new Object();
+			}
+		}
+
+		/**
+		 * Random distinct neighbors for every point
+		 */
+		void initialize() {
+			for (int point = 0; point < size; point++) {
+				int count = 0;
+				while (count < degree) {
+					int other = rand.nextInt(size);
+					if (other == point || contains(point, count, other)) {
+						continue;
+					}
+					push(point, count++, other, dist(point, other), isNew);
+				}
+			}
+		}
+
+		private boolean contains(int point, int count, int id) {
+			for (int i = point * degree; i < point * degree + count; i++) {
+				if (neighborIds[i] == id) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private double dist(int a, int b) {
+			return distances.distance(a, b);
+		}
+
+		/**
+		 * Picks the neighbors each point joins this iteration: up to sampleSize
+		 * of its new neighbors (no longer new afterwards) and its old ones, plus
+		 * as many of the points it is a new, or old, neighbor of
+		 */
+		void sample(int sampleSize) {
+			int[] newCounts = new int[size];
+			int[] oldCounts = new int[size];
+			int[][] forward = new int[size][];
+			int[][] forwardOld = new int[size][];
+			for (int point = 0; point < size; point++) {
+				int base = point * degree;
+				int[] fresh = new int[degree];
+				int freshCount = 0;
+				int[] old = new int[degree];
+				int oldCount = 0;
+				for (int i = base; i < base + degree; i++) {
+					if (isNew[i]) {
+						fresh[freshCount++] = i;
+					} else {
+						old[oldCount++] = neighborIds[i];
+					}
+				}
+				shuffle(fresh, freshCount);
+				freshCount = Math.min(freshCount, sampleSize);
+				for (int i = 0; i < freshCount; i++) {
+					isNew[fresh[i]] = false;
+					fresh[i] = neighborIds[fresh[i]];
+				}
+				forward[point] = Arrays.copyOf(fresh, freshCount);
+				forwardOld[point] = Arrays.copyOf(old, oldCount);
+				for (int id : forward[point]) {
+					newCounts[id]++;
+				}
+				for (int id : forwardOld[point]) {
+					oldCounts[id]++;
+				}
+			}
+
+			// the points each point is a neighbor of
+			int[][] reverse = new int[size][];
+			int[][] reverseOld = new int[size][];
+			for (int point = 0; point < size; point++) {
+				reverse[point] = new int[newCounts[point]];
+				reverseOld[point] = new int[oldCounts[point]];
+				newCounts[point] = 0;
+				oldCounts[point] = 0;
+			}
+			for (int point = 0; point < size; point++) {
+				for (int id : forward[point]) {
+					reverse[id][newCounts[id]++] = point;
+				}
+				for (int id : forwardOld[point]) {
+					reverseOld[id][oldCounts[id]++] = point;
+				}
+			}
+
+			newNeighbors = new int[size][];
+			oldNeighbors = new int[size][];
+			for (int point = 0; point < size; point++) {
+				newNeighbors[point] = merge(forward[point], reverse[point], sampleSize);
+				oldNeighbors[point] = merge(forwardOld[point], reverseOld[point], sampleSize);
+			}
+		}
+
+		/**
+		 * The given neighbors and up to sampleSize of the reverse ones, without
+		 * duplicates
+		 */
+		private int[] merge(int[] neighbors, int[] reverse, int sampleSize) {
+			shuffle(reverse, reverse.length);
+			int count = Math.min(reverse.length, sampleSize);
+			int[] merged = Arrays.copyOf(neighbors, neighbors.length + count);
+			int length = neighbors.length;
+			for (int i = 0; i < count; i++) {
+				boolean present = false;
+				for (int j = 0; j < length && !present; j++) {
+					present = merged[j] == reverse[i];
+				}
+				if (!present) {
+					merged[length++] = reverse[i];
+				}
+			}
+			return Arrays.copyOf(merged, length);
+		}
+
+		private void shuffle(int[] values, int count) {
+			for (int i = count - 1; i > 0; i--) {
+				int j = rand.nextInt(i + 1);
+				int swap = values[i];
+				values[i] = values[j];
+				values[j] = swap;
+			}
+		}
+
+		/**
+		 * Compares a pair of points and offers each to the other
+		 *
+		 * @return Number of neighbor lists changed
+		 */
+		private int compare(int a, int b) {
+			if (a == b) {
+				return 0;
+			}
+			double dist = dist(a, b);
+			int updates = 0;
+			synchronized (locks[a % locks.length]) {
+				updates += offerFull(a, b, dist, isNew) ? 1 : 0;
+			}
+			synchronized (locks[b % locks.length]) {
+				updates += offerFull(b, a, dist, isNew) ? 1 : 0;
+			}
+			return updates;
+		}
+
+		/**
+		 * Joins the sampled neighbors of a range of points, splitting it until
+		 * it is a block
+		 */
+		private class JoinTask extends RecursiveTask<Long> {
+
+			private static final long	serialVersionUID	= -4436386337541568791L;
+
+			private final int			from;
+			private final int			to;
+
+			JoinTask(int from, int to) {
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected Long compute() {
+				if (to - from > BLOCK) {
+					int middle = (from + to) >>> 1;
+					JoinTask right = new JoinTask(middle, to);
+					right.fork();
+					long left = new JoinTask(from, middle).compute();
+					return left + right.join();
+				}
+				long updates = 0;
+				for (int point = from; point < to; point++) {
+					int[] fresh = newNeighbors[point];
+					int[] old = oldNeighbors[point];
+					for (int i = 0; i < fresh.length; i++) {
+						for (int j = i + 1; j < fresh.length; j++) {
+							updates += compare(fresh[i], fresh[j]);
+						}
+						for (int j = 0; j < old.length; j++) {
+							updates += compare(fresh[i], old[j]);
+						}
+					}
+				}
+				return updates;
+			}
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package distance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+import utilities.SV;
+
+/**
+ * Locality-sensitive hashing index of {@link SV} points, to find the likely
+ * neighbors of a point without comparing it to every other point.
+ *
+ * Each of the index's tables hashes a point to a bucket with several random
+ * hash functions of the chosen {@link Family}. Close points are likely to
+ * share a bucket in at least one table, far points unlikely. The candidates
+ * of a query are the points sharing one of its buckets, their number stays
+ * small as the index grows, and {@link #nearestNeighbors} ranks them with the
+ * actual distance.
+ *
+ * More tables find more of the true neighbors, more hashes per table make
+ * buckets smaller (fewer candidates, fewer true neighbors found).
+ *
+ * Points can be {@link #add(SV) added} at any time, such as a stream. Queries
+ * may run from many threads at once, not while points are added.
+ */
+public class LSHIndex {
+
+	/** Families of hash functions, each for a kind of distance */
+	public enum Family {
+		/**
+		 * p-stable (Gaussian) projections cut into buckets of a given width,
+		 * for {@link SVDistances#distEuclidian(SV, SV)}
+		 */
+		EUCLIDEAN,
+		/**
+		 * Random hyperplanes, the side of each one a point is on, for the
+		 * cosine similarity (the angle between points)
+		 */
+		COSINE,
+		/**
+		 * Random hyperplanes over the points centered on their own mean, for
+		 * the Pearson correlation of {@link SVDistances#distPearson(SV, SV)}
+		 */
+		PEARSON
+	}
+
+	private final Family family;
+	private final int dimensions;
+	private final int tableCount;
+	private final int hashesPerTable;
+	private final double bucketWidth;
+
+	/** Random directions, table by table then hash by hash */
+	private final double[] projections;
+	/** Random offsets of the Euclidean buckets */
+	private final double[] offsets;
+
+	/** Buckets of each table, by key, as a count followed by point ids */
+	private final List<HashMap<Long, int[]>> tables;
+	private final List<SV> points = new ArrayList<SV>();
+
+	/** Per thread marks of the candidates already found by a query */
+	private final ThreadLocal<Marks> marks = new ThreadLocal<Marks>();
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param family
+	 *            Hash functions to use, for the distance the neighbors are
+	 *            ranked by
+	 * @param dimensions
+	 *            Number of components of the points
+	 * @param tableCount
+	 *            Number of tables (L), more find more true neighbors
+	 * @param hashesPerTable
+	 *            Number of hashes combined in a table's key (k), more make
+	 *            smaller buckets
+	 * @param bucketWidth
+	 *            Width of the Euclidean buckets, about the distance of the
+	 *            neighbors sought. Ignored by the hyperplane families.
+	 * @param seed
+	 *            Seed of the random hash functions
+	 */
+	public LSHIndex(Family family, int dimensions, int tableCount, int hashesPerTable, double bucketWidth, long seed) {
+		if (dimensions < 1 || tableCount < 1 || hashesPerTable < 1 || (family == Family.EUCLIDEAN && !(bucketWidth > 0))) {
+			throw new IllegalArgumentException("Dimensions, tables and hashes must be positive, so must the bucket width for " + Family.EUCLIDEAN);
+		}
+		this.family = family;
+		this.dimensions = dimensions;
+		this.tableCount = tableCount;
+		this.hashesPerTable = hashesPerTable;
+		this.bucketWidth = bucketWidth;
+
+		Random rand = new Random(seed);
+		int hashCount = tableCount * hashesPerTable;
+		projections = new double[hashCount * dimensions];
+		for (int i = 0; i < projections.length; i++) {
+			projections[i] = rand.nextGaussian();
+		}
+		offsets = new double[hashCount];
+		for (int i = 0; i < hashCount; i++) {
+			offsets[i] = rand.nextDouble() * bucketWidth;
+		}
+
+		tables = new ArrayList<HashMap<Long, int[]>>(tableCount);
+		for (int table = 0; table < tableCount; table++) {
+			tables.add(new HashMap<Long, int[]>());
+		}
+	}
+
+	/**
+	 * Adds a point to the index.
+	 *
+	 * @param point
+	 *            Point to add, retained not copied
+	 * @return Id of the point, its position in the order of addition
+	 */
+	public int add(SV point) {
+		checkDimensions(point.size());
+		double[] features = centered(point);
+		int id = points.size();
+		points.add(point);
+		for (int table = 0; table < tableCount; table++) {
+			Long key = key(features, table);
+			int[] bucket = tables.get(table).get(key);
+			if (bucket == null) {
+				bucket = new int[4];
+			} else if (bucket[0] + 1 == bucket.length) {
+				bucket = Arrays.copyOf(bucket, bucket.length * 2);
+			}
+			bucket[++bucket[0]] = id;
+			tables.get(table).put(key, bucket);
+		}
+		return id;
+	}
+
+	/**
+	 * Adds every point of the list, in order.
+	 *
+	 * @param newPoints
+	 *            Points to add
+	 */
+	public void addAll(List<SV> newPoints) {
+		for (SV point : newPoints) {
+			add(point);
+		}
+	}
+
+	/** @return Number of points in the index */
+	public int size() {
+		return points.size();
+	}
+
+	/**
+	 * Returns a point of the index.
+	 *
+	 * @param id
+	 *            Id given when it was added
+	 * @return The point
+	 */
+	public SV get(int id) {
+		return points.get(id);
+	}
+
+	/**
+	 * Returns the ids of the points sharing a bucket with the given point, in
+	 * increasing order. The point itself is a candidate if it is in the index.
+	 *
+	 * @param query
+	 *            Point to find the candidate neighbors of
+	 * @return Ids of the candidates
+	 */
+	public int[] candidates(SV query) {
+		checkDimensions(query.size());
+		double[] features = centered(query);
+
+		Marks found = marks.get();
+		if (found == null) {
+			found = new Marks();
+			marks.set(found);
+		}
+		int mark = found.next(points.size());
+
+		int[] ids = new int[16];
+		int count = 0;
+		for (int table = 0; table < tableCount; table++) {
+			int[] bucket = tables.get(table).get(key(features, table));
+			if (bucket == null) {
+				continue;
+			}
+			for (int i = 1; i <= bucket[0]; i++) {
+				int id = bucket[i];
+				if (found.marks[id] != mark) {
+					found.marks[id] = mark;
+					if (count == ids.length) {
+						ids = Arrays.copyOf(ids, count * 2);
+					}
+					ids[count++] = id;
+				}
+			}
+		}
+		ids = Arrays.copyOf(ids, count);
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Returns the k candidates closest to the given point, closest first. The
+	 * first point of the index equal to it (itself, if it was added) is not
+	 * its own neighbor.
+	 *
+	 * @param query
+	 *            Point to find the neighbors of
+	 * @param k
+	 *            Number of neighbors
+	 * @param distance
+	 *            Distance to rank the candidates by, the one the hash family
+	 *            is for
+	 * @return Up to k neighbors, fewer if there are not enough candidates
+	 */
+	public List<SV> nearestNeighbors(SV query, int k, BiFunction<SV, SV, Double> distance) {
+		int[] ids = candidates(query);
+		int[] kept = new int[ids.length];
+		Integer[] ranked = new Integer[ids.length];
+		double[] dists = new double[ids.length];
+		int count = 0;
+		boolean skippedItself = false;
+		for (int id : ids) {
+			SV candidate = points.get(id);
+			if (!skippedItself && candidate.equals(query)) {
+				skippedItself = true;
+				continue;
+			}
+			kept[count] = id;
+			dists[count] = distance.apply(query, candidate);
+			ranked[count] = count;
+			count++;
+		}
+		// stable, so ties stay in the order the points were added
+		Arrays.sort(ranked, 0, count, (a, b) -> Double.compare(dists[a], dists[b]));
+
+		List<SV> neighbors = new ArrayList<SV>(Math.min(k, count));
+		for (int i = 0; i < Math.min(k, count); i++) {
+			neighbors.add(points.get(kept[ranked[i]]));
+		}
+		return neighbors;
+	}
+
+	private void checkDimensions(int size) {
+		if (size != dimensions) {
+			throw new IllegalArgumentException("Point has " + size + " dimensions, the index " + dimensions);
+		}
+	}
+
+	/**
+	 * The components of a point, centered on their mean for
+	 * {@link Family#PEARSON}
+	 */
+	private double[] centered(SV point) {
+		double[] features = new double[dimensions];
+		double mean = family == Family.PEARSON ? point.getMean() : 0;
+		for (int i = 0; i < dimensions; i++) {
+			features[i] = point.getDouble(i) - mean;
+		}
+		return features;
+	}
+
+	/**
+	 * Combines the hashes of a table into the key of a bucket
+	 */
+	private Long key(double[] features, int table) {
+		long key = 0xcbf29ce484222325L;
+		for (int hash = table * hashesPerTable; hash < (table + 1) * hashesPerTable; hash++) {
+			double projection = 0;
+			int base = hash * dimensions;
+			for (int i = 0; i < dimensions; i++) {
+				projection += projections[base + i] * features[i];
+			}
+			long value = family == Family.EUCLIDEAN ? (long) Math.floor((projection + offsets[hash]) / bucketWidth) : (projection >= 0 ? 1 : 0);
+			key = (key ^ value) * 0x100000001b3L;
+		}
+		return key;
+	}
+
+	/**
+	 * Marks of the points already found by a query
+	 */
+	private static final class Marks {
+		int[] marks = new int[0];
+		int mark = 0;
+
+		int next(int size) {
+			if (marks.length < size) {
+				marks = Arrays.copyOf(marks, Math.max(size, marks.length + (marks.length >> 1)));
+			}
+			if (++mark == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				mark = 1;
+			}
+			return mark;
+		}
+	}
+}
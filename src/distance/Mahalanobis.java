@@ -29,15 +29,16 @@ public class Mahalanobis {
 		 * http://itl.nist.gov/div898/handbook/pmc/section5/pmc541.htm
 		 */
 		for (int variableX = 0; variableX < numCols; variableX++) {
-			covarianceMatrix[variableX][variableX] = dataset.getColumnData(variableX).getVariance();
+			SV columnX = dataset.getColumnData(variableX);
+			double meanX = columnX.getMean();
+			covarianceMatrix[variableX][variableX] = columnX.getVariance();
 			for (int variableY = variableX + 1; variableY < numCols; variableY++) {
+				SV columnY = dataset.getColumnData(variableY);
+				double meanY = columnY.getMean();
 				
-				double COV = 0;
-				for (int row = 0; row < dataset.getNumberOfRows(); row++) {
-					double xCellDiff = dataset.get(row, variableX) - dataset.getColumnData(variableX).getMean();
-					double yCellDiff = dataset.get(row, variableY) - dataset.getColumnData(variableY).getMean();
-					COV = COV + xCellDiff * yCellDiff;
-				}
+				double[] x = SVDistances.elements(columnX);
+				double[] y = SVDistances.elements(columnY);
+				double COV = DistanceKernels.centeredDot(x, SVDistances.offset(columnX, x), meanX, y, SVDistances.offset(columnY, y), meanY, dataset.getNumberOfRows());
 				COV = COV / (dataset.getNumberOfRows() - 1);
 				
 				covarianceMatrix[variableX][variableY] = COV;
@@ -69,7 +70,7 @@ public class Mahalanobis {
 		double[][] right = new double [pointA.size()][1];
 		
 		for(int dim = 0; dim < pointA.size(); dim++){
-			double diff = pointA.get(dim) - pointB.get(dim);
+			double diff = pointA.getDouble(dim) - pointB.getDouble(dim);
 			left[0][dim] = diff;
 			right[dim][0] = diff;
 		}
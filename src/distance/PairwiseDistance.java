@@ -0,0 +1,62 @@
+package distance;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import utilities.SV;
+
+/**
+ * Distances between the points of a dataset, looked up by the points'
+ * positions in it rather than computed from their components. Algorithms that
+ * compare the same pairs of points many times can share one, such as a
+ * {@link DistanceMatrix} computed beforehand.
+ */
+public interface PairwiseDistance {
+
+	/**
+	 * @return Number of points
+	 */
+	int size();
+
+	/**
+	 * Returns the distance between two points.
+	 *
+	 * @param i
+	 *            Position of the first point
+	 * @param j
+	 *            Position of the second point
+	 * @return Their distance, 0 if i == j
+	 * @throws IndexOutOfBoundsException
+	 *             If a position is not that of a point
+	 */
+	double distance(int i, int j);
+
+	/**
+	 * Returns these distances as a distance function between the given points,
+	 * for the algorithms taking one. The points are recognized by identity,
+	 * point i of the list being point i of these distances.
+	 *
+	 * @param points
+	 *            The points, in the order of these distances
+	 * @return Function looking up the distance between two of the points. It
+	 *         throws an {@link IllegalArgumentException} for any other point.
+	 */
+	default BiFunction<SV, SV, Double> asFunction(List<SV> points) {
+		if (points.size() != size()) {
+			throw new IllegalArgumentException(points.size() + " points for the distances between " + size());
+		}
+		IdentityHashMap<SV, Integer> positions = new IdentityHashMap<SV, Integer>(points.size());
+		for (int i = 0; i < points.size(); i++) {
+			positions.putIfAbsent(points.get(i), i);
+		}
+		return (a, b) -> {
+			Integer i = positions.get(a);
+			Integer j = positions.get(b);
+			if (i == null || j == null) {
+				throw new IllegalArgumentException("Point is not one of the " + size() + " the distances are between");
+			}
+			return distance(i, j);
+		};
+	}
+}
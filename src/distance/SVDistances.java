@@ -17,12 +17,14 @@ public class SVDistances {
 	 */
 	public static Double distPearson(SV A, SV B) {
 		final int dimensionCount = A.size();
-		double runningDistance = 0;
-		for(int dimension = 0; dimension < dimensionCount; dimension++){
-			double xIComponent = (A.get(dimension) - A.getMean())/A.getSD();
-			double yIComponent = (B.get(dimension) - B.getMean())/B.getSD();
-			runningDistance += (xIComponent * yIComponent);
-		}
+		final double meanA = A.getMean();
+		final double meanB = B.getMean();
+		final double sdA = A.getSD();
+		final double sdB = B.getSD();
+		checkSize(B, dimensionCount);
+		double[] a = elements(A);
+		double[] b = elements(B);
+		double runningDistance = DistanceKernels.centeredDot(a, offset(A, a), meanA, b, offset(B, b), meanB, dimensionCount) / (sdA * sdB);
 		
 		return runningDistance/dimensionCount;
 	}
@@ -35,12 +37,10 @@ public class SVDistances {
 	 */
 	public static Double distManhattan(SV A, SV B) {
 		final int dimensionCount = A.size();
-		double runningDistance = 0;
-		for(int dimension = 0; dimension < dimensionCount; dimension++){
-			double xIComponent = A.get(dimension);
-			double yIComponent = B.get(dimension);
-			runningDistance += Math.abs(xIComponent - yIComponent);
-		}
+		checkSize(B, dimensionCount);
+		double[] a = elements(A);
+		double[] b = elements(B);
+		double runningDistance = DistanceKernels.l1(a, offset(A, a), b, offset(B, b), dimensionCount);
 		
 		return runningDistance/dimensionCount;
 		
@@ -63,14 +63,37 @@ public class SVDistances {
 		}
 		
 		//else let's do a unit by unit comparison in Euclidean space.
-		double distance=0;
-		for(int featureId = 0; featureId < A.size(); featureId++){
-			
-			Double diff = A.get(featureId) - B.get(featureId);
-			
-			distance = distance + diff * diff;
-		}
+		double[] a = elements(A);
+		double[] b = elements(B);
+		double distance = DistanceKernels.squaredL2(a, offset(A, a), b, offset(B, b), A.size());
 		
 		return Math.sqrt(distance);
 	}
+	
+	/**
+	 * Fails as reading the missing components would, the backing array may
+	 * be longer than the vector
+	 */
+	private static void checkSize(SV vector, int dimensionCount) {
+		if (vector.size() < dimensionCount) {
+			throw new IndexOutOfBoundsException("Index: " + (dimensionCount - 1) + ", Size: " + vector.size());
+		}
+	}
+	
+	/**
+	 * The array holding the components of a vector for the kernels, its own if
+	 * they are contiguous, otherwise a copy
+	 */
+	static double[] elements(SV vector) {
+		double[] elements = vector.elements();
+		return elements != null ? elements : vector.toDoubleArray();
+	}
+	
+	/**
+	 * Index of the first component of a vector in the array from
+	 * {@link #elements(SV)}
+	 */
+	static int offset(SV vector, double[] elements) {
+		return elements == vector.elements() ? vector.elementsOffset() : 0;
+	}
 }
@@ -0,0 +1,342 @@
+package outlier;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import utilities.SV;
+
+/**
+ * Local outlier factors of a stream of points, kept up to date as points are
+ * inserted and deleted (Pokrajac, Lazarevic and Latecki, "Incremental Local
+ * Outlier Detection for Data Streams", 2007).
+ *
+ * Inserting or deleting a point only changes the k nearest neighbors of the
+ * points that had it, or now have it, as a neighbor. Their k-distances change,
+ * which changes the local reachability densities of the points having them as
+ * neighbors, which in turn changes the outlier factors of those and of the
+ * points having them as neighbors. Only these are updated, the others are
+ * left as they are.
+ *
+ * With a window size, inserting a point into a full window first deletes the
+ * oldest one, so the work per point only depends on the window size, not on
+ * the length of the stream.
+ *
+ * The scores are those {@link LocalOutlierFactor} gives for the points in the
+ * window, in the order they were inserted: among points at the same distance,
+ * the one inserted first is the nearer neighbor.
+ */
+public class IncrementalLocalOutlierFactor {
+
+	/**
+	 * How many neighbors are considered
+	 */
+	private final int k;
+
+	private final BiFunction<SV, SV, Double> distanceMeasure;
+
+	/**
+	 * Most points kept, 0 to keep them all
+	 */
+	private final int windowSize;
+
+	/**
+	 * Ids of the points in the window, oldest first
+	 */
+	private final ArrayDeque<Integer> window = new ArrayDeque<>();
+
+	/**
+	 * State of each point of the window, by id
+	 */
+	private final HashMap<Integer, Entry> entries = new HashMap<>();
+
+	private int nextId = 0;
+
+	/**
+	 * State of a point of the window
+	 */
+	private final class Entry {
+		final int id;
+		final SV point;
+		/** Ids of the k nearest neighbors, nearest first, and their distances */
+		final int[] neighbors = new int[k];
+		final double[] neighborDistances = new double[k];
+		int neighborCount = 0;
+		/** Ids of the points having this one as a neighbor */
+		final HashSet<Integer> reverseNeighbors = new HashSet<>();
+		double density;
+		double score;
+
+		Entry(int id, SV point) {
+			this.id = id;
+			this.point = point;
+		}
+
+		double kDistance() {
+			return neighborCount == 0 ? 0 : neighborDistances[neighborCount - 1];
+		}
+
+		/**
+		 * If a point at that distance, inserted after every current neighbor, would be one
+		 */
+		boolean accepts(double distance) {
+			return neighborCount < k || distance < neighborDistances[k - 1];
+		}
+
+		/**
+		 * Adds a neighbor inserted after every current one, dropping the farthest if there are k
+		 *
+		 * @return The id of the dropped neighbor, -1 if none
+		 */
+		int add(int neighbor, double distance) {
+			int dropped = neighborCount == k ? neighbors[k - 1] : -1;
+			int position = Math.min(neighborCount, k - 1);
+			// later insertion, so it goes after the neighbors at the same distance
+			while (position > 0 && neighborDistances[position - 1] > distance) {
+				neighbors[position] = neighbors[position - 1];
+				neighborDistances[position] = neighborDistances[position - 1];
+				position--;
+			}
+			neighbors[position] = neighbor;
+			neighborDistances[position] = distance;
+			neighborCount = Math.min(neighborCount + 1, k);
+			return dropped;
+		}
+	}
+
+	/**
+	 * Scores every point inserted, keeping them all.
+	 *
+	 * @param k Neighbour count to use for kNN
+	 * @param distanceFunction The function to use to determine the distance between two points
+	 */
+	public IncrementalLocalOutlierFactor(int k, BiFunction<SV, SV, Double> distanceFunction) {
+		this(k, distanceFunction, 0);
+	}
+
+	/**
+	 * Scores the points of a sliding window.
+	 *
+	 * @param k Neighbour count to use for kNN
+	 * @param distanceFunction The function to use to determine the distance between two points
+	 * @param windowSize Most points kept, inserting into a full window deletes the oldest point. 0 to keep them all.
+	 */
+	public IncrementalLocalOutlierFactor(int k, BiFunction<SV, SV, Double> distanceFunction, int windowSize) {
+		if(k < 1 || windowSize < 0) {
+			throw new IllegalArgumentException("k must be positive and the window size positive or 0");
+		}
+		this.k = k;
+		this.distanceMeasure = distanceFunction;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Inserts a point, first deleting the oldest point if the window is full, and updates the scores it changes.
+	 *
+	 * @param point Point to insert
+	 * @return Id of the point, to get its {@link #score(int)} or {@link #delete(int)} it
+	 */
+	public int insert(SV point) {
+		if(windowSize > 0 && window.size() == windowSize) {
+			delete(window.peekFirst());
+		}
+
+		Entry inserted = new Entry(nextId++, point);
+
+		// the neighbors of the new point, in insertion order so ties go to the oldest,
+		// and the points it becomes a neighbor of
+		HashSet<Integer> changedNeighbors = new HashSet<>();
+		HashSet<Integer> changedKDistance = new HashSet<>();
+		for(int id : window) {
+			Entry other = entries.get(id);
+			double distance = distanceMeasure.apply(point, other.point);
+			if(inserted.accepts(distance)) {
+				dropNeighbor(inserted, inserted.add(id, distance));
+			}
+			if(other.accepts(distance)) {
+				double kDistance = other.kDistance();
+				int full = other.neighborCount;
+				dropNeighbor(other, other.add(inserted.id, distance));
+				changedNeighbors.add(id);
+				if(other.kDistance() != kDistance || other.neighborCount != full) {
+					changedKDistance.add(id);
+				}
+			}
+		}
+		window.addLast(inserted.id);
+		entries.put(inserted.id, inserted);
+		for(int i = 0; i < inserted.neighborCount; i++) {
+			entries.get(inserted.neighbors[i]).reverseNeighbors.add(inserted.id);
+		}
+		for(int id : changedNeighbors) {
+			inserted.reverseNeighbors.add(id);
+		}
+
+		changedNeighbors.add(inserted.id);
+		changedKDistance.add(inserted.id);
+		update(changedNeighbors, changedKDistance);
+		return inserted.id;
+	}
+
+	/**
+	 * Forgets that a point is a neighbor of another
+	 */
+	private void dropNeighbor(Entry entry, int dropped) {
+		if(dropped >= 0) {
+			Entry droppedEntry = entries.get(dropped);
+			if(droppedEntry != null) {
+				droppedEntry.reverseNeighbors.remove(entry.id);
+			}
+		}
+	}
+
+	/**
+	 * Deletes a point and updates the scores it changes.
+	 *
+	 * @param id Id given when the point was inserted
+	 * @throws IllegalArgumentException If there is no such point in the window
+	 */
+	public void delete(int id) {
+		Entry deleted = entries.remove(id);
+		if(deleted == null) {
+			throw new IllegalArgumentException("No point " + id + " in the window");
+		}
+		window.remove(id);
+		for(int i = 0; i < deleted.neighborCount; i++) {
+			entries.get(deleted.neighbors[i]).reverseNeighbors.remove(id);
+		}
+
+		// the points it was a neighbor of search their neighbors again
+		HashSet<Integer> changedNeighbors = new HashSet<>(deleted.reverseNeighbors);
+		for(int reverse : deleted.reverseNeighbors) {
+			Entry entry = entries.get(reverse);
+			for(int i = 0; i < entry.neighborCount; i++) {
+				if(entry.neighbors[i] != id) {
+					entries.get(entry.neighbors[i]).reverseNeighbors.remove(reverse);
+				}
+			}
+			entry.neighborCount = 0;
+			for(int other : window) {
+				if(other != reverse) {
+					double distance = distanceMeasure.apply(entry.point, entries.get(other).point);
+					if(entry.accepts(distance)) {
+						entry.add(other, distance);
+					}
+				}
+			}
+			for(int i = 0; i < entry.neighborCount; i++) {
+				entries.get(entry.neighbors[i]).reverseNeighbors.add(reverse);
+			}
+		}
+		update(changedNeighbors, changedNeighbors);
+	}
+
+	/**
+	 * Updates the densities and scores affected by changed neighbors and k-distances
+	 *
+	 * @param changedNeighbors Points whose neighbors changed
+	 * @param changedKDistance Points whose k-distance may have changed
+	 */
+	private void update(HashSet<Integer> changedNeighbors, HashSet<Integer> changedKDistance) {
+
+		// densities depend on the neighbors and their k-distances
+		HashSet<Integer> changedDensity = new HashSet<>(changedNeighbors);
+		for(int id : changedKDistance) {
+			changedDensity.addAll(entries.get(id).reverseNeighbors);
+		}
+		for(int id : changedDensity) {
+			Entry entry = entries.get(id);
+			double reachability = 0;
+			for(int i = 0; i < entry.neighborCount; i++) {
+				reachability += Math.max(entries.get(entry.neighbors[i]).kDistance(), entry.neighborDistances[i]);
+			}
+			entry.density = 1 / (reachability / entry.neighborCount);
+		}
+
+		// scores depend on the densities of the point and its neighbors
+		HashSet<Integer> changedScore = new HashSet<>(changedDensity);
+		for(int id : changedDensity) {
+			changedScore.addAll(entries.get(id).reverseNeighbors);
+		}
+		for(int id : changedScore) {
+			Entry entry = entries.get(id);
+			double neighborDensities = 0;
+			for(int i = 0; i < entry.neighborCount; i++) {
+				neighborDensities += entries.get(entry.neighbors[i]).density;
+			}
+			entry.score = neighborDensities / entry.neighborCount / entry.density;
+		}
+	}
+
+	/**
+	 * Returns the local outlier factor of a point of the window. Until the window holds more than k points, the
+	 * neighbors of a point are all the others, and a point alone has no score (NaN).
+	 *
+	 * @param id Id given when the point was inserted
+	 * @return Its outlier factor, close to 1 inside a cluster, much larger for an outlier
+	 * @throws IllegalArgumentException If there is no such point in the window
+	 */
+	public double score(int id) {
+		Entry entry = entries.get(id);
+		if(entry == null) {
+			throw new IllegalArgumentException("No point " + id + " in the window");
+		}
+		return entry.score;
+	}
+
+	/**
+	 * Returns the ids of the k nearest neighbors of a point of the window.
+	 *
+	 * @param id Id given when the point was inserted
+	 * @return Ids of its neighbors, nearest first
+	 * @throws IllegalArgumentException If there is no such point in the window
+	 */
+	public int[] neighbors(int id) {
+		Entry entry = entries.get(id);
+		if(entry == null) {
+			throw new IllegalArgumentException("No point " + id + " in the window");
+		}
+		return Arrays.copyOf(entry.neighbors, entry.neighborCount);
+	}
+
+	/**
+	 * @return Number of points in the window
+	 */
+	public int size() {
+		return window.size();
+	}
+
+	/**
+	 * @return Ids of the points in the window, oldest first
+	 */
+	public List<Integer> ids() {
+		return new ArrayList<>(window);
+	}
+
+	/**
+	 * @return Points of the window, oldest first
+	 */
+	public List<SV> points() {
+		List<SV> points = new ArrayList<>(window.size());
+		for(int id : window) {
+			points.add(entries.get(id).point);
+		}
+		return points;
+	}
+
+	/**
+	 * @return Outlier factors of the points of the window, oldest first
+	 */
+	public double[] scores() {
+		double[] scores = new double[window.size()];
+		int i = 0;
+		for(int id : window) {
+			scores[i++] = entries.get(id).score;
+		}
+		return scores;
+	}
+}
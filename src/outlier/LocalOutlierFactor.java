@@ -3,9 +3,17 @@ package outlier;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
 
+import distance.KNNGraph;
+import distance.LSHIndex;
+import distance.PairwiseDistance;
 import utilities.SV;
 
 public class LocalOutlierFactor {
@@ -26,10 +34,30 @@ public class LocalOutlierFactor {
 	
 	private final BiFunction<SV, SV, Double> distanceMeasure;
 	
+	/**
+	 * Distances between the points of the dataset looked up by position, null to compute them with the distance measure
+	 */
+	private PairwiseDistance distances;
+	
 	/**
 	 * Dataset used for LOF.
 	 */
 	public List<SV> dataset;
+	
+	/**
+	 * Index of the dataset giving candidate neighbors, null to compare with every point
+	 */
+	private final LSHIndex index;
+	
+	/**
+	 * Neighbors of the points of the dataset computed beforehand, null to search them
+	 */
+	private final KNNGraph graph;
+	
+	/**
+	 * Position of each point of the dataset in the graph
+	 */
+	private final IdentityHashMap<SV, Integer> graphPositions;
 
 	/**
 	 * 
@@ -38,93 +66,269 @@ public class LocalOutlierFactor {
 	 * @param distanceFunction The function to use to determine the distance between two points
 	 */
 	public LocalOutlierFactor(int k, List<SV> dataset, BiFunction<SV, SV, Double> distanceFunction) {
+		this(k, dataset, distanceFunction, null);
+	}
+	
+	/**
+	 * 
+	 * @param k Neighbour count to use for kNN
+	 * @param dataset Assumed non-empty and that all LOFPoint have the same number and quality of dimensions
+	 * @param distances Distances between the points of the dataset, in its order, such as a {@link distance.DistanceMatrix}.
+	 * Points added later have no distance to look up, so {@link #addPoint(SV)} can't be used.
+	 */
+	public LocalOutlierFactor(int k, List<SV> dataset, PairwiseDistance distances) {
+		this(k, dataset, distances.asFunction(dataset), null);
+		this.distances = distances;
+	}
+	
+	/**
+	 * 
+	 * @param k Neighbour count to use for kNN
+	 * @param dataset Assumed non-empty and that all LOFPoint have the same number and quality of dimensions
+	 * @param distanceFunction The function to use to determine the distance between two points
+	 * @param index Index whose candidates are searched for neighbors instead of the whole dataset, with a family
+	 * matching the distance function. The points of the dataset it doesn't hold yet are added to it.
+	 */
+	public LocalOutlierFactor(int k, List<SV> dataset, BiFunction<SV, SV, Double> distanceFunction, LSHIndex index) {
 		
 		this.k = k;
 		this.dataset = dataset;
 		this.distanceMeasure = distanceFunction;
+		this.index = index;
+		this.graph = null;
+		this.graphPositions = null;
+		if(index != null) {
+			for(int i = index.size(); i < dataset.size(); i++) {
+				index.add(dataset.get(i));
+			}
+		}
 		//this.distances = new Double[dataset.size()][dataset.size()];
 		final int dimensionCount = dataset.get(0).getCount();
 	}
 	
-	public HashMap<SV, Double> LOF() {
-		
-		HashMap<SV, Double> results = new HashMap<SV, Double>();
+	/**
+	 * 
+	 * @param dataset Assumed non-empty and that all LOFPoint have the same number and quality of dimensions
+	 * @param distanceFunction The function to use to determine the distance between two points, the one the graph was built with
+	 * @param graph Neighbors of the points of the dataset, in its order, whose number is the k used. {@link #addPoint(SV)}
+	 * can't be used, the graph would miss the new point.
+	 */
+	public LocalOutlierFactor(List<SV> dataset, BiFunction<SV, SV, Double> distanceFunction, KNNGraph graph) {
 		
-		for(SV point : dataset) {
-			results.put(point, LOF(point));
+		if(graph.size() != dataset.size()) {
+			throw new IllegalArgumentException("Graph of " + graph.size() + " points for a dataset of " + dataset.size());
+		}
+		this.k = graph.getNeighborCount();
+		this.dataset = dataset;
+		this.distanceMeasure = distanceFunction;
+		this.index = null;
+		this.graph = graph;
+		this.graphPositions = new IdentityHashMap<>(dataset.size());
+		for(int i = 0; i < dataset.size(); i++) {
+			graphPositions.putIfAbsent(dataset.get(i), i);
 		}
-		
-		return results;
 	}
 	
-	
 	/**
-	 * Calculate the local outlier factor of a given point
+	 * Adds a point to the dataset, such as the next one of a stream. The neighbors found so far are forgotten
+	 * as the new point may be one of them.
 	 */
-	private Double LOF(SV point) {
-	
-		//Calculating the total local reachability density of the k nearest neighbors of this point
-		Double lof = 1d;
-		for(SV neighbor : nearestNeighbors(k, point, dataset)) {
-			
-			lof += localReachabilityDensity(neighbor);
+	public void addPoint(SV point) {
+		if(graph != null || distances != null) {
+			throw new IllegalStateException("The neighbors or distances were given for the dataset, it can't grow");
 		}
+		dataset.add(point);
+		if(index != null) {
+			index.add(point);
+		}
+		kNeighbors.clear();
+	}
+	
+	/**
+	 * Local outlier factor of every point of the dataset
+	 * 
+	 * @see #scores(ForkJoinPool)
+	 */
+	public HashMap<SV, Double> LOF() {
 		
-		//Dividing by the number of neighbors (usually k)
-		lof = lof / nearestNeighbors(k, point, dataset).size();
-		
-		//Dividing by the local reachability of this point
-		lof = lof / localReachabilityDensity(point);
+		double[] scores = scores(ForkJoinPool.commonPool());
+		HashMap<SV, Double> results = new HashMap<SV, Double>();
+		for(int i = 0; i < dataset.size(); i++) {
+			results.put(dataset.get(i), scores[i]);
+		}
 		
-		return lof;
+		return results;
 	}
 	
+	/**
+	 * Calculate the local outlier factor of every point of the dataset, in three phases each spread over the pool:
+	 * the k nearest neighbors of every point (see {@link #neighborGraph(ForkJoinPool)}), then the k-distance and
+	 * local reachability density of every point, then their outlier factors. Nothing is computed twice and every
+	 * phase gives arrays aligned with the dataset.
+	 * 
+	 * @param pool Pool running the phases, which calls the distance function from its threads
+	 * @return The outlier factor of each point of the dataset, in its order
+	 */
+	public double[] scores(ForkJoinPool pool) {
+		KNNGraph neighbors = neighborGraph(pool);
+		double[] densities = localReachabilityDensities(neighbors, kDistances(neighbors, pool), pool);
+		return outlierFactors(neighbors, densities, pool);
+	}
 	
 	/**
-	 * Local reachability density of a point based on the reachability of this point and its k nearest neighbors
+	 * The k nearest neighbors of every point of the dataset: the graph given at construction, or one searched
+	 * among the candidates of the index, or else among the whole dataset.
+	 * 
+	 * For millions of points, build an approximate graph with {@link KNNGraph#buildApproximate} and give it
+	 * to the constructor, an exact one compares every pair of points.
 	 */
-	private Double localReachabilityDensity(SV point) {
-		
-		//Calculate the total reachability based on the k nearest neighbors
-		Double lrd = 0d;
-		for(SV neighbor : nearestNeighbors(k, point, dataset)) {
-			lrd += reachabilityDistance(point, neighbor);
+	public KNNGraph neighborGraph(ForkJoinPool pool) {
+		if(graph != null) {
+			return graph;
 		}
+		PairwiseDistance pairs = distances != null ? distances : new PairwiseDistance() {
+			@Override
+			public int size() {
+				return dataset.size();
+			}
+			
+			@Override
+			public double distance(int i, int j) {
+				return distanceMeasure.apply(dataset.get(i), dataset.get(j));
+			}
+		};
 		
-		//divide the total reachability distance by the number of neighbors (usually K)
-		lrd = lrd / nearestNeighbors(k, point, dataset).size();
-		
-		lrd = 1 / lrd;
-		
-		return lrd;
+		//Candidates from the index, unless there are too few
+		IntFunction<int[]> candidates = null;
+		if(index != null) {
+			candidates = point -> {
+				int[] ids = index.candidates(dataset.get(point));
+				return ids.length > k ? ids : null;
+			};
+		}
+		return KNNGraph.build(pairs, k, candidates, pool);
 	}
 	
+	/**
+	 * The k-distance of every point, the distance to its farthest neighbor.
+	 * 
+	 * @param neighbors The k nearest neighbors of every point
+	 * @param pool Pool spreading the points
+	 * @return The k-distances, by position
+	 */
+	public static double[] kDistances(KNNGraph neighbors, ForkJoinPool pool) {
+		double[] kDistances = new double[neighbors.size()];
+		pool.invoke(new RangeTask(0, neighbors.size(), point -> kDistances[point] = neighbors.getKDistance(point)));
+		return kDistances;
+	}
 	
 	/**
-	 * Reachability distance between two points as described in the Local Outlier Factor
+	 * Local reachability density of every point: the inverse of the mean reachability distance from the point
+	 * to its neighbors, a reachability distance being the larger of the distance to the neighbor and the
+	 * neighbor's k-distance.
+	 * 
+	 * @param neighbors The k nearest neighbors of every point
+	 * @param kDistances The k-distance of every point
+	 * @param pool Pool spreading the points
+	 * @return The densities, by position
 	 */
-	private Double reachabilityDistance(SV A, SV B) {
-		
-		Double kDistanceB = kDistance(B, nearestNeighbors(k, B, dataset));
-		Double distAB = distanceMeasure.apply(A, B);
-		
-		return Math.max(kDistanceB, distAB);
+	public static double[] localReachabilityDensities(KNNGraph neighbors, double[] kDistances, ForkJoinPool pool) {
+		int count = neighbors.getNeighborCount();
+		double[] densities = new double[neighbors.size()];
+		pool.invoke(new RangeTask(0, neighbors.size(), point -> {
+			double reachability = 0;
+			for(int rank = 0; rank < count; rank++) {
+				reachability += Math.max(kDistances[neighbors.getNeighbor(point, rank)], neighbors.getDistance(point, rank));
+			}
+			densities[point] = 1 / (reachability / count);
+		}));
+		return densities;
 	}
 	
+	/**
+	 * Local outlier factor of every point: the mean local reachability density of its neighbors over its own.
+	 * Close to 1 inside a cluster, much larger for an outlier.
+	 * 
+	 * @param neighbors The k nearest neighbors of every point
+	 * @param densities The local reachability density of every point
+	 * @param pool Pool spreading the points
+	 * @return The outlier factors, by position
+	 */
+	public static double[] outlierFactors(KNNGraph neighbors, double[] densities, ForkJoinPool pool) {
+		int count = neighbors.getNeighborCount();
+		double[] factors = new double[neighbors.size()];
+		pool.invoke(new RangeTask(0, neighbors.size(), point -> {
+			double neighborDensities = 0;
+			for(int rank = 0; rank < count; rank++) {
+				neighborDensities += densities[neighbors.getNeighbor(point, rank)];
+			}
+			factors[point] = neighborDensities / count / densities[point];
+		}));
+		return factors;
+	}
 	
 	/**
-	 * Return the K distance of sv in this dataset
+	 * Runs a body for every position of a range, splitting it over the pool
 	 */
-	private Double kDistance(SV point, List<SV> kneighbors) {
-		return distanceMeasure.apply(point,  kneighbors.get(kneighbors.size() - 1));
+	private static class RangeTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = -1826066366512390345L;
+		
+		private static final int BLOCK = 1024;
+		
+		private final int from;
+		private final int to;
+		private final IntConsumer body;
+		
+		RangeTask(int from, int to, IntConsumer body) {
+			this.from = from;
+			this.to = to;
+			this.body = body;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from > BLOCK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RangeTask(from, middle, body), new RangeTask(middle, to, body));
+				return;
+			}
+			for(int i = from; i < to; i++) {
+				body.accept(i);
+			}
+		}
 	}
 	
 	
 	/**
 	 * Gets the K nearest neighbors of sv
+	 * 
+	 * With an index, the neighbors are searched among its candidates for the point, the whole dataset is only
+	 * searched if there are less than k candidates. With a graph, the neighbors of the points of the dataset are
+	 * read from it.
 	 */
 	public List<SV> nearestNeighbors(int k, SV point, List<SV> dataset) {
 		
+		//Neighbors from the graph, if it covers this dataset and point
+		if(graph != null && dataset == this.dataset && k == graph.getNeighborCount() && !kNeighbors.containsKey(point)) {
+			Integer position = graphPositions.get(point);
+			if(position != null) {
+				List<SV> graphNeighbors = new ArrayList<SV>(k);
+				for(int rank = 0; rank < k; rank++) {
+					graphNeighbors.add(dataset.get(graph.getNeighbor(position, rank)));
+				}
+				kNeighbors.put(point, graphNeighbors);
+			}
+		}
+		
+		//Candidates from the index, if it covers this dataset
+		if(index != null && dataset == this.dataset && !kNeighbors.containsKey(point)) {
+			List<SV> candidateNeighbors = index.nearestNeighbors(point, k, distanceMeasure);
+			if(candidateNeighbors.size() >= k) {
+				kNeighbors.put(point, candidateNeighbors);
+			}
+		}
+		
 		//If the kneighbors have not been recorded, calculate
 		if(!kNeighbors.containsKey(point)) {
 			
@@ -1,68 +1,250 @@
 package utilities;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.function.Function;
+import java.util.Arrays;
 
 /**
  * This is a class that holds a series of numeric (double) vectors.
- * 
+ *
  * It maintains information on the series (ex. mean, average, sd).
  *
  * A {@link #DataFrame()} presumes that all rows it is asked to {@link #addRow(SV) insert}
  * are of the same dimension and that its rows aren't altered after insertion.
- * The behaviour when this is not true is unspecified.
+ *
+ * The cells are stored once, unboxed, in primitive arrays laid out as given by
+ * the {@link Layout} chosen at construction. {@link #getColumnData(int)} and
+ * {@link #getRowData(int)} return read-only views over these arrays rather
+ * than copies.
  */
 public class DataFrame {
-	/** The rows of the data frame */
-	private List<SV>				rows				= new ArrayList<>();
-	/** The data, as given in {@link #rows} but in columnar form */
-	private HashMap<Integer, SV>	columnarData		= new HashMap<>();
-	
-	private Function<Integer, SV>	createNewSVIfAbsent	= (t) -> new SV();
-	
-	/** Creates an empty data frame */
+
+	/** How the cells of a {@link DataFrame} are laid out in memory */
+	public enum Layout {
+		/**
+		 * One contiguous <code>double[]</code> per column. Column scans (ex.
+		 * statistics, covariance) read memory sequentially.
+		 */
+		COLUMN_MAJOR,
+		/**
+		 * One contiguous <code>double[]</code> where each row follows the
+		 * previous one. Row scans (ex. distance between rows) read memory
+		 * sequentially. The whole frame must fit in a single Java array.
+		 */
+		ROW_MAJOR
+	}
+
+	/** Number of rows room is made for when none is given */
+	private static final int	DEFAULT_ROW_CAPACITY	= 16;
+
+	private final Layout		layout;
+	/** Number of columns of every row, -1 until the first row is added */
+	private int					numberOfColumns			= -1;
+	private int					numberOfRows			= 0;
+	/** Number of rows that fit in the current arrays */
+	private int					rowCapacity;
+
+	/** The cells, column by column, for {@link Layout#COLUMN_MAJOR} */
+	private double[][]			columns;
+	/** The cells, row after row, for {@link Layout#ROW_MAJOR} */
+	private double[]			cells;
+	/** Running statistics of each column */
+	private Moments[]			columnStats;
+
+	/** Creates an empty, column-major, data frame */
 	public DataFrame() {
+		this(Layout.COLUMN_MAJOR);
 	}
-	
+
 	/**
-	 * Adds a new row to this data frame.
-	 * 
+	 * Creates an empty data frame with the given layout. The number of columns
+	 * is set by the first row added.
+	 *
+	 * @param layout
+	 *            How cells are laid out in memory
+	 */
+	public DataFrame(Layout layout) {
+		this.layout = layout;
+		this.rowCapacity = DEFAULT_ROW_CAPACITY;
+	}
+
+	/**
+	 * Creates an empty data frame with room for the given number of rows, so
+	 * filling it up to that point does not reallocate anything.
+	 *
+	 * @param layout
+	 *            How cells are laid out in memory
+	 * @param numberOfColumns
+	 *            Number of columns in each row
+	 * @param rowCapacity
+	 *            Number of rows to make room for
+	 */
+	public DataFrame(Layout layout, int numberOfColumns, int rowCapacity) {
+		this.layout = layout;
+		this.rowCapacity = Math.max(rowCapacity, 1);
+		allocate(numberOfColumns);
+	}
+
+	/**
+	 * Creates a column-major frame over the given, already filled, columns and
+	 * their statistics, as read from a {@link DataFrameFile}. The arrays are
+	 * retained, not copied.
+	 *
+	 * @param columns
+	 *            The cells, column by column, each of at least numberOfRows
+	 *            components
+	 * @param numberOfRows
+	 *            Number of rows holding data
+	 * @param columnStats
+	 *            Statistics of each column
+	 */
+	DataFrame(double[][] columns, int numberOfRows, Moments[] columnStats) {
+		this.layout = Layout.COLUMN_MAJOR;
+		this.numberOfColumns = columns.length;
+		this.numberOfRows = numberOfRows;
+		this.rowCapacity = Math.max(numberOfRows, 1);
+		this.columns = columns;
+		this.columnStats = columnStats;
+		for (int col = 0; col < columns.length; col++) {
+			if (columns[col].length < rowCapacity) {
+				columns[col] = Arrays.copyOf(columns[col], rowCapacity);
+			}
+		}
+	}
+
+	/**
+	 * Creates the arrays once the number of columns is known.
+	 */
+	private void allocate(int columnCount) {
+		numberOfColumns = columnCount;
+		columnStats = new Moments[columnCount];
+		for (int col = 0; col < columnCount; col++) {
+			columnStats[col] = new Moments();
+		}
+
+		if (layout == Layout.COLUMN_MAJOR) {
+			columns = new double[columnCount][rowCapacity];
+		} else {
+			cells = new double[checkedCellCount(rowCapacity)];
+		}
+	}
+
+	/**
+	 * Makes sure this frame can hold the given number of rows without
+	 * reallocating its storage. Has no effect before the number of columns is
+	 * known.
+	 *
+	 * @param minRowCapacity
+	 *            Number of rows to make room for
+	 */
+	public void ensureCapacity(int minRowCapacity) {
+		if (minRowCapacity <= rowCapacity) {
+			return;
+		}
+		rowCapacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) minRowCapacity, rowCapacity + (rowCapacity >> 1)));
+
+		if (numberOfColumns < 0) {
+			return;
+		}
+		if (layout == Layout.COLUMN_MAJOR) {
+			for (int col = 0; col < numberOfColumns; col++) {
+				columns[col] = Arrays.copyOf(columns[col], rowCapacity);
+			}
+		} else {
+			cells = Arrays.copyOf(cells, checkedCellCount(rowCapacity));
+		}
+	}
+
+	private int checkedCellCount(int rows) {
+		long cellCount = (long) rows * numberOfColumns;
+		if (cellCount > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("A " + Layout.ROW_MAJOR + " frame can't hold " + rows + " rows of " + numberOfColumns
+					+ " columns, use " + Layout.COLUMN_MAJOR);
+		}
+		return (int) cellCount;
+	}
+
+	/**
+	 * Adds a new row to this data frame. The row is copied, not retained.
+	 *
 	 * @param newRow
 	 *            The row to add.
 	 */
 	public void addRow(SV newRow) {
-		assert (rows.size() > 0 ? newRow.size() == columnarData.size() : true) : "Row did not have the same number of columns as previous rows inserted in the model.";
-		for (int curDim = 0; curDim < newRow.getCount(); curDim++) {
-			SV thisColumn = columnarData.computeIfAbsent(curDim, createNewSVIfAbsent);
-			Double thisDimValue = newRow.get(curDim);
-			thisColumn.append(thisDimValue);
+		beginRow(newRow.size());
+		for (int curDim = 0; curDim < numberOfColumns; curDim++) {
+			setCell(curDim, newRow.getDouble(curDim));
+		}
+		numberOfRows++;
+	}
+
+	/**
+	 * Adds a new row to this data frame without boxing its values. The row is
+	 * copied, not retained.
+	 *
+	 * @param newRow
+	 *            The row to add.
+	 */
+	public void addRow(double[] newRow) {
+		beginRow(newRow.length);
+		for (int curDim = 0; curDim < numberOfColumns; curDim++) {
+			setCell(curDim, newRow[curDim]);
+		}
+		numberOfRows++;
+	}
+
+	/**
+	 * Checks the dimension of a new row and makes room for it.
+	 */
+	private void beginRow(int rowSize) {
+		if (numberOfColumns < 0) {
+			allocate(rowSize);
+		} else if (rowSize != numberOfColumns) {
+			throw new IllegalArgumentException("Row did not have the same number of columns as previous rows inserted in the model.");
 		}
-		rows.add(newRow);
+		ensureCapacity(numberOfRows + 1);
 	}
-	
+
+	/**
+	 * Sets a cell of the row being added.
+	 */
+	private void setCell(int column, double value) {
+		if (layout == Layout.COLUMN_MAJOR) {
+			columns[column][numberOfRows] = value;
+		} else {
+			cells[numberOfRows * numberOfColumns + column] = value;
+		}
+		columnStats[column].add(value);
+	}
+
 	/**
 	 * Get the number of columns in each row.
-	 * 
+	 *
 	 * @return Number of columns
 	 */
 	public int getNumberOfColumns() {
-		return columnarData.size();
+		return Math.max(numberOfColumns, 0);
 	}
-	
+
 	/**
-	 * Get the number of columns in each row.
-	 * 
-	 * @return Number of columns
+	 * Get the number of rows in this frame.
+	 *
+	 * @return Number of rows
 	 */
 	public int getNumberOfRows() {
-		return rows.size();
+		return numberOfRows;
 	}
-	
+
+	/**
+	 * Returns how the cells of this frame are laid out in memory.
+	 *
+	 * @return The layout chosen at construction
+	 */
+	public Layout getLayout() {
+		return layout;
+	}
+
 	/**
 	 * Returns a cell value from this table. The rows and column are zero-indexed.
-	 * 
+	 *
 	 * @param row
 	 *            Row to select
 	 * @param column
@@ -70,28 +252,90 @@ public class DataFrame {
 	 * @return The value of the cell
 	 */
 	public Double get(int row, int column) {
-		return rows.get(row).get(column);
+		return getDouble(row, column);
 	}
-	
+
+	/**
+	 * Returns a cell value from this table without boxing it. The rows and
+	 * column are zero-indexed.
+	 *
+	 * @param row
+	 *            Row to select
+	 * @param column
+	 *            Column to select
+	 * @return The value of the cell
+	 */
+	public double getDouble(int row, int column) {
+		if (row < 0 || row >= numberOfRows || column < 0 || column >= numberOfColumns) {
+			throw new IndexOutOfBoundsException("Cell (" + row + ", " + column + ") of a " + numberOfRows + " x " + getNumberOfColumns() + " frame");
+		}
+		if (layout == Layout.COLUMN_MAJOR) {
+			return columns[column][row];
+		}
+		return cells[row * numberOfColumns + column];
+	}
+
 	/**
 	 * Returns the {@link utilities.SV} that represents the given column. The columns are zero-indexed.
-	 * 
+	 *
+	 * The returned vector is a read-only view over this frame, it does not
+	 * copy the column and its statistics are the ones kept by this frame.
+	 *
 	 * @param column
 	 *            Column number to select
 	 * @return The {@link utilities.SV} that represents the given row.
 	 */
 	public SV getColumnData(int column) {
-		return columnarData.get(column);
+		if (column < 0 || column >= numberOfColumns) {
+			return null;
+		}
+		Moments stats = new Moments(columnStats[column]);
+		if (layout == Layout.COLUMN_MAJOR) {
+			return new SVView.Strided(columns[column], 0, 1, numberOfRows, stats);
+		}
+		return new SVView.Strided(cells, column, numberOfColumns, numberOfRows, stats);
 	}
-	
+
 	/**
 	 * Returns the {@link utilities.SV} that represents the given row. The rows are zero-indexed.
-	 * 
+	 *
+	 * The returned vector is a read-only view over this frame, it does not
+	 * copy the row.
+	 *
 	 * @param row
 	 *            Row number to select
 	 * @return The {@link utilities.SV} that represents the given row.
 	 */
 	public SV getRowData(int row) {
-		return rows.get(row);
+		if (row < 0 || row >= numberOfRows) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Rows: " + numberOfRows);
+		}
+		if (layout == Layout.COLUMN_MAJOR) {
+			return new SVView.Gathered(columns, row, numberOfColumns);
+		}
+		return new SVView.Strided(cells, row * numberOfColumns, 1, numberOfColumns, null);
+	}
+
+	/**
+	 * Copies the given row into the given array.
+	 *
+	 * @param row
+	 *            Row number to copy
+	 * @param destination
+	 *            Array of at least {@link #getNumberOfColumns()} components
+	 * @return The destination array
+	 */
+	public double[] copyRow(int row, double[] destination) {
+		if (row < 0 || row >= numberOfRows) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Rows: " + numberOfRows);
+		}
+		if (layout == Layout.ROW_MAJOR) {
+			System.arraycopy(cells, row * numberOfColumns, destination, 0, numberOfColumns);
+		} else {
+			for (int col = 0; col < numberOfColumns; col++) {
+				destination[col] = columns[col][row];
+			}
+		}
+		return destination;
 	}
 }
@@ -0,0 +1,387 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes {@link DataFrame}s in a compact, self-describing, binary
+ * column format, so datasets are parsed from text only once. <br>
+ *
+ * A file is made of:
+ * <ol>
+ * <li>a {@link #HEADER_SIZE} bytes header: magic ('DMDF'), version, row
+ * capacity, number of rows, number of columns, {@link Encoding} and whether
+ * the column statistics are filled in;</li>
+ * <li>a directory with, for each column, its statistics (count, sum, min,
+ * max, mean, second to fourth central moments) and the offset and length of
+ * its data;</li>
+ * <li>the data of each column, encoded as given in the header.</li>
+ * </ol>
+ * Every number is little-endian. {@link Encoding#FLOAT64} files have fixed
+ * size columns that {@link MappedDataFrame} maps without reading them. <br>
+ *
+ * The statistics written with a frame become the statistics of the frame read
+ * back, so {@link DataFrame#getColumnData(int)} has its mean, variance, min
+ * and max without a scan of the data.
+ */
+public class DataFrameFile {
+
+	/** How the cells of each column are stored */
+	public enum Encoding {
+		/** 8 bytes per cell, exact. Can be memory-mapped. */
+		FLOAT64,
+		/** 4 bytes per cell, rounded to the nearest float when written */
+		FLOAT32,
+		/**
+		 * Exact, the bits of each cell are stored as how much their difference
+		 * with the bits of the previous cell changed, as a variable length
+		 * integer. Constant or regularly spaced columns (ids, timestamps,
+		 * counters) take a byte per cell, random data a little over 8.
+		 */
+		DELTA64
+	}
+
+	/** 'DMDF' */
+	static final int			MAGIC				= 0x444D4446;
+	static final int			VERSION				= 2;
+	static final int			HEADER_SIZE			= 64;
+	/** Bytes per column in the directory: 8 statistics, data offset and length */
+	static final int			DIRECTORY_ENTRY_SIZE	= 80;
+
+	/** Offset, in the header, of the number of rows */
+	static final int			ROWS_OFFSET			= 16;
+	/** Offset, in the header, of the flag telling whether statistics are filled in */
+	static final int			STATS_FLAG_OFFSET	= 32;
+
+	private static final int	BUFFER_SIZE			= 1 << 16;
+
+	/**
+	 * The header and directory of a frame file.
+	 */
+	static final class Header {
+		int			rowCapacity;
+		int			numberOfRows;
+		int			numberOfColumns;
+		Encoding	encoding;
+		/** Statistics of each column, null if the file has none */
+		Moments[]	columnStats;
+		long[]		dataOffsets;
+		long[]		dataLengths;
+
+		/** @return Offset of the first byte of column data */
+		long dataStart() {
+			return dataStart(numberOfColumns);
+		}
+
+		static long dataStart(int numberOfColumns) {
+			return HEADER_SIZE + (long) numberOfColumns * DIRECTORY_ENTRY_SIZE;
+		}
+
+		/**
+		 * Writes this header and directory at the start of the given buffer.
+		 */
+		void writeTo(ByteBuffer buffer) {
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putLong(8, rowCapacity);
+			buffer.putLong(ROWS_OFFSET, numberOfRows);
+			buffer.putInt(24, numberOfColumns);
+			buffer.putInt(28, encoding.ordinal());
+			buffer.putInt(STATS_FLAG_OFFSET, columnStats != null ? 1 : 0);
+			for (int col = 0; col < numberOfColumns; col++) {
+				int entry = HEADER_SIZE + col * DIRECTORY_ENTRY_SIZE;
+				if (columnStats != null) {
+					writeStats(buffer, entry, columnStats[col]);
+				}
+				buffer.putLong(entry + 64, dataOffsets[col]);
+				buffer.putLong(entry + 72, dataLengths[col]);
+			}
+		}
+
+		/**
+		 * @return Bytes of a cell in the given encoding, 0 if cells take a
+		 *         varying number of bytes
+		 */
+		static long cellWidth(Encoding encoding) {
+			switch (encoding) {
+			case FLOAT64:
+				return 8;
+			case FLOAT32:
+				return 4;
+			default:
+				return 0;
+			}
+		}
+
+		static void writeStats(ByteBuffer buffer, int entry, Moments stats) {
+			buffer.putLong(entry, stats.getCount());
+			buffer.putDouble(entry + 8, stats.getSum());
+			buffer.putDouble(entry + 16, stats.getMin());
+			buffer.putDouble(entry + 24, stats.getMax());
+			buffer.putDouble(entry + 32, stats.getRunningMean());
+			buffer.putDouble(entry + 40, stats.getM2());
+			buffer.putDouble(entry + 48, stats.getM3());
+			buffer.putDouble(entry + 56, stats.getM4());
+		}
+
+		/**
+		 * Reads the header and directory of the given file.
+		 */
+		static Header read(FileChannel channel, Path file) throws IOException {
+			ByteBuffer fixed = readFully(channel, 0, HEADER_SIZE, file);
+			if (fixed.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a data frame file");
+			}
+			int version = fixed.getInt(4);
+			if (version != VERSION) {
+				throw new IOException(file + " has unsupported version " + version);
+			}
+
+			// checked before anything is allocated from them
+			long rowCapacity = fixed.getLong(8);
+			long numberOfRows = fixed.getLong(ROWS_OFFSET);
+			int numberOfColumns = fixed.getInt(24);
+			int encoding = fixed.getInt(28);
+			if (encoding < 0 || encoding >= Encoding.values().length || numberOfRows < 0 || numberOfRows > rowCapacity
+					|| rowCapacity > Integer.MAX_VALUE || numberOfColumns < 0) {
+				throw new IOException(file + " has a corrupted header");
+			}
+			if (dataStart(numberOfColumns) > channel.size()) {
+				throw new IOException(file + " is truncated, the directory is missing");
+			}
+			Header header = new Header();
+			header.rowCapacity = (int) rowCapacity;
+			header.numberOfRows = (int) numberOfRows;
+			header.numberOfColumns = numberOfColumns;
+			header.encoding = Encoding.values()[encoding];
+			boolean hasStats = fixed.getInt(STATS_FLAG_OFFSET) != 0;
+
+			int cols = header.numberOfColumns;
+			ByteBuffer directory = readFully(channel, HEADER_SIZE, cols * DIRECTORY_ENTRY_SIZE, file);
+			header.columnStats = hasStats ? new Moments[cols] : null;
+			header.dataOffsets = new long[cols];
+			header.dataLengths = new long[cols];
+			for (int col = 0; col < cols; col++) {
+				int entry = col * DIRECTORY_ENTRY_SIZE;
+				if (hasStats) {
+					header.columnStats[col] = new Moments(directory.getLong(entry), directory.getDouble(entry + 8),
+							directory.getDouble(entry + 16), directory.getDouble(entry + 24), directory.getDouble(entry + 32),
+							directory.getDouble(entry + 40), directory.getDouble(entry + 48), directory.getDouble(entry + 56));
+				}
+				long offset = directory.getLong(entry + 64);
+				long length = directory.getLong(entry + 72);
+				if (offset < header.dataStart() || length < 0 || length < header.numberOfRows * cellWidth(header.encoding)) {
+					throw new IOException(file + " is corrupted, column " + col + " is truncated");
+				}
+				if (offset + length > channel.size()) {
+					throw new IOException(file + " is truncated, column " + col + " is missing");
+				}
+				header.dataOffsets[col] = offset;
+				header.dataLengths[col] = length;
+			}
+			return header;
+		}
+	}
+
+	private DataFrameFile() {
+	}
+
+	/**
+	 * Writes the given frame, with its column statistics, to the given file.
+	 *
+	 * @param frame
+	 *            Frame to write
+	 * @param file
+	 *            File to write to, it is replaced if it exists
+	 * @param encoding
+	 *            How to store the cells
+	 * @throws IOException
+	 *             If the file can't be written
+	 */
+	public static void write(DataFrame frame, Path file, Encoding encoding) throws IOException {
+		int rows = frame.getNumberOfRows();
+		int cols = frame.getNumberOfColumns();
+
+		Header header = new Header();
+		header.rowCapacity = rows;
+		header.numberOfRows = rows;
+		header.numberOfColumns = cols;
+		header.encoding = encoding;
+		header.columnStats = new Moments[cols];
+		header.dataOffsets = new long[cols];
+		header.dataLengths = new long[cols];
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			long position = header.dataStart();
+			channel.position(position);
+
+			for (int col = 0; col < cols; col++) {
+				header.dataOffsets[col] = position;
+				Moments stats = new Moments();
+				long previousBits = 0;
+				long previousDelta = 0;
+				for (int row = 0; row < rows; row++) {
+					if (buffer.remaining() < 10) {
+						position += drain(buffer, channel);
+					}
+					double value = frame.getDouble(row, col);
+					switch (encoding) {
+					case FLOAT64:
+						buffer.putDouble(value);
+						break;
+					case FLOAT32:
+						// The statistics describe what is read back
+						value = (float) value;
+						buffer.putFloat((float) value);
+						break;
+					case DELTA64:
+						long bits = Double.doubleToRawLongBits(value);
+						long delta = bits - previousBits;
+						putVarLong(buffer, zigZag(delta - previousDelta));
+						previousBits = bits;
+						previousDelta = delta;
+						break;
+					}
+					stats.add(value);
+				}
+				position += drain(buffer, channel);
+				header.dataLengths[col] = position - header.dataOffsets[col];
+				header.columnStats[col] = stats;
+			}
+
+			ByteBuffer headerBuffer = ByteBuffer.allocate((int) header.dataStart());
+			header.writeTo(headerBuffer);
+			headerBuffer.clear();
+			while (headerBuffer.hasRemaining()) {
+				channel.write(headerBuffer, headerBuffer.position());
+			}
+		}
+	}
+
+	/**
+	 * Reads a frame file into a new, column-major, frame on the heap. Column
+	 * statistics found in the file are used as is.
+	 *
+	 * @param file
+	 *            File to read
+	 * @return The frame
+	 * @throws IOException
+	 *             If the file can't be read or is not a frame file
+	 */
+	public static DataFrame read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Header header = Header.read(channel, file);
+			int rows = header.numberOfRows;
+			double[][] columns = new double[header.numberOfColumns][rows];
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (int col = 0; col < header.numberOfColumns; col++) {
+				double[] column = columns[col];
+				channel.position(header.dataOffsets[col]);
+				buffer.clear().flip();
+				long previousBits = 0;
+				long previousDelta = 0;
+				for (int row = 0; row < rows; row++) {
+					if (buffer.remaining() < 10) {
+						refill(buffer, channel);
+					}
+					switch (header.encoding) {
+					case FLOAT64:
+						column[row] = buffer.getDouble();
+						break;
+					case FLOAT32:
+						column[row] = buffer.getFloat();
+						break;
+					case DELTA64:
+						previousDelta += unZigZag(getVarLong(buffer));
+						previousBits += previousDelta;
+						column[row] = Double.longBitsToDouble(previousBits);
+						break;
+					}
+				}
+			}
+
+			Moments[] stats = header.columnStats;
+			if (stats == null) {
+				stats = new Moments[header.numberOfColumns];
+				for (int col = 0; col < stats.length; col++) {
+					stats[col] = new Moments();
+					for (double value : columns[col]) {
+						stats[col].add(value);
+					}
+				}
+			}
+			return new DataFrame(columns, rows, stats);
+		}
+	}
+
+	private static int drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		int written = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		return written;
+	}
+
+	/**
+	 * Moves what is left in the buffer to its start and reads more after it.
+	 */
+	private static void refill(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.compact();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+	}
+
+	static ByteBuffer readFully(FileChannel channel, long position, int length, Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException(file + " is truncated");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/** Writes the value 7 bits at a time, the high bit of a byte tells if more follow */
+	private static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+}
@@ -0,0 +1,355 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for delimited text files of numbers, such as CSV and TSV.
+ * <br>
+ *
+ * The input is read in large chunks of bytes and every cell is parsed
+ * straight from those bytes, no String is created per line or per cell. Rows
+ * are handed, one at a time, to a {@link RowConsumer} in a reused
+ * <code>double[]</code>, so memory use does not depend on the size of the
+ * file. {@link #readInto(Path, DataFrame)} fills a {@link DataFrame} directly.
+ * <br>
+ *
+ * Cells that are plain decimals with at most 15 or so significant digits (the
+ * vast majority of real data) are converted with exact arithmetic and give
+ * the same double as {@link Double#parseDouble(String)}. Anything else (long
+ * mantissas, NaN, Infinity, hexadecimal) falls back to
+ * {@link Double#parseDouble(String)}. <br>
+ *
+ * Lines end with '\n' or "\r\n", empty lines are skipped and every row must
+ * have the same number of cells as the first one.
+ */
+public class DelimitedReader {
+
+	/**
+	 * Receives the rows read by a {@link DelimitedReader}.
+	 */
+	public interface RowConsumer {
+		/**
+		 * Called once per row, in file order.
+		 *
+		 * @param rowNumber
+		 *            Zero-based number of this row, not counting skipped lines
+		 * @param values
+		 *            The cells of the row. The array is reused for the next
+		 *            row, copy it to keep it.
+		 */
+		void accept(int rowNumber, double[] values);
+	}
+
+	/** Size of the chunks read from the input */
+	private static final int		CHUNK_SIZE	= 1 << 20;
+
+	/** Exact powers of ten, 10^22 is the biggest exactly representable */
+	private static final double[]	POW10		= new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	/** Biggest integer below which every integer is exactly representable */
+	private static final long		EXACT_MANTISSA	= 1L << 53;
+
+	private final byte				delimiter;
+	private int						linesToSkip	= 0;
+
+	/**
+	 * Creates a reader for the given cell delimiter.
+	 *
+	 * @param delimiter
+	 *            Character between cells, must be ASCII
+	 */
+	public DelimitedReader(char delimiter) {
+		if (delimiter > 127) {
+			throw new IllegalArgumentException("The delimiter must be an ASCII character");
+		}
+		this.delimiter = (byte) delimiter;
+	}
+
+	/** @return A reader of comma separated values */
+	public static DelimitedReader csv() {
+		return new DelimitedReader(',');
+	}
+
+	/** @return A reader of tab separated values */
+	public static DelimitedReader tsv() {
+		return new DelimitedReader('\t');
+	}
+
+	/**
+	 * Skips the given number of lines, such as a header, at the start of the
+	 * input.
+	 *
+	 * @param lines
+	 *            Number of lines to skip
+	 * @return This reader
+	 */
+	public DelimitedReader skipLines(int lines) {
+		this.linesToSkip = lines;
+		return this;
+	}
+
+	/**
+	 * Reads every row of the given file.
+	 *
+	 * @param file
+	 *            File to read
+	 * @param consumer
+	 *            Receives each row
+	 * @return The number of rows read
+	 * @throws IOException
+	 *             If the file can't be read or a cell is not a number
+	 */
+	public int read(Path file, RowConsumer consumer) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			return read(in, consumer);
+		}
+	}
+
+	/**
+	 * Reads the given file into a new frame.
+	 *
+	 * @param file
+	 *            File to read
+	 * @param layout
+	 *            Layout of the frame to create
+	 * @return A frame with a row per row of the file
+	 * @throws IOException
+	 *             If the file can't be read or a cell is not a number
+	 */
+	public DataFrame readDataFrame(Path file, DataFrame.Layout layout) throws IOException {
+		DataFrame frame = new DataFrame(layout);
+		readInto(file, frame);
+		return frame;
+	}
+
+	/**
+	 * Appends every row of the given file to the given frame. The cells go
+	 * straight from the read buffer to the frame's storage.
+	 *
+	 * @param file
+	 *            File to read
+	 * @param frame
+	 *            Frame to add the rows to
+	 * @return The number of rows read
+	 * @throws IOException
+	 *             If the file can't be read or a cell is not a number
+	 */
+	public int readInto(Path file, DataFrame frame) throws IOException {
+		return read(file, (rowNumber, values) -> frame.addRow(values));
+	}
+
+	/**
+	 * Reads every row of the given stream. The stream is not closed.
+	 *
+	 * @param in
+	 *            Stream to read
+	 * @param consumer
+	 *            Receives each row
+	 * @return The number of rows read
+	 * @throws IOException
+	 *             If the stream can't be read or a cell is not a number
+	 */
+	public int read(InputStream in, RowConsumer consumer) throws IOException {
+		LineParser parser = new LineParser(consumer);
+		byte[] buffer = new byte[CHUNK_SIZE];
+		int filled = 0;
+
+		while (true) {
+			int read = in.read(buffer, filled, buffer.length - filled);
+			if (read < 0) {
+				break;
+			}
+			filled += read;
+
+			// Parse every complete line of the chunk
+			int lineStart = 0;
+			for (int i = 0; i < filled; i++) {
+				if (buffer[i] == '\n') {
+					parser.parseLine(buffer, lineStart, i);
+					lineStart = i + 1;
+				}
+			}
+
+			// Keep the partial line for the next chunk, growing the buffer for very long lines
+			int leftover = filled - lineStart;
+			if (lineStart == 0 && leftover == buffer.length) {
+				byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, leftover);
+				buffer = grown;
+			} else {
+				System.arraycopy(buffer, lineStart, buffer, 0, leftover);
+			}
+			filled = leftover;
+		}
+
+		// Last line without a line feed
+		if (filled > 0) {
+			parser.parseLine(buffer, 0, filled);
+		}
+		return parser.rows;
+	}
+
+	/**
+	 * Splits lines into cells and hands the rows to the consumer.
+	 */
+	private final class LineParser {
+
+		private final RowConsumer	consumer;
+		private double[]			row		= new double[16];
+		/** Number of cells per row, -1 until the first row */
+		private int					width	= -1;
+		private int					rows	= 0;
+		private int					lineNumber	= 0;
+
+		LineParser(RowConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+		void parseLine(byte[] buffer, int start, int end) throws IOException {
+			lineNumber++;
+			if (end > start && buffer[end - 1] == '\r') {
+				end--;
+			}
+			if (lineNumber <= linesToSkip || end == start) {
+				return;
+			}
+
+			int cells = 0;
+			int cellStart = start;
+			for (int i = start; i <= end; i++) {
+				if (i == end || buffer[i] == delimiter) {
+					if (cells == row.length) {
+						if (width >= 0) {
+							throw new IOException("Line " + lineNumber + " has more than the " + width + " cells of the first row");
+						}
+						row = Arrays.copyOf(row, row.length * 2);
+					}
+					try {
+						row[cells] = parseDouble(buffer, cellStart, i);
+					} catch (NumberFormatException e) {
+						throw new IOException("Line " + lineNumber + ", cell " + (cells + 1) + ": " + e.getMessage(), e);
+					}
+					cells++;
+					cellStart = i + 1;
+				}
+			}
+
+			if (width < 0) {
+				width = cells;
+				row = Arrays.copyOf(row, width);
+			} else if (cells != width) {
+				throw new IOException("Line " + lineNumber + " has " + cells + " cells, the first row had " + width);
+			}
+			consumer.accept(rows++, row);
+		}
+	}
+
+	/**
+	 * Parses the decimal number written in the given bytes, ignoring
+	 * surrounding spaces.
+	 *
+	 * @param bytes
+	 *            Buffer holding the number
+	 * @param start
+	 *            Index of the first byte, inclusive
+	 * @param end
+	 *            Index of the last byte, exclusive
+	 * @return The double closest to the number, as given by
+	 *         {@link Double#parseDouble(String)}
+	 * @throws NumberFormatException
+	 *             If the bytes are not a number
+	 */
+	public static double parseDouble(byte[] bytes, int start, int end) {
+		while (start < end && bytes[start] == ' ') {
+			start++;
+		}
+		while (end > start && bytes[end - 1] == ' ') {
+			end--;
+		}
+
+		int i = start;
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = bytes[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean exact = true;
+
+		// Integer part
+		for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, digits++) {
+			if (significantDigits < 18) {
+				mantissa = mantissa * 10 + (bytes[i] - '0');
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+			} else {
+				exact = false;
+			}
+		}
+
+		// Fraction
+		if (i < end && bytes[i] == '.') {
+			for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, digits++) {
+				if (significantDigits < 18) {
+					mantissa = mantissa * 10 + (bytes[i] - '0');
+					exponent--;
+					if (mantissa != 0) {
+						significantDigits++;
+					}
+				} else {
+					exact = false;
+				}
+			}
+		}
+
+		// Exponent
+		if (digits > 0 && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+				negativeExponent = bytes[i] == '-';
+				i++;
+			}
+			int exponentDigits = 0;
+			int explicitExponent = 0;
+			for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, exponentDigits++) {
+				if (explicitExponent < 10_000) {
+					explicitExponent = explicitExponent * 10 + (bytes[i] - '0');
+				}
+			}
+			if (exponentDigits == 0) {
+				exact = false;
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (exact && digits > 0 && i == end) {
+			if (mantissa == 0) {
+				return negative ? -0d : 0d;
+			}
+			// Both the mantissa and the power of ten are exact, so is the single rounding of their product
+			if (mantissa <= EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+				double value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+				return negative ? -value : value;
+			}
+		}
+
+		return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+	}
+}
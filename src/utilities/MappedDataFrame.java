@@ -0,0 +1,352 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link DataFrame} whose cells live in a memory-mapped file rather than on
+ * the Java heap, so frames bigger than the heap can be used by anything that
+ * takes a {@link DataFrame}. The operating system's page cache decides what is
+ * resident. <br>
+ *
+ * The file is a {@link DataFrameFile} in the
+ * {@link DataFrameFile.Encoding#FLOAT64} encoding: a header and a directory of
+ * column statistics, then the columns one after the other as little-endian
+ * doubles, each laid out for the row capacity of the frame. <br>
+ *
+ * {@link #open(Path)} only maps the file, it does not read the cells, so
+ * reopening a frame after a restart is near-instant. Column statistics come
+ * from the directory when the file has them, otherwise they are computed the
+ * first time a column is asked for. <br>
+ *
+ * Frames are created with {@link #create(Path, int, int)} and filled with
+ * {@link #addRow(double[])} up to their capacity, or written in one go from
+ * an in-heap frame with {@link #write(DataFrame, Path)}. {@link #flush()}
+ * stores the statistics of a created frame along with its cells.
+ */
+public class MappedDataFrame extends DataFrame {
+
+	/** Rows per mapped chunk of a column, a mapping can't exceed 2GB */
+	private static final int	CHUNK_SHIFT		= 27;
+	private static final int	CHUNK_ROWS		= 1 << CHUNK_SHIFT;
+	private static final int	CHUNK_MASK		= CHUNK_ROWS - 1;
+
+	private final boolean		writable;
+	private final int			rowCapacity;
+	private final int			numberOfColumns;
+	private int					numberOfRows;
+
+	/** The header and directory, to keep the number of rows and statistics up to date when writable */
+	private final MappedByteBuffer header;
+	/** Every mapping of cells, to flush them */
+	private final List<MappedByteBuffer> mappings = new ArrayList<>();
+	/** The cells, by column then by chunk of {@link #CHUNK_ROWS} rows */
+	private final DoubleBuffer[][] columns;
+	/** Statistics of each column, null until first needed */
+	private final Moments[]		columnStats;
+
+	private MappedDataFrame(FileChannel channel, boolean writable, DataFrameFile.Header layout) throws IOException {
+		super(Layout.COLUMN_MAJOR);
+		this.writable = writable;
+		this.rowCapacity = layout.rowCapacity;
+		this.numberOfRows = layout.numberOfRows;
+		this.numberOfColumns = layout.numberOfColumns;
+		this.columnStats = layout.columnStats != null ? layout.columnStats : new Moments[numberOfColumns];
+
+		MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
+		this.header = channel.map(mode, 0, layout.dataStart());
+		this.header.order(ByteOrder.LITTLE_ENDIAN);
+
+		int chunkCount = (rowCapacity + CHUNK_ROWS - 1) >>> CHUNK_SHIFT;
+		this.columns = new DoubleBuffer[numberOfColumns][chunkCount];
+		for (int col = 0; col < numberOfColumns; col++) {
+			long columnStart = layout.dataOffsets[col];
+			for (int chunk = 0; chunk < chunkCount; chunk++) {
+				int chunkRows = Math.min(CHUNK_ROWS, rowCapacity - chunk * CHUNK_ROWS);
+				long chunkStart = columnStart + (long) chunk * CHUNK_ROWS * Double.BYTES;
+				MappedByteBuffer mapped = channel.map(mode, chunkStart, (long) chunkRows * Double.BYTES);
+				mappings.add(mapped);
+				columns[col][chunk] = mapped.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Maps an existing frame file, read-only.
+	 *
+	 * @param file
+	 *            File written by {@link #create(Path, int, int)},
+	 *            {@link #write(DataFrame, Path)} or {@link DataFrameFile} in the
+	 *            {@link DataFrameFile.Encoding#FLOAT64} encoding
+	 * @return The mapped frame
+	 * @throws IOException
+	 *             If the file can't be read, is not a frame file or its cells
+	 *             are not stored as doubles
+	 */
+	public static MappedDataFrame open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			DataFrameFile.Header layout = DataFrameFile.Header.read(channel, file);
+			if (layout.encoding != DataFrameFile.Encoding.FLOAT64) {
+				throw new IOException(file + " is " + layout.encoding + " encoded, only " + DataFrameFile.Encoding.FLOAT64
+						+ " frames can be mapped, use DataFrameFile.read");
+			}
+			for (int col = 0; col < layout.numberOfColumns; col++) {
+				if (layout.dataLengths[col] < (long) layout.rowCapacity * Double.BYTES) {
+					throw new IOException(file + " is truncated, column " + col + " is too short");
+				}
+			}
+			// The mappings stay valid once the channel is closed
+			return new MappedDataFrame(channel, false, layout);
+		}
+	}
+
+	/**
+	 * Creates an empty frame file with room for the given number of rows and
+	 * maps it, writable. Any existing file is replaced.
+	 *
+	 * @param file
+	 *            File to create
+	 * @param rowCapacity
+	 *            Number of rows the frame can hold
+	 * @param numberOfColumns
+	 *            Number of columns in each row
+	 * @return The mapped, empty, frame
+	 * @throws IOException
+	 *             If the file can't be created
+	 */
+	public static MappedDataFrame create(Path file, int rowCapacity, int numberOfColumns) throws IOException {
+		DataFrameFile.Header layout = new DataFrameFile.Header();
+		layout.rowCapacity = rowCapacity;
+		layout.numberOfRows = 0;
+		layout.numberOfColumns = numberOfColumns;
+		layout.encoding = DataFrameFile.Encoding.FLOAT64;
+		layout.dataOffsets = new long[numberOfColumns];
+		layout.dataLengths = new long[numberOfColumns];
+		long columnSize = (long) rowCapacity * Double.BYTES;
+		for (int col = 0; col < numberOfColumns; col++) {
+			layout.dataOffsets[col] = layout.dataStart() + col * columnSize;
+			layout.dataLengths[col] = columnSize;
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate((int) layout.dataStart());
+			layout.writeTo(header);
+			header.clear();
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+
+			// Sizes the file, the cells read as 0 until written
+			long size = layout.dataStart() + numberOfColumns * columnSize;
+			channel.write(ByteBuffer.allocate(1), size - 1);
+
+			// Every column starts out with empty statistics, kept up to date by addRow
+			MappedDataFrame frame = new MappedDataFrame(channel, true, layout);
+			for (int col = 0; col < numberOfColumns; col++) {
+				frame.columnStats[col] = new Moments();
+			}
+			return frame;
+		}
+	}
+
+	/**
+	 * Writes the given frame to a file that can be {@link #open(Path) mapped}
+	 * back, with the statistics of its columns.
+	 *
+	 * @param frame
+	 *            Frame to write
+	 * @param file
+	 *            File to write to, it is replaced if it exists
+	 * @throws IOException
+	 *             If the file can't be written
+	 */
+	public static void write(DataFrame frame, Path file) throws IOException {
+		DataFrameFile.write(frame, file, DataFrameFile.Encoding.FLOAT64);
+	}
+
+	/**
+	 * Adds a new row after the last one. Only frames made by
+	 * {@link #create(Path, int, int)} can be added to, up to their capacity.
+	 */
+	@Override
+	public void addRow(double[] newRow) {
+		if (!writable) {
+			throw new UnsupportedOperationException("This frame was opened read-only");
+		}
+		if (numberOfRows >= rowCapacity) {
+			throw new IllegalStateException("This frame is full, it was created for " + rowCapacity + " rows");
+		}
+		if (newRow.length != numberOfColumns) {
+			throw new IllegalArgumentException("Row did not have the same number of columns as previous rows inserted in the model.");
+		}
+
+		int chunk = numberOfRows >>> CHUNK_SHIFT;
+		int index = numberOfRows & CHUNK_MASK;
+		for (int col = 0; col < numberOfColumns; col++) {
+			columns[col][chunk].put(index, newRow[col]);
+			if (columnStats[col] != null) {
+				columnStats[col].add(newRow[col]);
+			}
+		}
+		numberOfRows++;
+		header.putLong(DataFrameFile.ROWS_OFFSET, numberOfRows);
+		// The statistics in the file are stale until the next flush
+		header.putInt(DataFrameFile.STATS_FLAG_OFFSET, 0);
+	}
+
+	@Override
+	public void addRow(SV newRow) {
+		addRow(newRow.toDoubleArray());
+	}
+
+	/**
+	 * The capacity of a mapped frame is fixed when it is created.
+	 */
+	@Override
+	public void ensureCapacity(int minRowCapacity) {
+		if (minRowCapacity > rowCapacity) {
+			throw new IllegalStateException("A mapped frame can't grow past the " + rowCapacity + " rows it was created for");
+		}
+	}
+
+	/**
+	 * Writes the changes made to a writable frame, and the statistics of its
+	 * columns, back to its file.
+	 */
+	public void flush() {
+		if (writable) {
+			for (int col = 0; col < numberOfColumns; col++) {
+				DataFrameFile.Header.writeStats(header, DataFrameFile.HEADER_SIZE + col * DataFrameFile.DIRECTORY_ENTRY_SIZE,
+						columnStats(col));
+			}
+			header.putInt(DataFrameFile.STATS_FLAG_OFFSET, 1);
+			header.force();
+			for (MappedByteBuffer mapping : mappings) {
+				mapping.force();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of rows this frame can hold.
+	 *
+	 * @return The row capacity given at creation
+	 */
+	public int getRowCapacity() {
+		return rowCapacity;
+	}
+
+	@Override
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	@Override
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	@Override
+	public double getDouble(int row, int column) {
+		if (row < 0 || row >= numberOfRows || column < 0 || column >= numberOfColumns) {
+			throw new IndexOutOfBoundsException("Cell (" + row + ", " + column + ") of a " + numberOfRows + " x " + numberOfColumns + " frame");
+		}
+		return columns[column][row >>> CHUNK_SHIFT].get(row & CHUNK_MASK);
+	}
+
+	@Override
+	public Double get(int row, int column) {
+		return getDouble(row, column);
+	}
+
+	@Override
+	public SV getColumnData(int column) {
+		if (column < 0 || column >= numberOfColumns) {
+			return null;
+		}
+		return new ColumnView(columns[column], numberOfRows, new Moments(columnStats(column)));
+	}
+
+	@Override
+	public SV getRowData(int row) {
+		if (row < 0 || row >= numberOfRows) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Rows: " + numberOfRows);
+		}
+		return new RowView(columns, row);
+	}
+
+	@Override
+	public double[] copyRow(int row, double[] destination) {
+		for (int col = 0; col < numberOfColumns; col++) {
+			destination[col] = getDouble(row, col);
+		}
+		return destination;
+	}
+
+	/**
+	 * Returns the statistics of a column, scanning it the first time.
+	 */
+	private synchronized Moments columnStats(int column) {
+		if (columnStats[column] == null) {
+			Moments stats = new Moments();
+			for (int row = 0; row < numberOfRows; row++) {
+				stats.add(columns[column][row >>> CHUNK_SHIFT].get(row & CHUNK_MASK));
+			}
+			columnStats[column] = stats;
+		}
+		return columnStats[column];
+	}
+
+	/** A column of a mapped frame */
+	private static final class ColumnView extends SVView {
+
+		private static final long serialVersionUID = 2998771618254364069L;
+
+		private final transient DoubleBuffer[] chunks;
+
+		ColumnView(DoubleBuffer[] chunks, int length, Moments stats) {
+			super(length, stats);
+			this.chunks = chunks;
+		}
+
+		@Override
+		public double getDouble(int n) {
+			checkIndex(n);
+			return chunks[n >>> CHUNK_SHIFT].get(n & CHUNK_MASK);
+		}
+	}
+
+	/** A row of a mapped frame, gathered from every column */
+	private static final class RowView extends SVView {
+
+		private static final long serialVersionUID = -5350377779364802826L;
+
+		private final transient DoubleBuffer[][] columns;
+		private final int chunk;
+		private final int index;
+
+		RowView(DoubleBuffer[][] columns, int row) {
+			super(columns.length, null);
+			this.columns = columns;
+			this.chunk = row >>> CHUNK_SHIFT;
+			this.index = row & CHUNK_MASK;
+		}
+
+		@Override
+		public double getDouble(int n) {
+			checkIndex(n);
+			return columns[n][chunk].get(index);
+		}
+	}
+
+}
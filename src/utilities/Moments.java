@@ -0,0 +1,355 @@
+package utilities;
+
+import java.io.Serializable;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Running summary of a series of numbers: count, sum, min, max, mean and the
+ * second to fourth central moments. <br>
+ *
+ * The moments are updated in a single pass with the <a href=
+ * "https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Higher-order_statistics"
+ * >Welford / Pebay</a> recurrences, so the variance, standard deviation,
+ * skewness and kurtosis are O(1) reads and do not suffer from the
+ * cancellation of the naive sum of squares. Two summaries built over disjoint
+ * parts of a series can be {@link #merge(Moments) merged}, which allows the
+ * parts to be aggregated in parallel.
+ */
+public class Moments implements Serializable {
+
+	private static final long serialVersionUID = -3920372217254781032L;
+
+	private long	count;
+	private double	sum;
+	private double	min;
+	private double	max;
+	/** Running mean used by the recurrences, {@link #getMean()} is derived from the sum */
+	private double	mean;
+	/** Sum of the squared differences from the mean */
+	private double	m2;
+	/** Sum of the cubed differences from the mean */
+	private double	m3;
+	/** Sum of the differences from the mean to the fourth power */
+	private double	m4;
+
+	/** Creates an empty summary */
+	public Moments() {
+		clear();
+	}
+
+	/**
+	 * Creates a summary from previously computed values, for instance ones read
+	 * back from a file.
+	 *
+	 * @param count
+	 *            Number of items summarized
+	 * @param sum
+	 *            Sum of the items
+	 * @param min
+	 *            Smallest item
+	 * @param max
+	 *            Biggest item
+	 * @param mean
+	 *            Mean of the items
+	 * @param m2
+	 *            Sum of the squared differences from the mean
+	 * @param m3
+	 *            Sum of the cubed differences from the mean
+	 * @param m4
+	 *            Sum of the differences from the mean to the fourth power
+	 */
+	public Moments(long count, double sum, double min, double max, double mean, double m2, double m3, double m4) {
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+		this.m2 = m2;
+		this.m3 = m3;
+		this.m4 = m4;
+	}
+
+	/** Creates a copy of the given summary */
+	public Moments(Moments other) {
+		this(other.count, other.sum, other.min, other.max, other.mean, other.m2, other.m3, other.m4);
+	}
+
+	/** Forgets every item added to this summary */
+	public void clear() {
+		count = 0;
+		sum = 0;
+		min = Double.MAX_VALUE;
+		max = -Double.MAX_VALUE;
+		mean = 0;
+		m2 = 0;
+		m3 = 0;
+		m4 = 0;
+	}
+
+	/**
+	 * Adds an item to this summary.
+	 *
+	 * @param item
+	 *            Item to add
+	 */
+	public void add(double item) {
+		long previousCount = count;
+		count++;
+
+		double n = count;
+		double delta = item - mean;
+		double deltaN = delta / n;
+		double deltaN2 = deltaN * deltaN;
+		double term1 = delta * deltaN * previousCount;
+
+		mean += deltaN;
+		// Order matters, each moment uses the previous value of the lower ones
+		m4 += term1 * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+		m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+		m2 += term1;
+
+		sum += item;
+		if (item < min) {
+			min = item;
+		}
+		if (item > max) {
+			max = item;
+		}
+	}
+
+	/**
+	 * Removes a previously added item from this summary by reversing the
+	 * update done in {@link #add(double)}. <br>
+	 *
+	 * The min and max can't be recovered from the summary alone, they are left
+	 * untouched. Callers that remove one of the extremes are expected to
+	 * rescan their data and call {@link #setExtremes(double, double)}.
+	 *
+	 * @param item
+	 *            Item to remove, it is assumed it was added before
+	 */
+	public void remove(double item) {
+		if (count <= 1) {
+			clear();
+			return;
+		}
+
+		double n = count;
+		long previousCount = count - 1;
+		double previousMean = mean - (item - mean) / previousCount;
+		double delta = item - previousMean;
+		double deltaN = delta / n;
+		double deltaN2 = deltaN * deltaN;
+		double term1 = delta * deltaN * previousCount;
+
+		double previousM2 = Math.max(0, m2 - term1);
+		double previousM3 = m3 - term1 * deltaN * (n - 2) + 3 * deltaN * previousM2;
+		double previousM4 = m4 - term1 * deltaN2 * (n * n - 3 * n + 3) - 6 * deltaN2 * previousM2 + 4 * deltaN * previousM3;
+
+		count = previousCount;
+		mean = previousMean;
+		m2 = previousM2;
+		m3 = previousM3;
+		m4 = Math.max(0, previousM4);
+		sum -= item;
+	}
+
+	/**
+	 * Combines the given summary into this one. The result is the summary that
+	 * would have been obtained by adding the items of both to a single
+	 * summary. The given summary is not modified.
+	 *
+	 * @param other
+	 *            Summary of a disjoint set of items
+	 * @return This summary
+	 */
+	public Moments merge(Moments other) {
+		if (other.count == 0) {
+			return this;
+		}
+		if (count == 0) {
+			copyFrom(other);
+			return this;
+		}
+
+		double na = count;
+		double nb = other.count;
+		double n = na + nb;
+		double delta = other.mean - mean;
+		double delta2 = delta * delta;
+		double delta3 = delta2 * delta;
+		double delta4 = delta2 * delta2;
+
+		double mergedM2 = m2 + other.m2 + delta2 * na * nb / n;
+		double mergedM3 = m3 + other.m3 + delta3 * na * nb * (na - nb) / (n * n)
+				+ 3 * delta * (na * other.m2 - nb * m2) / n;
+		double mergedM4 = m4 + other.m4 + delta4 * na * nb * (na * na - na * nb + nb * nb) / (n * n * n)
+				+ 6 * delta2 * (na * na * other.m2 + nb * nb * m2) / (n * n) + 4 * delta * (na * other.m3 - nb * m3) / n;
+
+		mean += delta * nb / n;
+		m2 = mergedM2;
+		m3 = mergedM3;
+		m4 = mergedM4;
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+
+	/**
+	 * Updates this summary as if every item x had been replaced by
+	 * <code>transform(x)</code>, where the transform is the affine function
+	 * <code>x -> slope * x + c</code>. <br>
+	 *
+	 * The given function is used for the mean and the extremes so they match
+	 * exactly what the caller computes for its items.
+	 *
+	 * @param transform
+	 *            The affine function applied to each item
+	 * @param slope
+	 *            The slope of the function
+	 */
+	public void transform(DoubleUnaryOperator transform, double slope) {
+		if (count == 0) {
+			return;
+		}
+		double slope2 = slope * slope;
+
+		sum = transform.applyAsDouble(getMean()) * count;
+		mean = transform.applyAsDouble(mean);
+		m2 *= slope2;
+		m3 *= slope2 * slope;
+		m4 *= slope2 * slope2;
+
+		double newMin = transform.applyAsDouble(min);
+		double newMax = transform.applyAsDouble(max);
+		min = Math.min(newMin, newMax);
+		max = Math.max(newMin, newMax);
+	}
+
+	/**
+	 * Overrides the extremes of this summary. Used after
+	 * {@link #remove(double)} took out one of them.
+	 *
+	 * @param min
+	 *            The smallest item still summarized
+	 * @param max
+	 *            The biggest item still summarized
+	 */
+	public void setExtremes(double min, double max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	private void copyFrom(Moments other) {
+		count = other.count;
+		sum = other.sum;
+		min = other.min;
+		max = other.max;
+		mean = other.mean;
+		m2 = other.m2;
+		m3 = other.m3;
+		m4 = other.m4;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the mean of the summarized items, as the sum over the count so
+	 * exact means (say of integers) stay exact
+	 *
+	 * @return The mean, 0 if the summary is empty
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * Returns the running mean the moments are updated around, to store a
+	 * summary and restore it exactly
+	 */
+	double getRunningMean() {
+		return mean;
+	}
+
+	/** @return The sum of the squared differences from the mean */
+	public double getM2() {
+		return m2;
+	}
+
+	/** @return The sum of the cubed differences from the mean */
+	public double getM3() {
+		return m3;
+	}
+
+	/** @return The sum of the differences from the mean to the fourth power */
+	public double getM4() {
+		return m4;
+	}
+
+	/**
+	 * Returns the unbiased sample variance of the summarized items
+	 *
+	 * @return The sample variance
+	 */
+	public double getVariance() {
+		return m2 / (count - 1);
+	}
+
+	/**
+	 * Returns the population variance of the summarized items, dividing by the
+	 * count rather than count - 1
+	 *
+	 * @return The population variance
+	 */
+	public double getPopulationVariance() {
+		return m2 / count;
+	}
+
+	/**
+	 * Returns the standard deviation based on the unbiased sample variance
+	 *
+	 * @return The sample standard deviation
+	 */
+	public double getSD() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Returns the skewness (g1) of the summarized items
+	 *
+	 * @return The skewness, NaN when all items are equal
+	 */
+	public double getSkewness() {
+		return Math.sqrt((double) count) * m3 / Math.pow(m2, 1.5);
+	}
+
+	/**
+	 * Returns the excess kurtosis (g2) of the summarized items, 0 for a normal
+	 * distribution
+	 *
+	 * @return The excess kurtosis, NaN when all items are equal
+	 */
+	public double getKurtosis() {
+		return count * m4 / (m2 * m2) - 3;
+	}
+
+	public String toString() {
+		return "count: " + count + ", min: " + min + ", max: " + max + ", mean: " + mean + ", variance: " + getVariance();
+	}
+}
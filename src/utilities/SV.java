@@ -3,12 +3,10 @@ package utilities;
 import java.io.Serializable;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Vector;
+import java.util.function.DoubleUnaryOperator;
 import java.util.stream.IntStream;
 
 /**
@@ -17,18 +15,30 @@ import java.util.stream.IntStream;
  * to others, or a series of data. Say 1, 2, 4, 8, 16 to represent the first few
  * terms of a geometric sequence. <br>
  * 
+ * The components are held in a growable primitive <code>double[]</code>, so
+ * {@link #getDouble(int)}, {@link #toDoubleArray()} and
+ * {@link #appendAll(double[])} never box. The {@link List} methods are kept for
+ * existing callers and box on the way out. <br>
+ * 
  * This class implements List and in general does not support a List's removal methods (and returned Iterators do not either) */
 public class SV extends AbstractList<Double> implements Serializable, List<Double> {
 	
 	private static final long serialVersionUID = 655635517094553855L;
 	
-	private Vector<Double> v;
+	/** Capacity given to the backing array of an empty vector on its first append */
+	private static final int DEFAULT_CAPACITY = 10;
+	
+	/**
+	 * The components of this vector. The live components are
+	 * <code>values[head]</code> to <code>values[head + count - 1]</code>,
+	 * {@link #shift(Number)} advances head instead of moving every component.
+	 */
+	private double[] values;
+	private int head;
 	
 	private int count;
-	private double min;
-	private double max;
-	private double sum;
-	private double mean;
+	/** Running statistics of the components, kept up to date on every change */
+	private Moments stats;
 	
 	/**
 	 * Creates an {@link #SV()} with the given numbers
@@ -38,6 +48,7 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 */
 	public SV(Number... vectorComponents) {
 		clear();
+		ensureCapacity(vectorComponents.length);
 		for (Number n : vectorComponents) {
 			this.append(n);
 		}
@@ -47,14 +58,73 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 		clear();
 	}
 	
+	/**
+	 * Creates an empty {@link #SV()} that can hold the given number of
+	 * components before its storage has to grow. A factory rather than a
+	 * constructor, so <code>new SV(3)</code> still makes the vector [3.0].
+	 * 
+	 * @param initialCapacity
+	 *            Number of components to reserve room for
+	 * @return The empty vector
+	 */
+	public static SV withCapacity(int initialCapacity) {
+		SV sv = new SV();
+		sv.ensureCapacity(initialCapacity);
+		return sv;
+	}
+	
+	/**
+	 * Creates an {@link #SV()} holding a copy of the given components.
+	 * 
+	 * @param vectorComponents
+	 *            Components of the initial vector, the array is not retained.
+	 */
+	public SV(double[] vectorComponents) {
+		clear();
+		appendAll(vectorComponents);
+	}
+	
+	/**
+	 * Constructor for {@link SVView}s, which supply their own storage and
+	 * statistics.
+	 */
+	SV(Moments stats) {
+		this.values = null;
+		this.stats = stats;
+	}
+	
 	public void clear() {
-		v = new Vector<>();
+		values = new double[0];
+		head = 0;
 		
 		count = 0;
-		min = Double.MAX_VALUE;
-		max = Double.MIN_VALUE;
-		sum = 0;
-		mean = 0;
+		stats = new Moments();
+	}
+	
+	/**
+	 * Makes sure this vector can hold the given number of components without
+	 * reallocating its storage.
+	 * 
+	 * @param minCapacity
+	 *            Number of components the vector should be able to hold
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if (head + minCapacity <= values.length) {
+			return;
+		}
+		
+		// Reclaim the room left by shift() before growing
+		if (minCapacity <= values.length && head >= values.length / 2) {
+			System.arraycopy(values, head, values, 0, count);
+			head = 0;
+			return;
+		}
+		
+		int newCapacity = Math.max(minCapacity, Math.max(DEFAULT_CAPACITY, values.length + (values.length >> 1)));
+		double[] grown = new double[newCapacity];
+		System.arraycopy(values, head, grown, 0, count);
+		values = grown;
+		head = 0;
 	}
 	
 	/**
@@ -62,9 +132,47 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 * without affecting this vector
 	 */
 	public List<Double> getVector() {
-		return new ArrayList<>(v);
+		int size = size();
+		List<Double> copy = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			copy.add(getDouble(i));
+		}
+		return copy;
 	}
 	
+	/**
+	 * Returns a copy of the components of this vector. Callers can mutate this
+	 * return without affecting this vector
+	 * 
+	 * @return The components, in order
+	 */
+	public double[] toDoubleArray() {
+		return Arrays.copyOfRange(values, head, head + count);
+	}
+
+	/**
+	 * Returns the array holding the components of this vector, not a copy, so
+	 * distance kernels can read it in place. Component n is at
+	 * <code>elementsOffset() + n</code>. Callers must not modify it, and must
+	 * not keep it once this vector changes (it is replaced when it grows).
+	 *
+	 * @return The backing array, or null if the components are not contiguous
+	 *         in one array (as with some views)
+	 * @see #elementsOffset()
+	 */
+	public double[] elements() {
+		return values;
+	}
+
+	/**
+	 * Returns the index of the first component in {@link #elements()}.
+	 *
+	 * @return Offset of component 0
+	 */
+	public int elementsOffset() {
+		return head;
+	}
+
 	/**
 	 * Appends the given item to this vector. It is recommend not to provide
 	 * large positive or negative values.
@@ -74,25 +182,40 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 * @return True is the vector was changed by this addition
 	 */
 	public boolean append(Number item) {
-		double rItem = item.doubleValue();
-		boolean status = v.add(rItem);
-		if (status == true) {
-			
-			if (rItem > max) {
-				max = rItem;
-			}
-			
-			if (rItem < min) {
-				min = rItem;
-			}
-			
-			sum += rItem;
-			count++;
-			
-			mean = sum / count;
-		}
+		return append(item.doubleValue());
+	}
+	
+	/**
+	 * Appends the given item to this vector without boxing it.
+	 * 
+	 * @param rItem
+	 *            Item to append
+	 * @return True is the vector was changed by this addition
+	 * @see #append(Number)
+	 */
+	public boolean append(double rItem) {
+		ensureCapacity(count + 1);
+		values[head + count] = rItem;
+		count++;
+		stats.add(rItem);
 		
-		return status;
+		return true;
+	}
+	
+	/**
+	 * Appends every item of the given array, in order, to this vector. The
+	 * storage grows at most once.
+	 * 
+	 * @param items
+	 *            Items to append
+	 * @return True is the vector was changed by this addition
+	 */
+	public boolean appendAll(double[] items) {
+		ensureCapacity(count + items.length);
+		for (double item : items) {
+			append(item);
+		}
+		return items.length > 0;
 	}
 	
 	/**
@@ -104,7 +227,23 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 * @return The nth value
 	 */
 	public Double get(int n) {
-		return v.get(n);
+		return getDouble(n);
+	}
+	
+	/**
+	 * Returns the nth item in this vector without boxing it.
+	 * 
+	 * @param n
+	 *            Item to get
+	 * @return The nth value
+	 * @throws IndexOutOfBoundsException
+	 *             If this vector has no nth component
+	 */
+	public double getDouble(int n) {
+		if (n < 0 || n >= count) {
+			throw new IndexOutOfBoundsException("Index: " + n + ", Size: " + count);
+		}
+		return values[head + n];
 	}
 	
 	/**
@@ -113,7 +252,7 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 * @return The number of dimensions or size of this vector
 	 */
 	public int size() {
-		return v.size();
+		return count;
 	}
 	
 	/**
@@ -128,22 +267,12 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 */
 	public void scale(Double scaleMin, Double scaleMax) {
 		
-		// Scaling each value of this SV
-		Vector<Double> scaledV = new Vector<Double>();
+		final double min = getMin();
+		final double range = getMax() - min;
+		final double scaleRange = scaleMax - scaleMin;
+		final double offset = scaleMin;
 		
-		for (Double vi : v) {
-			
-			Double scaled1 = (vi - min) / (max - min);
-			Double scaled2 = (scaled1 * (scaleMax - scaleMin));
-			
-			scaledV.add(scaled2 + scaleMin);
-		}
-		
-		// Recreating this current SV
-		clear();
-		for (Double vi : scaledV) {
-			append(vi);
-		}
+		transform(vi -> ((vi - min) / range) * scaleRange + offset, scaleRange / range);
 	}
 	
 	/**
@@ -151,21 +280,10 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 */
 	public void scaleZScore() {
 		
-		// Scaling each value of this SV
-		Vector<Double> scaledV = new Vector<Double>();
-		
-		Double sd = getSD();
-		for (Double vi : v) {
-			
-			scaledV.add((vi - mean) / sd);
-		}
-		
-		// Recreating this current SV
-		clear();
-		for (Double vi : scaledV) {
-			append(vi);
-		}
+		final double mean = getMean();
+		final double sd = getSD();
 		
+		transform(vi -> (vi - mean) / sd, 1 / sd);
 	}
 	
 	/**
@@ -183,10 +301,23 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 */
 	public void scaleZMorph() {
 		double maxAbs = Math.max(Math.abs(this.getMin()), Math.abs(this.getMax()));
-		Vector<Double> transformed = new Vector<>();
-		v.forEach(d -> transformed.add((d + maxAbs) / (2 * maxAbs)));
-		clear();
-		transformed.forEach(d -> append(d));
+		transform(d -> (d + maxAbs) / (2 * maxAbs), 1 / (2 * maxAbs));
+	}
+	
+	/**
+	 * Applies the given affine function to each value, in place, and updates
+	 * the statistics of this vector from the slope rather than rebuilding them.
+	 * 
+	 * @param function
+	 *            Affine function to apply
+	 * @param slope
+	 *            Slope of the function
+	 */
+	private void transform(DoubleUnaryOperator function, double slope) {
+		for (int i = head; i < head + count; i++) {
+			values[i] = function.applyAsDouble(values[i]);
+		}
+		stats.transform(function, slope);
 	}
 	
 	/**
@@ -197,19 +328,19 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	}
 	
 	public Double getSum() {
-		return sum;
+		return stats().getSum();
 	}
 	
 	public Double getMin() {
-		return min;
+		return stats().getMin();
 	}
 	
 	public Double getMax() {
-		return max;
+		return stats().getMax();
 	}
 	
 	public Double getMean() {
-		return mean;
+		return stats().getMean();
 	}
 	
 	/**
@@ -224,21 +355,50 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	
 	/**
 	 * Returns the unbaiased sample variance of all data points added to this
-	 * vector
+	 * vector. This is kept up to date as the vector changes, so it is read in
+	 * constant time.
 	 * 
 	 * @return The sample variance
 	 */
 	public Double getVariance() {
-		
-		Double sumsd = 0d;
-		Double mean = getMean();
-		
-		for (Double d : v) {
-			sumsd += Math.pow((d - mean), 2);
-		}
-		
-		double var = sumsd / (size() - 1);
-		return var;
+		return stats().getVariance();
+	}
+	
+	/**
+	 * Returns the skewness of all data points in this vector
+	 * 
+	 * @return The skewness
+	 * @see Moments#getSkewness()
+	 */
+	public double getSkewness() {
+		return stats().getSkewness();
+	}
+	
+	/**
+	 * Returns the excess kurtosis of all data points in this vector
+	 * 
+	 * @return The excess kurtosis
+	 * @see Moments#getKurtosis()
+	 */
+	public double getKurtosis() {
+		return stats().getKurtosis();
+	}
+	
+	/**
+	 * Returns a copy of the running statistics of this vector. Summaries of
+	 * several vectors can be {@link Moments#merge(Moments) merged}.
+	 * 
+	 * @return The statistics of this vector
+	 */
+	public Moments getMoments() {
+		return new Moments(stats());
+	}
+	
+	/**
+	 * The running statistics of this vector, not a copy.
+	 */
+	Moments stats() {
+		return stats;
 	}
 	
 	/**
@@ -254,10 +414,10 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 */
 	public SV sublist(int n, int k) {
 		
-		SV sv = new SV();
+		SV sv = withCapacity(k - n);
 		
 		for (int i = n; i < k; i++) {
-			sv.append(v.get(i));
+			sv.append(getDouble(i));
 		}
 		
 		return sv;
@@ -266,8 +426,8 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	@Override
 	public int hashCode() {
 		
-		long hash = Double.doubleToLongBits(mean) ^ Double.doubleToLongBits(sum) ^ Double.doubleToLongBits(min)
-				^ Double.doubleToLongBits(max) ^ count;
+		long hash = Double.doubleToLongBits(getMean()) ^ Double.doubleToLongBits(getSum()) ^ Double.doubleToLongBits(getMin())
+				^ Double.doubleToLongBits(getMax()) ^ getCount();
 		
 		return (int) hash;
 	}
@@ -278,14 +438,16 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 			SV otherT = (SV) o;
 			if (otherT.size() == this.size()) {
 				// See if every item in other matches
-				return IntStream.range(0, otherT.size()).allMatch(t -> otherT.get(t).equals(this.get(t)));
+				// Same semantic as Double.equals, without boxing each component
+				return IntStream.range(0, otherT.size()).allMatch(
+						t -> Double.doubleToLongBits(otherT.getDouble(t)) == Double.doubleToLongBits(this.getDouble(t)));
 			}
 		}
 		return false;
 	}
 	
 	public String toString() {
-		return v.toString();
+		return getVector().toString();
 	}
 	
 	/**
@@ -293,7 +455,7 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 * standard deviation
 	 */
 	public void printStats() {
-		System.out.println(v);
+		System.out.println(this);
 		System.out.println("Size:\t" + size());
 		System.out.println("Min:\t" + getMin());
 		System.out.println("Max:\t" + getMax());
@@ -332,7 +494,22 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	 * @return The removed item
 	 */
 	public double shift(Number item) {
-		Double removedItem = v.remove(0);
+		double removedItem = getDouble(0);
+		head++;
+		count--;
+		stats.remove(removedItem);
+		
+		// The removed item may have been one of the extremes
+		if (count > 0 && (removedItem == stats.getMin() || removedItem == stats.getMax())) {
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int i = 0; i < count; i++) {
+				min = Math.min(min, values[head + i]);
+				max = Math.max(max, values[head + i]);
+			}
+			stats.setExtremes(min, max);
+		}
+		
 		this.append(item.doubleValue());
 		return removedItem;
 	}
@@ -349,52 +526,48 @@ public class SV extends AbstractList<Double> implements Serializable, List<Doubl
 	
 	@Override
 	public boolean contains(Object o) {
-		return this.v.contains(o);
-	}
-	
-	@Override
-	public boolean containsAll(Collection<?> c) {
-		return this.v.containsAll(c);
+		return indexOf(o) >= 0;
 	}
 	
 	@Override
 	public int indexOf(Object o) {
-		return this.v.indexOf(o);
+		if (o instanceof Double) {
+			long bits = Double.doubleToLongBits((Double) o);
+			for (int i = 0; i < size(); i++) {
+				if (Double.doubleToLongBits(getDouble(i)) == bits) {
+					return i;
+				}
+			}
+		}
+		return -1;
 	}
 	
 	@Override
 	public boolean isEmpty() {
-		return this.count == 0;
-	}
-	
-	@Override
-	public Iterator<Double> iterator() {
-		return Collections.unmodifiableCollection(this.v).iterator();
+		return size() == 0;
 	}
 	
 	@Override
 	public int lastIndexOf(Object o) {
-		return this.v.lastIndexOf(o);
-	}
-	
-	@Override
-	public ListIterator<Double> listIterator() {
-		return Collections.unmodifiableList(this.v).listIterator();
-	}
-	
-	@Override
-	public ListIterator<Double> listIterator(int index) {
-		return Collections.unmodifiableList(this.v).listIterator(index);
+		if (o instanceof Double) {
+			long bits = Double.doubleToLongBits((Double) o);
+			for (int i = size() - 1; i >= 0; i--) {
+				if (Double.doubleToLongBits(getDouble(i)) == bits) {
+					return i;
+				}
+			}
+		}
+		return -1;
 	}
 	
 	@Override
 	public Object[] toArray() {
-		return this.v.toArray();
+		return getVector().toArray();
 	}
 	
 	@Override
 	public <T> T[] toArray(T[] a) {
-		return this.toArray(a);
+		return getVector().toArray(a);
 	}
 	
 }
@@ -0,0 +1,200 @@
+package utilities;
+
+/**
+ * A read-only {@link SV} over storage owned by someone else, usually a
+ * {@link DataFrame}. Reading a view does not copy the data it looks at. <br>
+ *
+ * A view covers the components that existed when it was created. Its
+ * statistics are either given by its owner or computed on first use. Every
+ * method that would change the vector throws an
+ * {@link UnsupportedOperationException}.
+ */
+abstract class SVView extends SV {
+
+	private static final long serialVersionUID = -1709624262094312651L;
+
+	/** Number of components seen through this view */
+	protected final int	length;
+
+	/** Statistics of the viewed components, null until first needed */
+	private Moments		viewStats;
+
+	/**
+	 * @param length
+	 *            Number of components seen through this view
+	 * @param stats
+	 *            Statistics of the viewed components, or null to compute them
+	 *            on first use
+	 */
+	protected SVView(int length, Moments stats) {
+		super((Moments) null);
+		this.length = length;
+		this.viewStats = stats;
+	}
+
+	@Override
+	public abstract double getDouble(int n);
+
+	@Override
+	public int size() {
+		return length;
+	}
+
+	@Override
+	public int getCount() {
+		return length;
+	}
+
+	@Override
+	public double[] toDoubleArray() {
+		double[] copy = new double[length];
+		for (int i = 0; i < length; i++) {
+			copy[i] = getDouble(i);
+		}
+		return copy;
+	}
+
+	@Override
+	public double[] elements() {
+		return null;
+	}
+
+	@Override
+	public int elementsOffset() {
+		return 0;
+	}
+
+	@Override
+	Moments stats() {
+		if (viewStats == null) {
+			Moments computed = new Moments();
+			for (int i = 0; i < length; i++) {
+				computed.add(getDouble(i));
+			}
+			viewStats = computed;
+		}
+		return viewStats;
+	}
+
+	/**
+	 * Checks the given index is within this view.
+	 *
+	 * @param n
+	 *            Index to check
+	 */
+	protected void checkIndex(int n) {
+		if (n < 0 || n >= length) {
+			throw new IndexOutOfBoundsException("Index: " + n + ", Size: " + length);
+		}
+	}
+
+	private UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("This vector is a read-only view, copy it with new SV(toDoubleArray()) to modify it");
+	}
+
+	@Override
+	public void clear() {
+		throw readOnly();
+	}
+
+	@Override
+	public void ensureCapacity(int minCapacity) {
+		throw readOnly();
+	}
+
+	@Override
+	public boolean append(double rItem) {
+		throw readOnly();
+	}
+
+	@Override
+	public boolean appendAll(double[] items) {
+		throw readOnly();
+	}
+
+	@Override
+	public void scale(Double scaleMin, Double scaleMax) {
+		throw readOnly();
+	}
+
+	@Override
+	public void scaleZScore() {
+		throw readOnly();
+	}
+
+	@Override
+	public void scaleZMorph() {
+		throw readOnly();
+	}
+
+	@Override
+	public double shift(Number item) {
+		throw readOnly();
+	}
+
+	/** Views are serialized as plain vectors holding a copy of their data */
+	protected Object writeReplace() {
+		return new SV(toDoubleArray());
+	}
+
+	/**
+	 * A view over an array where component n is at
+	 * <code>offset + n * stride</code>. This covers a column of a column-major
+	 * frame and both the rows and the columns of a row-major frame.
+	 */
+	static final class Strided extends SVView {
+
+		private static final long serialVersionUID = 4208311985683413877L;
+
+		private final double[]	data;
+		private final int		offset;
+		private final int		stride;
+
+		Strided(double[] data, int offset, int stride, int length, Moments stats) {
+			super(length, stats);
+			this.data = data;
+			this.offset = offset;
+			this.stride = stride;
+		}
+
+		@Override
+		public double getDouble(int n) {
+			checkIndex(n);
+			return data[offset + n * stride];
+		}
+
+		@Override
+		public double[] elements() {
+			return stride == 1 ? data : null;
+		}
+
+		@Override
+		public int elementsOffset() {
+			return stride == 1 ? offset : 0;
+		}
+	}
+
+	/**
+	 * A view of one row over column arrays, component n is
+	 * <code>columns[n][row]</code>. This is a row of a column-major frame.
+	 */
+	static final class Gathered extends SVView {
+
+		private static final long serialVersionUID = -2656935436427014190L;
+
+		private final double[][]	columns;
+		private final int			row;
+
+		Gathered(double[][] columns, int row, int length) {
+			super(length, null);
+			this.columns = columns;
+			this.row = row;
+		}
+
+		@Override
+		public double getDouble(int n) {
+			checkIndex(n);
+			return columns[n][row];
+		}
+	}
+}
@@ -5,10 +5,19 @@ import static org.junit.Assert.assertEquals;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import distance.DistanceMatrix;
+import distance.KNNGraph;
+import distance.LSHIndex;
+import utilities.DataFrame;
+
 public class KNNTest {
 
 	/**
@@ -275,4 +284,453 @@ public class KNNTest {
 		// Make sure we good
 		assertEquals(10, nearestNeighbors.size());
 	}
+	
+	/**
+	 * Training on a DataFrame gives the same neighbors as training on instances
+	 */
+	@Test
+	public void unitTest_11() {
+		
+		DataFrame frame = new DataFrame();
+		for ( KNNInstance instance : trainingSet ) {
+			frame.addRow(new double[] { instance.get(0), instance.get(1), instance.get(2) });
+		}
+		
+		// init KNN with the statistics of the frame
+		KNNDist dist = new KNNDistZScore();
+		KNN knn = new KNN(dist,3);
+		knn.train(frame);
+		
+		// find nearest neighbor
+		List<KNNInstance> nearestNeighbors = knn.findKNN(instanceTest);
+		
+		// Make sure we good, the references are the row numbers
+		assertEquals(3, nearestNeighbors.size());
+		assertEquals(1, nearestNeighbors.get(0).getRef());
+		assertEquals(0, nearestNeighbors.get(1).getRef());
+		assertEquals(2, nearestNeighbors.get(2).getRef());
+	}
+	
+	/**
+	 * The k-d tree finds the same neighbors as the linear scan, ties included
+	 */
+	@Test
+	public void unitTest_12() {
+		
+		// integer features so many instances are at the same distance
+		Random rand = new Random(7);
+		trainingSet.clear();
+		for ( int i = 0; i < 20000; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			instance.add((double) rand.nextInt(50));
+			instance.add((double) rand.nextInt(50));
+			instance.add(rand.nextGaussian()*10.0);
+			instance.setRef(new String("instance" + i));
+			trainingSet.add(instance);
+		}
+		
+		for ( KNNDist dist : new KNNDist[] { new KNNDistEuclidean(), new KNNDistZScore() } ) {
+			for ( int k : new int[] { 1, 10, 100 } ) {
+				KNN scan = new KNN(dist, k);
+				scan.train(trainingSet);
+				KNN indexed = new KNN(dist, k, new KNNIndexKDTree());
+				indexed.train(trainingSet);
+				
+				for ( int query = 0; query < 200; ++query ) {
+					KNNInstance instance = new KNNInstance();
+					instance.add((double) rand.nextInt(60) - 5);
+					instance.add((double) rand.nextInt(60) - 5);
+					instance.add(query % 2 == 0 ? 0.0 : rand.nextGaussian()*10.0);
+					
+					List<KNNInstance> expected = new ArrayList<KNNInstance>(scan.findKNN(instance));
+					List<KNNInstance> actual = indexed.findKNN(instance);
+					assertEquals(expected.size(), actual.size());
+					for ( int i = 0; i < expected.size(); ++i ) {
+						assertEquals(expected.get(i).getRef(), actual.get(i).getRef());
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The k-d tree handles more neighbors than instances
+	 */
+	@Test
+	public void unitTest_13() {
+		
+		KNN knn = new KNN(new KNNDistEuclidean(), 40000, new KNNIndexKDTree());
+		knn.train(trainingSet);
+		
+		List<KNNInstance> nearestNeighbors = knn.findKNN(instanceTest);
+		
+		assertEquals(3, nearestNeighbors.size());
+		assertEquals("instance2",(String) nearestNeighbors.get(0).getRef());
+		assertEquals("instance1",(String) nearestNeighbors.get(1).getRef());
+		assertEquals("instance3",(String) nearestNeighbors.get(2).getRef());
+	}
+	
+	/**
+	 * One trained KNN answers many threads at once, each with its own result
+	 */
+	@Test
+	public void unitTest_14() throws Exception {
+		
+		Random rand = new Random(5);
+		trainingSet.clear();
+		for ( int i = 0; i < 5000; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			instance.add(rand.nextDouble()*100.0);
+			instance.add(rand.nextDouble()*100.0);
+			trainingSet.add(instance);
+		}
+		List<KNNInstance> queries = new ArrayList<KNNInstance>();
+		for ( int i = 0; i < 400; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			instance.add(rand.nextDouble()*100.0);
+			instance.add(rand.nextDouble()*100.0);
+			queries.add(instance);
+		}
+		
+		for ( KNNIndex index : new KNNIndex[] { null, new KNNIndexKDTree() } ) {
+			final KNN knn = new KNN(new KNNDistEuclidean(), 5, index);
+			knn.train(trainingSet);
+			
+			// expected neighbors, one query at a time
+			final int[][] expected = new int[queries.size()][];
+			KNNResult result = new KNNResult(5);
+			for ( int q = 0; q < queries.size(); ++q ) {
+				knn.findKNN(queries.get(q), result);
+				expected[q] = new int[result.size()];
+				for ( int i = 0; i < result.size(); ++i ) {
+					expected[q][i] = result.getIndex(i);
+				}
+			}
+			
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<Boolean>> checks = new ArrayList<Future<Boolean>>();
+				for ( int t = 0; t < 8; ++t ) {
+					final int offset = t;
+					checks.add(pool.submit(() -> {
+						KNNResult own = new KNNResult(5);
+						for ( int rep = 0; rep < 20; ++rep ) {
+							for ( int q = offset; q < queries.size(); q += 3 ) {
+								knn.findKNN(queries.get(q), own);
+								for ( int i = 0; i < own.size(); ++i ) {
+									if ( own.getIndex(i) != expected[q][i] ) {
+										return false;
+									}
+								}
+							}
+						}
+						return true;
+					}));
+				}
+				for ( Future<Boolean> check : checks ) {
+					assertEquals(true, check.get());
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * A batch finds the same neighbors as one query at a time
+	 */
+	@Test
+	public void unitTest_15() {
+		
+		Random rand = new Random(9);
+		trainingSet.clear();
+		for ( int i = 0; i < 3000; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			for ( int feature = 0; feature < 4; ++feature ) {
+				instance.add((double) rand.nextInt(20));
+			}
+			trainingSet.add(instance);
+		}
+		List<KNNInstance> queries = new ArrayList<KNNInstance>();
+		for ( int i = 0; i < 500; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			for ( int feature = 0; feature < 4; ++feature ) {
+				instance.add(rand.nextDouble()*20.0);
+			}
+			queries.add(instance);
+		}
+		
+		for ( KNNDist dist : new KNNDist[] { new KNNDistEuclidean(), new KNNDistZScore() } ) {
+			for ( KNNIndex index : new KNNIndex[] { null, new KNNIndexKDTree() } ) {
+				KNN knn = new KNN(dist, 7, index);
+				knn.train(trainingSet);
+				
+				KNNResult[] results = knn.findKNNBatch(queries);
+				assertEquals(queries.size(), results.length);
+				KNNResult expected = new KNNResult(7);
+				for ( int q = 0; q < queries.size(); ++q ) {
+					knn.findKNN(queries.get(q), expected);
+					assertEquals(expected.size(), results[q].size());
+					for ( int i = 0; i < expected.size(); ++i ) {
+						assertEquals(expected.getIndex(i), results[q].getIndex(i));
+						assertEquals(expected.getDistance(i), results[q].getDistance(i), 0.0);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The vantage-point tree finds the same neighbors as the linear scan, in many dimensions
+	 */
+	@Test
+	public void unitTest_16() {
+		
+		// clustered features, as real data, with duplicates for ties
+		Random rand = new Random(13);
+		trainingSet.clear();
+		for ( int i = 0; i < 4000; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			int cluster = rand.nextInt(10);
+			for ( int feature = 0; feature < 50; ++feature ) {
+				instance.add(cluster * 3.0 + (i % 7 == 0 ? 0.0 : rand.nextGaussian()));
+			}
+			trainingSet.add(instance);
+		}
+		
+		for ( KNNDist dist : new KNNDist[] { new KNNDistEuclidean(), new KNNDistZScore() } ) {
+			KNN scan = new KNN(dist, 10);
+			scan.train(trainingSet);
+			KNN indexed = new KNN(dist, 10, new KNNIndexVPTree());
+			indexed.train(trainingSet);
+			
+			KNNResult expected = new KNNResult(10);
+			KNNResult actual = new KNNResult(10);
+			for ( int query = 0; query < 100; ++query ) {
+				KNNInstance instance = query % 4 == 0 ? trainingSet.get(query) : new KNNInstance();
+				if ( query % 4 != 0 ) {
+					int cluster = rand.nextInt(10);
+					for ( int feature = 0; feature < 50; ++feature ) {
+						instance.add(cluster * 3.0 + rand.nextGaussian());
+					}
+				}
+				
+				scan.findKNN(instance, expected);
+				indexed.findKNN(instance, actual);
+				assertEquals(expected.size(), actual.size());
+				for ( int i = 0; i < expected.size(); ++i ) {
+					assertEquals(expected.getIndex(i), actual.getIndex(i));
+					assertEquals(expected.getDistance(i), actual.getDistance(i), 0.0);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The vantage-point tree requires a metric
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void unitTest_17() {
+		
+		KNNDist notMetric = new KNNDist() {
+			@Override
+			public double dist( KNNInstance instanceA, KNNInstance instanceB, List<Double> stdDev, List<Double> means ) {
+				return Math.pow(instanceA.get(0)-instanceB.get(0), 2.0);
+			}
+			
+			@Override
+			public boolean requiresStats() {
+				return false;
+			}
+		};
+		new KNN(notMetric, 1, new KNNIndexVPTree()).train(trainingSet);
+	}
+	
+	/**
+	 * The approximate graph finds most true neighbors, more with a wider search,
+	 * and takes new instances without being rebuilt
+	 */
+	@Test
+	public void unitTest_18() {
+		
+		Random rand = new Random(17);
+		trainingSet.clear();
+		for ( int i = 0; i < 10000; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			for ( int feature = 0; feature < 10; ++feature ) {
+				instance.add(rand.nextDouble());
+			}
+			trainingSet.add(instance);
+		}
+		List<KNNInstance> queries = new ArrayList<KNNInstance>();
+		for ( int i = 0; i < 100; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			for ( int feature = 0; feature < 10; ++feature ) {
+				instance.add(rand.nextDouble());
+			}
+			queries.add(instance);
+		}
+		
+		KNNIndexHNSW graph = new KNNIndexHNSW(12, 100, 10);
+		KNN knn = new KNN(new KNNDistEuclidean(), 10, graph);
+		knn.train(trainingSet.subList(0, 6000));
+		assertEquals(6000, graph.size());
+		
+		// incremental insertion of the rest
+		knn.train(trainingSet);
+		assertEquals(10000, graph.size());
+		
+		double narrow = knn.measureRecall(queries);
+		graph.setEfSearch(200);
+		double wide = knn.measureRecall(queries);
+		assertEquals(true, narrow > 0.7);
+		assertEquals(true, wide > 0.97);
+		assertEquals(true, wide >= narrow);
+		
+		// an exact index always has full recall
+		KNN exact = new KNN(new KNNDistEuclidean(), 10, new KNNIndexKDTree());
+		exact.train(trainingSet);
+		assertEquals(1.0, exact.measureRecall(queries), 0.0);
+	}
+	
+	/**
+	 * Hashing finds most true neighbors from a fraction of the training set
+	 */
+	@Test
+	public void unitTest_19() {
+		
+		Random rand = new Random(19);
+		trainingSet.clear();
+		List<KNNInstance> queries = new ArrayList<KNNInstance>();
+		for ( int i = 0; i < 10100; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			int cluster = rand.nextInt(20);
+			for ( int feature = 0; feature < 8; ++feature ) {
+				instance.add(cluster * 10.0 + rand.nextGaussian());
+			}
+			(i < 10000 ? trainingSet : queries).add(instance);
+		}
+		
+		KNNIndexLSH hashing = new KNNIndexLSH(LSHIndex.Family.EUCLIDEAN, 16, 8, 10.0);
+		KNN knn = new KNN(new KNNDistEuclidean(), 10, hashing);
+		knn.train(trainingSet);
+		
+		assertEquals(true, knn.measureRecall(queries) > 0.9);
+		assertEquals(true, hashing.averageCandidates(queries) < 1000);
+	}
+	
+	/**
+	 * Materialized z scores give the same neighbors and distances
+	 */
+	@Test
+	public void unitTest_20() {
+		
+		Random rand = new Random(23);
+		trainingSet.clear();
+		List<KNNInstance> queries = new ArrayList<KNNInstance>();
+		for ( int i = 0; i < 5200; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			for ( int feature = 0; feature < 12; ++feature ) {
+				instance.add(rand.nextGaussian() * (feature + 1) + feature * 100.0);
+			}
+			(i < 5000 ? trainingSet : queries).add(instance);
+		}
+		
+		KNN plain = new KNN(new KNNDistZScore(), 8);
+		plain.train(trainingSet);
+		KNN materialized = new KNN(new KNNDistZScore(), 8);
+		materialized.setMaterializeZScores(true);
+		materialized.train(trainingSet);
+		
+		KNNResult[] batch = materialized.findKNNBatch(queries);
+		KNNResult expected = new KNNResult(8);
+		KNNResult actual = new KNNResult(8);
+		for ( int q = 0; q < queries.size(); ++q ) {
+			plain.findKNN(queries.get(q), expected);
+			materialized.findKNN(queries.get(q), actual);
+			for ( int i = 0; i < expected.size(); ++i ) {
+				assertEquals(expected.getIndex(i), actual.getIndex(i));
+				assertEquals(expected.getDistance(i), actual.getDistance(i), 0.0);
+				assertEquals(expected.getIndex(i), batch[q].getIndex(i));
+				assertEquals(expected.getDistance(i), batch[q].getDistance(i), 0.0);
+			}
+		}
+	}
+	
+	/**
+	 * Neighbors of training instances from a distance matrix, both layouts,
+	 * are those of findKNN without the instance itself
+	 */
+	@Test
+	public void unitTest_21() {
+		
+		Random rand = new Random(29);
+		trainingSet.clear();
+		for ( int i = 0; i < 300; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			for ( int feature = 0; feature < 5; ++feature ) {
+				instance.add((double) rand.nextInt(6));
+			}
+			trainingSet.add(instance);
+		}
+		
+		KNN knn = new KNN(new KNNDistEuclidean(), 6);
+		knn.train(trainingSet);
+		KNN others = new KNN(new KNNDistEuclidean(), 7);
+		others.train(trainingSet);
+		
+		for ( DistanceMatrix.Layout layout : DistanceMatrix.Layout.values() ) {
+			DistanceMatrix distances = knn.distanceMatrix(layout, DistanceMatrix.Precision.DOUBLE, ForkJoinPool.commonPool());
+			KNNResult actual = new KNNResult(6);
+			KNNResult expected = new KNNResult(7);
+			for ( int pos = 0; pos < trainingSet.size(); ++pos ) {
+				knn.findKNN(pos, distances, actual);
+				others.findKNN(trainingSet.get(pos), expected);
+				int i = 0;
+				for ( int j = 0; j < expected.size() && i < actual.size(); ++j ) {
+					if ( expected.getIndex(j) == pos ) {
+						continue;
+					}
+					assertEquals(expected.getIndex(j), actual.getIndex(i));
+					assertEquals(expected.getDistance(j), actual.getDistance(i), 0.0);
+					i++;
+				}
+				assertEquals(6, i);
+			}
+		}
+	}
+	
+	/**
+	 * The neighbor graph of the training set holds the neighbors found from
+	 * the distance matrix
+	 */
+	@Test
+	public void unitTest_22() {
+		
+		Random rand = new Random(31);
+		trainingSet.clear();
+		for ( int i = 0; i < 400; ++i ) {
+			KNNInstance instance = new KNNInstance();
+			for ( int feature = 0; feature < 4; ++feature ) {
+				instance.add(rand.nextGaussian() * (feature + 1));
+			}
+			trainingSet.add(instance);
+		}
+		
+		KNN knn = new KNN(new KNNDistZScore(), 5);
+		knn.train(trainingSet);
+		DistanceMatrix distances = knn.distanceMatrix(DistanceMatrix.Layout.CONDENSED, DistanceMatrix.Precision.DOUBLE, ForkJoinPool.commonPool());
+		KNNGraph graph = knn.neighborGraph(ForkJoinPool.commonPool());
+		KNNGraph approximate = knn.approximateNeighborGraph(7, ForkJoinPool.commonPool());
+		
+		KNNResult expected = new KNNResult(5);
+		for ( int pos = 0; pos < trainingSet.size(); ++pos ) {
+			knn.findKNN(pos, distances, expected);
+			for ( int i = 0; i < expected.size(); ++i ) {
+				assertEquals(expected.getIndex(i), graph.getNeighbor(pos, i));
+				assertEquals(expected.getDistance(i), graph.getDistance(pos, i), 0.0);
+			}
+		}
+		assertEquals(true, approximate.recall(graph) > 0.9);
+	}
 }
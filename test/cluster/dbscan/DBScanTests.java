@@ -0,0 +1,284 @@
+package cluster.dbscan;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class DBScanTests {
+
+	/**
+	 * Clustered points, rounded so some are duplicates or right at eps of others
+	 */
+	private double[][] coordinates(Random rand, int count, int dimensions) {
+		double[][] coordinates = new double[count][dimensions];
+		for (int p = 0; p < count; p++) {
+			for (int d = 0; d < dimensions; d++) {
+				coordinates[p][d] = Math.round((rand.nextGaussian() + (p % 4) * 6) * 4) / 4.0;
+			}
+		}
+		return coordinates;
+	}
+
+	private HashMap<Integer, DBPoint> dataset(double[][] coordinates) {
+		HashMap<Integer, DBPoint> dataset = new HashMap<>();
+		for (int p = 0; p < coordinates.length; p++) {
+			dataset.put(p, new DBPoint(p, coordinates[p]));
+		}
+		return dataset;
+	}
+
+	private int[] clusters(HashMap<Integer, DBPoint> dataset) {
+		int[] clusters = new int[dataset.size()];
+		for (DBPoint point : dataset.values()) {
+			clusters[point.id] = point.getCluster() * 10 + point.getType();
+		}
+		return clusters;
+	}
+
+	@Test
+	public void indexesFindTheSameClusters() {
+		for (int dimensions : new int[] { 2, 3, 6 }) {
+			double[][] coordinates = coordinates(new Random(dimensions), 1500, dimensions);
+			double eps = dimensions == 6 ? 1.5 : 0.5;
+
+			HashMap<Integer, DBPoint> expected = dataset(coordinates);
+			new DBScan(SpatialIndex.NONE).scan(expected, eps, 4);
+			for (SpatialIndex index : new SpatialIndex[] { SpatialIndex.GRID, SpatialIndex.RTREE }) {
+				HashMap<Integer, DBPoint> dataset = dataset(coordinates);
+				new DBScan(index).scan(dataset, eps, 4);
+				assertArrayEquals(index + " in " + dimensions + "D", clusters(expected), clusters(dataset));
+			}
+		}
+	}
+
+	@Test
+	public void indexesFindTheSameNearPoints() {
+		double[][] coordinates = coordinates(new Random(7), 2000, 3);
+
+		HashMap<Integer, DBPoint> expected = dataset(coordinates);
+		new DBScanNear(expected, 0.5, 1.25, 5, SpatialIndex.NONE).scan();
+		for (SpatialIndex index : new SpatialIndex[] { SpatialIndex.GRID, SpatialIndex.RTREE }) {
+			HashMap<Integer, DBPoint> dataset = dataset(coordinates);
+			new DBScanNear(dataset, 0.5, 1.25, 5, index).scan();
+			assertArrayEquals(clusters(expected), clusters(dataset));
+		}
+	}
+
+	@Test
+	public void queriesFindEveryNeighbor() {
+		double[][] coordinates = coordinates(new Random(11), 800, 4);
+		HashMap<Integer, DBPoint> dataset = dataset(coordinates);
+		for (SpatialIndex type : new SpatialIndex[] { SpatialIndex.GRID, SpatialIndex.RTREE }) {
+			RegionIndex index = RegionIndex.build(type, dataset.values(), 0.75);
+			for (DBPoint point : dataset.values()) {
+				// a radius other than the cells'
+				for (double radius : new double[] { 0.75, 2.0, 0.0 }) {
+					int within = 0;
+					for (DBPoint other : dataset.values()) {
+						within += point.distanceTo(other) <= radius ? 1 : 0;
+					}
+					int found = 0;
+					for (DBPoint candidate : index.candidates(point, radius)) {
+						found += point.distanceTo(candidate) <= radius ? 1 : 0;
+					}
+					assertEquals(within, found);
+				}
+			}
+		}
+		assertNull(RegionIndex.build(SpatialIndex.GRID, dataset(new double[][] { { 1, 2 }, { 3 } }).values(), 1));
+	}
+
+	@Test
+	public void parallelScanFindsTheSameClusters() {
+		Random rand = new Random(5);
+		double[][] coordinates = new double[3000][2];
+		for (int p = 0; p < coordinates.length; p++) {
+			// clusters touching each other, so some border points are next to two of them
+			coordinates[p][0] = rand.nextGaussian() + (p % 6) * 3;
+			coordinates[p][1] = rand.nextGaussian() * 2;
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int minPoints : new int[] { 3, 12 }) {
+				HashMap<Integer, DBPoint> expected = dataset(coordinates);
+				new DBScan().scan(expected, 0.2, minPoints);
+				HashMap<Integer, DBPoint> dataset = dataset(coordinates);
+				new ParallelDBScan(pool).scan(dataset, 0.2, minPoints);
+				assertArrayEquals(clusters(expected), clusters(dataset));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void incrementalScanFollowsTheUpdates() {
+		Random rand = new Random(9);
+		IncrementalDBScan incremental = new IncrementalDBScan(0.4, 5);
+		HashMap<Integer, Integer> logged = new HashMap<>();
+		List<Integer> ids = new ArrayList<>();
+		int nextId = 0;
+		for (int batch = 0; batch < 30; batch++) {
+			List<DBPoint> insertions = new ArrayList<>();
+			for (int i = 0; i < 60; i++) {
+				// clusters drifting apart and back, so they merge and split
+				double shift = (nextId % 3) * (2 + Math.sin(batch / 3.0));
+				insertions.add(new DBPoint(nextId, new double[] { rand.nextGaussian() * 0.6 + shift, rand.nextGaussian() * 0.6 }));
+				ids.add(nextId++);
+			}
+			List<Integer> deletions = new ArrayList<>();
+			while (ids.size() > 400 && deletions.size() < 60) {
+				deletions.add(ids.remove(rand.nextInt(ids.size() / 2)));
+			}
+			for (IncrementalDBScan.Change change : incremental.update(insertions, deletions)) {
+				assertEquals(change.from, logged.containsKey(change.id) ? (int) logged.get(change.id) : DBPoint.Undefined);
+				if (change.to == DBPoint.Undefined) {
+					logged.remove(change.id);
+				} else {
+					logged.put(change.id, change.to);
+				}
+			}
+
+			HashMap<Integer, DBPoint> expected = new HashMap<>();
+			for (DBPoint point : incremental.getPoints().values()) {
+				expected.put(point.id, new DBPoint(point.id, point.getCoordinates()));
+			}
+			new DBScan(SpatialIndex.NONE).scan(expected, 0.4, 5);
+
+			// same partition of the core points, same noise, border points next to their cluster
+			HashMap<Integer, Integer> clusterIds = new HashMap<>();
+			for (DBPoint point : expected.values()) {
+				int cluster = incremental.getCluster(point.id);
+				assertEquals(cluster, (int) logged.get(point.id));
+				assertEquals(point.getCluster() == DBPoint.Noise, cluster == DBPoint.Noise);
+				boolean core = point.regionQuery(expected.values(), 0.4).size() >= 5;
+				if (core) {
+					Integer mapped = clusterIds.put(point.getCluster(), cluster);
+					assertTrue(mapped == null || mapped == cluster);
+				}
+			}
+			assertEquals(clusterIds.size(), incremental.getClusterCount());
+			assertEquals(clusterIds.size(), new HashSet<Integer>(clusterIds.values()).size());
+			for (DBPoint point : expected.values()) {
+				if (point.getCluster() != DBPoint.Noise && point.regionQuery(expected.values(), 0.4).size() < 5) {
+					boolean nextToIt = false;
+					for (DBPoint neighbor : point.regionQuery(expected.values(), 0.4)) {
+						nextToIt |= neighbor.regionQuery(expected.values(), 0.4).size() >= 5 && clusterIds.get(neighbor.getCluster()) == incremental.getCluster(point.id);
+					}
+					assertTrue(nextToIt);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void cachedNeighborhoodsGiveTheSameClusters() {
+		double[][] coordinates = coordinates(new Random(13), 1200, 2);
+		NeighborhoodCache cache = new NeighborhoodCache();
+		HashMap<Integer, DBPoint> dataset = dataset(coordinates);
+		DBScan cached = new DBScan(SpatialIndex.GRID, cache);
+		for (double eps : new double[] { 0.75, 0.5, 0.75, 0.25 }) {
+			long misses = cache.getMisses();
+			cached.scan(dataset, eps, 4);
+			HashMap<Integer, DBPoint> expected = dataset(coordinates);
+			new DBScan(SpatialIndex.NONE).scan(expected, eps, 4);
+			assertArrayEquals(clusters(expected), clusters(dataset));
+			// smaller radii are filtered from the neighborhoods kept
+			if (eps < 0.75) {
+				assertEquals(misses, cache.getMisses());
+			}
+		}
+
+		NeighborhoodCache small = new NeighborhoodCache(2000);
+		HashMap<Integer, DBPoint> bounded = dataset(coordinates);
+		new DBScan(SpatialIndex.GRID, small).scan(bounded, 0.5, 4);
+		assertTrue(small.size() <= 2000);
+		HashMap<Integer, DBPoint> expected = dataset(coordinates);
+		new DBScan(SpatialIndex.NONE).scan(expected, 0.5, 4);
+		assertArrayEquals(clusters(expected), clusters(bounded));
+	}
+
+	@Test
+	public void replacedPointsAreSearchedAgain() {
+		HashMap<Integer, DBPoint> dataset = new HashMap<>();
+		for (int p = 0; p < 6; p++) {
+			dataset.put(p, new DBPoint(p, new double[] { p * 0.1, 0 }));
+		}
+		DBScan reused = new DBScan();
+		reused.scan(dataset, 0.15, 2);
+		assertEquals(1, dataset.get(0).getCluster());
+
+		// same size, other points under the same ids, then under a new id
+		for (int p = 0; p < 6; p++) {
+			dataset.put(p, new DBPoint(p, new double[] { p * 10, 0 }));
+		}
+		reused.scan(dataset, 0.15, 2);
+		for (DBPoint point : dataset.values()) {
+			assertEquals(DBPoint.Noise, point.getCluster());
+		}
+		dataset.remove(5);
+		dataset.put(6, new DBPoint(6, new double[] { 40.1, 0 }));
+		reused.scan(dataset, 0.15, 2);
+		HashMap<Integer, DBPoint> expected = new HashMap<>();
+		for (DBPoint point : dataset.values()) {
+			expected.put(point.id, new DBPoint(point.id, point.getCoordinates()));
+		}
+		new DBScan().scan(expected, 0.15, 2);
+		for (DBPoint point : dataset.values()) {
+			assertEquals(expected.get(point.id).getCluster(), point.getCluster());
+		}
+	}
+
+	@Test
+	public void nearPointsUseTheirOwnRadius() {
+		HashMap<Integer, DBPoint> dataset = new HashMap<>();
+		for (int p = 0; p < 5; p++) {
+			dataset.put(p, new DBPoint(p, new double[] { p * 0.1, 0 }));
+		}
+		// out of eps of the cluster, within epsNear
+		dataset.put(5, new DBPoint(5, new double[] { 0.4 + 0.3, 0 }));
+		dataset.put(6, new DBPoint(6, new double[] { 5, 5 }));
+		NeighborhoodCache cache = new NeighborhoodCache();
+		for (int scan = 0; scan < 2; scan++) {
+			new DBScanNear(dataset, 0.15, 0.35, 2, SpatialIndex.GRID, cache).scan();
+			assertEquals(DBPoint.NearPoint, dataset.get(5).getType());
+			assertEquals(dataset.get(0).getCluster(), dataset.get(5).getCluster());
+			assertEquals(DBPoint.CorePoint, dataset.get(2).getType());
+			assertEquals(DBPoint.Noise, dataset.get(6).getType());
+		}
+	}
+
+	@Test
+	public void singlePassFindsTheSameNearPoints() {
+		double[][] coordinates = coordinates(new Random(17), 1500, 3);
+
+		HashMap<Integer, DBPoint> expected = dataset(coordinates);
+		new DBScanNear(expected, 0.5, 1.0, 5, SpatialIndex.NONE).scan();
+		HashMap<Integer, DBPoint> dataset = dataset(coordinates);
+		new DBScanNear(dataset, 0.5, 1.0, 5).scanSinglePass();
+		assertArrayEquals(clusters(expected), clusters(dataset));
+
+		// every eps from one search of the neighborhoods
+		double[] epsValues = { 0.25, 0.5, 0.75, 1.25 };
+		List<DBScanNear.Clustering> sweep = new DBScanNear(dataset(coordinates), 0, 1.0, 5).sweep(epsValues);
+		assertEquals(epsValues.length, sweep.size());
+		for (int i = 0; i < epsValues.length; i++) {
+			HashMap<Integer, DBPoint> scanned = dataset(coordinates);
+			new DBScanNear(scanned, epsValues[i], 1.0, 5, SpatialIndex.NONE).scan();
+			int clusterCount = 0;
+			for (DBPoint point : scanned.values()) {
+				assertEquals(point.getCluster(), sweep.get(i).getCluster(point.id));
+				assertEquals(point.getType(), sweep.get(i).getType(point.id));
+				clusterCount = Math.max(clusterCount, point.getCluster());
+			}
+			assertEquals(clusterCount, sweep.get(i).getClusterCount());
+		}
+	}
+}
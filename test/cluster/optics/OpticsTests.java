@@ -0,0 +1,235 @@
+package cluster.optics;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cluster.dbscan.DBScan;
+import cluster.dbscan.SpatialIndex;
+import distance.PairwiseDistance;
+
+public class OpticsTests {
+
+	/**
+	 * Points in four clusters of different spreads, rounded so some are
+	 * duplicates or right at eps of others
+	 */
+	private HashMap<Integer, DBPoint> dataset(Random rand, int count, int dimensions) {
+		HashMap<Integer, DBPoint> dataset = new HashMap<>();
+		for (int p = 0; p < count; p++) {
+			double[] coordinates = new double[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				coordinates[d] = Math.round((rand.nextGaussian() * (1 + p % 4) / 2 + (p % 4) * 8) * 4) / 4.0;
+			}
+			dataset.put(p, new DBPoint(coordinates));
+		}
+		return dataset;
+	}
+
+	@Test
+	public void reachabilityIsFromTheClosestCorePointBefore() {
+		HashMap<Integer, DBPoint> dataset = dataset(new Random(3), 600, 2);
+		double eps = 1.5;
+		int minPoints = 5;
+		ReachabilityPlot plot = new Optics().order(dataset, eps, minPoints);
+
+		int[] order = plot.getOrder();
+		assertEquals(dataset.size(), order.length);
+		boolean[] seen = new boolean[dataset.size()];
+		for (int position = 0; position < order.length; position++) {
+			assertFalse(seen[order[position]]);
+			seen[order[position]] = true;
+
+			// core distance, by brute force
+			DBPoint point = dataset.get(order[position]);
+			double[] distances = new double[dataset.size()];
+			int count = 0;
+			for (DBPoint other : dataset.values()) {
+				if (other != point && eps >= point.distanceTo(other)) {
+					distances[count++] = point.distanceTo(other);
+				}
+			}
+			Arrays.sort(distances, 0, count);
+			double coreDistance = count >= minPoints ? distances[minPoints - 1] : Double.POSITIVE_INFINITY;
+			assertEquals(coreDistance, plot.getCoreDistances()[position], 0);
+
+			// reachability, from the core points before it
+			double reachability = Double.POSITIVE_INFINITY;
+			for (int before = 0; before < position; before++) {
+				DBPoint other = dataset.get(order[before]);
+				double distance = other.distanceTo(point);
+				if (eps >= distance && !Double.isInfinite(plot.getCoreDistances()[before])) {
+					reachability = Math.min(reachability, Math.max(plot.getCoreDistances()[before], distance));
+				}
+			}
+			assertEquals(reachability, plot.getReachability()[position], 0);
+		}
+	}
+
+	@Test
+	public void indexesGiveTheSameOrdering() {
+		for (int dimensions : new int[] { 2, 5 }) {
+			HashMap<Integer, DBPoint> dataset = dataset(new Random(dimensions), 1500, dimensions);
+			double eps = dimensions == 2 ? 1 : 2.5;
+
+			ReachabilityPlot expected = new Optics(SpatialIndex.NONE).order(dataset, eps, 4);
+			for (SpatialIndex index : new SpatialIndex[] { SpatialIndex.GRID, SpatialIndex.RTREE }) {
+				ReachabilityPlot plot = new Optics(index).order(dataset, eps, 4);
+				assertArrayEquals(index + " in " + dimensions + "D", expected.getOrder(), plot.getOrder());
+				assertArrayEquals(expected.getReachability(), plot.getReachability(), 0);
+				assertArrayEquals(expected.getCoreDistances(), plot.getCoreDistances(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void distancesLookedUpGiveTheSameOrdering() {
+		HashMap<Integer, DBPoint> dataset = dataset(new Random(5), 400, 3);
+		PairwiseDistance distances = new PairwiseDistance() {
+			@Override
+			public int size() {
+				return dataset.size();
+			}
+
+			@Override
+			public double distance(int i, int j) {
+				return dataset.get(i).distanceTo(dataset.get(j));
+			}
+		};
+
+		ReachabilityPlot expected = new Optics().order(dataset, 2, 6);
+		ReachabilityPlot plot = new Optics(distances).order(dataset, 2, 6);
+		assertArrayEquals(expected.getOrder(), plot.getOrder());
+		assertArrayEquals(expected.getReachability(), plot.getReachability(), 0);
+	}
+
+	@Test
+	public void pointsKeepTheirOwnReachability() {
+		HashMap<Integer, DBPoint> dataset = new HashMap<>();
+		for (int p = 0; p < 4; p++) {
+			dataset.put(p, new DBPoint(new double[] { p * p, 0 }));
+		}
+		ReachabilityPlot plot = new Optics().optics(dataset, 10, 1);
+
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, plot.getOrder());
+		assertArrayEquals(new double[] { Double.POSITIVE_INFINITY, 1, 3, 5 }, plot.getReachability(), 0);
+		assertEquals(DBPoint.Undefined, dataset.get(0).getReachabilityDistance(), 0);
+		assertEquals(1, dataset.get(1).getReachabilityDistance(), 0);
+		assertEquals(3, dataset.get(2).getReachabilityDistance(), 0);
+		assertEquals(5, dataset.get(3).getReachabilityDistance(), 0);
+	}
+
+	@Test
+	public void heapPollsInKeyOrderAfterDecreases() {
+		Random rand = new Random(9);
+		IndexedMinHeap heap = new IndexedMinHeap(500);
+		double[] keys = new double[500];
+		for (int item = 0; item < 500; item++) {
+			keys[item] = rand.nextInt(100);
+			assertTrue(heap.offer(item, keys[item]));
+		}
+		for (int i = 0; i < 1000; i++) {
+			int item = rand.nextInt(500);
+			double key = rand.nextInt(100);
+			assertEquals(key < keys[item], heap.offer(item, key));
+			keys[item] = Math.min(keys[item], key);
+		}
+
+		int last = -1;
+		double lastKey = Double.NEGATIVE_INFINITY;
+		while (!heap.isEmpty()) {
+			int item = heap.poll();
+			assertFalse(heap.contains(item));
+			assertEquals(keys[item], heap.key(item), 0);
+			assertTrue(keys[item] > lastKey || (keys[item] == lastKey && item > last));
+			last = item;
+			lastKey = keys[item];
+		}
+	}
+
+	@Test
+	public void extractedClustersAreThoseOfDBScan() {
+		HashMap<Integer, DBPoint> dataset = dataset(new Random(13), 2000, 2);
+		int minPoints = 5;
+		ReachabilityPlot plot = new Optics().order(dataset, 2, minPoints);
+
+		for (double eps : new double[] { 0.25, 0.5, 1, 2 }) {
+			HashMap<Integer, cluster.dbscan.DBPoint> scanned = new HashMap<>();
+			for (int id : dataset.keySet()) {
+				scanned.put(id, new cluster.dbscan.DBPoint(id, dataset.get(id).getCoordinates()));
+			}
+			new DBScan(SpatialIndex.NONE).scan(scanned, eps, minPoints);
+
+			// core points in the same clusters, noise stays noise
+			int[] clusters = OpticsExtraction.dbscan(plot, eps);
+			HashMap<Integer, Integer> scannedClusters = new HashMap<>();
+			HashMap<Integer, Integer> extractedClusters = new HashMap<>();
+			for (int position = 0; position < plot.size(); position++) {
+				cluster.dbscan.DBPoint point = scanned.get(plot.getOrder()[position]);
+				if (point.getCluster() == cluster.dbscan.DBPoint.Noise) {
+					assertEquals(DBPoint.Noise, clusters[position]);
+				} else if (plot.getCoreDistances()[position] <= eps) {
+					scannedClusters.putIfAbsent(point.getCluster(), clusters[position]);
+					extractedClusters.putIfAbsent(clusters[position], point.getCluster());
+					assertEquals(clusters[position], (int) scannedClusters.get(point.getCluster()));
+					assertEquals(point.getCluster(), (int) extractedClusters.get(clusters[position]));
+				}
+			}
+			assertFalse(scannedClusters.isEmpty());
+		}
+	}
+
+	@Test
+	public void xiFindsClustersOfDifferentDensities() {
+		// a dense blob, a sparse one, and a dense one inside a sparse one
+		Random rand = new Random(17);
+		double[][] centers = { { 0, 0 }, { 40, 0 }, { 80, 0 }, { 80, 0 } };
+		double[] spreads = { 0.5, 3, 6, 0.4 };
+		HashMap<Integer, DBPoint> dataset = new HashMap<>();
+		int[] blobs = new int[800];
+		for (int p = 0; p < blobs.length; p++) {
+			blobs[p] = p % 4;
+			double[] center = centers[blobs[p]];
+			dataset.put(p, new DBPoint(new double[] { center[0] + rand.nextGaussian() * spreads[blobs[p]], center[1] + rand.nextGaussian() * spreads[blobs[p]] }));
+		}
+		ReachabilityPlot plot = new Optics().order(dataset, 100, 8);
+		List<OpticsExtraction.Cluster> clusters = OpticsExtraction.xi(plot, 0.1, 50);
+
+		// each blob, alone or with the dense one it holds, is about a cluster
+		int[][] expected = { { 0 }, { 1 }, { 2, 3 }, { 3 } };
+		for (int[] blob : expected) {
+			boolean found = false;
+			for (OpticsExtraction.Cluster cluster : clusters) {
+				int inside = 0;
+				for (int p = cluster.getStart(); p <= cluster.getEnd(); p++) {
+					int point = blobs[plot.getOrder()[p]];
+					inside += point == blob[0] || point == blob[blob.length - 1] ? 1 : 0;
+				}
+				int blobSize = blob.length * blobs.length / 4;
+				found |= inside >= 0.9 * blobSize && cluster.size() <= 1.1 * blobSize;
+			}
+			assertTrue("blob " + blob[blob.length - 1] + " in " + clusters, found);
+		}
+
+		// nested clusters come first
+		for (int c = 0; c < clusters.size(); c++) {
+			for (int after = c + 1; after < clusters.size(); after++) {
+				assertFalse(clusters.get(c).contains(clusters.get(after)) && !clusters.get(after).contains(clusters.get(c)));
+			}
+		}
+		int[] labels = OpticsExtraction.labels(plot, clusters);
+		HashMap<Integer, Integer> labelsOfBlobs = new HashMap<>();
+		for (int p = 0; p < labels.length; p++) {
+			if (labels[p] != DBPoint.Noise) {
+				labelsOfBlobs.merge(labels[p], 1, Integer::sum);
+			}
+		}
+		// the dense blob inside the sparse one is labeled, not the sparse one
+		assertEquals(3, labelsOfBlobs.size());
+	}
+}
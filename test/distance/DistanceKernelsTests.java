@@ -0,0 +1,68 @@
+package distance;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import utilities.DataFrame;
+import utilities.SV;
+
+public class DistanceKernelsTests {
+
+	@Test
+	public void kernelsMatchPlainLoops() {
+		Random rand = new Random(1);
+		// lengths with and without leftovers after the four lanes
+		for (int length = 0; length < 12; length++) {
+			double[] a = new double[length + 3];
+			double[] b = new double[length + 1];
+			for (int i = 0; i < a.length; i++) {
+				a[i] = rand.nextGaussian();
+			}
+			for (int i = 0; i < b.length; i++) {
+				b[i] = rand.nextGaussian();
+			}
+
+			double squared = 0, l1 = 0, dot = 0, centered = 0;
+			for (int i = 0; i < length; i++) {
+				double diff = a[3 + i] - b[1 + i];
+				squared += diff * diff;
+				l1 += Math.abs(diff);
+				dot += a[3 + i] * b[1 + i];
+				centered += (a[3 + i] - 0.5) * (b[1 + i] + 2);
+			}
+			assertEquals(squared, DistanceKernels.squaredL2(a, 3, b, 1, length), 1e-12);
+			assertEquals(l1, DistanceKernels.l1(a, 3, b, 1, length), 1e-12);
+			assertEquals(dot, DistanceKernels.dot(a, 3, b, 1, length), 1e-12);
+			assertEquals(centered, DistanceKernels.centeredDot(a, 3, 0.5, b, 1, -2, length), 1e-12);
+		}
+	}
+
+	@Test
+	public void viewsAndShiftedVectorsGiveTheSameDistances() {
+		double[][] rows = { { 1, 2, 3, 4, 5 }, { 2, 4, 1, 0, 9 } };
+		DataFrame rowMajor = new DataFrame(DataFrame.Layout.ROW_MAJOR);
+		DataFrame columnMajor = new DataFrame(DataFrame.Layout.COLUMN_MAJOR);
+		for (double[] row : rows) {
+			rowMajor.addRow(row);
+			columnMajor.addRow(row);
+		}
+		SV a = new SV(rows[0]);
+		// starts past the beginning of its array
+		SV b = new SV(0d, 2d, 4d, 1d, 0d);
+		b.shift(9d);
+
+		for (SV[] pair : new SV[][] { { a, b }, { rowMajor.getRowData(0), rowMajor.getRowData(1) }, { columnMajor.getRowData(0), columnMajor.getRowData(1) } }) {
+			assertEquals(Math.sqrt(1 + 4 + 4 + 16 + 16), SVDistances.distEuclidian(pair[0], pair[1]), 1e-12);
+			assertEquals((1 + 2 + 2 + 4 + 4) / 5d, SVDistances.distManhattan(pair[0], pair[1]), 1e-12);
+			assertEquals(SVDistances.distPearson(a, b), SVDistances.distPearson(pair[0], pair[1]), 1e-12);
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rangesMustFitTheirArrays() {
+		DistanceKernels.squaredL2(new double[4], 1, new double[4], 0, 4);
+	}
+}
@@ -0,0 +1,107 @@
+package distance;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import cluster.dbscan.DBPoint;
+import cluster.dbscan.DBScan;
+import outlier.LocalOutlierFactor;
+import utilities.DataFrame;
+import utilities.SV;
+
+public class DistanceMatrixTests {
+
+	private List<SV> points(Random rand, int count, int dimensions) {
+		List<SV> points = new ArrayList<SV>();
+		for (int p = 0; p < count; p++) {
+			double[] point = new double[dimensions];
+			for (int i = 0; i < dimensions; i++) {
+				point[i] = rand.nextGaussian() + (p % 3) * 5;
+			}
+			points.add(new SV(point));
+		}
+		return points;
+	}
+
+	@Test
+	public void layoutsHoldTheComputedDistances() {
+		// more points than a tile, and not a multiple of it
+		List<SV> points = points(new Random(1), 150, 7);
+		DataFrame frame = new DataFrame();
+		for (SV point : points) {
+			frame.addRow(point);
+		}
+		for (DistanceMatrix.Layout layout : DistanceMatrix.Layout.values()) {
+			DistanceMatrix exact = DistanceMatrix.compute(frame, DistanceMatrix.EUCLIDEAN, layout, DistanceMatrix.Precision.DOUBLE);
+			DistanceMatrix rounded = DistanceMatrix.compute(points, DistanceMatrix.MANHATTAN, layout, DistanceMatrix.Precision.FLOAT);
+			assertEquals(150, exact.size());
+			for (int i = 0; i < points.size(); i++) {
+				for (int j = 0; j < points.size(); j++) {
+					assertEquals(SVDistances.distEuclidian(points.get(i), points.get(j)), exact.distance(i, j), 0.0);
+					assertEquals((float) (double) SVDistances.distManhattan(points.get(i), points.get(j)), rounded.distance(i, j), 0.0);
+				}
+			}
+		}
+		assertEquals(150L * 149 / 2 * 4, DistanceMatrix.bytesNeeded(150, DistanceMatrix.Layout.CONDENSED, DistanceMatrix.Precision.FLOAT));
+		assertEquals(150L * 150 * 8, DistanceMatrix.bytesNeeded(150, DistanceMatrix.Layout.FULL, DistanceMatrix.Precision.DOUBLE));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void positionsMustBeThoseOfPoints() {
+		DistanceMatrix.compute(points(new Random(1), 3, 2), DistanceMatrix.EUCLIDEAN, DistanceMatrix.Layout.CONDENSED, DistanceMatrix.Precision.DOUBLE).distance(0, 3);
+	}
+
+	@Test
+	public void algorithmsGiveTheSameResultsWithTheMatrix() {
+		List<SV> points = points(new Random(2), 200, 3);
+		DistanceMatrix matrix = DistanceMatrix.compute(points, DistanceMatrix.EUCLIDEAN, DistanceMatrix.Layout.CONDENSED, DistanceMatrix.Precision.DOUBLE);
+
+		HashMap<SV, Double> computed = new LocalOutlierFactor(5, points, SVDistances::distEuclidian).LOF();
+		HashMap<SV, Double> lookedUp = new LocalOutlierFactor(5, points, matrix).LOF();
+		assertEquals(computed, lookedUp);
+
+		HashMap<Integer, DBPoint> dataset = new HashMap<Integer, DBPoint>();
+		HashMap<Integer, DBPoint> copy = new HashMap<Integer, DBPoint>();
+		for (int i = 0; i < points.size(); i++) {
+			dataset.put(i, new DBPoint(i, points.get(i).toDoubleArray()));
+			copy.put(i, new DBPoint(i, points.get(i).toDoubleArray()));
+		}
+		new DBScan().scan(dataset, 1.0, 4);
+		new DBScan(DBScan.distanceMatrix(copy, DistanceMatrix.Layout.FULL, DistanceMatrix.Precision.DOUBLE)).scan(copy, 1.0, 4);
+		for (int i = 0; i < points.size(); i++) {
+			assertEquals(dataset.get(i).getCluster(), copy.get(i).getCluster());
+		}
+	}
+
+	@Test
+	public void tilesSpreadOverThePool() {
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			double[] components = new double[300];
+			for (int i = 0; i < components.length; i++) {
+				components[i] = i % 17;
+			}
+			DistanceMatrix matrix = DistanceMatrix.compute(components, 300, 1, DistanceMatrix.MANHATTAN, DistanceMatrix.Layout.FULL, DistanceMatrix.Precision.DOUBLE, pool);
+			for (int i = 0; i < 300; i++) {
+				for (int j = 0; j < 300; j++) {
+					assertEquals(Math.abs(i % 17 - j % 17), matrix.distance(i, j), 0.0);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void componentsPastAnArrayAreRefused() {
+		assertEquals(6, DistanceMatrix.componentCount(2, 3));
+		DistanceMatrix.componentCount(1 << 16, 1 << 16);
+	}
+}
@@ -0,0 +1,120 @@
+package distance;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import outlier.LocalOutlierFactor;
+import utilities.SV;
+
+public class KNNGraphTests {
+
+	private List<SV> points(Random rand, int count, int dimensions) {
+		List<SV> points = new ArrayList<SV>();
+		for (int p = 0; p < count; p++) {
+			double[] point = new double[dimensions];
+			for (int i = 0; i < dimensions; i++) {
+				point[i] = rand.nextGaussian() + (p % 5) * 4;
+			}
+			points.add(new SV(point));
+		}
+		return points;
+	}
+
+	@Test
+	public void exactGraphHoldsTheClosestPoints() {
+		List<SV> points = points(new Random(1), 300, 4);
+		KNNGraph graph = KNNGraph.build(points, 6, DistanceMatrix.EUCLIDEAN);
+		assertEquals(300, graph.size());
+		assertEquals(6, graph.getNeighborCount());
+
+		for (int p = 0; p < points.size(); p++) {
+			final SV point = points.get(p);
+			Integer[] others = new Integer[points.size()];
+			for (int i = 0; i < others.length; i++) {
+				others[i] = i;
+			}
+			Arrays.sort(others, (a, b) -> Double.compare(SVDistances.distEuclidian(point, points.get(a)), SVDistances.distEuclidian(point, points.get(b))));
+			int rank = 0;
+			for (int other : others) {
+				if (other == p) {
+					continue;
+				}
+				if (rank == 6) {
+					break;
+				}
+				assertEquals(other, graph.getNeighbor(p, rank));
+				assertEquals(SVDistances.distEuclidian(point, points.get(other)), graph.getDistance(p, rank), 0.0);
+				rank++;
+			}
+			assertEquals(graph.getDistance(p, 5), graph.getKDistance(p), 0.0);
+		}
+	}
+
+	@Test
+	public void fewerPointsThanNeighbors() {
+		KNNGraph graph = KNNGraph.build(points(new Random(1), 3, 2), 5, DistanceMatrix.EUCLIDEAN);
+		assertEquals(2, graph.getNeighborCount());
+		assertEquals(2, graph.getNeighbors(0).length);
+		assertEquals(0, KNNGraph.build(new ArrayList<SV>(), 5, DistanceMatrix.EUCLIDEAN).size());
+	}
+
+	@Test
+	public void nnDescentFindsMostNeighbors() {
+		Random rand = new Random(2);
+		int size = 4000;
+		int dimensions = 8;
+		double[] components = new double[size * dimensions];
+		for (int i = 0; i < components.length; i++) {
+			components[i] = rand.nextGaussian() + (i / dimensions % 20) * 3;
+		}
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			KNNGraph exact = KNNGraph.build(components, size, dimensions, 10, DistanceMatrix.EUCLIDEAN, pool);
+			KNNGraph approximate = KNNGraph.buildApproximate(components, size, dimensions, 10, DistanceMatrix.EUCLIDEAN, 10, 0.5, 0.001, 3, pool);
+			assertEquals(1.0, exact.recall(exact), 0.0);
+			assertTrue("recall " + approximate.recall(exact), approximate.recall(exact) > 0.9);
+			for (int p = 0; p < size; p++) {
+				for (int rank = 1; rank < 10; rank++) {
+					assertTrue(approximate.getDistance(p, rank - 1) <= approximate.getDistance(p, rank));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void serializedGraphIsTheSame() throws Exception {
+		KNNGraph graph = KNNGraph.build(points(new Random(3), 100, 3), 4, DistanceMatrix.MANHATTAN);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(graph);
+		}
+		KNNGraph read;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			read = (KNNGraph) in.readObject();
+		}
+		for (int p = 0; p < graph.size(); p++) {
+			assertArrayEquals(graph.getNeighbors(p), read.getNeighbors(p));
+			assertArrayEquals(graph.getDistances(p), read.getDistances(p), 0.0);
+		}
+	}
+
+	@Test
+	public void outlierFactorsFromTheGraph() {
+		List<SV> points = points(new Random(4), 250, 3);
+		KNNGraph graph = KNNGraph.build(points, 5, DistanceMatrix.EUCLIDEAN);
+		assertEquals(new LocalOutlierFactor(5, points, SVDistances::distEuclidian).LOF(), new LocalOutlierFactor(points, SVDistances::distEuclidian, graph).LOF());
+	}
+}
@@ -0,0 +1,110 @@
+package distance;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import outlier.LocalOutlierFactor;
+import utilities.SV;
+
+public class LSHIndexTests {
+
+	/**
+	 * Points around a few centers
+	 */
+	private List<SV> clusters(Random rand, int count, int dimensions) {
+		double[][] centers = new double[8][dimensions];
+		Random centerRand = new Random(1);
+		for (double[] center : centers) {
+			for (int i = 0; i < dimensions; i++) {
+				center[i] = centerRand.nextGaussian() * 20;
+			}
+		}
+		List<SV> points = new ArrayList<SV>();
+		for (int p = 0; p < count; p++) {
+			double[] center = centers[rand.nextInt(centers.length)];
+			double[] point = new double[dimensions];
+			for (int i = 0; i < dimensions; i++) {
+				point[i] = center[i] + rand.nextGaussian();
+			}
+			points.add(new SV(point));
+		}
+		return points;
+	}
+
+	private List<SV> bruteForce(List<SV> dataset, SV query, int k) {
+		List<SV> others = new ArrayList<SV>(dataset);
+		others.remove(query);
+		others.sort((a, b) -> Double.compare(SVDistances.distEuclidian(query, a), SVDistances.distEuclidian(query, b)));
+		return others.subList(0, k);
+	}
+
+	@Test
+	public void euclideanFindsMostNeighborsFromFewCandidates() {
+		Random rand = new Random(3);
+		List<SV> dataset = clusters(rand, 20_000, 10);
+		LSHIndex index = new LSHIndex(LSHIndex.Family.EUCLIDEAN, 10, 12, 10, 12.0, 7);
+		index.addAll(dataset);
+		assertEquals(dataset.size(), index.size());
+
+		int found = 0;
+		long candidates = 0;
+		for (int q = 0; q < 50; q++) {
+			SV query = dataset.get(rand.nextInt(dataset.size()));
+			candidates += index.candidates(query).length;
+			HashSet<SV> expected = new HashSet<SV>(bruteForce(dataset, query, 10));
+			for (SV neighbor : index.nearestNeighbors(query, 10, SVDistances::distEuclidian)) {
+				if (expected.contains(neighbor)) {
+					found++;
+				}
+			}
+		}
+		assertTrue("recall " + found / 500d, found >= 0.9 * 500);
+		assertTrue("candidates " + candidates / 50, candidates / 50 < dataset.size() / 10);
+	}
+
+	@Test
+	public void hyperplanesGroupByAngle() {
+		LSHIndex cosine = new LSHIndex(LSHIndex.Family.COSINE, 3, 4, 8, 0, 11);
+		SV base = new SV(1d, 2d, 3d);
+		cosine.add(base);
+		cosine.add(new SV(-1d, -2d, -3d));
+		// same direction, any length
+		int[] candidates = cosine.candidates(new SV(10d, 20d, 30d));
+		assertArrayEquals(new int[] { 0 }, candidates);
+
+		// Pearson ignores shifts as well
+		LSHIndex pearson = new LSHIndex(LSHIndex.Family.PEARSON, 3, 4, 8, 0, 11);
+		pearson.add(base);
+		assertArrayEquals(new int[] { 0 }, pearson.candidates(new SV(101d, 102d, 103d)));
+	}
+
+	@Test
+	public void streamingOutlierScores() {
+		Random rand = new Random(5);
+		List<SV> dataset = clusters(rand, 2_000, 4);
+		LSHIndex index = new LSHIndex(LSHIndex.Family.EUCLIDEAN, 4, 10, 4, 4.0, 7);
+		LocalOutlierFactor indexed = new LocalOutlierFactor(5, new ArrayList<SV>(dataset), SVDistances::distEuclidian, index);
+
+		// far from every cluster
+		SV outlier = new SV(500d, 500d, 500d, 500d);
+		indexed.addPoint(outlier);
+		assertEquals(dataset.size() + 1, index.size());
+
+		HashMap<SV, Double> scores = indexed.LOF();
+		SV inlier = dataset.get(0);
+		assertTrue(scores.get(outlier) > 10);
+		assertEquals(1, scores.get(inlier), 0.5);
+
+		// the same neighbors as the full scan for points well inside clusters
+		List<SV> withIndex = indexed.nearestNeighbors(5, inlier, indexed.dataset);
+		LocalOutlierFactor scanned = new LocalOutlierFactor(5, indexed.dataset, SVDistances::distEuclidian);
+		assertEquals(scanned.nearestNeighbors(5, inlier, scanned.dataset), withIndex);
+	}
+}
@@ -0,0 +1,124 @@
+package outlier;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import distance.DistanceMatrix;
+import distance.KNNGraph;
+import distance.SVDistances;
+import utilities.SV;
+
+public class LocalOutlierFactorTests {
+
+	private List<SV> points(Random rand, int count) {
+		List<SV> points = new ArrayList<SV>();
+		for (int p = 0; p < count; p++) {
+			points.add(new SV(rand.nextGaussian() + (p % 2) * 10, rand.nextGaussian()));
+		}
+		points.add(new SV(5d, 30d));
+		return points;
+	}
+
+	/**
+	 * The definitions, point by point
+	 */
+	private double[] reference(List<SV> points, int k) {
+		int n = points.size();
+		int[][] neighbors = new int[n][];
+		double[] kDistance = new double[n];
+		for (int p = 0; p < n; p++) {
+			final SV point = points.get(p);
+			List<Integer> others = new ArrayList<Integer>();
+			for (int o = 0; o < n; o++) {
+				if (o != p) {
+					others.add(o);
+				}
+			}
+			others.sort((a, b) -> Double.compare(SVDistances.distEuclidian(point, points.get(a)), SVDistances.distEuclidian(point, points.get(b))));
+			neighbors[p] = new int[k];
+			for (int i = 0; i < k; i++) {
+				neighbors[p][i] = others.get(i);
+			}
+			kDistance[p] = SVDistances.distEuclidian(point, points.get(neighbors[p][k - 1]));
+		}
+		double[] lrd = new double[n];
+		for (int p = 0; p < n; p++) {
+			double sum = 0;
+			for (int o : neighbors[p]) {
+				sum += Math.max(kDistance[o], SVDistances.distEuclidian(points.get(p), points.get(o)));
+			}
+			lrd[p] = k / sum;
+		}
+		double[] lof = new double[n];
+		for (int p = 0; p < n; p++) {
+			double sum = 0;
+			for (int o : neighbors[p]) {
+				sum += lrd[o];
+			}
+			lof[p] = sum / k / lrd[p];
+		}
+		return lof;
+	}
+
+	@Test
+	public void scoresFollowTheDefinition() {
+		List<SV> points = points(new Random(1), 400);
+		double[] expected = reference(points, 6);
+		double[] scores = new LocalOutlierFactor(6, points, SVDistances::distEuclidian).scores(ForkJoinPool.commonPool());
+		assertArrayEquals(expected, scores, 1e-9);
+		assertTrue(scores[points.size() - 1] > 5);
+	}
+
+	@Test
+	public void phasesShareTheGraph() {
+		List<SV> points = points(new Random(2), 300);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			KNNGraph graph = KNNGraph.build(points, 5, DistanceMatrix.EUCLIDEAN);
+			LocalOutlierFactor lof = new LocalOutlierFactor(points, SVDistances::distEuclidian, graph);
+			assertSame(graph, lof.neighborGraph(pool));
+
+			double[] kDistances = LocalOutlierFactor.kDistances(graph, pool);
+			double[] densities = LocalOutlierFactor.localReachabilityDensities(graph, kDistances, pool);
+			double[] factors = LocalOutlierFactor.outlierFactors(graph, densities, pool);
+			assertEquals(points.size(), factors.length);
+			assertArrayEquals(reference(points, 5), factors, 1e-9);
+			assertEquals(graph.getKDistance(7), kDistances[7], 0.0);
+			assertEquals(factors[12], lof.LOF().get(points.get(12)), 0.0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void incrementalScoresMatchTheWindow() {
+		Random rand = new Random(3);
+		IncrementalLocalOutlierFactor stream = new IncrementalLocalOutlierFactor(5, SVDistances::distEuclidian, 150);
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int event = 0; event < 500; event++) {
+			// rounded so some distances tie
+			SV point = new SV((double) Math.round(rand.nextGaussian() * 4) + (event % 3) * 20, (double) Math.round(rand.nextGaussian() * 4));
+			ids.add(stream.insert(point));
+			if (event % 7 == 3) {
+				int id = stream.ids().get(rand.nextInt(stream.size()));
+				stream.delete(id);
+			}
+			if (event % 50 == 49) {
+				double[] expected = new LocalOutlierFactor(5, stream.points(), SVDistances::distEuclidian).scores(ForkJoinPool.commonPool());
+				assertArrayEquals(expected, stream.scores(), 0.0);
+			}
+		}
+		assertEquals(150, stream.size());
+		assertEquals(ids.get(ids.size() - 1), stream.ids().get(149));
+
+		int outlier = stream.insert(new SV(10d, 100d));
+		assertTrue(stream.score(outlier) > 5);
+		assertEquals(5, stream.neighbors(outlier).length);
+	}
+}
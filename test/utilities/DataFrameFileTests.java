@@ -0,0 +1,171 @@
+package utilities;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Test;
+
+import distance.Mahalanobis;
+
+public class DataFrameFileTests {
+
+	private DataFrame randomFrame(int rows) {
+		Random rand = new Random(11);
+		DataFrame frame = new DataFrame(DataFrame.Layout.ROW_MAJOR);
+		for (int row = 0; row < rows; row++) {
+			frame.addRow(new double[] { row, rand.nextGaussian() * 1e3, rand.nextInt(5), row % 3 == 0 ? -0d : 0.5 });
+		}
+		return frame;
+	}
+
+	private DataFrame roundTrip(DataFrame frame, DataFrameFile.Encoding encoding) throws IOException {
+		Path file = Files.createTempFile("frame", ".dmdf");
+		try {
+			DataFrameFile.write(frame, file, encoding);
+			return DataFrameFile.read(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void exactEncodingsRoundTrip() throws IOException {
+		// Enough rows to span several buffers
+		DataFrame frame = randomFrame(20_000);
+		for (DataFrameFile.Encoding encoding : new DataFrameFile.Encoding[] { DataFrameFile.Encoding.FLOAT64,
+				DataFrameFile.Encoding.DELTA64 }) {
+			DataFrame read = roundTrip(frame, encoding);
+			assertEquals(frame.getNumberOfRows(), read.getNumberOfRows());
+			assertEquals(frame.getNumberOfColumns(), read.getNumberOfColumns());
+			for (int row = 0; row < frame.getNumberOfRows(); row++) {
+				for (int col = 0; col < frame.getNumberOfColumns(); col++) {
+					assertEquals(Double.doubleToRawLongBits(frame.getDouble(row, col)), Double.doubleToRawLongBits(read.getDouble(row, col)));
+				}
+			}
+			for (int col = 0; col < frame.getNumberOfColumns(); col++) {
+				SV expected = frame.getColumnData(col);
+				SV actual = read.getColumnData(col);
+				assertEquals(expected.getMean(), actual.getMean(), 0);
+				assertEquals(expected.getVariance(), actual.getVariance(), 0);
+				assertEquals(expected.getMin(), actual.getMin(), 0);
+				assertEquals(expected.getMax(), actual.getMax(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void deltaIsSmallerForRegularColumns() throws IOException {
+		DataFrame frame = new DataFrame();
+		for (int row = 0; row < 10_000; row++) {
+			frame.addRow(new double[] { 1_000_000 + row, 7 });
+		}
+
+		Path file = Files.createTempFile("frame", ".dmdf");
+		try {
+			DataFrameFile.write(frame, file, DataFrameFile.Encoding.FLOAT64);
+			long plain = Files.size(file);
+			DataFrameFile.write(frame, file, DataFrameFile.Encoding.DELTA64);
+			assertTrue(Files.size(file) * 3 < plain);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void float32KeepsStatsOfWhatIsRead() throws IOException {
+		DataFrame frame = randomFrame(1_000);
+		DataFrame read = roundTrip(frame, DataFrameFile.Encoding.FLOAT32);
+		for (int row = 0; row < frame.getNumberOfRows(); row++) {
+			assertEquals((float) frame.getDouble(row, 1), read.getDouble(row, 1), 0);
+		}
+
+		DataFrame rescanned = new DataFrame();
+		double[] row = new double[read.getNumberOfColumns()];
+		for (int i = 0; i < read.getNumberOfRows(); i++) {
+			rescanned.addRow(read.copyRow(i, row));
+		}
+		assertEquals(rescanned.getColumnData(1).getMean(), read.getColumnData(1).getMean(), 0);
+		assertEquals(rescanned.getColumnData(1).getVariance(), read.getColumnData(1).getVariance(), 1e-9);
+
+		double[][] expected = new Mahalanobis(rescanned).getCovarianceMatrix();
+		double[][] actual = new Mahalanobis(read).getCovarianceMatrix();
+		for (int i = 0; i < expected.length; i++) {
+			assertArrayEquals(expected[i], actual[i], 1e-9);
+		}
+	}
+
+	@Test
+	public void mappedFramesKeepTheirStats() throws IOException {
+		Path file = Files.createTempFile("frame", ".dmdf");
+		try {
+			MappedDataFrame created = MappedDataFrame.create(file, 8, 2);
+			created.addRow(new double[] { 1, 10 });
+			created.addRow(new double[] { 3, 20 });
+			created.flush();
+
+			DataFrame read = DataFrameFile.read(file);
+			assertEquals(2, read.getNumberOfRows());
+			assertEquals(2d, read.getColumnData(0).getMean(), 0);
+			assertEquals(20d, read.getColumnData(1).getMax(), 0);
+			assertEquals(15d, MappedDataFrame.open(file).getColumnData(1).getMean(), 0);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void onlyFloat64CanBeMapped() throws IOException {
+		Path file = Files.createTempFile("frame", ".dmdf");
+		try {
+			DataFrameFile.write(randomFrame(10), file, DataFrameFile.Encoding.DELTA64);
+			MappedDataFrame.open(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void corruptedCountsAreRefused() throws IOException {
+		// rows, capacity and columns out of range, each on a good file
+		long[][] corruptions = { { DataFrameFile.ROWS_OFFSET, -1 }, { DataFrameFile.ROWS_OFFSET, 11 }, { 8, 1L << 32 }, { 8, -1 } };
+		for (long[] corruption : corruptions) {
+			assertCorrupted(corruption[0], ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, corruption[1]), "corrupted header");
+		}
+		assertCorrupted(24, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, -1), "corrupted header");
+	}
+
+	@Test
+	public void corruptedColumnsAreRefused() throws IOException {
+		// offset and lengths of the first column out of range, 10 rows need 80 bytes
+		long offset = DataFrameFile.HEADER_SIZE + 64;
+		long length = DataFrameFile.HEADER_SIZE + 72;
+		long[][] corruptions = { { offset, -1 }, { offset, 0 }, { length, -1 }, { length, 72 } };
+		for (long[] corruption : corruptions) {
+			assertCorrupted(corruption[0], ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, corruption[1]), "column 0 is truncated");
+		}
+	}
+
+	private void assertCorrupted(long position, ByteBuffer value, String message) throws IOException {
+		Path file = Files.createTempFile("frame", ".dmdf");
+		try {
+			DataFrameFile.write(randomFrame(10), file, DataFrameFile.Encoding.FLOAT64);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.write(value, position);
+			}
+			DataFrameFile.read(file);
+			fail("Read a file with a corrupted header");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().endsWith(message));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
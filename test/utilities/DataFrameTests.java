@@ -40,7 +40,61 @@ public class DataFrameTests {
 					expectedMax[rowNum], expectedVars[rowNum], 0.01);
 		}
 	}
-
-
+	
+	@Test
+	public void layoutsAgree() {
+		double[][] data = { { 4.0d, 2.0d, 0.60d }, { 4.2d, 2.1d, 0.59d }, { 3.9d, 2.0d, 0.58 }, { 4.3d, 2.1d, 0.62 },
+				{ 4.1d, 2.2d, 0.63 } };
+		
+		// A capacity of 2 forces the storage to grow while rows are added
+		DataFrame byColumn = new DataFrame(DataFrame.Layout.COLUMN_MAJOR, 3, 2);
+		DataFrame byRow = new DataFrame(DataFrame.Layout.ROW_MAJOR, 3, 2);
+		for (double[] row : data) {
+			byColumn.addRow(row);
+			byRow.addRow(new SV(row));
+		}
+		
+		for (DataFrame frame : new DataFrame[] { byColumn, byRow }) {
+			assertEquals(data.length, frame.getNumberOfRows());
+			assertEquals(3, frame.getNumberOfColumns());
+			for (int row = 0; row < data.length; row++) {
+				assertArrayEquals(data[row], frame.getRowData(row).toDoubleArray(), 0);
+				assertArrayEquals(data[row], frame.copyRow(row, new double[3]), 0);
+				for (int col = 0; col < 3; col++) {
+					assertEquals(data[row][col], frame.getDouble(row, col), 0);
+					assertEquals(data[row][col], frame.getColumnData(col).getDouble(row), 0);
+				}
+			}
+			TestUtility.checkSVCorrect(frame.getColumnData(0), data.length, 4.10d, 3.9d, 4.3d, 0.025d, 0.01);
+			TestUtility.checkSVCorrect(frame.getRowData(1), 3, (4.2d + 2.1d + 0.59d) / 3, 0.59d, 4.2d, 3.28703333d, 0.01);
+		}
+	}
+	
+	@Test
+	public void viewsAreReadOnly() {
+		DataFrame frame = new DataFrame();
+		frame.addRow(new double[] { 1, 2 });
+		frame.addRow(new double[] { 3, 4 });
+		
+		SV column = frame.getColumnData(1);
+		assertEquals(new SV(2d, 4d), column);
+		try {
+			column.append(5d);
+			fail("Views can't be modified");
+		} catch (UnsupportedOperationException e) {
+		}
+		
+		// A view covers the rows that existed when it was taken
+		frame.addRow(new double[] { 5, 6 });
+		assertEquals(2, column.size());
+		assertEquals(3, frame.getColumnData(1).size());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rowsMustHaveSameDimension() {
+		DataFrame frame = new DataFrame();
+		frame.addRow(new double[] { 1, 2 });
+		frame.addRow(new double[] { 1, 2, 3 });
+	}
 	
 }
@@ -0,0 +1,103 @@
+package utilities;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cluster.dbscan.DBPoint;
+
+public class DelimitedReaderTests {
+
+	private double parse(String written) {
+		byte[] bytes = written.getBytes(StandardCharsets.US_ASCII);
+		return DelimitedReader.parseDouble(bytes, 0, bytes.length);
+	}
+
+	private void checkParse(String written) {
+		assertEquals(written, Double.doubleToLongBits(Double.parseDouble(written.trim())), Double.doubleToLongBits(parse(written)));
+	}
+
+	@Test
+	public void parsesLikeJava() {
+		String[] samples = { "0", "-0", "1", "-1", "+2.5", "3.", ".25", "0.1", "0.000123", "123456789012345",
+				"1e10", "1.5E-7", "-2.5e+3", "6.02214076e23", "4.9e-324", "1.7976931348623157E308", "123456789012345678901234",
+				"0.30000000000000004", "NaN", "-Infinity", "  42.5 " };
+		for (String sample : samples) {
+			checkParse(sample);
+		}
+
+		Random rand = new Random(3);
+		for (int i = 0; i < 100_000; i++) {
+			double value = (rand.nextDouble() - 0.5) * Math.pow(10, rand.nextInt(40) - 20);
+			checkParse(Double.toString(value));
+			checkParse(String.format("%.4f", value));
+			checkParse(Integer.toString(rand.nextInt()));
+		}
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void rejectsGarbage() {
+		parse("12a");
+	}
+
+	@Test
+	public void readsRows() throws IOException {
+		String csv = "x,y,z\r\n1,2,3\r\n\r\n4.5,-6,7e2\r\n8,9,10";
+		List<double[]> rows = new ArrayList<>();
+		int count = DelimitedReader.csv().skipLines(1).read(new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII)),
+				(rowNumber, values) -> {
+					assertEquals(rows.size(), rowNumber);
+					rows.add(values.clone());
+				});
+
+		assertEquals(3, count);
+		assertArrayEquals(new double[] { 1, 2, 3 }, rows.get(0), 0);
+		assertArrayEquals(new double[] { 4.5, -6, 700 }, rows.get(1), 0);
+		assertArrayEquals(new double[] { 8, 9, 10 }, rows.get(2), 0);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsRaggedRows() throws IOException {
+		String csv = "1,2,3\n4,5\n";
+		DelimitedReader.csv().read(new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII)), (rowNumber, values) -> {
+		});
+	}
+
+	@Test
+	public void fillsFrameAndPoints() throws IOException {
+		// Enough rows to span several read chunks
+		StringBuilder tsv = new StringBuilder();
+		int rowCount = 100_000;
+		for (int row = 0; row < rowCount; row++) {
+			tsv.append(row).append('\t').append(row * 0.5).append('\t').append(-row).append('\n');
+		}
+
+		Path file = Files.createTempFile("points", ".tsv");
+		try {
+			Files.write(file, tsv.toString().getBytes(StandardCharsets.US_ASCII));
+
+			DataFrame frame = DelimitedReader.tsv().readDataFrame(file, DataFrame.Layout.ROW_MAJOR);
+			assertEquals(rowCount, frame.getNumberOfRows());
+			assertEquals(3, frame.getNumberOfColumns());
+			assertEquals(49_999.5d, frame.getColumnData(0).getMean(), 1e-9);
+			assertEquals(12_345 * 0.5d, frame.getDouble(12_345, 1), 0);
+
+			HashMap<Integer, DBPoint> points = DBPoint.readPoints(file, DelimitedReader.tsv());
+			assertEquals(rowCount, points.size());
+			assertEquals(Integer.valueOf(777), points.get(777).id);
+			assertEquals(-777d, points.get(777).values.get(2), 0);
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package utilities;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import distance.Mahalanobis;
+
+public class MappedDataFrameTests {
+
+	private double[][] data = { { 4.0d, 2.0d, 0.60d }, { 4.2d, 2.1d, 0.59d }, { 3.9d, 2.0d, 0.58 }, { 4.3d, 2.1d, 0.62 },
+			{ 4.1d, 2.2d, 0.63 } };
+
+	@Test
+	public void writeThenOpen() throws IOException {
+		DataFrame inHeap = new DataFrame();
+		for (double[] row : data) {
+			inHeap.addRow(row);
+		}
+
+		Path file = Files.createTempFile("frame", ".dmdf");
+		try {
+			MappedDataFrame.write(inHeap, file);
+			MappedDataFrame mapped = MappedDataFrame.open(file);
+
+			assertEquals(data.length, mapped.getNumberOfRows());
+			assertEquals(3, mapped.getNumberOfColumns());
+			for (int row = 0; row < data.length; row++) {
+				assertArrayEquals(data[row], mapped.getRowData(row).toDoubleArray(), 0);
+			}
+			TestUtility.checkSVCorrect(mapped.getColumnData(0), data.length, 4.10d, 3.9d, 4.3d, 0.025d, 0.01);
+
+			// Algorithms that take a DataFrame work unchanged
+			double[][] expected = new Mahalanobis(inHeap).getCovarianceMatrix();
+			double[][] actual = new Mahalanobis(mapped).getCovarianceMatrix();
+			for (int row = 0; row < expected.length; row++) {
+				assertArrayEquals(expected[row], actual[row], 0);
+			}
+
+			try {
+				mapped.addRow(data[0]);
+				fail("Opened frames are read-only");
+			} catch (UnsupportedOperationException e) {
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void createThenFill() throws IOException {
+		Path file = Files.createTempFile("frame", ".dmdf");
+		try {
+			MappedDataFrame created = MappedDataFrame.create(file, 10, 3);
+			for (double[] row : data) {
+				created.addRow(row);
+			}
+			created.flush();
+			assertEquals(data.length, created.getNumberOfRows());
+			assertEquals(0.604d, created.getColumnData(2).getMean(), 1e-12);
+
+			MappedDataFrame reopened = MappedDataFrame.open(file);
+			assertEquals(data.length, reopened.getNumberOfRows());
+			assertEquals(10, reopened.getRowCapacity());
+			for (int row = 0; row < data.length; row++) {
+				for (int col = 0; col < 3; col++) {
+					assertEquals(data[row][col], reopened.getDouble(row, col), 0);
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package utilities;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MomentsTests {
+
+	/** Straightforward two pass computation of the central moments, {mean, m2, m3, m4} */
+	private double[] twoPass(double[] data) {
+		double mean = 0;
+		for (double d : data) {
+			mean += d;
+		}
+		mean /= data.length;
+
+		double[] moments = { mean, 0, 0, 0 };
+		for (double d : data) {
+			double diff = d - mean;
+			moments[1] += diff * diff;
+			moments[2] += diff * diff * diff;
+			moments[3] += diff * diff * diff * diff;
+		}
+		return moments;
+	}
+
+	private double[] randomData(int size, long seed) {
+		Random rand = new Random(seed);
+		double[] data = new double[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = 1_000d + rand.nextGaussian() * 3d + rand.nextDouble();
+		}
+		return data;
+	}
+
+	private void checkAgainst(double[] data, Moments toTest) {
+		double[] expected = twoPass(data);
+		assertEquals("Count", data.length, toTest.getCount());
+		assertEquals("Mean", expected[0], toTest.getMean(), 1e-9);
+		assertEquals("M2", expected[1], toTest.getM2(), Math.abs(expected[1]) * 1e-9);
+		// M3 of symmetric data is near 0, so at least relative to M2^1.5, of the same units
+		assertEquals("M3", expected[2], toTest.getM3(), Math.max(Math.abs(expected[2]), Math.pow(expected[1], 1.5)) * 1e-9);
+		assertEquals("M4", expected[3], toTest.getM4(), Math.abs(expected[3]) * 1e-9);
+	}
+
+	@Test
+	public void singlePass() {
+		double[] data = randomData(10_000, 7);
+		Moments moments = new Moments();
+		for (double d : data) {
+			moments.add(d);
+		}
+		checkAgainst(data, moments);
+	}
+
+	@Test
+	public void knownShape() {
+		Moments moments = new Moments();
+		for (double d : new double[] { 2, 4, 4, 4, 5, 5, 7, 9 }) {
+			moments.add(d);
+		}
+		assertEquals(5d, moments.getMean(), 0);
+		assertEquals(4d, moments.getPopulationVariance(), 1e-12);
+		assertEquals(32d / 7d, moments.getVariance(), 1e-12);
+		assertEquals(0.65625d, moments.getSkewness(), 1e-12);
+		assertEquals(-0.21875d, moments.getKurtosis(), 1e-12);
+		assertEquals(2d, moments.getMin(), 0);
+		assertEquals(9d, moments.getMax(), 0);
+	}
+
+	@Test
+	public void mergeMatchesSinglePass() {
+		double[] data = randomData(9_999, 11);
+		Moments[] parts = { new Moments(), new Moments(), new Moments() };
+		for (int i = 0; i < data.length; i++) {
+			// Uneven parts on purpose
+			parts[i % 7 == 0 ? 0 : (i < 5_000 ? 1 : 2)].add(data[i]);
+		}
+
+		Moments merged = new Moments().merge(parts[0]).merge(parts[1]).merge(parts[2]);
+		checkAgainst(data, merged);
+	}
+
+	@Test
+	public void removeReversesAdd() {
+		double[] data = randomData(1_000, 13);
+		Moments moments = new Moments();
+		for (double d : data) {
+			moments.add(d);
+		}
+		for (int i = 0; i < 400; i++) {
+			moments.remove(data[i]);
+		}
+		checkAgainst(Arrays.copyOfRange(data, 400, data.length), moments);
+	}
+
+	@Test
+	public void svTransformsKeepStats() {
+		double[] data = randomData(1_000, 17);
+
+		SV zScored = new SV(data);
+		zScored.scaleZScore();
+		checkAgainst(zScored.toDoubleArray(), zScored.getMoments());
+		assertEquals(0d, zScored.getMean(), 1e-9);
+		assertEquals(1d, zScored.getVariance(), 1e-9);
+
+		SV normalized = new SV(data);
+		normalized.normalize();
+		checkAgainst(normalized.toDoubleArray(), normalized.getMoments());
+		assertEquals(0d, normalized.getMin(), 0);
+		assertEquals(1d, normalized.getMax(), 1e-12);
+	}
+}
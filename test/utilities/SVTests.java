@@ -2,6 +2,10 @@ package utilities;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
 import org.junit.Test;
 
 public class SVTests {
@@ -26,4 +30,54 @@ public class SVTests {
 	}
 	
 	
+	@Test
+	public void primitiveAccessors() {
+		double[] components = { 3.5d, -1.25d, 8d, 0d };
+		SV testVector = new SV();
+		assertTrue(testVector.appendAll(components));
+		
+		assertEquals(components.length, testVector.size());
+		for (int i = 0; i < components.length; i++) {
+			assertEquals(components[i], testVector.getDouble(i), 0);
+			assertEquals(Double.valueOf(components[i]), testVector.get(i));
+		}
+		assertTrue(Arrays.equals(components, testVector.toDoubleArray()));
+		
+		// The returned array is a copy
+		testVector.toDoubleArray()[0] = 42d;
+		assertEquals(3.5d, testVector.getDouble(0), 0);
+		
+		// List contract still holds for existing callers
+		List<Double> asList = testVector;
+		assertEquals(Arrays.asList(3.5d, -1.25d, 8d, 0d), asList);
+		assertEquals(2, asList.indexOf(8d));
+		assertTrue(asList.contains(-1.25d));
+		assertFalse(asList.contains(7d));
+		assertEquals(testVector, new SV(3.5d, -1.25d, 8d, 0d));
+		
+		// a single int is still a one-component vector
+		int component = 3;
+		assertEquals(Arrays.asList(3d), new SV(component));
+		assertEquals(0, SV.withCapacity(component).size());
+	}
+	
+	@Test
+	public void shiftKeepsStats() {
+		SV window = new SV(1, 2, 3, 4);
+		for (int next = 5; next <= 1_000; next++) {
+			assertEquals(next - 4, window.shift(next), 0);
+		}
+		assertEquals(4, window.size());
+		assertTrue(Arrays.equals(new double[] { 997, 998, 999, 1000 }, window.toDoubleArray()));
+		TestUtility.checkSVCorrect(window, 4, 998.5d, 997d, 1000d, 5d / 3d, 0.0001);
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void iteratorIsReadOnly() {
+		SV testVector = new SV(1, 2, 3);
+		Iterator<Double> iterator = testVector.iterator();
+		iterator.next();
+		iterator.remove();
+	}
+	
 }